@@ -0,0 +1,138 @@
+package beanbags;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AggregateBenchmark measures the methods reading totals of the whole store
+ * or of one bean bag, and the details of a bean bag. The values returned are
+ * consumed by JMH, so the reads can't be optimised away.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AggregateBenchmark {
+
+    /**
+     * Method reads the number of bean bags in stock.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int beanBagsInStock(StoreState state) {
+        return state.store.beanBagsInStock();
+    }
+
+    /**
+     * Method reads the number of bean bags in stock of one id.
+     *
+     * @param state             filled store
+     * @return                  value read
+     * @throws Exception        if the id isn't recognised
+     */
+    @Benchmark
+    public int beanBagsInStockOfId(StoreState state) throws Exception {
+        return state.store.beanBagsInStock(state.nextId());
+    }
+
+    /**
+     * Method reads the number of reserved bean bags.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int reservedBeanBagsInStock(StoreState state) {
+        return state.store.reservedBeanBagsInStock();
+    }
+
+    /**
+     * Method reads the number of different bean bags in stock.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int getNumberOfDifferentBeanBagsInStock(StoreState state) {
+        return state.store.getNumberOfDifferentBeanBagsInStock();
+    }
+
+    /**
+     * Method reads the number of bean bags sold.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int getNumberOfSoldBeanBags(StoreState state) {
+        return state.store.getNumberOfSoldBeanBags();
+    }
+
+    /**
+     * Method reads the number of bean bags sold of one id.
+     *
+     * @param state             filled store
+     * @return                  value read
+     * @throws Exception        if the id isn't recognised
+     */
+    @Benchmark
+    public int getNumberOfSoldBeanBagsOfId(StoreState state) throws Exception {
+        return state.store.getNumberOfSoldBeanBags(state.nextId());
+    }
+
+    /**
+     * Method reads the total price of the bean bags sold.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int getTotalPriceOfSoldBeanBags(StoreState state) {
+        return state.store.getTotalPriceOfSoldBeanBags();
+    }
+
+    /**
+     * Method reads the total price of the bean bags sold of one id.
+     *
+     * @param state             filled store
+     * @return                  value read
+     * @throws Exception        if the id isn't recognised
+     */
+    @Benchmark
+    public int getTotalPriceOfSoldBeanBagsOfId(StoreState state) throws Exception {
+        return state.store.getTotalPriceOfSoldBeanBags(state.nextId());
+    }
+
+    /**
+     * Method reads the total price of the reserved bean bags.
+     *
+     * @param state             filled store
+     * @return                  value read
+     */
+    @Benchmark
+    public int getTotalPriceOfReservedBeanBags(StoreState state) {
+        return state.store.getTotalPriceOfReservedBeanBags();
+    }
+
+    /**
+     * Method reads the details of a bean bag.
+     *
+     * @param state             filled store
+     * @return                  value read
+     * @throws Exception        if the id isn't recognised
+     */
+    @Benchmark
+    public String getBeanBagDetails(StoreState state) throws Exception {
+        return state.store.getBeanBagDetails(state.nextId());
+    }
+}
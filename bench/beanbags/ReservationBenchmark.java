@@ -0,0 +1,131 @@
+package beanbags;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ReservationBenchmark measures reserving bean bags, unreserving them and
+ * selling them by reservation number.
+ * <p>
+ * Each invocation handles a batch of reservations, and the reservations a
+ * benchmark needs, or leaves behind, are made or ended outside the measured
+ * invocation, so the store keeps the same share of reserved bean bags.
+ * Sample times are of a whole batch, divided by its size. The allocation
+ * reported by {@code -prof gc} counts the whole iteration, so it includes the
+ * reservations made or ended outside the measured invocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReservationBenchmark {
+    static final int BATCH = 1000; //reservations handled by each invocation
+
+    /**
+     * Reservation numbers of a batch.
+     */
+    public abstract static class Batch {
+        final int[] reservationNumbers = new int[BATCH];
+    }
+
+    /**
+     * A batch reserved before each invocation, for the benchmarks that end
+     * reservations.
+     */
+    @State(Scope.Thread)
+    public static class Reserved extends Batch {
+
+        /**
+         * Method reserves the batch.
+         *
+         * @param state         filled store
+         * @throws Exception    if the store rejects a reservation
+         */
+        @Setup(Level.Invocation)
+        public void reserve(StoreState state) throws Exception {
+            for (int i = 0; i < BATCH; i++) {
+                this.reservationNumbers[i] = state.store.reserveBeanBags(1, state.nextId());
+            }
+        }
+    }
+
+    /**
+     * A batch unreserved after each invocation, for the benchmark that makes
+     * reservations.
+     */
+    @State(Scope.Thread)
+    public static class Pending extends Batch {
+
+        /**
+         * Method unreserves the batch.
+         *
+         * @param state         filled store
+         * @throws Exception    if the store doesn't recognise a reservation
+         */
+        @TearDown(Level.Invocation)
+        public void unreserve(StoreState state) throws Exception {
+            for (int i = 0; i < BATCH; i++) {
+                state.store.unreserveBeanBags(this.reservationNumbers[i]);
+            }
+        }
+    }
+
+    /**
+     * Method reserves one bean bag of each of the next bean bags in the store.
+     *
+     * @param state             filled store
+     * @param pending           batch ended after the invocation
+     * @throws Exception        if the store rejects a reservation
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void reserveBeanBags(StoreState state, Pending pending) throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            pending.reservationNumbers[i] = state.store.reserveBeanBags(1, state.nextId());
+        }
+    }
+
+    /**
+     * Method unreserves a batch of reservations.
+     *
+     * @param state             filled store
+     * @param reserved          batch made before the invocation
+     * @throws Exception        if the store doesn't recognise a reservation
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void unreserveBeanBags(StoreState state, Reserved reserved) throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            state.store.unreserveBeanBags(reserved.reservationNumbers[i]);
+        }
+    }
+
+    /**
+     * Method sells a batch of reservations.
+     *
+     * @param state             filled store
+     * @param reserved          batch made before the invocation
+     * @throws Exception        if the store doesn't recognise a reservation
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sellReservedBeanBags(StoreState state, Reserved reserved) throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            state.store.sellBeanBags(reserved.reservationNumbers[i]);
+        }
+    }
+}
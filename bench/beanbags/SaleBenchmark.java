@@ -0,0 +1,34 @@
+package beanbags;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SaleBenchmark measures selling bean bags by id, each time from the next
+ * bean bag of the store, without a reservation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SaleBenchmark {
+
+    /**
+     * Method sells one bean bag.
+     *
+     * @param state             filled store
+     * @throws Exception        if the store rejects the sale
+     */
+    @Benchmark
+    public void sellBeanBags(StoreState state) throws Exception {
+        state.store.sellBeanBags(1, state.nextId());
+    }
+}
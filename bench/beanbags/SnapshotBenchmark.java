@@ -0,0 +1,83 @@
+package beanbags;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SnapshotBenchmark measures saving the whole store to a file and loading
+ * it back. Each call takes up to seconds on the largest stores, so the
+ * average time of a call is reported.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+
+    /**
+     * A file holding the contents of the filled store.
+     */
+    @State(Scope.Benchmark)
+    public static class SavedFile {
+        File file;
+
+        /**
+         * Method saves the store to a new temporary file.
+         *
+         * @param state         filled store
+         * @throws IOException  if the file can't be written
+         */
+        @Setup(Level.Trial)
+        public void save(StoreState state) throws IOException {
+            this.file = File.createTempFile("beanbags", ".snapshot");
+            state.store.saveStoreContents(this.file.getPath());
+        }
+
+        /**
+         * Method deletes the file.
+         */
+        @TearDown(Level.Trial)
+        public void delete() {
+            this.file.delete();
+        }
+    }
+
+    /**
+     * Method saves the store over the file.
+     *
+     * @param state             filled store
+     * @param saved             file written
+     * @throws IOException      if the file can't be written
+     */
+    @Benchmark
+    public void saveStoreContents(StoreState state, SavedFile saved) throws IOException {
+        state.store.saveStoreContents(saved.file.getPath());
+    }
+
+    /**
+     * Method replaces the contents of the store with the file.
+     *
+     * @param state             filled store
+     * @param saved             file read
+     * @throws Exception        if the file can't be read
+     */
+    @Benchmark
+    public void loadStoreContents(StoreState state, SavedFile saved) throws Exception {
+        state.store.loadStoreContents(saved.file.getPath());
+    }
+}
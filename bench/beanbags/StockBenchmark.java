@@ -0,0 +1,47 @@
+package beanbags;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StockBenchmark measures adding bean bags to stock and setting their price,
+ * each time on the next bean bag of the store.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StockBenchmark {
+
+    /**
+     * Method adds one bean bag to an id already in stock.
+     *
+     * @param state             filled store
+     * @throws Exception        if the store rejects the bean bags
+     */
+    @Benchmark
+    public void addBeanBags(StoreState state) throws Exception {
+        int i = state.nextIndex();
+        state.store.addBeanBags(1, state.manufacturers[i], state.names[i], state.ids[i], (short) 2020, (byte) (i % 12 + 1));
+    }
+
+    /**
+     * Method sets the price of a bean bag, alternating between two prices.
+     *
+     * @param state             filled store
+     * @throws Exception        if the store rejects the price
+     */
+    @Benchmark
+    public void setBeanBagPrice(StoreState state) throws Exception {
+        int i = state.nextIndex();
+        state.store.setBeanBagPrice(state.ids[i], 100 + i % 1000 + (i & 1));
+    }
+}
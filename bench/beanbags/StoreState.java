@@ -0,0 +1,85 @@
+package beanbags;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * StoreState holds a {@link BeanBagStore} filled for a benchmark: every bean
+ * bag is priced and stocked, and a share of them is reserved and a share
+ * sold, so the store measured holds reservations and sales like a store in
+ * use. The benchmarks run on one thread, which takes the bean bags in turn.
+ * <p>
+ * The implementation measured defaults to {@link Store}, and can be changed
+ * with e.g. {@code -p implementation=beanbags.ConcurrentStore}.
+ */
+@State(Scope.Benchmark)
+public class StoreState {
+    static final int RESERVED_SHARE = 10; //percentage of bean bags reserved
+    static final int SOLD_SHARE = 50; //percentage of bean bags sold
+    static final int QUANTITY = 1_000_000_000; //bean bags of each id, so selling never runs out
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"beanbags.Store"})
+    public String implementation;
+
+    BeanBagStore store;
+    String[] ids;
+    String[] manufacturers;
+    String[] names;
+    private int next; //index of the next bean bag handed out
+
+    /**
+     * Method creates the store and fills it.
+     *
+     * @throws Exception        if the implementation can't be created
+     */
+    @Setup(Level.Trial)
+    public void fill() throws Exception {
+        this.ids = new String[this.size];
+        this.manufacturers = new String[this.size];
+        this.names = new String[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.ids[i] = String.format("%08x", i + 1);
+            //sharing the strings, so adding to existing bean bags doesn't build new ones.
+            this.manufacturers[i] = i < 100 ? "Manufacturer " + i : this.manufacturers[i % 100];
+            this.names[i] = "Name " + i;
+        }
+        this.store = (BeanBagStore) Class.forName(this.implementation).getDeclaredConstructor().newInstance();
+        for (int i = 0; i < this.size; i++) {
+            this.store.addBeanBags(QUANTITY, this.manufacturers[i], this.names[i], this.ids[i], (short) 2020, (byte) (i % 12 + 1), "Details " + i);
+            this.store.setBeanBagPrice(this.ids[i], 100 + i % 1000);
+        }
+        for (int i = 0; i < this.size; i += 100 / RESERVED_SHARE) {
+            this.store.reserveBeanBags(1 + i % 5, this.ids[i]);
+        }
+        for (int i = 0; i < this.size; i += 100 / SOLD_SHARE) {
+            this.store.sellBeanBags(1 + i % 3, this.ids[i]);
+        }
+    }
+
+    /**
+     * Method returns the index of the next bean bag of the store, going round
+     * them all in turn so each operation touches a different bean bag.
+     *
+     * @return                  index of a bean bag in ids
+     */
+    int nextIndex() {
+        int index = this.next;
+        this.next = index + 1 == this.ids.length ? 0 : index + 1;
+        return index;
+    }
+
+    /**
+     * Method returns the id of the next bean bag of the store.
+     *
+     * @return                  id of a bean bag in the store
+     */
+    String nextId() {
+        return this.ids[nextIndex()];
+    }
+}
@@ -0,0 +1,144 @@
+package beanbags;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A copy-on-write view of the contents of a {@link Store}, frozen at the
+ * moment it was taken and written to a snapshot file by a background thread
+ * while the Store keeps changing.
+ * <p>
+ * The inventory and lists of the view are frozen copies that share their
+ * pages and arrays with the Store until the Store next changes them. Reservations and
+ * sales are shared with the Store too; before the Store changes one it calls
+ * preserve, which keeps a copy of the bean bag as it was when the view was
+ * taken. The writer reads that copy instead of the bean bag whenever there is
+ * one.
+ */
+final class BackgroundSnapshot {
+    private final Inventory inventory;
+    private final TypedArrayList<BeanBag> reserveList;
+    private final TypedArrayList<BeanBag> soldList;
+    private final MappedSnapshot mappedStock; //frozen copy of the mapped stock, or null
+    private final ReservationNumberAllocator allocator;
+    private final long journalRecords;
+    //bean bags as they were when the view was taken, by the bean bag changed since.
+    private final IdentityHashMap<BeanBag, BeanBag> preImages = new IdentityHashMap<>();
+    private final CompletableFuture<Void> durable = new CompletableFuture<>();
+    private volatile boolean isDone;
+
+    /**
+     * Creates a view of the contents of a Store. The inventory and lists given
+     * must be frozen copies, and the allocator a copy.
+     *
+     * @param inventory         frozen inventory
+     * @param reserveList       frozen reservations
+     * @param soldList          frozen sales
+     * @param mappedStock       frozen mapped stock, or null
+     * @param allocator         copy of the reservation number allocator
+     * @param journalRecords    number of journal records the contents include
+     */
+    BackgroundSnapshot(Inventory inventory, TypedArrayList<BeanBag> reserveList, TypedArrayList<BeanBag> soldList, MappedSnapshot mappedStock, ReservationNumberAllocator allocator, long journalRecords) {
+        this.inventory = inventory;
+        this.reserveList = reserveList;
+        this.soldList = soldList;
+        this.mappedStock = mappedStock;
+        this.allocator = allocator;
+        this.journalRecords = journalRecords;
+    }
+
+    /**
+     * Access method for the number of journal records the view includes.
+     *
+     * @return                  number of journal records
+     */
+    long getJournalRecords() {
+        return this.journalRecords;
+    }
+
+    /**
+     * Access method for the future completed once the view is durable on disk,
+     * or completed exceptionally if it could not be written.
+     *
+     * @return                  future of the write
+     */
+    CompletableFuture<Void> getDurable() {
+        return this.durable;
+    }
+
+    /**
+     * Method checks whether the view has been written, or failed to be, so the
+     * Store no longer needs to preserve bean bags for it.
+     *
+     * @return                  true if the writer has finished
+     */
+    boolean isDone() {
+        return this.isDone;
+    }
+
+    /**
+     * Method keeps a copy of a bean bag as it is now, unless one is already
+     * kept, before the Store changes it. Called by the Store thread only.
+     *
+     * @param beanBag           bean bag about to change
+     */
+    void preserve(BeanBag beanBag) {
+        synchronized (this.preImages) {
+            if (!this.isDone && !this.preImages.containsKey(beanBag)) {
+                this.preImages.put(beanBag, new BeanBag(beanBag));
+            }
+        }
+    }
+
+    /**
+     * Method writes the view to a snapshot file and completes the future once
+     * it is durable. Called by the background thread.
+     *
+     * @param filename          location of the file to be saved
+     * @throws IOException      if there is a problem writing the file
+     */
+    void write(String filename) throws IOException {
+        try {
+            TypedArrayList<BeanBag> stock = new TypedArrayList<>(Math.max(1, this.inventory.size()));
+            for (int row = 0; row < this.inventory.size(); row++) {
+                stock.add(this.inventory.copyOf(row));
+            }
+            if (this.mappedStock != null) {
+                for (int record = 0; record < this.mappedStock.getStockCount(); record++) {
+                    if (this.mappedStock.isMapped(record)) {
+                        stock.add(this.mappedStock.copyOf(record));
+                    }
+                }
+            }
+            StoreSnapshot.write(filename, stock, copyOfList(this.reserveList), copyOfList(this.soldList), this.allocator, this.journalRecords);
+        } finally {
+            synchronized (this.preImages) {
+                this.isDone = true;
+                this.preImages.clear();
+            }
+        }
+    }
+
+    /**
+     * Method copies a frozen list, taking each bean bag as it was when the
+     * view was taken.
+     *
+     * @param list              frozen list
+     * @return                  copies of the bean bags in the list
+     */
+    private TypedArrayList<BeanBag> copyOfList(TypedArrayList<BeanBag> list) {
+        TypedArrayList<BeanBag> copy = new TypedArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            BeanBag beanBag = list.get(i);
+            //reading under the lock, so the Store can't change the bean bag midway.
+            synchronized (this.preImages) {
+                BeanBag preImage = this.preImages.get(beanBag);
+                copy.add(preImage != null ? preImage : new BeanBag(beanBag));
+            }
+            //writing the ID the bean bags had when the view was taken.
+            copy.get(i).setPackedId(this.inventory.idOf(copy.get(i)));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,99 @@
+package beanbags;
+
+/**
+ * Outcome of each line of a batch of sales, reservations or restocks made
+ * through one call to the Store. A line either succeeded, or failed with the
+ * same exception the single-item method would have thrown for it, in which
+ * case that line left the store unchanged.
+ */
+public class BatchResult {
+    private final Exception[] failures;
+    private final int[] reservationNumbers;
+    private int numberOfFailures;
+
+    /**
+     * Creates a result for the given number of lines, all of which have
+     * succeeded until told otherwise.
+     *
+     * @param size              number of lines in the batch
+     */
+    BatchResult(int size) {
+        this.failures = new Exception[size];
+        this.reservationNumbers = new int[size];
+        this.numberOfFailures = 0;
+    }
+
+    /**
+     * Method records that a line of the batch failed.
+     *
+     * @param line              index of the line in the batch
+     * @param failure           exception the line failed with
+     */
+    void fail(int line, Exception failure) {
+        if (this.failures[line] == null) {
+            this.numberOfFailures++;
+        }
+        this.failures[line] = failure;
+    }
+
+    /**
+     * Method records the reservation number handed out for a line.
+     *
+     * @param line              index of the line in the batch
+     * @param reservationNumber unique reservation number of the line
+     */
+    void setReservationNumber(int line, int reservationNumber) {
+        this.reservationNumbers[line] = reservationNumber;
+    }
+
+    /**
+     * Method returns the number of lines in the batch.
+     *
+     * @return                  number of lines in the batch
+     */
+    public int size() {
+        return this.failures.length;
+    }
+
+    /**
+     * Method returns the number of lines in the batch that failed.
+     *
+     * @return                  number of failed lines
+     */
+    public int getNumberOfFailures() {
+        return this.numberOfFailures;
+    }
+
+    /**
+     * Method checks if a line of the batch succeeded.
+     *
+     * @param line              index of the line in the batch
+     * @return                  boolean representing if the line succeeded
+     */
+    public boolean isSuccessful(int line) {
+        return this.failures[line] == null;
+    }
+
+    /**
+     * Method returns the exception a line of the batch failed with.
+     *
+     * @param line              index of the line in the batch
+     * @return                  exception the line failed with, or
+     *                          <code>null</code> if it succeeded
+     */
+    public Exception getFailure(int line) {
+        return this.failures[line];
+    }
+
+    /**
+     * Method returns the reservation number handed out for a line of a batch
+     * of reservations.
+     *
+     * @param line              index of the line in the batch
+     * @return                  unique reservation number, or 0 if the line
+     *                          failed or was not a reservation
+     */
+    public int getReservationNumber(int line) {
+        return this.reservationNumbers[line];
+    }
+}
@@ -1,5 +1,10 @@
 package beanbags;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -7,17 +12,41 @@ import java.io.Serializable;
  * and behaviours of a bean bag.
  */
 public class BeanBag implements Serializable {
+    //kept from the first version of the class, so files it saved still load.
+    private static final long serialVersionUID = 4283703195430111925L;
+    //the serial form of the first version of the class, which held the id as a String.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("quantity", int.class),
+            new ObjectStreamField("manufacturer", String.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("price", int.class),
+            new ObjectStreamField("id", String.class),
+            new ObjectStreamField("year", short.class),
+            new ObjectStreamField("month", byte.class),
+            new ObjectStreamField("information", String.class),
+            new ObjectStreamField("reservationNumber", int.class)
+    };
+
     private int quantity;
     private String manufacturer;
     private String name;
     private int price;
-    private String id;
+    private int id; //ID packed by BeanBagID
     private short year;
     private byte month;
     private String information;
 
     private int reservationNumber;
 
+    //running totals of a stock entry, rebuilt by the Store when it is loaded.
+    private transient int reservedQuantity;
+    private transient long soldQuantity;
+    private transient long totalPriceOfSold;
+    //inventory row of a Store reservation or sale, set by the Store, or -1.
+    private transient int sku = -1;
+    //time a Store reservation expires in milliseconds since the epoch, or 0.
+    private transient long deadline;
+
     /**
      * Constructs an instance of the object containing num,
      * manufacturer, name, id, year and month arguments.
@@ -28,12 +57,14 @@ public class BeanBag implements Serializable {
      * @param id                ID of bean bag
      * @param year              year of manufacture
      * @param month             month of manufacture
+     * @throws IllegalArgumentException if the ID is not a positive eight
+     *                          character hexadecimal number
      */
     public BeanBag(int num, String manufacturer, String name, String id, short year, byte month) {
         this.quantity = num;
         this.manufacturer = manufacturer;
         this.name = name;
-        this.id = id;
+        this.id = toPackedID(id);
         this.year = year;
         this.month = month;
     }
@@ -49,8 +80,33 @@ public class BeanBag implements Serializable {
      * @param year              year of manufacture
      * @param month             month of manufacture
      * @param information       free text detailing bean bag information
+     * @throws IllegalArgumentException if the ID is not a positive eight
+     *                          character hexadecimal number
      */
     public BeanBag(int num, String manufacturer, String name, String id, short year, byte month, String information) {
+        this.quantity = num;
+        this.manufacturer = manufacturer;
+        this.name = name;
+        this.id = toPackedID(id);
+        this.year = year;
+        this.month = month;
+        this.information = information;
+    }
+
+    /**
+     * Constructs an instance of the object containing num, manufacturer,
+     * name, id, year, month and information arguments, where the id is
+     * already packed.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @param information       free text detailing bean bag information
+     */
+    BeanBag(int num, String manufacturer, String name, int id, short year, byte month, String information) {
         this.quantity = num;
         this.manufacturer = manufacturer;
         this.name = name;
@@ -65,12 +121,12 @@ public class BeanBag implements Serializable {
      * id, price and reservationNumber arguments.
      *
      * @param num               number of bean bags added
-     * @param id                ID of bean bag
+     * @param id                ID of bean bag packed by BeanBagID
      * @param price             bean bag price in pence
      * @param reservationNumber unique reservation number used to find
      *                              beanbag(s) to be sold
      */
-    BeanBag(int num, String id, int price, int reservationNumber) {
+    BeanBag(int num, int id, int price, int reservationNumber) {
         this.quantity = num;
         this.id = id;
         this.price = price;
@@ -82,15 +138,55 @@ public class BeanBag implements Serializable {
      * id and price arguments.
      *
      * @param num               number of bean bags added
-     * @param id                ID of bean bag
+     * @param id                ID of bean bag packed by BeanBagID
      * @param price             bean bag price in pence
      */
-    BeanBag(int num, String id, int price) {
+    BeanBag(int num, int id, int price) {
         this.quantity = num;
         this.id = id;
         this.price = price;
     }
 
+    /**
+     * Constructs a copy of the given bean bags, including the running totals
+     * of a stock entry.
+     *
+     * @param source            bean bags to be copied
+     */
+    BeanBag(BeanBag source) {
+        this.quantity = source.quantity;
+        this.manufacturer = source.manufacturer;
+        this.name = source.name;
+        this.price = source.price;
+        this.id = source.id;
+        this.year = source.year;
+        this.month = source.month;
+        this.information = source.information;
+        this.reservationNumber = source.reservationNumber;
+        this.reservedQuantity = source.reservedQuantity;
+        this.soldQuantity = source.soldQuantity;
+        this.totalPriceOfSold = source.totalPriceOfSold;
+        this.sku = source.sku;
+        this.deadline = source.deadline;
+    }
+
+    /**
+     * Method checks and packs the id of a new bean bag.
+     *
+     * @param id                ID of bean bag
+     * @return                  ID packed by BeanBagID
+     * @throws IllegalArgumentException if the ID is not a positive eight
+     *                          character hexadecimal number
+     */
+    private static int toPackedID(String id) {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            throw new IllegalArgumentException("Illegal ID: The id must be 8 " +
+                    "characters positive number.");
+        }
+        return packedID;
+    }
+
     /**
      * Method sets the number of bean bags.
      *
@@ -149,9 +245,11 @@ public class BeanBag implements Serializable {
      * Method sets the id of the bean bags.
      *
      * @param id            ID of bean bags
+     * @throws IllegalArgumentException if the ID is not a positive eight
+     *                      character hexadecimal number
      */
     public void setId(String id) {
-        this.id = id;
+        this.id = toPackedID(id);
     }
 
     /**
@@ -160,9 +258,68 @@ public class BeanBag implements Serializable {
      * @return              ID of bean bags
      */
     public String getId() {
+        return BeanBagID.format(this.id);
+    }
+
+    /**
+     * Method sets the id of the bean bags from its packed form.
+     *
+     * @param id            ID of bean bags packed by BeanBagID
+     */
+    void setPackedId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Method gets the id of the bean bags in its packed form.
+     *
+     * @return              ID of bean bags packed by BeanBagID
+     */
+    int getPackedId() {
         return this.id;
     }
 
+    /**
+     * Method sets the inventory row of the bean bags a reservation or sale of
+     * a Store refers to, which keeps its number when their ID is replaced.
+     *
+     * @param sku           inventory row of the bean bags, or -1
+     */
+    void setSku(int sku) {
+        this.sku = sku;
+    }
+
+    /**
+     * Method gets the inventory row of the bean bags a reservation or sale of
+     * a Store refers to.
+     *
+     * @return              inventory row of the bean bags, or -1 if the
+     *                      reservation or sale only has its ID
+     */
+    int getSku() {
+        return this.sku;
+    }
+
+    /**
+     * Method sets the time a reservation of a Store expires.
+     *
+     * @param deadline      time in milliseconds since the epoch, or 0 if the
+     *                      reservation has no time to live
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Method gets the time a reservation of a Store expires.
+     *
+     * @return              time in milliseconds since the epoch, or 0 if the
+     *                      reservation has no time to live
+     */
+    long getDeadline() {
+        return this.deadline;
+    }
+
     /**
      * Method sets the year of the bean bags.
      *
@@ -172,6 +329,15 @@ public class BeanBag implements Serializable {
         this.year = year;
     }
 
+    /**
+     * Method gets the year of the bean bags.
+     *
+     * @return              year of manufacture
+     */
+    public short getYear() {
+        return this.year;
+    }
+
     /**
      * Method sets the month of the bean bags.
      *
@@ -181,6 +347,15 @@ public class BeanBag implements Serializable {
         this.month = month;
     }
 
+    /**
+     * Method gets the month of the bean bags.
+     *
+     * @return              month of manufacture
+     */
+    public byte getMonth() {
+        return this.month;
+    }
+
     /**
      * Method gets the information of the bean bags.
      *
@@ -190,6 +365,60 @@ public class BeanBag implements Serializable {
         return this.information;
     }
 
+    /**
+     * Method sets the number of these bean bags that are reserved.
+     *
+     * @param num               number of bean bags reserved
+     */
+    void setReservedQuantity(int num) {
+        this.reservedQuantity = num;
+    }
+
+    /**
+     * Method gets the number of these bean bags that are reserved.
+     *
+     * @return              number of bean bags reserved
+     */
+    int getReservedQuantity() {
+        return this.reservedQuantity;
+    }
+
+    /**
+     * Method sets the number of these bean bags that have been sold.
+     *
+     * @param num               number of bean bags sold
+     */
+    void setSoldQuantity(long num) {
+        this.soldQuantity = num;
+    }
+
+    /**
+     * Method gets the number of these bean bags that have been sold.
+     *
+     * @return              number of bean bags sold
+     */
+    long getSoldQuantity() {
+        return this.soldQuantity;
+    }
+
+    /**
+     * Method sets the total price these bean bags have been sold for.
+     *
+     * @param totalPrice        total price of bean bags sold in pence
+     */
+    void setTotalPriceOfSold(long totalPrice) {
+        this.totalPriceOfSold = totalPrice;
+    }
+
+    /**
+     * Method gets the total price these bean bags have been sold for.
+     *
+     * @return              total price of bean bags sold in pence
+     */
+    long getTotalPriceOfSold() {
+        return this.totalPriceOfSold;
+    }
+
     /**
      * Method gets the reservation number of the bean bags.
      *
@@ -198,4 +427,54 @@ public class BeanBag implements Serializable {
     public int getReservationNumber() {
         return this.reservationNumber;
     }
+
+    /**
+     * Method writes the bean bag in the serial form of the first version of
+     * the class, with the id as its eight character String.
+     *
+     * @param write             stream the bean bag is written to
+     * @throws IOException      if there is a problem writing to the stream
+     */
+    private void writeObject(ObjectOutputStream write) throws IOException {
+        ObjectOutputStream.PutField fields = write.putFields();
+        fields.put("quantity", this.quantity);
+        fields.put("manufacturer", this.manufacturer);
+        fields.put("name", this.name);
+        fields.put("price", this.price);
+        fields.put("id", BeanBagID.format(this.id));
+        fields.put("year", this.year);
+        fields.put("month", this.month);
+        fields.put("information", this.information);
+        fields.put("reservationNumber", this.reservationNumber);
+        write.writeFields();
+    }
+
+    /**
+     * Method reads a bean bag written in the serial form of the first version
+     * of the class, packing its id.
+     *
+     * @param read              stream the bean bag is read from
+     * @throws IOException      if there is a problem reading the stream, or
+     *                          the id is not a positive eight character
+     *                          hexadecimal number
+     * @throws ClassNotFoundException   if required class files cannot be found
+     */
+    private void readObject(ObjectInputStream read) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = read.readFields();
+        int packedID = BeanBagID.parse((String) fields.get("id", null));
+        if (packedID == BeanBagID.INVALID) {
+            throw new InvalidObjectException("Illegal ID: The id must be 8 characters positive number.");
+        }
+        this.quantity = fields.get("quantity", 0);
+        this.manufacturer = (String) fields.get("manufacturer", null);
+        this.name = (String) fields.get("name", null);
+        this.price = fields.get("price", 0);
+        this.id = packedID;
+        this.year = fields.get("year", (short) 0);
+        this.month = fields.get("month", (byte) 0);
+        this.information = (String) fields.get("information", null);
+        this.reservationNumber = fields.get("reservationNumber", 0);
+        //transient fields aren't initialised by deserialisation.
+        this.sku = -1;
+    }
 }
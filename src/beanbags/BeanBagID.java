@@ -0,0 +1,69 @@
+package beanbags;
+
+/**
+ * Converts between the 8 character hexadecimal ID of a bean bag and the int
+ * it represents. A legal ID is a positive hexadecimal number, so its first
+ * digit is at most 7 and every legal ID fits in a non-negative int.
+ */
+final class BeanBagID {
+    /**
+     * Value returned by {@link #parse(String)} for an illegal ID.
+     */
+    static final int INVALID = -1;
+
+    private static final int LENGTH = 8;
+    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    //value of each hexadecimal character, or -1 for any other character.
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < DIGITS.length; i++) {
+            VALUES[DIGITS[i]] = (byte) i;
+        }
+    }
+
+    private BeanBagID() {
+    }
+
+    /**
+     * Method checks and converts the id to the int it represents in one pass.
+     *
+     * @param id                ID of bean bag
+     * @return                  ID as an int, or {@link #INVALID} if the ID is
+     *                          not a positive eight character hexadecimal number
+     */
+    static int parse(String id) {
+        if (id == null || id.length() != LENGTH) {
+            return INVALID;
+        }
+        int value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = id.charAt(i);
+            int digit = c < VALUES.length ? VALUES[c] : -1;
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        //a first digit of 8 or more would make the number negative.
+        return value < 0 ? INVALID : value;
+    }
+
+    /**
+     * Method converts an ID held as an int back to its 8 character form.
+     *
+     * @param id                ID as an int
+     * @return                  ID of bean bag
+     */
+    static String format(int id) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[id & 0xF];
+            id >>>= 4;
+        }
+        return new String(chars);
+    }
+}
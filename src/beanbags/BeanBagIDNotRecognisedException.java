@@ -22,4 +22,16 @@ public class BeanBagIDNotRecognisedException extends Exception
     public BeanBagIDNotRecognisedException(String message){ 
         super(message);
     }
+
+    /**
+     * Constructs an instance of the exception containing the message argument
+     * that doesn't record a stack trace or suppressed exceptions, so a single
+     * instance can be thrown for every failure of the same kind
+     * 
+     * @param message   message containing details regarding the exception cause
+     * @param writableStackTrace   false to leave the stack trace empty
+     */
+    BeanBagIDNotRecognisedException(String message, boolean writableStackTrace){ 
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -0,0 +1,262 @@
+package beanbags;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A feed of the changes made to a {@link Store}, opened by
+ * {@link Store#openChangeFeed()}, which other systems read on their own
+ * threads instead of polling the Store and comparing what they find.
+ * <p>
+ * The Store publishes each change as a compact event into a ring buffer of
+ * primitive arrays allocated when the feed is opened, so publishing allocates
+ * nothing and costs a few array writes. Each consumer subscribes and then
+ * drains events in batches from its own position in the ring. The Store
+ * never waits for a consumer: a consumer that falls a whole ring behind
+ * misses the oldest events, and is told how many it missed, after which it
+ * should rebuild what it knows from a {@link StoreView}.
+ * <p>
+ * Every event has a type, the ID of the bean bags packed by
+ * {@link BeanBagID} (see {@link #formatID(int)}) and, depending on its type,
+ * a quantity, a price in pence and a reference:
+ * <ul>
+ * <li>{@link #STOCK_ADDED}: quantity added.</li>
+ * <li>{@link #PRICE_SET}: new price.</li>
+ * <li>{@link #SOLD}: quantity sold and price of each.</li>
+ * <li>{@link #RESERVED}, {@link #UNRESERVED}: quantity and price of the
+ * reservation, and its reservation number as the reference. Reservations
+ * that expire are unreserved.</li>
+ * <li>{@link #RESERVATION_SOLD}: quantity, price paid for each and the
+ * reservation number.</li>
+ * <li>{@link #ID_REPLACED}: the replacement ID, and the old ID as the
+ * reference.</li>
+ * <li>{@link #SALES_RESET}: no fields.</li>
+ * <li>{@link #CONTENTS_REPLACED}: no fields. The Store was emptied, or its
+ * contents loaded from a file or journal, without an event for each change.</li>
+ * </ul>
+ */
+public final class ChangeFeed {
+    public static final byte STOCK_ADDED = 1;
+    public static final byte PRICE_SET = 2;
+    public static final byte SOLD = 3;
+    public static final byte RESERVED = 4;
+    public static final byte UNRESERVED = 5;
+    public static final byte RESERVATION_SOLD = 6;
+    public static final byte ID_REPLACED = 7;
+    public static final byte SALES_RESET = 8;
+    public static final byte CONTENTS_REPLACED = 9;
+
+    private final int mask; //capacity - 1, as the capacity is a power of two
+    private final byte[] types;
+    private final int[] ids;
+    private final int[] quantities;
+    private final int[] prices;
+    private final int[] references;
+    private final AtomicLong published = new AtomicLong(); //events published so far
+
+    /**
+     * Creates a feed holding up to the given number of events a consumer
+     * hasn't drained yet.
+     *
+     * @param capacity          number of events in the ring, rounded up to a
+     *                          power of two
+     * @throws IllegalArgumentException if the capacity is less than 1 or more
+     *                          than 2^30
+     */
+    ChangeFeed(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity of a change feed must be between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.types = new byte[size];
+        this.ids = new int[size];
+        this.quantities = new int[size];
+        this.prices = new int[size];
+        this.references = new int[size];
+    }
+
+    /**
+     * Method publishes an event, overwriting the oldest event in the ring.
+     * Called by the Store thread only.
+     *
+     * @param type              type of the event
+     * @param id                ID of the bean bags packed by BeanBagID, or 0
+     * @param quantity          number of bean bags, or 0
+     * @param price             price in pence, or 0
+     * @param reference         reservation number or old ID, or 0
+     */
+    void publish(byte type, int id, int quantity, int price, int reference) {
+        long sequence = this.published.getPlain();
+        int slot = (int) sequence & this.mask;
+        //setRelease below orders only the writes before it. Without this fence the writes
+        //to the slot could become visible before published counts the last event, and a
+        //consumer copying the event a ring ago from the slot wouldn't see it overwritten.
+        VarHandle.storeStoreFence();
+        this.types[slot] = type;
+        this.ids[slot] = id;
+        this.quantities[slot] = quantity;
+        this.prices[slot] = price;
+        this.references[slot] = reference;
+        //releasing the event to consumers only once every field is written.
+        this.published.setRelease(sequence + 1);
+    }
+
+    /**
+     * Access method for the number of events the ring holds.
+     *
+     * @return                  capacity of the ring
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Access method for the number of events published since the feed was
+     * opened.
+     *
+     * @return                  number of events published
+     */
+    public long getPublished() {
+        return this.published.get();
+    }
+
+    /**
+     * Method subscribes a consumer to the events published from now on.
+     *
+     * @param batchSize         most events handed over by each drain
+     * @return                  subscription of the consumer
+     * @throws IllegalArgumentException if the batch size is less than 1
+     */
+    public Subscription subscribe(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        }
+        return new Subscription(Math.min(batchSize, getCapacity()));
+    }
+
+    /**
+     * Method formats an ID given in an event as the eight character
+     * hexadecimal ID used by the Store.
+     *
+     * @param id                ID packed by BeanBagID
+     * @return                  ID of the bean bags
+     */
+    public static String formatID(int id) {
+        return BeanBagID.format(id);
+    }
+
+    /**
+     * Receives the events of a drained batch one at a time, as primitives,
+     * so handing an event over allocates nothing.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Method receives one event.
+         *
+         * @param type          type of the event
+         * @param id            ID of the bean bags packed by BeanBagID, or 0
+         * @param quantity      number of bean bags, or 0
+         * @param price         price in pence, or 0
+         * @param reference     reservation number or old ID, or 0
+         */
+        void onChange(byte type, int id, int quantity, int price, int reference);
+    }
+
+    /**
+     * The position of one consumer in the feed. A subscription is drained by
+     * one thread at a time.
+     * <p>
+     * Each drain copies a batch out of the ring and then checks that the Store
+     * hasn't started overwriting any of it, as the Store doesn't wait for
+     * consumers. Events that were overwritten are counted as missed instead
+     * of being handed over.
+     */
+    public final class Subscription {
+        private long next; //sequence of the next event to hand over
+        private long missed;
+        private final byte[] batchTypes;
+        private final int[] batchIds;
+        private final int[] batchQuantities;
+        private final int[] batchPrices;
+        private final int[] batchReferences;
+
+        /**
+         * Creates a subscription starting at the next event published.
+         *
+         * @param batchSize     most events handed over by each drain
+         */
+        private Subscription(int batchSize) {
+            this.next = ChangeFeed.this.published.get();
+            this.batchTypes = new byte[batchSize];
+            this.batchIds = new int[batchSize];
+            this.batchQuantities = new int[batchSize];
+            this.batchPrices = new int[batchSize];
+            this.batchReferences = new int[batchSize];
+        }
+
+        /**
+         * Method hands the next batch of events over to the handler, in the
+         * order they were published.
+         *
+         * @param handler       receiver of the events
+         * @return              number of events handed over, which is 0 if
+         *                      there were none waiting
+         */
+        public int drain(Handler handler) {
+            int capacity = getCapacity();
+            long end = ChangeFeed.this.published.get();
+            if (end - this.next > capacity) {
+                //the oldest events waiting were already overwritten.
+                this.missed += end - capacity - this.next;
+                this.next = end - capacity;
+            }
+            int count = (int) Math.min(end - this.next, this.batchTypes.length);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) (this.next + i) & ChangeFeed.this.mask;
+                this.batchTypes[i] = ChangeFeed.this.types[slot];
+                this.batchIds[i] = ChangeFeed.this.ids[slot];
+                this.batchQuantities[i] = ChangeFeed.this.quantities[slot];
+                this.batchPrices[i] = ChangeFeed.this.prices[slot];
+                this.batchReferences[i] = ChangeFeed.this.references[slot];
+            }
+            //reading how far the Store has got only after copying the batch.
+            VarHandle.acquireFence();
+            //the Store may be overwriting the event a whole ring before the next one it publishes.
+            long overwritten = ChangeFeed.this.published.get() - capacity + 1 - this.next;
+            int first = (int) Math.max(0, Math.min(overwritten, count));
+            this.missed += first;
+            this.next += count;
+            for (int i = first; i < count; i++) {
+                handler.onChange(this.batchTypes[i], this.batchIds[i], this.batchQuantities[i], this.batchPrices[i], this.batchReferences[i]);
+            }
+            return count - first;
+        }
+
+        /**
+         * Access method for the number of events published after the
+         * subscription started that this consumer will never be handed, as
+         * they were overwritten before it drained them.
+         *
+         * @return              number of events missed
+         */
+        public long getMissed() {
+            return this.missed;
+        }
+
+        /**
+         * Access method for the number of events published but not yet
+         * drained by this consumer, which may include events that will be
+         * missed.
+         *
+         * @return              number of events waiting
+         */
+        public long getWaiting() {
+            return ChangeFeed.this.published.get() - this.next;
+        }
+    }
+}
@@ -0,0 +1,1328 @@
+package beanbags;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConcurrentStore is a thread-safe implementor of the BeanBagStore interface,
+ * that can be shared by many threads without any outside locking.
+ * <p>
+ * Every bean bag ID is guarded by one of a fixed number of striped locks, so
+ * changes to bean bags with different IDs can run in parallel. Reservations
+ * are claimed atomically, so a reservation is only ever sold or cancelled
+ * once. Access methods never take a lock; each one returns a value that was
+ * correct at some point during the call, but consecutive calls are not a
+ * consistent snapshot of the whole store.
+ * <p>
+ * Files saved by a ConcurrentStore can be loaded by a {@link Store} and the
+ * other way around.
+ */
+public class ConcurrentStore implements BeanBagStore {
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] stripes; //stripe locks guarding each id
+    private final ConcurrentHashMap<Integer, Sku> stock; //in-store bean bags by id
+    private final ConcurrentHashMap<Integer, Reservation> reservations; //reservations by number
+    private final Object allocatorLock = new Object();
+    private ReservationNumberAllocator reservationAllocator; //guarded by allocatorLock
+    private volatile StoreJournal journal; //changes made since journalSnapshot, or null
+    private volatile String journalSnapshot; //snapshot the journal carries on from
+    //running totals, added to under the lock of the id that changed.
+    private final LongAdder availableBeanBags = new LongAdder();
+    private final LongAdder reservedBeanBags = new LongAdder();
+    private final LongAdder totalPriceOfReservedBeanBags = new LongAdder();
+    private final LongAdder soldBeanBags = new LongAdder();
+    private final LongAdder totalPriceOfSoldBeanBags = new LongAdder();
+
+    /**
+     * The bean bags stocked under one ID. Fields that change are only written
+     * while holding the stripe lock of the ID, and are volatile so access
+     * methods can read them without the lock.
+     */
+    private static final class Sku {
+        private volatile int id;
+        private final String manufacturer;
+        private final String name;
+        private final String information;
+        private volatile short year;
+        private volatile byte month;
+        private volatile int price;
+        private volatile int available;
+        private volatile int reserved;
+        private volatile long sold;
+        private volatile long totalPriceOfSold;
+        //sales of this id at each price, as BeanBag objects like the Store's soldList.
+        private final TypedArrayList<BeanBag> sales = new TypedArrayList<>();
+
+        private Sku(int id, String manufacturer, String name, String information, short year, byte month) {
+            this.id = id;
+            this.manufacturer = manufacturer;
+            this.name = name;
+            this.information = information;
+            this.year = year;
+            this.month = month;
+        }
+    }
+
+    /**
+     * A live reservation of bean bags taken from one Sku.
+     */
+    private static final class Reservation {
+        private final Sku sku;
+        private final int quantity;
+        private final int price;
+
+        private Reservation(Sku sku, int quantity, int price) {
+            this.sku = sku;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    /**
+     * Constructs an empty store with the default number of stripe locks.
+     */
+    public ConcurrentStore() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructs an empty store guarding its IDs with the given number of
+     * stripe locks, rounded up to a power of two.
+     *
+     * @param stripes           number of stripe locks
+     */
+    public ConcurrentStore(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.stock = new ConcurrentHashMap<Integer, Sku>();
+        this.reservations = new ConcurrentHashMap<Integer, Reservation>();
+        this.reservationAllocator = new ReservationNumberAllocator();
+    }
+
+    /**
+     * Method returns the position of the stripe lock guarding the id.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  position of the lock in the stripes
+     */
+    private int stripeIndexOf(int id) {
+        int hash = id * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (this.stripes.length - 1);
+    }
+
+    /**
+     * Method returns the stripe lock guarding the id.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  lock guarding the id
+     */
+    private ReentrantLock stripeOf(int id) {
+        return this.stripes[stripeIndexOf(id)];
+    }
+
+    /**
+     * Method locks the stripe of the Sku's current id, retrying if the Sku is
+     * given a replacement id while waiting for the lock.
+     *
+     * @param sku               bean bags to be locked
+     * @return                  lock held by the caller, to be unlocked later
+     */
+    private ReentrantLock lockSku(Sku sku) {
+        while (true) {
+            int id = sku.id;
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            if (sku.id == id) {
+                return lock;
+            }
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Method takes every stripe lock, always in the same order
+     */
+    private void lockAll() {
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i].lock();
+        }
+    }
+
+    /*
+     * Method releases every stripe lock taken by lockAll
+     */
+    private void unlockAll() {
+        for (int i = this.stripes.length - 1; i >= 0; i--) {
+            this.stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Method packs the id into an int, handling any bean bags illegal id
+     * exception.
+     *
+     * @param id                ID of bean bag
+     * @return                  ID of bean bag packed by BeanBagID
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private int parseID(String id) throws IllegalIDException {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            throw StoreExceptions.ILLEGAL_ID;
+        }
+        return packedID;
+    }
+
+    /**
+     * Method finds the bean bags with matching ID, handling any bean bags' id
+     * that is not found in the stock.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  bean bags stocked under the id
+     * @throws BeanBagIDNotRecognisedException if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     */
+    private Sku findSku(int id) throws BeanBagIDNotRecognisedException {
+        Sku sku = this.stock.get(id);
+        if (sku == null) {
+            throw StoreExceptions.ID_NOT_RECOGNISED;
+        }
+        return sku;
+    }
+
+    /**
+     * Method checks if two strings hold the same text, where either may be
+     * <code>null</code>.
+     *
+     * @param a                 first string to compare
+     * @param b                 second string to compare
+     * @return                  boolean representing if the strings are equal
+     */
+    private boolean isEqual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Method converts a running total to the int the BeanBagStore interface
+     * returns, capping it rather than letting it wrap around.
+     *
+     * @param total             running total
+     * @return                  total, or Integer.MAX_VALUE if it doesn't fit
+     */
+    private int toInt(long total) {
+        return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+    }
+
+    /**
+     * Method adds bean bags to the store, checking they match any bean bags
+     * already stocked under the same ID.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @param information       free text detailing bean bag information
+     * @param checkInformation  whether the free text must match too
+     * @throws IllegalNumberOfBeanBagsAddedException   if the number to be added
+     *                           is less than 1, or would take the stock of the
+     *                           bean bags past Integer.MAX_VALUE
+     * @throws BeanBagMismatchException if the id already exists, but the other
+     *                           stored elements do not match
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     * @throws InvalidMonthException    if the month is not in the range 1 to 12
+     */
+    private void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month, String information, boolean checkInformation) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        if (num < 1) {
+            throw StoreExceptions.ILLEGAL_NUMBER_ADDED;
+        }
+        int packedID = parseID(id);
+        if (month < 1 || month > 12) {
+            throw StoreExceptions.INVALID_MONTH;
+        }
+        ReentrantLock lock = stripeOf(packedID);
+        long records;
+        lock.lock();
+        try {
+            Sku sku = this.stock.get(packedID);
+            if (sku == null) {
+                sku = new Sku(packedID, manufacturer, name, information, year, month);
+                sku.available = num;
+                this.stock.put(packedID, sku);
+            }
+            else {
+                //checking if all the object's attributes matches.
+                if (!isEqual(sku.manufacturer, manufacturer) || !isEqual(sku.name, name)) {
+                    throw StoreExceptions.MISMATCH;
+                }
+                if (checkInformation && !isEqual(sku.information, information)) {
+                    throw StoreExceptions.MISMATCH_WITH_INFORMATION;
+                }
+                if (isTooManyAdded(sku, num)) {
+                    throw StoreExceptions.TOO_MANY_ADDED;
+                }
+                sku.available += num;
+                sku.year = year;
+                sku.month = month;
+            }
+            this.availableBeanBags.add(num);
+            records = appendChange(checkInformation ? JournalRecord.add(num, manufacturer, name, packedID, year, month, information) : JournalRecord.add(num, manufacturer, name, packedID, year, month));
+        } finally {
+            lock.unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method checks whether adding bean bags to a Sku would take its stock,
+     * reserved bean bags included, past Integer.MAX_VALUE. The caller must
+     * hold the lock of the Sku.
+     *
+     * @param sku               bean bags added to
+     * @param num               number of bean bags to be added
+     * @return                  true if the stock can't hold that many more
+     */
+    private static boolean isTooManyAdded(Sku sku, int num) {
+        return (long) sku.available + sku.reserved + num > Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method records bean bags of the Sku sold at the given price. The caller
+     * must hold the lock of the Sku.
+     *
+     * @param sku               bean bags sold
+     * @param num               number of bean bags sold
+     * @param price             price each bean bag was sold for in pence
+     */
+    private void recordSale(Sku sku, int num, int price) {
+        sku.sold += num;
+        sku.totalPriceOfSold += (long) num * price;
+        this.soldBeanBags.add(num);
+        this.totalPriceOfSoldBeanBags.add((long) num * price);
+        for (int i = 0; i < sku.sales.size(); i++) {
+            BeanBag sale = sku.sales.get(i);
+            if (sale.getPrice() == price) {
+                sale.setQuantity(sale.getQuantity() + num);
+                return;
+            }
+        }
+        sku.sales.add(new BeanBag(num, sku.id, price));
+    }
+
+    /**
+     * Method checks that bean bags can be taken out of stock for a sale or
+     * reservation. The caller must hold the lock of the Sku.
+     *
+     * @param sku               bean bags to be taken
+     * @param num               number of bean bags to be taken
+     * @throws BeanBagNotInStockException   if the bean bag is out of stock
+     * @throws InsufficientStockException   if not enough are available
+     * @throws PriceNotSetException if the price has yet to be set
+     */
+    private void checkAvailable(Sku sku, int num) throws BeanBagNotInStockException, InsufficientStockException, PriceNotSetException {
+        if (sku.price == 0) {
+            throw StoreExceptions.PRICE_NOT_SET;
+        }
+        if (sku.available == 0) {
+            throw StoreExceptions.NOT_IN_STOCK;
+        }
+        if (sku.available < num) {
+            throw StoreExceptions.INSUFFICIENT_STOCK;
+        }
+    }
+
+    /**
+     * Method claims a live reservation, so no other thread can sell or cancel
+     * it, and locks the Sku it was taken from.
+     *
+     * @param reservationNumber unique reservation number
+     * @return                  claimed reservation, whose Sku lock is held
+     * @throws ReservationNumberNotRecognisedException  if the reservation number
+     *                          does not match a current reservation in the system
+     */
+    private Reservation claimReservation(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        Reservation reservation = this.reservations.get(reservationNumber);
+        if (reservation != null) {
+            ReentrantLock lock = lockSku(reservation.sku);
+            //removing under the lock, so it fails if another thread claimed it
+            //first or the store was emptied since the lookup.
+            if (this.reservations.remove(reservationNumber, reservation)) {
+                return reservation;
+            }
+            lock.unlock();
+        }
+        throw StoreExceptions.RESERVATION_NOT_RECOGNISED;
+    }
+
+    /**
+     * Method releases a claimed reservation's quantity from the reserved
+     * totals. The caller must hold the lock of the reservation's Sku.
+     *
+     * @param reservation       claimed reservation
+     */
+    private void releaseReservation(Reservation reservation) {
+        reservation.sku.reserved -= reservation.quantity;
+        this.reservedBeanBags.add(-reservation.quantity);
+        this.totalPriceOfReservedBeanBags.add(-(long) reservation.quantity * reservation.price);
+    }
+
+    /**
+     * Method adds bean bags to the store with the arguments as bean bag details.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are 
+     * thrown.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag 
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @throws IllegalNumberOfBeanBagsAddedException   if the number to be added
+     *                           is less than 1, or would take the stock of the
+     *                           bean bags past Integer.MAX_VALUE
+     * @throws BeanBagMismatchException if the id already exists (as a current in
+     *                           stock bean bag, or one that has been previously
+     *                           stocked in the store, but the other stored
+     *                           elements (manufacturer, name and free text) do
+     *                           not match the pre-existing version
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     * @throws InvalidMonthException    if the month is not in the range 1 to 12
+     */
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        addBeanBags(num, manufacturer, name, id, year, month, null, false);
+    }
+
+    /**
+     * Method adds bean bags to the store with the arguments as bean bag details.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @param information       free text detailing bean bag information
+     * @throws IllegalNumberOfBeanBagsAddedException   if the number to be added
+     *                           is less than 1, or would take the stock of the
+     *                           bean bags past Integer.MAX_VALUE
+     * @throws BeanBagMismatchException if the id already exists (as a current in
+     *                           stock bean bag, or one that has been previously
+     *                           stocked in the store, but the other stored
+     *                           elements (manufacturer, name and free text) do
+     *                           not match the pre-existing version
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     * @throws InvalidMonthException    if the month is not in the range 1 to 12
+     */
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month, String information) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        addBeanBags(num, manufacturer, name, id, year, month, information, true);
+    }
+
+    /**
+     * Method to set the price of bean bags with matching ID in stock.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                ID of bean bags
+     * @param priceInPence      bean bag price in pence
+     * @throws InvalidPriceException if the priceInPence < 1
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public void setBeanBagPrice(String id, int priceInPence) throws InvalidPriceException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        if (priceInPence < 1) {
+            throw StoreExceptions.INVALID_PRICE;
+        }
+        ReentrantLock lock = stripeOf(packedID);
+        long records;
+        lock.lock();
+        try {
+            findSku(packedID).price = priceInPence;
+            records = appendChange(JournalRecord.setPrice(packedID, priceInPence));
+        } finally {
+            lock.unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method sells bean bags with the corresponding ID from the store and removes
+     * the sold bean bags from the stock.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param num           number of bean bags to be sold
+     * @param id            ID of bean bags to be sold
+     * @throws BeanBagNotInStockException   if the bean bag has previously been in
+     *                      stock, but is now out of stock
+     * @throws InsufficientStockException   if the bean bag is in stock, but not
+     *                      enough are available (i.e. in stock and not reserved)
+     *                      to meet sale demand
+     * @throws IllegalNumberOfBeanBagsSoldException if an attempt is being made to
+     *                      sell fewer than 1 bean bag
+     * @throws PriceNotSetException if the bag is in stock, and there is sufficient
+     *                      stock to meet demand, but the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public void sellBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsSoldException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        if (num < 1) {
+            throw StoreExceptions.ILLEGAL_NUMBER_SOLD;
+        }
+        int packedID = parseID(id);
+        ReentrantLock lock = stripeOf(packedID);
+        long records;
+        lock.lock();
+        try {
+            Sku sku = findSku(packedID);
+            checkAvailable(sku, num);
+            sku.available -= num;
+            this.availableBeanBags.add(-num);
+            recordSale(sku, num, sku.price);
+            records = appendChange(JournalRecord.sell(packedID, num));
+        } finally {
+            lock.unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method reserves bean bags with the corresponding ID in the store and returns
+     * the reservation number needed to later access the reservation
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @return              unique reservation number, i.e. one not currently live
+     *                      in the system
+     * @throws BeanBagNotInStockException   if the bean bag has previously been in
+     *                      stock, but is now out of stock
+     * @throws InsufficientStockException   if the bean bag is in stock, but not
+     *                      enough are available to meet the reservation demand
+     * @throws IllegalNumberOfBeanBagsReservedException if the number of bean bags
+     *                      requested to reserve is fewer than 1
+     * @throws PriceNotSetException if the bag is in stock, and there is sufficient
+     *                      stock to meet demand, but the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public int reserveBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        return reserveBeanBags(num, id, 0);
+    }
+
+    /**
+     * Method reserves bean bags with the corresponding ID in the store, under
+     * the given reservation number or a newly handed out one.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @param reservationNumber reservation number to use, or 0 to hand out a
+     *                      new one
+     * @return              reservation number of the reservation
+     * @throws BeanBagNotInStockException   if the bean bag is out of stock
+     * @throws InsufficientStockException   if not enough are available
+     * @throws IllegalNumberOfBeanBagsReservedException if the number of bean bags
+     *                      requested to reserve is fewer than 1
+     * @throws PriceNotSetException if the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private int reserveBeanBags(int num, String id, int reservationNumber) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        if (num < 1) {
+            throw StoreExceptions.ILLEGAL_NUMBER_RESERVED;
+        }
+        int packedID = parseID(id);
+        ReentrantLock lock = stripeOf(packedID);
+        long records;
+        long allocatorKey;
+        int allocatorCounter;
+        lock.lock();
+        try {
+            Sku sku = findSku(packedID);
+            checkAvailable(sku, num);
+            Reservation reservation = new Reservation(sku, num, sku.price);
+            if (reservationNumber != 0) {
+                if (this.reservations.putIfAbsent(reservationNumber, reservation) != null) {
+                    throw new IllegalStateException("Reservation number " + reservationNumber + " is already in use.");
+                }
+                synchronized (this.allocatorLock) {
+                    allocatorKey = this.reservationAllocator.getKey();
+                    allocatorCounter = this.reservationAllocator.getCounter();
+                }
+            } else {
+                do {
+                    synchronized (this.allocatorLock) {
+                        reservationNumber = this.reservationAllocator.next();
+                        allocatorKey = this.reservationAllocator.getKey();
+                        allocatorCounter = this.reservationAllocator.getCounter();
+                    }
+                    //skipping numbers from an earlier cycle that are still reserved.
+                } while (this.reservations.putIfAbsent(reservationNumber, reservation) != null);
+            }
+            sku.available -= num;
+            sku.reserved += num;
+            this.availableBeanBags.add(-num);
+            this.reservedBeanBags.add(num);
+            this.totalPriceOfReservedBeanBags.add((long) num * reservation.price);
+            records = appendChange(JournalRecord.reserve(packedID, num, reservationNumber, allocatorKey, allocatorCounter, 0));
+        } finally {
+            lock.unlock();
+        }
+        awaitLogged(records);
+        return reservationNumber;
+    }
+
+    /**
+     * Method removes an existing reservation from the system due to a reservation 
+     * cancellation (rather than sale). The stock should therefore remain unchanged.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param reservationNumber           reservation number
+     * @throws ReservationNumberNotRecognisedException  if the reservation number
+     *                          does not match a current reservation in the system
+     */
+    @Override
+    public void unreserveBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        Reservation reservation = claimReservation(reservationNumber);
+        long records;
+        try {
+            releaseReservation(reservation);
+            reservation.sku.available += reservation.quantity;
+            this.availableBeanBags.add(reservation.quantity);
+            records = appendChange(JournalRecord.unreserve(reservationNumber));
+        } finally {
+            stripeOf(reservation.sku.id).unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method sells beanbags with the corresponding reservation number from
+     * the store and removes these sold beanbags from the stock.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param reservationNumber           unique reservation number used to find 
+     *                                    beanbag(s) to be sold
+     * @throws ReservationNumberNotRecognisedException  if the reservation number
+     *                          does not match a current reservation in the system
+     */
+    @Override
+    public void sellBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        Reservation reservation = claimReservation(reservationNumber);
+        long records;
+        try {
+            releaseReservation(reservation);
+            //customers pay the lower of the reserved and current price.
+            recordSale(reservation.sku, reservation.quantity, Math.min(reservation.price, reservation.sku.price));
+            records = appendChange(JournalRecord.sellReservation(reservationNumber));
+        } finally {
+            stripeOf(reservation.sku.id).unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Access method for the number of BeanBags stocked by this BeanBagStore
+     * (total of reserved and unreserved stock).
+     *
+     * @return                  number of bean bags in this store
+     */
+    @Override
+    public int beanBagsInStock() {
+        return toInt(this.availableBeanBags.sum() + this.reservedBeanBags.sum());
+    }
+
+    /**
+     * Access method for the number of reserved bean bags stocked by this
+     * BeanBagStore.
+     *
+     * @return                  number of reserved bean bags in this store
+     */
+    @Override
+    public int reservedBeanBagsInStock() {
+        return toInt(this.reservedBeanBags.sum());
+    }
+
+    /**
+     * Method returns number of bean bags with matching ID in stock (total
+     * researved and unreserved).
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id            ID of bean bags
+     * @return              number of bean bags matching ID in stock
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public int beanBagsInStock(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        Sku sku = findSku(parseID(id));
+        return sku.available + sku.reserved;
+    }
+
+    /**
+     * Method saves this BeanBagStore's contents into a snapshot file, in the
+     * same format as {@link Store}. Changes wait only while the contents are
+     * copied, not while the file is written.
+     *
+     * @param filename      location of the file to be saved
+     * @throws IOException  if there is a problem experienced when trying to save
+     *                      the store contents to the file
+     */
+    @Override
+    public void saveStoreContents(String filename) throws IOException {
+        writeSnapshot(filename, false);
+    }
+
+    /**
+     * Method writes this BeanBagStore's contents to a snapshot file, recording
+     * how many journal records the contents include, and optionally drops
+     * those records from the journal afterwards.
+     *
+     * @param filename      location of the file to be saved
+     * @param checkpoint    whether to drop the journal records included
+     * @throws IOException  if there is a problem experienced when trying to save
+     *                      the store contents to the file or the journal
+     */
+    private void writeSnapshot(String filename, boolean checkpoint) throws IOException {
+        TypedArrayList<BeanBag> stockList = new TypedArrayList<>();
+        TypedArrayList<BeanBag> reserveList = new TypedArrayList<>();
+        TypedArrayList<BeanBag> soldList = new TypedArrayList<>();
+        ReservationNumberAllocator allocator;
+        StoreJournal journal = this.journal;
+        long journalRecords = 0;
+        lockAll();
+        try {
+            if (journal != null) {
+                journalRecords = checkpoint ? journal.mark() : journal.getNumberOfRecords();
+            }
+            for (Sku sku : this.stock.values()) {
+                BeanBag stockEntry = new BeanBag(sku.available, sku.manufacturer, sku.name, sku.id, sku.year, sku.month, sku.information);
+                stockEntry.setPrice(sku.price);
+                stockEntry.setReservedQuantity(sku.reserved);
+                stockEntry.setSoldQuantity(sku.sold);
+                stockEntry.setTotalPriceOfSold(sku.totalPriceOfSold);
+                stockList.add(stockEntry);
+                for (int i = 0; i < sku.sales.size(); i++) {
+                    //copying each sale, as later sales at the same price add to it once unlocked.
+                    soldList.add(new BeanBag(sku.sales.get(i)));
+                }
+            }
+            for (Integer reservationNumber : this.reservations.keySet()) {
+                Reservation reservation = this.reservations.get(reservationNumber);
+                reserveList.add(new BeanBag(reservation.quantity, reservation.sku.id, reservation.price, reservationNumber));
+            }
+            synchronized (this.allocatorLock) {
+                allocator = ReservationNumberAllocator.restore(this.reservationAllocator.getKey(), this.reservationAllocator.getCounter());
+            }
+        } finally {
+            unlockAll();
+        }
+        StoreSnapshot.write(filename, stockList, reserveList, soldList, allocator, journalRecords);
+        if (checkpoint) {
+            journal.truncate(journalRecords);
+        }
+    }
+
+    /**
+     * Method reads a list of bean bags written by saveStoreContents.
+     *
+     * @param read               to read the serialised file
+     * @return                   bean bags read from the file
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the file
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    private TypedArrayList<BeanBag> readStoreList(ObjectInputStream read) throws IOException, ClassNotFoundException {
+        TypedArrayList<BeanBag> list = new TypedArrayList<>();
+        int size = read.readInt();
+        for (int i = 0; i < size; i++) {
+            Object beanBag = read.readObject();
+            if (!(beanBag instanceof BeanBag)) {
+                throw new InvalidObjectException("Invalid store file: a list holds something other than a bean bag.");
+            }
+            list.add((BeanBag) beanBag);
+        }
+        return list;
+    }
+
+    /**
+     * Method loads and replaces this BeanBagStore's contents with the contents
+     * of a file saved by a ConcurrentStore or a {@link Store}. The file is read
+     * in full before anything is replaced, so the store is unchanged if
+     * loading fails. Reservations a Store made with a time to live are loaded,
+     * but never expire in a ConcurrentStore.
+     *
+     * @param filename      location of the file to be loaded
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the file
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    @Override
+    public void loadStoreContents(String filename) throws IOException, ClassNotFoundException {
+        load(filename);
+        if (this.journal != null) {
+            //the journal no longer follows on from the loaded contents.
+            checkpoint();
+        }
+    }
+
+    /**
+     * Method replaces this BeanBagStore's contents with the contents stored in
+     * the file given in the argument, without touching the journal.
+     *
+     * @param filename      location of the file to be loaded
+     * @return              number of journal records included in the file
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the file
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    private long load(String filename) throws IOException, ClassNotFoundException {
+        TypedArrayList<BeanBag> stockList;
+        TypedArrayList<BeanBag> reserveList;
+        TypedArrayList<BeanBag> soldList;
+        ReservationNumberAllocator allocator;
+        long journalRecords = 0;
+        if (StoreSnapshot.isSnapshot(filename)) {
+            StoreSnapshot snapshot = StoreSnapshot.read(filename);
+            journalRecords = snapshot.getJournalRecords();
+            stockList = snapshot.getStockList();
+            reserveList = snapshot.getReserveList();
+            soldList = snapshot.getSoldList();
+            allocator = snapshot.getReservationAllocator();
+        } else {
+            //files saved before snapshots were introduced.
+            ObjectInputStream read = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                stockList = readStoreList(read);
+                reserveList = readStoreList(read);
+                soldList = readStoreList(read);
+                //the fresh allocator skips the numbers of the loaded reservations.
+                allocator = new ReservationNumberAllocator();
+            } finally {
+                read.close();
+            }
+        }
+        //checking the lists fit together before anything is replaced.
+        StoreSnapshot.checkReferences(stockList, reserveList);
+        lockAll();
+        try {
+            clear();
+            for (int i = 0; i < stockList.size(); i++) {
+                BeanBag stockEntry = stockList.get(i);
+                Sku sku = new Sku(stockEntry.getPackedId(), stockEntry.getManufacturer(), stockEntry.getName(), stockEntry.getInformation(), stockEntry.getYear(), stockEntry.getMonth());
+                sku.price = stockEntry.getPrice();
+                sku.available = stockEntry.getQuantity();
+                this.stock.put(sku.id, sku);
+                this.availableBeanBags.add(sku.available);
+            }
+            for (int i = 0; i < reserveList.size(); i++) {
+                BeanBag reservation = reserveList.get(i);
+                Sku sku = this.stock.get(reservation.getPackedId());
+                sku.reserved += reservation.getQuantity();
+                this.reservations.put(reservation.getReservationNumber(), new Reservation(sku, reservation.getQuantity(), reservation.getPrice()));
+                this.reservedBeanBags.add(reservation.getQuantity());
+                this.totalPriceOfReservedBeanBags.add((long) reservation.getQuantity() * reservation.getPrice());
+            }
+            for (int i = 0; i < soldList.size(); i++) {
+                BeanBag sale = soldList.get(i);
+                Sku sku = this.stock.get(sale.getPackedId());
+                //sales of an ID since replaced, in files saved by the first Store, have no stock entry.
+                if (sku != null) {
+                    recordSale(sku, sale.getQuantity(), sale.getPrice());
+                }
+            }
+            synchronized (this.allocatorLock) {
+                this.reservationAllocator = allocator;
+            }
+        } finally {
+            unlockAll();
+        }
+        return journalRecords;
+    }
+
+    /**
+     * Access method for the number of different bean bags currently stocked by this
+     * BeanBagStore.
+     *
+     * @return                  number of different specific bean bags currently in
+     *                          this store (i.e. how many different IDs represented
+     *                          by bean bags currently in stock, including reserved)
+     */
+    @Override
+    public int getNumberOfDifferentBeanBagsInStock() {
+        return this.stock.size();
+    }
+
+    /**
+     * Method to return number of bean bags sold by this BeanBagStore.
+     *
+     * @return                  number of bean bags sold by the store
+     */
+    @Override
+    public int getNumberOfSoldBeanBags() {
+        return toInt(this.soldBeanBags.sum());
+    }
+
+    /**
+     * Method to return number of bean bags sold by this BeanBagStore with
+     * matching ID.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                 ID of bean bags
+     * @return                   number bean bags sold by the store with matching ID
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public int getNumberOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        return toInt(findSku(parseID(id)).sold);
+    }
+
+    /**
+     * Method to return total price of bean bags sold by this BeanBagStore
+     * (in pence), i.e. income that has been generated by these sales).
+     *
+     * @return                  total cost of bean bags sold (in pence)
+     */
+    @Override
+    public int getTotalPriceOfSoldBeanBags() {
+        return toInt(this.totalPriceOfSoldBeanBags.sum());
+    }
+
+    /**
+     * Method to return total price of bean bags sold by this BeanBagStore
+     * (in pence) with  matching ID (i.e. income that has been generated 
+     * by these sales).
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                ID of bean bags
+     * @return                  total cost of bean bags sold (in pence) with
+     *                          matching ID
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public int getTotalPriceOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        return toInt(findSku(parseID(id)).totalPriceOfSold);
+    }
+
+    /**
+     * Method to return the total price of reserved bean bags in this BeanBagStore
+     * (i.e. income that would be generated if all the reserved stock is sold 
+     * to those holding the reservations).
+     *
+     * @return                  total price of reserved bean bags
+     */
+    @Override
+    public int getTotalPriceOfReservedBeanBags() {
+        return toInt(this.totalPriceOfReservedBeanBags.sum());
+    }
+
+    /**
+     * Method to return the free text details of a bean bag in stock. If there
+     * are no String details for a bean bag, there will be an empty String
+     * instance returned.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                ID of bean bag
+     * @return                  any free text details relating to the bean bag
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    @Override
+    public String getBeanBagDetails(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        return findSku(parseID(id)).information;
+    }
+
+    /*
+     * Method removes every bean bag, reservation and sale. The caller must
+     * hold every stripe lock
+     */
+    private void clear() {
+        this.stock.clear();
+        this.reservations.clear();
+        this.availableBeanBags.reset();
+        this.reservedBeanBags.reset();
+        this.totalPriceOfReservedBeanBags.reset();
+        this.soldBeanBags.reset();
+        this.totalPriceOfSoldBeanBags.reset();
+    }
+
+    /**
+     * Method empties this BeanBagStore of its contents and resets
+     * all internal counters.
+     */
+    @Override
+    public void empty() {
+        long records;
+        lockAll();
+        try {
+            clear();
+            synchronized (this.allocatorLock) {
+                this.reservationAllocator = new ReservationNumberAllocator();
+            }
+            records = appendChange(JournalRecord.empty());
+        } finally {
+            unlockAll();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method resets the tracking of number and costs of all bean bags sold.
+     * The stock levels of this BeanBagStore and reservations should
+     * be unaffected.
+     */
+    @Override
+    public void resetSaleAndCostTracking() {
+        long records;
+        lockAll();
+        try {
+            for (Sku sku : this.stock.values()) {
+                sku.sold = 0;
+                sku.totalPriceOfSold = 0;
+                sku.sales.clear();
+            }
+            this.soldBeanBags.reset();
+            this.totalPriceOfSoldBeanBags.reset();
+            records = appendChange(JournalRecord.resetSales());
+        } finally {
+            unlockAll();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method replaces the ID of current stock matching the first argument with the 
+     * ID held in the second argument. To be used if there was e.g. a data entry 
+     * error on the ID initially entered. After the method has completed all stock
+     * which had the old ID should now have the replacement ID (including 
+     * reservations), and all trace of the old ID should be purged from the system 
+     * (e.g. tracking of previous sales that had the old ID should reflect the 
+     * replacement ID).
+     * <p>
+     * If the replacement ID already exists in the system, this method will return 
+     * an {@link IllegalIDException}.
+     * 
+     * @param oldId             old ID of bean bags
+     * @param replacementId     replacement ID of bean bags
+     * @throws BeanBagIDNotRecognisedException  if the oldId does not match any
+     *                          bag in (or previously in) stock
+     * @throws IllegalIDException   if either argument is not a positive eight
+     *                          character hexadecimal number, or if the 
+     *                          replacementID is already in use in the store as 
+     *                          an ID
+     */
+    @Override
+    public void replace(String oldId, String replacementId) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedOldID = parseID(oldId);
+        int packedReplacementID = parseID(replacementId);
+        int oldStripe = stripeIndexOf(packedOldID);
+        int replacementStripe = stripeIndexOf(packedReplacementID);
+        ReentrantLock first = this.stripes[Math.min(oldStripe, replacementStripe)];
+        ReentrantLock second = this.stripes[Math.max(oldStripe, replacementStripe)];
+        long records;
+        //taking both locks in stripe order, the same order as lockAll.
+        first.lock();
+        second.lock();
+        try {
+            Sku sku = findSku(packedOldID);
+            if (this.stock.containsKey(packedReplacementID)) {
+                throw StoreExceptions.ID_IN_USE;
+            }
+            this.stock.put(packedReplacementID, sku);
+            this.stock.remove(packedOldID);
+            sku.id = packedReplacementID;
+            for (int i = 0; i < sku.sales.size(); i++) {
+                sku.sales.get(i).setPackedId(packedReplacementID);
+            }
+            records = appendChange(JournalRecord.replace(packedOldID, packedReplacementID));
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+        awaitLogged(records);
+    }
+
+    /**
+     * Method replaces this BeanBagStore's contents with the snapshot file
+     * given, followed by the changes recorded in the journal file given, and
+     * then records every later change in the journal, in the same format as
+     * {@link Store}. Each change is written to the journal before the method
+     * making it returns; changes made by threads at the same time are written
+     * together, so they share the wait for the disk. If the journal can't be
+     * written the method making the change throws an
+     * {@link UncheckedIOException}.
+     * <p>
+     * Either file is created when it does not exist yet. A change only half
+     * written to the end of the journal is dropped. The state of this
+     * BeanBagStore is emptied if an exception is thrown by this method.
+     *
+     * @param snapshotFilename  location of the snapshot file
+     * @param journalFilename   location of the journal file
+     * @throws IOException  if there is a problem reading either file, or the
+     *                      journal does not follow on from the snapshot
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    public void openJournal(String snapshotFilename, String journalFilename) throws IOException, ClassNotFoundException {
+        lockAll();
+        try {
+            closeJournal();
+            try {
+                long snapshotRecords = 0;
+                if (new File(snapshotFilename).exists()) {
+                    snapshotRecords = load(snapshotFilename);
+                } else {
+                    clear();
+                    synchronized (this.allocatorLock) {
+                        this.reservationAllocator = new ReservationNumberAllocator();
+                    }
+                }
+                TypedArrayList<JournalRecord> records = new TypedArrayList<>();
+                StoreJournal opened = StoreJournal.open(journalFilename, snapshotRecords, records);
+                try {
+                    for (int i = 0; i < records.size(); i++) {
+                        replay(records.get(i));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    opened.close();
+                    throw e;
+                }
+                this.journalSnapshot = snapshotFilename;
+                this.journal = opened;
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                empty();
+                throw e;
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Method writes this BeanBagStore's contents to the snapshot file the
+     * journal carries on from, and then drops the journal records the
+     * snapshot includes. Changes wait only while the contents are copied.
+     *
+     * @throws IOException  if there is a problem writing the snapshot or the
+     *                      journal
+     * @throws IllegalStateException    if no journal is open
+     */
+    public void checkpoint() throws IOException {
+        String snapshotFilename = this.journalSnapshot;
+        if (this.journal == null || snapshotFilename == null) {
+            throw new IllegalStateException("No journal is open.");
+        }
+        writeSnapshot(snapshotFilename, true);
+    }
+
+    /**
+     * Method closes the journal opened by openJournal, if there is one. Later
+     * changes are no longer recorded.
+     *
+     * @throws IOException  if there is a problem closing the journal
+     */
+    public void closeJournal() throws IOException {
+        StoreJournal closing;
+        lockAll();
+        try {
+            closing = this.journal;
+            this.journal = null;
+            this.journalSnapshot = null;
+        } finally {
+            unlockAll();
+        }
+        if (closing != null) {
+            closing.close();
+        }
+    }
+
+    /**
+     * Method appends a change to the journal, if one is open. The caller must
+     * hold the locks of the bean bags changed, so changes to the same bean
+     * bags are appended in the order they were made.
+     *
+     * @param record        change made to this BeanBagStore
+     * @return              number of journal records once the change is
+     *                      included, or 0 if there is no journal
+     */
+    private long appendChange(JournalRecord record) {
+        StoreJournal journal = this.journal;
+        return journal == null ? 0 : journal.append(record);
+    }
+
+    /**
+     * Method waits until the journal holds the given number of records. The
+     * caller must not hold any lock, so other threads can append meanwhile.
+     *
+     * @param records       number of journal records to wait for, or 0
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    private void awaitLogged(long records) {
+        StoreJournal journal = this.journal;
+        if (records == 0 || journal == null) {
+            return;
+        }
+        try {
+            journal.commit(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method puts the allocator back in the state recorded with a replayed
+     * reservation, as handing out its number may have used up several.
+     * Reservations made at the same time can reach the journal out of order,
+     * so the allocator is only ever moved forward.
+     *
+     * @param record        replayed reservation
+     * @throws IOException  if the recorded counter is out of range
+     */
+    private void replayAllocator(JournalRecord record) throws IOException {
+        synchronized (this.allocatorLock) {
+            if (this.reservationAllocator.isBehind(record.getAllocatorKey(), record.getAllocatorCounter())) {
+                this.reservationAllocator = ReservationNumberAllocator.restore(record.getAllocatorKey(), record.getAllocatorCounter());
+            }
+        }
+    }
+
+    /**
+     * Method makes a change read back from the journal again.
+     *
+     * @param record        change to make
+     * @throws IOException  if the change can't be made
+     */
+    private void replay(JournalRecord record) throws IOException {
+        try {
+            String id = BeanBagID.format(record.getId());
+            switch (record.getType()) {
+                case JournalRecord.ADD:
+                    addBeanBags(record.getQuantity(), record.getManufacturer(), record.getName(), id, record.getYear(), record.getMonth());
+                    break;
+                case JournalRecord.ADD_WITH_INFORMATION:
+                    addBeanBags(record.getQuantity(), record.getManufacturer(), record.getName(), id, record.getYear(), record.getMonth(), record.getInformation());
+                    break;
+                case JournalRecord.RESTOCK:
+                    restock(record.getId(), record.getQuantity());
+                    break;
+                case JournalRecord.SET_PRICE:
+                    setBeanBagPrice(id, record.getPrice());
+                    break;
+                case JournalRecord.SELL:
+                    sellBeanBags(record.getQuantity(), id);
+                    break;
+                case JournalRecord.RESERVE:
+                    reserveBeanBags(record.getQuantity(), id, record.getReservationNumber());
+                    replayAllocator(record);
+                    break;
+                case JournalRecord.UNRESERVE:
+                    unreserveBeanBags(record.getReservationNumber());
+                    break;
+                case JournalRecord.SELL_RESERVATION:
+                    sellBeanBags(record.getReservationNumber());
+                    break;
+                case JournalRecord.REPLACE:
+                    replace(id, BeanBagID.format(record.getReplacementId()));
+                    break;
+                case JournalRecord.RESET_SALES:
+                    resetSaleAndCostTracking();
+                    break;
+                case JournalRecord.EMPTY:
+                    empty();
+                    break;
+                default:
+                    throw new IOException("Invalid journal: unknown record type " + record.getType() + ".");
+            }
+        } catch (Exception e) {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Invalid journal: a change could not be made again. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method adds bean bags back to a stocked ID, as recorded by a restock in
+     * a {@link Store} journal.
+     *
+     * @param id            packed ID of the bean bags
+     * @param num           number of bean bags restocked
+     * @throws BeanBagIDNotRecognisedException  if the ID is not stocked
+     * @throws IllegalNumberOfBeanBagsAddedException   if the stock of the bean
+     *                      bags can't hold that many more
+     */
+    private void restock(int id, int num) throws BeanBagIDNotRecognisedException, IllegalNumberOfBeanBagsAddedException {
+        ReentrantLock lock = stripeOf(id);
+        long records;
+        lock.lock();
+        try {
+            Sku sku = findSku(id);
+            if (isTooManyAdded(sku, num)) {
+                throw StoreExceptions.TOO_MANY_ADDED;
+            }
+            sku.available += num;
+            this.availableBeanBags.add(num);
+            records = appendChange(JournalRecord.restock(id, num));
+        } finally {
+            lock.unlock();
+        }
+        awaitLogged(records);
+    }
+}
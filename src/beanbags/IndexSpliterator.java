@@ -0,0 +1,73 @@
+package beanbags;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Splits a range of indexes, such as the rows of an {@link Inventory} or the
+ * positions of a {@link TypedArrayList}, in half for the fork-join pool until
+ * each part is no bigger than a threshold, so a parallel stream over the
+ * range hands each worker a run of neighbouring indexes and stays
+ * sequential for small ranges.
+ * <p>
+ * The indexes are produced without boxing, and the structure they index must
+ * not change while the stream runs.
+ */
+final class IndexSpliterator implements Spliterator.OfInt {
+    private int origin; //next index to produce
+    private final int fence; //one past the last index
+    private final int threshold; //size below which the range isn't split
+
+    /**
+     * Creates a spliterator over the indexes from origin up to, but not
+     * including, fence.
+     *
+     * @param origin            first index
+     * @param fence             one past the last index
+     * @param threshold         size at or below which the range isn't split
+     */
+    IndexSpliterator(int origin, int fence, int threshold) {
+        this.origin = origin;
+        this.fence = fence;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public OfInt trySplit() {
+        if (this.fence - this.origin <= this.threshold) {
+            return null; //to leave the range whole, as it is small enough to run sequentially.
+        }
+        int middle = (this.origin + this.fence) >>> 1;
+        IndexSpliterator prefix = new IndexSpliterator(this.origin, middle, this.threshold);
+        this.origin = middle;
+        return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        if (this.origin >= this.fence) {
+            return false;
+        }
+        action.accept(this.origin++);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+        int index = this.origin;
+        this.origin = this.fence;
+        for (; index < this.fence; index++) {
+            action.accept(index);
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.fence - this.origin;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
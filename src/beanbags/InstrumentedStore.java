@@ -0,0 +1,451 @@
+package beanbags;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InstrumentedStore wraps any BeanBagStore, passing every call through to it
+ * unchanged while counting the calls, and the exceptions thrown, of each
+ * operation and recording their latencies in a {@link LatencyHistogram}.
+ * <p>
+ * Timing a call costs two reads of {@link System#nanoTime()} and one atomic
+ * increment, with nothing allocated, so the wrapper can stay in place under
+ * production load. It is as safe to call from several threads as the store
+ * it wraps; the statistics themselves can be recorded and read by any number
+ * of threads at once.
+ */
+public class InstrumentedStore implements BeanBagStore {
+    private final BeanBagStore store;
+    private final Statistics[] statistics;
+
+    /**
+     * Each operation of a BeanBagStore whose calls are counted and timed.
+     * Overloaded methods are timed as separate operations.
+     */
+    public enum Operation {
+        ADD_BEAN_BAGS("addBeanBags"),
+        SET_BEAN_BAG_PRICE("setBeanBagPrice"),
+        SELL_BEAN_BAGS("sellBeanBags(num, id)"),
+        RESERVE_BEAN_BAGS("reserveBeanBags"),
+        UNRESERVE_BEAN_BAGS("unreserveBeanBags"),
+        SELL_RESERVED_BEAN_BAGS("sellBeanBags(reservationNumber)"),
+        BEAN_BAGS_IN_STOCK("beanBagsInStock()"),
+        RESERVED_BEAN_BAGS_IN_STOCK("reservedBeanBagsInStock"),
+        BEAN_BAGS_IN_STOCK_OF_ID("beanBagsInStock(id)"),
+        SAVE_STORE_CONTENTS("saveStoreContents"),
+        LOAD_STORE_CONTENTS("loadStoreContents"),
+        NUMBER_OF_DIFFERENT_BEAN_BAGS_IN_STOCK("getNumberOfDifferentBeanBagsInStock"),
+        NUMBER_OF_SOLD_BEAN_BAGS("getNumberOfSoldBeanBags()"),
+        NUMBER_OF_SOLD_BEAN_BAGS_OF_ID("getNumberOfSoldBeanBags(id)"),
+        TOTAL_PRICE_OF_SOLD_BEAN_BAGS("getTotalPriceOfSoldBeanBags()"),
+        TOTAL_PRICE_OF_SOLD_BEAN_BAGS_OF_ID("getTotalPriceOfSoldBeanBags(id)"),
+        TOTAL_PRICE_OF_RESERVED_BEAN_BAGS("getTotalPriceOfReservedBeanBags"),
+        BEAN_BAG_DETAILS("getBeanBagDetails"),
+        EMPTY("empty"),
+        RESET_SALE_AND_COST_TRACKING("resetSaleAndCostTracking"),
+        REPLACE("replace");
+
+        private final String methodName;
+
+        /**
+         * Creates an operation timing the given method.
+         *
+         * @param methodName    name of the method in a report
+         */
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+
+        /**
+         * Access method for the name of the method timed.
+         *
+         * @return              name of the method
+         */
+        public String getMethodName() {
+            return this.methodName;
+        }
+    }
+
+    /**
+     * Latencies and exceptions of one operation.
+     */
+    private static final class Statistics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong exceptions = new AtomicLong();
+    }
+
+    /**
+     * Creates a wrapper around the given store, with nothing recorded yet.
+     *
+     * @param store             store every call is passed to
+     */
+    public InstrumentedStore(BeanBagStore store) {
+        this.store = store;
+        this.statistics = new Statistics[Operation.values().length];
+        for (int i = 0; i < this.statistics.length; i++) {
+            this.statistics[i] = new Statistics();
+        }
+    }
+
+    /**
+     * Access method for the store being wrapped.
+     *
+     * @return                  wrapped store
+     */
+    public BeanBagStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Method returns the number of calls made to an operation, including
+     * those that threw an exception.
+     *
+     * @param operation         operation timed
+     * @return                  number of calls
+     */
+    public long getCalls(Operation operation) {
+        return getLatencies(operation).getCount();
+    }
+
+    /**
+     * Method returns the number of calls to an operation that threw an
+     * exception.
+     *
+     * @param operation         operation timed
+     * @return                  number of exceptions thrown
+     */
+    public long getExceptions(Operation operation) {
+        return this.statistics[operation.ordinal()].exceptions.get();
+    }
+
+    /**
+     * Method returns a snapshot of the latencies of an operation, from which
+     * percentiles can be read.
+     *
+     * @param operation         operation timed
+     * @return                  snapshot of the latencies in nanoseconds
+     */
+    public LatencyHistogram.Snapshot getLatencies(Operation operation) {
+        return this.statistics[operation.ordinal()].latencies.snapshot();
+    }
+
+    /**
+     * Method returns a table of the calls, exceptions and p50, p99 and p99.9
+     * latencies of every operation that has been called.
+     *
+     * @return                  report with a line per operation
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-36s %12s %10s %10s %10s %10s%n",
+                "operation", "calls", "exceptions", "p50 ns", "p99 ns", "p99.9 ns"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot latencies = getLatencies(operation);
+            if (latencies.getCount() != 0) {
+                report.append(String.format("%-36s %12d %10d %10d %10d %10d%n", operation.getMethodName(),
+                        latencies.getCount(), getExceptions(operation), latencies.getValueAtPercentile(50),
+                        latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9)));
+            }
+        }
+        return report.toString();
+    }
+
+    /*
+     * Method records the latency of a call that started at the given time
+     */
+    private void record(Operation operation, long start) {
+        this.statistics[operation.ordinal()].latencies.record(System.nanoTime() - start);
+    }
+
+    /*
+     * Method counts an exception thrown by a call
+     */
+    private void failed(Operation operation) {
+        this.statistics[operation.ordinal()].exceptions.incrementAndGet();
+    }
+
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        long start = System.nanoTime();
+        try {
+            this.store.addBeanBags(num, manufacturer, name, id, year, month);
+        } catch (Exception e) {
+            failed(Operation.ADD_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.ADD_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month, String information) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        long start = System.nanoTime();
+        try {
+            this.store.addBeanBags(num, manufacturer, name, id, year, month, information);
+        } catch (Exception e) {
+            failed(Operation.ADD_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.ADD_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public void setBeanBagPrice(String id, int priceInPence) throws InvalidPriceException, BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            this.store.setBeanBagPrice(id, priceInPence);
+        } catch (Exception e) {
+            failed(Operation.SET_BEAN_BAG_PRICE);
+            throw e;
+        } finally {
+            record(Operation.SET_BEAN_BAG_PRICE, start);
+        }
+    }
+
+    @Override
+    public void sellBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsSoldException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            this.store.sellBeanBags(num, id);
+        } catch (Exception e) {
+            failed(Operation.SELL_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.SELL_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public int reserveBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            return this.store.reserveBeanBags(num, id);
+        } catch (Exception e) {
+            failed(Operation.RESERVE_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.RESERVE_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public void unreserveBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException, IllegalIDException, BeanBagMismatchException, InvalidMonthException, IllegalNumberOfBeanBagsAddedException {
+        long start = System.nanoTime();
+        try {
+            this.store.unreserveBeanBags(reservationNumber);
+        } catch (Exception e) {
+            failed(Operation.UNRESERVE_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.UNRESERVE_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public void sellBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        long start = System.nanoTime();
+        try {
+            this.store.sellBeanBags(reservationNumber);
+        } catch (Exception e) {
+            failed(Operation.SELL_RESERVED_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.SELL_RESERVED_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public int beanBagsInStock() {
+        long start = System.nanoTime();
+        try {
+            return this.store.beanBagsInStock();
+        } catch (RuntimeException e) {
+            failed(Operation.BEAN_BAGS_IN_STOCK);
+            throw e;
+        } finally {
+            record(Operation.BEAN_BAGS_IN_STOCK, start);
+        }
+    }
+
+    @Override
+    public int reservedBeanBagsInStock() {
+        long start = System.nanoTime();
+        try {
+            return this.store.reservedBeanBagsInStock();
+        } catch (RuntimeException e) {
+            failed(Operation.RESERVED_BEAN_BAGS_IN_STOCK);
+            throw e;
+        } finally {
+            record(Operation.RESERVED_BEAN_BAGS_IN_STOCK, start);
+        }
+    }
+
+    @Override
+    public int beanBagsInStock(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            return this.store.beanBagsInStock(id);
+        } catch (Exception e) {
+            failed(Operation.BEAN_BAGS_IN_STOCK_OF_ID);
+            throw e;
+        } finally {
+            record(Operation.BEAN_BAGS_IN_STOCK_OF_ID, start);
+        }
+    }
+
+    @Override
+    public void saveStoreContents(String filename) throws IOException {
+        long start = System.nanoTime();
+        try {
+            this.store.saveStoreContents(filename);
+        } catch (Exception e) {
+            failed(Operation.SAVE_STORE_CONTENTS);
+            throw e;
+        } finally {
+            record(Operation.SAVE_STORE_CONTENTS, start);
+        }
+    }
+
+    @Override
+    public void loadStoreContents(String filename) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        try {
+            this.store.loadStoreContents(filename);
+        } catch (Exception e) {
+            failed(Operation.LOAD_STORE_CONTENTS);
+            throw e;
+        } finally {
+            record(Operation.LOAD_STORE_CONTENTS, start);
+        }
+    }
+
+    @Override
+    public int getNumberOfDifferentBeanBagsInStock() {
+        long start = System.nanoTime();
+        try {
+            return this.store.getNumberOfDifferentBeanBagsInStock();
+        } catch (RuntimeException e) {
+            failed(Operation.NUMBER_OF_DIFFERENT_BEAN_BAGS_IN_STOCK);
+            throw e;
+        } finally {
+            record(Operation.NUMBER_OF_DIFFERENT_BEAN_BAGS_IN_STOCK, start);
+        }
+    }
+
+    @Override
+    public int getNumberOfSoldBeanBags() {
+        long start = System.nanoTime();
+        try {
+            return this.store.getNumberOfSoldBeanBags();
+        } catch (RuntimeException e) {
+            failed(Operation.NUMBER_OF_SOLD_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.NUMBER_OF_SOLD_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public int getNumberOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            return this.store.getNumberOfSoldBeanBags(id);
+        } catch (Exception e) {
+            failed(Operation.NUMBER_OF_SOLD_BEAN_BAGS_OF_ID);
+            throw e;
+        } finally {
+            record(Operation.NUMBER_OF_SOLD_BEAN_BAGS_OF_ID, start);
+        }
+    }
+
+    @Override
+    public int getTotalPriceOfSoldBeanBags() {
+        long start = System.nanoTime();
+        try {
+            return this.store.getTotalPriceOfSoldBeanBags();
+        } catch (RuntimeException e) {
+            failed(Operation.TOTAL_PRICE_OF_SOLD_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.TOTAL_PRICE_OF_SOLD_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public int getTotalPriceOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            return this.store.getTotalPriceOfSoldBeanBags(id);
+        } catch (Exception e) {
+            failed(Operation.TOTAL_PRICE_OF_SOLD_BEAN_BAGS_OF_ID);
+            throw e;
+        } finally {
+            record(Operation.TOTAL_PRICE_OF_SOLD_BEAN_BAGS_OF_ID, start);
+        }
+    }
+
+    @Override
+    public int getTotalPriceOfReservedBeanBags() {
+        long start = System.nanoTime();
+        try {
+            return this.store.getTotalPriceOfReservedBeanBags();
+        } catch (RuntimeException e) {
+            failed(Operation.TOTAL_PRICE_OF_RESERVED_BEAN_BAGS);
+            throw e;
+        } finally {
+            record(Operation.TOTAL_PRICE_OF_RESERVED_BEAN_BAGS, start);
+        }
+    }
+
+    @Override
+    public String getBeanBagDetails(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            return this.store.getBeanBagDetails(id);
+        } catch (Exception e) {
+            failed(Operation.BEAN_BAG_DETAILS);
+            throw e;
+        } finally {
+            record(Operation.BEAN_BAG_DETAILS, start);
+        }
+    }
+
+    @Override
+    public void empty() {
+        long start = System.nanoTime();
+        try {
+            this.store.empty();
+        } catch (RuntimeException e) {
+            failed(Operation.EMPTY);
+            throw e;
+        } finally {
+            record(Operation.EMPTY, start);
+        }
+    }
+
+    @Override
+    public void resetSaleAndCostTracking() {
+        long start = System.nanoTime();
+        try {
+            this.store.resetSaleAndCostTracking();
+        } catch (RuntimeException e) {
+            failed(Operation.RESET_SALE_AND_COST_TRACKING);
+            throw e;
+        } finally {
+            record(Operation.RESET_SALE_AND_COST_TRACKING, start);
+        }
+    }
+
+    @Override
+    public void replace(String oldId, String replacementId) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        long start = System.nanoTime();
+        try {
+            this.store.replace(oldId, replacementId);
+        } catch (Exception e) {
+            failed(Operation.REPLACE);
+            throw e;
+        } finally {
+            record(Operation.REPLACE, start);
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package beanbags;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Holds the stock of a {@link Store} as parallel primitive arrays, one row
+ * per bean bag ID, instead of one {@link BeanBag} object per ID. Quantities,
+ * prices and running totals sit next to each other in memory, so scans over
+ * every bean bag read straight through arrays, and manufacturer, name and
+ * free text are kept once each in a dictionary of strings.
+ * <p>
+ * Rows are handed out in the order bean bags are added and stay put until
+ * the inventory is cleared; a row keeps its number when its ID is replaced.
+ * IDs are found through an open addressing table of rows, keyed by the ID
+ * column itself. Reservations and sales refer to their bean bags by row, so
+ * replacing an ID only changes the row's entry in the table.
+ * <p>
+ * Each column, and the table, is split into pages of 1024 entries. A frozen
+ * copy shares the pages, and the inventory copies a page only the first time
+ * it changes it after the copy was taken, so the copy can be read by another
+ * thread while a change costs at most one page of each column. The
+ * dictionary of strings is only ever appended to, beyond the end any frozen
+ * copy reads, so its pages are shared without copying.
+ */
+final class Inventory {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int EMPTY = -1;
+    private static final int NO_STRING = -1;
+
+    //columns by page, where a first page that is the only one may hold fewer than PAGE_SIZE rows.
+    private int[][] ids; //packed by BeanBagID
+    private int[][] quantities; //available bean bags, not counting reserved ones
+    private int[][] prices;
+    private int[][] reserved;
+    private long[][] sold;
+    private long[][] totalPriceOfSold;
+    private short[][] years;
+    private byte[][] months;
+    private int[][] manufacturers; //dictionary positions, or NO_STRING
+    private int[][] names;
+    private int[][] information;
+    private int size;
+    private int capacity; //rows the pages hold
+
+    private int[][] table; //rows by ID, or EMPTY, by page like the columns
+    private int tableMask; //slots in the table - 1
+    private String[][] strings; //dictionary of strings by position, by page like the columns
+    private int stringCount;
+    private HashMap<String, Integer> positions; //positions by string
+
+    private int epoch; //pages copied or allocated since the latest frozen copy have this epoch
+    private int[] pageEpochs; //epoch of each page of the columns
+    private int[] tablePageEpochs; //epoch of each page of the table
+    private boolean isShared; //set until the inventory changes after a frozen copy was taken
+
+    /**
+     * Creates an inventory with no contents that can hold the expected number
+     * of bean bags without growing.
+     *
+     * @param expectedSize      number of bean bags expected
+     */
+    Inventory(int expectedSize) {
+        allocate(Math.max(INITIAL_CAPACITY, expectedSize));
+        this.strings = new String[][] {new String[INITIAL_CAPACITY]};
+        this.positions = new HashMap<>();
+    }
+
+    /**
+     * Creates a frozen copy of an inventory, sharing its pages but not the
+     * lists of them.
+     *
+     * @param source            inventory to be copied
+     */
+    private Inventory(Inventory source) {
+        this.ids = source.ids.clone();
+        this.quantities = source.quantities.clone();
+        this.prices = source.prices.clone();
+        this.reserved = source.reserved.clone();
+        this.sold = source.sold.clone();
+        this.totalPriceOfSold = source.totalPriceOfSold.clone();
+        this.years = source.years.clone();
+        this.months = source.months.clone();
+        this.manufacturers = source.manufacturers.clone();
+        this.names = source.names.clone();
+        this.information = source.information.clone();
+        this.size = source.size;
+        this.capacity = source.capacity;
+        this.table = source.table.clone();
+        this.tableMask = source.tableMask;
+        this.strings = source.strings.clone();
+        this.stringCount = source.stringCount;
+        this.positions = null;
+        //a frozen copy never changes, so it owns no pages.
+        this.epoch = source.epoch;
+        this.isShared = true;
+    }
+
+    /*
+     * Method allocates empty columns and an empty table for the given number
+     * of rows
+     */
+    private void allocate(int capacity) {
+        int pages = capacity <= PAGE_SIZE ? 1 : (capacity + PAGE_MASK) >>> PAGE_BITS;
+        this.ids = new int[pages][];
+        this.quantities = new int[pages][];
+        this.prices = new int[pages][];
+        this.reserved = new int[pages][];
+        this.sold = new long[pages][];
+        this.totalPriceOfSold = new long[pages][];
+        this.years = new short[pages][];
+        this.months = new byte[pages][];
+        this.manufacturers = new int[pages][];
+        this.names = new int[pages][];
+        this.information = new int[pages][];
+        this.pageEpochs = new int[pages];
+        this.capacity = pages == 1 ? capacity : pages * PAGE_SIZE;
+        for (int page = 0; page < pages; page++) {
+            allocatePage(page, Math.min(this.capacity, PAGE_SIZE));
+        }
+        allocateTable(tableSizeFor(this.capacity));
+        this.size = 0;
+    }
+
+    /*
+     * Method allocates an empty page of every column
+     */
+    private void allocatePage(int page, int length) {
+        this.ids[page] = new int[length];
+        this.quantities[page] = new int[length];
+        this.prices[page] = new int[length];
+        this.reserved[page] = new int[length];
+        this.sold[page] = new long[length];
+        this.totalPriceOfSold[page] = new long[length];
+        this.years[page] = new short[length];
+        this.months[page] = new byte[length];
+        this.manufacturers[page] = new int[length];
+        this.names[page] = new int[length];
+        this.information[page] = new int[length];
+        this.pageEpochs[page] = this.epoch;
+    }
+
+    /*
+     * Method copies a page of every column into arrays of the given length,
+     * which this inventory then owns
+     */
+    private void copyPage(int page, int length) {
+        this.ids[page] = Arrays.copyOf(this.ids[page], length);
+        this.quantities[page] = Arrays.copyOf(this.quantities[page], length);
+        this.prices[page] = Arrays.copyOf(this.prices[page], length);
+        this.reserved[page] = Arrays.copyOf(this.reserved[page], length);
+        this.sold[page] = Arrays.copyOf(this.sold[page], length);
+        this.totalPriceOfSold[page] = Arrays.copyOf(this.totalPriceOfSold[page], length);
+        this.years[page] = Arrays.copyOf(this.years[page], length);
+        this.months[page] = Arrays.copyOf(this.months[page], length);
+        this.manufacturers[page] = Arrays.copyOf(this.manufacturers[page], length);
+        this.names[page] = Arrays.copyOf(this.names[page], length);
+        this.information[page] = Arrays.copyOf(this.information[page], length);
+        this.pageEpochs[page] = this.epoch;
+    }
+
+    /*
+     * Method allocates an empty table with the given number of slots
+     */
+    private void allocateTable(int tableSize) {
+        int pages = Math.max(1, tableSize >>> PAGE_BITS);
+        this.table = new int[pages][];
+        for (int page = 0; page < pages; page++) {
+            this.table[page] = new int[Math.min(tableSize, PAGE_SIZE)];
+            Arrays.fill(this.table[page], EMPTY);
+        }
+        this.tablePageEpochs = new int[pages];
+        Arrays.fill(this.tablePageEpochs, this.epoch);
+        this.tableMask = tableSize - 1;
+    }
+
+    /*
+     * Method returns the table size that keeps the given number of rows at
+     * most half the table
+     */
+    private static int tableSizeFor(int capacity) {
+        int tableSize = INITIAL_CAPACITY;
+        while (tableSize < capacity * 2) {
+            tableSize *= 2;
+        }
+        return tableSize;
+    }
+
+    /**
+     * Method returns a copy of the inventory frozen as it is now, which
+     * another thread can read while this inventory keeps changing. Taking the
+     * copy costs one reference per page. The copy itself must not be changed.
+     *
+     * @return                  frozen copy of the inventory
+     */
+    Inventory frozenCopy() {
+        if (!this.isShared) {
+            //every page is now shared, so the next change to each one copies it.
+            this.epoch++;
+            this.isShared = true;
+        }
+        return new Inventory(this);
+    }
+
+    /**
+     * Method checks whether the inventory has changed since a frozen copy of
+     * it was taken. Copies taken while the inventory is unchanged share its
+     * epoch, and the first change after a copy starts a new epoch when the
+     * next copy is taken.
+     *
+     * @param copy              frozen copy of this inventory
+     * @return                  true if the inventory is as it was when the
+     *                          copy was taken
+     */
+    boolean isUnchangedSince(Inventory copy) {
+        return this.isShared && this.epoch == copy.epoch;
+    }
+
+    /*
+     * Method returns the page of a row about to change, copying it first if
+     * a frozen copy still reads it
+     */
+    private int writablePage(int row) {
+        int page = row >>> PAGE_BITS;
+        if (this.pageEpochs[page] != this.epoch) {
+            copyPage(page, this.ids[page].length);
+        }
+        this.isShared = false;
+        return page;
+    }
+
+    /*
+     * Method returns the row held in a slot of the table
+     */
+    private int tableAt(int slot) {
+        return this.table[slot >>> PAGE_BITS][slot & PAGE_MASK];
+    }
+
+    /*
+     * Method sets the row held in a slot of the table, copying its page first
+     * if a frozen copy still reads it
+     */
+    private void setTableAt(int slot, int row) {
+        int page = slot >>> PAGE_BITS;
+        if (this.tablePageEpochs[page] != this.epoch) {
+            this.table[page] = this.table[page].clone();
+            this.tablePageEpochs[page] = this.epoch;
+        }
+        this.isShared = false;
+        this.table[page][slot & PAGE_MASK] = row;
+    }
+
+    /*
+     * Method returns the slot an id would ideally occupy in the table
+     */
+    private int idealSlot(int id) {
+        int hash = id * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & this.tableMask;
+    }
+
+    /*
+     * Method returns the slot holding the row of the id, or the empty slot
+     * where it would be put
+     */
+    private int slotOf(int id) {
+        int slot = idealSlot(id);
+        int row = tableAt(slot);
+        while (row != EMPTY && idAt(row) != id) {
+            slot = (slot + 1) & this.tableMask;
+            row = tableAt(slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Method finds the row of the bean bags with the given ID.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  row of the bean bags, or -1 if not stocked
+     */
+    int find(int id) {
+        return tableAt(slotOf(id));
+    }
+
+    /**
+     * Method adds a row for bean bags whose ID is not stocked yet.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param information       free text detailing bean bag information
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @param quantity          number of bean bags available
+     * @return                  row of the bean bags
+     */
+    int add(int id, String manufacturer, String name, String information, short year, byte month, int quantity) {
+        if (this.size == this.capacity) {
+            grow();
+        }
+        int row = this.size++;
+        int page = writablePage(row);
+        int offset = row & PAGE_MASK;
+        this.ids[page][offset] = id;
+        this.quantities[page][offset] = quantity;
+        this.prices[page][offset] = 0;
+        this.reserved[page][offset] = 0;
+        this.sold[page][offset] = 0;
+        this.totalPriceOfSold[page][offset] = 0;
+        this.years[page][offset] = year;
+        this.months[page][offset] = month;
+        this.manufacturers[page][offset] = positionOf(manufacturer);
+        this.names[page][offset] = positionOf(name);
+        this.information[page][offset] = positionOf(information);
+        setTableAt(slotOf(id), row);
+        return row;
+    }
+
+    /**
+     * Method adds a row copied from a stock entry, including its price and
+     * running totals.
+     *
+     * @param stockEntry        stock entry whose ID is not stocked yet
+     * @return                  row of the bean bags
+     */
+    int add(BeanBag stockEntry) {
+        int row = add(stockEntry.getPackedId(), stockEntry.getManufacturer(), stockEntry.getName(),
+                stockEntry.getInformation(), stockEntry.getYear(), stockEntry.getMonth(), stockEntry.getQuantity());
+        int page = row >>> PAGE_BITS;
+        int offset = row & PAGE_MASK;
+        this.prices[page][offset] = stockEntry.getPrice();
+        this.reserved[page][offset] = stockEntry.getReservedQuantity();
+        this.sold[page][offset] = stockEntry.getSoldQuantity();
+        this.totalPriceOfSold[page][offset] = stockEntry.getTotalPriceOfSold();
+        return row;
+    }
+
+    /*
+     * Method makes room for more rows, doubling a first page that is the only
+     * one or else adding a page, and rebuilds the table once it would be more
+     * than half full
+     */
+    private void grow() {
+        int pages = this.ids.length;
+        if (pages == 1 && this.capacity < PAGE_SIZE) {
+            this.capacity = Math.min(this.capacity * 2, PAGE_SIZE);
+            copyPage(0, this.capacity);
+        }
+        else {
+            this.ids = Arrays.copyOf(this.ids, pages + 1);
+            this.quantities = Arrays.copyOf(this.quantities, pages + 1);
+            this.prices = Arrays.copyOf(this.prices, pages + 1);
+            this.reserved = Arrays.copyOf(this.reserved, pages + 1);
+            this.sold = Arrays.copyOf(this.sold, pages + 1);
+            this.totalPriceOfSold = Arrays.copyOf(this.totalPriceOfSold, pages + 1);
+            this.years = Arrays.copyOf(this.years, pages + 1);
+            this.months = Arrays.copyOf(this.months, pages + 1);
+            this.manufacturers = Arrays.copyOf(this.manufacturers, pages + 1);
+            this.names = Arrays.copyOf(this.names, pages + 1);
+            this.information = Arrays.copyOf(this.information, pages + 1);
+            this.pageEpochs = Arrays.copyOf(this.pageEpochs, pages + 1);
+            allocatePage(pages, PAGE_SIZE);
+            this.capacity += PAGE_SIZE;
+        }
+        int tableSize = tableSizeFor(this.capacity);
+        if (tableSize != this.tableMask + 1) {
+            allocateTable(tableSize);
+            for (int row = 0; row < this.size; row++) {
+                setTableAt(slotOf(idAt(row)), row);
+            }
+        }
+    }
+
+    /*
+     * Method returns the dictionary position of a string, adding it if it is
+     * new
+     */
+    private int positionOf(String text) {
+        if (text == null) {
+            return NO_STRING;
+        }
+        Integer position = this.positions.get(text);
+        if (position == null) {
+            position = this.stringCount;
+            int page = position >>> PAGE_BITS;
+            if (page == this.strings.length) {
+                this.strings = Arrays.copyOf(this.strings, page + 1);
+                this.strings[page] = new String[PAGE_SIZE];
+            }
+            else if ((position & PAGE_MASK) == this.strings[page].length) {
+                //a frozen copy keeps reading the shorter first page.
+                this.strings[page] = Arrays.copyOf(this.strings[page], Math.min(position * 2, PAGE_SIZE));
+            }
+            //only positions past every frozen copy are written, so shared pages aren't copied.
+            this.strings[page][position & PAGE_MASK] = text;
+            this.stringCount++;
+            this.positions.put(text, position);
+        }
+        return position;
+    }
+
+    /*
+     * Method returns the string at a dictionary position
+     */
+    private String stringAt(int position) {
+        return position == NO_STRING ? null : this.strings[position >>> PAGE_BITS][position & PAGE_MASK];
+    }
+
+    /**
+     * Method changes the ID of a row, which keeps its number. The replacement
+     * ID must not be stocked.
+     *
+     * @param row               row of the bean bags
+     * @param replacementId     replacement ID packed by BeanBagID
+     */
+    void replaceId(int row, int replacementId) {
+        int gap = slotOf(idAt(row));
+        int next = (gap + 1) & this.tableMask;
+        while (tableAt(next) != EMPTY) {
+            int ideal = idealSlot(idAt(tableAt(next)));
+            //moving the row into the gap if the gap lies on its probe path.
+            if (((next - ideal) & this.tableMask) >= ((next - gap) & this.tableMask)) {
+                setTableAt(gap, tableAt(next));
+                gap = next;
+            }
+            next = (next + 1) & this.tableMask;
+        }
+        setTableAt(gap, EMPTY);
+        this.ids[writablePage(row)][row & PAGE_MASK] = replacementId;
+        setTableAt(slotOf(replacementId), row);
+    }
+
+    /**
+     * Access method for the number of rows.
+     *
+     * @return                  number of different bean bags stocked
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Method returns the current ID of a reservation or sale, which refers to
+     * its bean bags by row, so the ID it was made under may since have been
+     * replaced. Entries without a row, including those still referring to a
+     * record of an opened snapshot, keep their own ID.
+     *
+     * @param entry             reservation or sale of the bean bags
+     * @return                  ID packed by BeanBagID
+     */
+    int idOf(BeanBag entry) {
+        return entry.getSku() < 0 ? entry.getPackedId() : idAt(entry.getSku());
+    }
+
+    /**
+     * Access method for the ID of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  ID packed by BeanBagID
+     */
+    int idAt(int row) {
+        return this.ids[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the number of available bean bags of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  available bean bags, not counting reserved ones
+     */
+    int quantityAt(int row) {
+        return this.quantities[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the price of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  price in pence, or 0 if not set
+     */
+    int priceAt(int row) {
+        return this.prices[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the number of reserved bean bags of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  reserved bean bags
+     */
+    int reservedAt(int row) {
+        return this.reserved[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the number of sold bean bags of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  sold bean bags
+     */
+    long soldAt(int row) {
+        return this.sold[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the total price of the sold bean bags of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  total price in pence
+     */
+    long totalPriceOfSoldAt(int row) {
+        return this.totalPriceOfSold[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the year of manufacture of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  year of manufacture
+     */
+    short yearAt(int row) {
+        return this.years[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the month of manufacture of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  month of manufacture
+     */
+    byte monthAt(int row) {
+        return this.months[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * Access method for the manufacturer of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  bean bag manufacturer
+     */
+    String manufacturerAt(int row) {
+        return stringAt(this.manufacturers[row >>> PAGE_BITS][row & PAGE_MASK]);
+    }
+
+    /**
+     * Access method for the name of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  bean bag name
+     */
+    String nameAt(int row) {
+        return stringAt(this.names[row >>> PAGE_BITS][row & PAGE_MASK]);
+    }
+
+    /**
+     * Access method for the free text of a row.
+     *
+     * @param row               row of the bean bags
+     * @return                  free text, or <code>null</code>
+     */
+    String informationAt(int row) {
+        return stringAt(this.information[row >>> PAGE_BITS][row & PAGE_MASK]);
+    }
+
+    /**
+     * Method sets the number of available bean bags of a row.
+     *
+     * @param row               row of the bean bags
+     * @param quantity          available bean bags, not counting reserved ones
+     */
+    void setQuantity(int row, int quantity) {
+        this.quantities[writablePage(row)][row & PAGE_MASK] = quantity;
+    }
+
+    /**
+     * Method sets the price of a row.
+     *
+     * @param row               row of the bean bags
+     * @param price             price in pence
+     */
+    void setPrice(int row, int price) {
+        this.prices[writablePage(row)][row & PAGE_MASK] = price;
+    }
+
+    /**
+     * Method sets the date of manufacture of a row.
+     *
+     * @param row               row of the bean bags
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     */
+    void setManufactureDate(int row, short year, byte month) {
+        int page = writablePage(row);
+        this.years[page][row & PAGE_MASK] = year;
+        this.months[page][row & PAGE_MASK] = month;
+    }
+
+    /**
+     * Method adds to the number of reserved bean bags of a row, or takes away
+     * from it if the number is negative.
+     *
+     * @param row               row of the bean bags
+     * @param num               change in reserved bean bags
+     */
+    void addReserved(int row, int num) {
+        this.reserved[writablePage(row)][row & PAGE_MASK] += num;
+    }
+
+    /**
+     * Method adds bean bags sold at the given price to the sold totals of a
+     * row.
+     *
+     * @param row               row of the bean bags
+     * @param num               number of bean bags sold
+     * @param price             price each bean bag was sold for in pence
+     */
+    void addSold(int row, long num, int price) {
+        int page = writablePage(row);
+        this.sold[page][row & PAGE_MASK] += num;
+        this.totalPriceOfSold[page][row & PAGE_MASK] += num * price;
+    }
+
+    /**
+     * Method zeroes the reserved and sold totals of every row, ready for them
+     * to be recounted.
+     */
+    void resetTotals() {
+        for (int row = 0; row < this.size; row += PAGE_SIZE) {
+            int page = writablePage(row);
+            Arrays.fill(this.reserved[page], 0, Math.min(this.size - row, PAGE_SIZE), 0);
+        }
+        resetSales();
+    }
+
+    /**
+     * Method zeroes the sold totals of every row.
+     */
+    void resetSales() {
+        for (int row = 0; row < this.size; row += PAGE_SIZE) {
+            int page = writablePage(row);
+            int rows = Math.min(this.size - row, PAGE_SIZE);
+            Arrays.fill(this.sold[page], 0, rows, 0);
+            Arrays.fill(this.totalPriceOfSold[page], 0, rows, 0);
+        }
+    }
+
+    /**
+     * Method totals the available bean bags of every row in one scan.
+     *
+     * @return                  available bean bags
+     */
+    long sumOfQuantities() {
+        long sum = 0;
+        for (int row = 0; row < this.size; row += PAGE_SIZE) {
+            int[] page = this.quantities[row >>> PAGE_BITS];
+            int rows = Math.min(this.size - row, PAGE_SIZE);
+            for (int offset = 0; offset < rows; offset++) {
+                sum += page[offset];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Method copies a row into a stock entry, including its price and running
+     * totals.
+     *
+     * @param row               row of the bean bags
+     * @return                  stock entry holding the row
+     */
+    BeanBag copyOf(int row) {
+        BeanBag stockEntry = new BeanBag(quantityAt(row), manufacturerAt(row), nameAt(row), idAt(row),
+                yearAt(row), monthAt(row), informationAt(row));
+        stockEntry.setPrice(priceAt(row));
+        stockEntry.setReservedQuantity(reservedAt(row));
+        stockEntry.setSoldQuantity(soldAt(row));
+        stockEntry.setTotalPriceOfSold(totalPriceOfSoldAt(row));
+        return stockEntry;
+    }
+
+    /**
+     * Method removes every row and string. A frozen copy keeps the pages it
+     * was taken with.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+        this.strings = new String[][] {new String[INITIAL_CAPACITY]};
+        this.stringCount = 0;
+        this.positions = new HashMap<>();
+        this.isShared = false;
+    }
+}
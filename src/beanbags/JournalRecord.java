@@ -0,0 +1,505 @@
+package beanbags;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One change made to a store, as written to a {@link StoreJournal}. Each
+ * record is a type byte followed by only the fields that type needs, all
+ * little-endian, with strings written as an int byte length (-1 for null) and
+ * UTF-8 bytes. IDs are written packed by {@link BeanBagID}.
+ */
+final class JournalRecord {
+    static final byte ADD = 1;
+    static final byte ADD_WITH_INFORMATION = 2;
+    static final byte RESTOCK = 3;
+    static final byte SET_PRICE = 4;
+    static final byte SELL = 5;
+    static final byte RESERVE = 6;
+    static final byte UNRESERVE = 7;
+    static final byte SELL_RESERVATION = 8;
+    static final byte REPLACE = 9;
+    static final byte RESET_SALES = 10;
+    static final byte EMPTY = 11;
+
+    private final byte type;
+    private final int id;
+    private final int quantity;
+    private final int price;
+    private final int reservationNumber;
+    private final int replacementId;
+    private final short year;
+    private final byte month;
+    private final String manufacturer;
+    private final String name;
+    private final String information;
+    private final long allocatorKey;
+    private final int allocatorCounter;
+    private final long deadline;
+
+    /**
+     * Creates a record, with zero or <code>null</code> for the fields its type
+     * doesn't use.
+     */
+    private JournalRecord(byte type, int id, int quantity, int price, int reservationNumber, int replacementId, short year, byte month, String manufacturer, String name, String information) {
+        this(type, id, quantity, price, reservationNumber, replacementId, year, month, manufacturer, name, information, 0, 0, 0);
+    }
+
+    /**
+     * Creates a record, including the state of the reservation number
+     * allocator after the change and the deadline of a reservation.
+     */
+    private JournalRecord(byte type, int id, int quantity, int price, int reservationNumber, int replacementId, short year, byte month, String manufacturer, String name, String information, long allocatorKey, int allocatorCounter, long deadline) {
+        this.type = type;
+        this.id = id;
+        this.quantity = quantity;
+        this.price = price;
+        this.reservationNumber = reservationNumber;
+        this.replacementId = replacementId;
+        this.year = year;
+        this.month = month;
+        this.manufacturer = manufacturer;
+        this.name = name;
+        this.information = information;
+        this.allocatorKey = allocatorKey;
+        this.allocatorCounter = allocatorCounter;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Method creates a record of bean bags added without checking their free
+     * text.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @return                  record of the change
+     */
+    static JournalRecord add(int num, String manufacturer, String name, int id, short year, byte month) {
+        return new JournalRecord(ADD, id, num, 0, 0, 0, year, month, manufacturer, name, null);
+    }
+
+    /**
+     * Method creates a record of bean bags added with free text.
+     *
+     * @param num               number of bean bags added
+     * @param manufacturer      bean bag manufacturer
+     * @param name              bean bag name
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param year              year of manufacture
+     * @param month             month of manufacture
+     * @param information       free text detailing bean bag information
+     * @return                  record of the change
+     */
+    static JournalRecord add(int num, String manufacturer, String name, int id, short year, byte month, String information) {
+        return new JournalRecord(ADD_WITH_INFORMATION, id, num, 0, 0, 0, year, month, manufacturer, name, information);
+    }
+
+    /**
+     * Method creates a record of bean bags added to an existing stock entry.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param num               number of bean bags added
+     * @return                  record of the change
+     */
+    static JournalRecord restock(int id, int num) {
+        return new JournalRecord(RESTOCK, id, num, 0, 0, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of a price being set.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param price             bean bag price in pence
+     * @return                  record of the change
+     */
+    static JournalRecord setPrice(int id, int price) {
+        return new JournalRecord(SET_PRICE, id, 0, price, 0, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of bean bags sold at their current price.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param num               number of bean bags sold
+     * @return                  record of the change
+     */
+    static JournalRecord sell(int id, int num) {
+        return new JournalRecord(SELL, id, num, 0, 0, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of bean bags reserved, with the key and counter
+     * of the allocator once the reservation number was handed out. Handing
+     * out a number can use up several, so replaying the record restores the
+     * allocator instead of asking it for one more. The record also holds the
+     * deadline of a reservation made with a time to live, so it still expires
+     * once replayed.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @param num               number of bean bags reserved
+     * @param reservationNumber reservation number handed out
+     * @param allocatorKey      key of the allocator after handing it out
+     * @param allocatorCounter  counter of the allocator after handing it out
+     * @param deadline          time the reservation expires in milliseconds
+     *                          since the epoch, or 0 if it never does
+     * @return                  record of the change
+     */
+    static JournalRecord reserve(int id, int num, int reservationNumber, long allocatorKey, int allocatorCounter, long deadline) {
+        return new JournalRecord(RESERVE, id, num, 0, reservationNumber, 0, (short) 0, (byte) 0, null, null, null, allocatorKey, allocatorCounter, deadline);
+    }
+
+    /**
+     * Method creates a record of a reservation being cancelled.
+     *
+     * @param reservationNumber reservation number
+     * @return                  record of the change
+     */
+    static JournalRecord unreserve(int reservationNumber) {
+        return new JournalRecord(UNRESERVE, 0, 0, 0, reservationNumber, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of a reservation being sold.
+     *
+     * @param reservationNumber reservation number
+     * @return                  record of the change
+     */
+    static JournalRecord sellReservation(int reservationNumber) {
+        return new JournalRecord(SELL_RESERVATION, 0, 0, 0, reservationNumber, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of an ID being replaced.
+     *
+     * @param id                old ID of bean bags packed by BeanBagID
+     * @param replacementId     replacement ID of bean bags packed by BeanBagID
+     * @return                  record of the change
+     */
+    static JournalRecord replace(int id, int replacementId) {
+        return new JournalRecord(REPLACE, id, 0, 0, 0, replacementId, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of the sale tracking being reset.
+     *
+     * @return                  record of the change
+     */
+    static JournalRecord resetSales() {
+        return new JournalRecord(RESET_SALES, 0, 0, 0, 0, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method creates a record of the store being emptied.
+     *
+     * @return                  record of the change
+     */
+    static JournalRecord empty() {
+        return new JournalRecord(EMPTY, 0, 0, 0, 0, 0, (short) 0, (byte) 0, null, null, null);
+    }
+
+    /**
+     * Method returns the number of bytes {@link #encode(ByteBuffer)} writes.
+     *
+     * @return                  size of the encoded record in bytes
+     */
+    int encodedSize() {
+        switch (this.type) {
+            case ADD:
+                return 12 + sizeOf(this.manufacturer) + sizeOf(this.name);
+            case ADD_WITH_INFORMATION:
+                return 12 + sizeOf(this.manufacturer) + sizeOf(this.name) + sizeOf(this.information);
+            case RESERVE:
+                return 33;
+            case RESTOCK:
+            case SET_PRICE:
+            case SELL:
+            case REPLACE:
+                return 9;
+            case UNRESERVE:
+            case SELL_RESERVATION:
+                return 5;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Method writes the record into a little-endian buffer with room for it.
+     *
+     * @param buffer            buffer the record is written to
+     */
+    void encode(ByteBuffer buffer) {
+        buffer.put(this.type);
+        switch (this.type) {
+            case ADD:
+            case ADD_WITH_INFORMATION:
+                buffer.putInt(this.id);
+                buffer.putInt(this.quantity);
+                buffer.putShort(this.year);
+                buffer.put(this.month);
+                putString(buffer, this.manufacturer);
+                putString(buffer, this.name);
+                if (this.type == ADD_WITH_INFORMATION) {
+                    putString(buffer, this.information);
+                }
+                break;
+            case RESTOCK:
+            case SELL:
+                buffer.putInt(this.id);
+                buffer.putInt(this.quantity);
+                break;
+            case SET_PRICE:
+                buffer.putInt(this.id);
+                buffer.putInt(this.price);
+                break;
+            case RESERVE:
+                buffer.putInt(this.id);
+                buffer.putInt(this.quantity);
+                buffer.putInt(this.reservationNumber);
+                buffer.putLong(this.allocatorKey);
+                buffer.putInt(this.allocatorCounter);
+                buffer.putLong(this.deadline);
+                break;
+            case UNRESERVE:
+            case SELL_RESERVATION:
+                buffer.putInt(this.reservationNumber);
+                break;
+            case REPLACE:
+                buffer.putInt(this.id);
+                buffer.putInt(this.replacementId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Method reads a record written by {@link #encode(ByteBuffer)}.
+     *
+     * @param buffer            little-endian buffer holding exactly the record
+     * @return                  record read from the buffer
+     * @throws IOException      if the buffer doesn't hold a valid record
+     */
+    static JournalRecord decode(ByteBuffer buffer) throws IOException {
+        try {
+            JournalRecord record;
+            byte type = buffer.get();
+            switch (type) {
+                case ADD:
+                case ADD_WITH_INFORMATION:
+                    int id = buffer.getInt();
+                    int num = buffer.getInt();
+                    short year = buffer.getShort();
+                    byte month = buffer.get();
+                    String manufacturer = getString(buffer);
+                    String name = getString(buffer);
+                    record = type == ADD ? add(num, manufacturer, name, id, year, month)
+                            : add(num, manufacturer, name, id, year, month, getString(buffer));
+                    break;
+                case RESTOCK:
+                    record = restock(buffer.getInt(), buffer.getInt());
+                    break;
+                case SET_PRICE:
+                    record = setPrice(buffer.getInt(), buffer.getInt());
+                    break;
+                case SELL:
+                    record = sell(buffer.getInt(), buffer.getInt());
+                    break;
+                case RESERVE:
+                    record = reserve(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getLong());
+                    break;
+                case UNRESERVE:
+                    record = unreserve(buffer.getInt());
+                    break;
+                case SELL_RESERVATION:
+                    record = sellReservation(buffer.getInt());
+                    break;
+                case REPLACE:
+                    record = replace(buffer.getInt(), buffer.getInt());
+                    break;
+                case RESET_SALES:
+                    record = resetSales();
+                    break;
+                case EMPTY:
+                    record = empty();
+                    break;
+                default:
+                    throw new IOException("Invalid journal: unknown record type " + type + ".");
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Invalid journal: a record is longer than its type.");
+            }
+            return record;
+        } catch (RuntimeException e) {
+            //a buffer underflow or a bad string length.
+            throw new IOException("Invalid journal: a record is shorter than its type.", e);
+        }
+    }
+
+    /*
+     * Method returns the number of bytes a string is written in
+     */
+    private static int sizeOf(String text) {
+        return 4 + (text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /*
+     * Method writes a string as its byte length and UTF-8 bytes
+     */
+    private static void putString(ByteBuffer buffer, String text) {
+        if (text == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /*
+     * Method reads a string written by putString
+     */
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method returns the type of change.
+     *
+     * @return                  one of the record type constants
+     */
+    byte getType() {
+        return this.type;
+    }
+
+    /**
+     * Method returns the ID of the bean bags changed.
+     *
+     * @return                  ID of bean bag packed by BeanBagID
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /**
+     * Method returns the number of bean bags added, sold or reserved.
+     *
+     * @return                  number of bean bags
+     */
+    int getQuantity() {
+        return this.quantity;
+    }
+
+    /**
+     * Method returns the price set.
+     *
+     * @return                  bean bag price in pence
+     */
+    int getPrice() {
+        return this.price;
+    }
+
+    /**
+     * Method returns the reservation number made, cancelled or sold.
+     *
+     * @return                  reservation number
+     */
+    int getReservationNumber() {
+        return this.reservationNumber;
+    }
+
+    /**
+     * Method returns the key of the reservation number allocator after the
+     * reservation.
+     *
+     * @return                  key of the allocator
+     */
+    long getAllocatorKey() {
+        return this.allocatorKey;
+    }
+
+    /**
+     * Method returns the counter of the reservation number allocator after
+     * the reservation.
+     *
+     * @return                  counter of the allocator
+     */
+    int getAllocatorCounter() {
+        return this.allocatorCounter;
+    }
+
+    /**
+     * Method returns the time the reservation expires.
+     *
+     * @return                  time in milliseconds since the epoch, or 0 if
+     *                          the reservation has no time to live
+     */
+    long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Method returns the replacement ID.
+     *
+     * @return                  replacement ID packed by BeanBagID
+     */
+    int getReplacementId() {
+        return this.replacementId;
+    }
+
+    /**
+     * Method returns the year of manufacture of bean bags added.
+     *
+     * @return                  year of manufacture
+     */
+    short getYear() {
+        return this.year;
+    }
+
+    /**
+     * Method returns the month of manufacture of bean bags added.
+     *
+     * @return                  month of manufacture
+     */
+    byte getMonth() {
+        return this.month;
+    }
+
+    /**
+     * Method returns the manufacturer of bean bags added.
+     *
+     * @return                  bean bag manufacturer
+     */
+    String getManufacturer() {
+        return this.manufacturer;
+    }
+
+    /**
+     * Method returns the name of bean bags added.
+     *
+     * @return                  bean bag name
+     */
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * Method returns the free text of bean bags added.
+     *
+     * @return                  free text detailing bean bag information
+     */
+    String getInformation() {
+        return this.information;
+    }
+}
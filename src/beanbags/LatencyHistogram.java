@@ -0,0 +1,130 @@
+package beanbags;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in nanoseconds in logarithmic buckets, so recording one is
+ * a single atomic increment and the histogram takes the same few kilobytes
+ * however many are recorded. Latencies below 8ns have a bucket each; above
+ * that every power of two is split into 8 buckets, so a percentile is
+ * reported within 12.5% of the latency actually recorded.
+ * <p>
+ * Any number of threads can record at once. A snapshot reads the buckets one
+ * by one, so latencies recorded while it is taken may or may not be included.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //every long latency has a bucket, up to the top power of two.
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Method records a latency.
+     *
+     * @param nanos             latency in nanoseconds, where negative
+     *                          latencies are recorded as 0
+     */
+    public void record(long nanos) {
+        this.counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Method returns the latencies recorded so far, which no longer change as
+     * more are recorded.
+     *
+     * @return                  snapshot of the histogram
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /*
+     * Method returns the bucket counting a latency, which must not be negative
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /*
+     * Method returns the highest latency counted by a bucket
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Latencies of a LatencyHistogram as they were when the snapshot was
+     * taken.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        /**
+         * Creates a snapshot of the given bucket counts.
+         *
+         * @param counts        count of each bucket
+         */
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            this.count = total;
+        }
+
+        /**
+         * Access method for the number of latencies recorded.
+         *
+         * @return              number of latencies
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Method returns the latency that the given percentage of the
+         * recorded latencies are at or below, rounded up to the top of its
+         * bucket.
+         *
+         * @param percentile    percentage between 0 and 100, e.g. 99.9
+         * @return              latency in nanoseconds, or 0 if none are
+         *                      recorded
+         * @throws IllegalArgumentException if the percentage is out of range
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+            }
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int bucket = 0; bucket < this.counts.length; bucket++) {
+                seen += this.counts[bucket];
+                if (seen >= rank) {
+                    return highestOf(bucket);
+                }
+            }
+            return highestOf(this.counts.length - 1);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package beanbags;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Gives in place access to the stock records of a snapshot file written by
+ * {@link StoreSnapshot}, through a {@link MappedByteBuffer}. Opening a
+ * snapshot only reads its header, so it takes the same time however many bean
+ * bags the snapshot holds; the operating system pages records in as they are
+ * looked up.
+ * <p>
+ * A stock record stays in the file until it is materialised as a
+ * {@link BeanBag}, after which the Store owns the entry and the record is
+ * ignored. The checksum is not verified, as that would read the whole file.
+ * Only snapshots of up to 2 GB can be mapped.
+ */
+final class MappedSnapshot {
+    private final ByteBuffer buffer; //whole file
+    private final int dictionarySize;
+    private final int stockCount;
+    private final int reserveCount;
+    private final int soldCount;
+    private final int dictionaryStart;
+    private final int tableStart;
+    private final int stockStart;
+    private final int reserveStart;
+    private final int soldStart;
+    private final long availableBeanBags;
+    private final long allocatorKey;
+    private final int allocatorCounter;
+    private final long journalRecords;
+    private final long[] materialised; //bit set of records owned by the Store
+    private int numberOfMappedRecords; //records not yet materialised
+    private boolean salesReset; //set once the sold totals in the file are out of date
+
+    /**
+     * Creates a view of a mapped snapshot, checking its header.
+     *
+     * @param buffer            little-endian buffer of the whole file
+     * @throws IOException      if the file is not a valid snapshot
+     */
+    private MappedSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < StoreSnapshot.HEADER_SIZE || buffer.getLong(0) != StoreSnapshot.MAGIC) {
+            throw new IOException("Invalid snapshot: the file is not a bean bag store snapshot.");
+        }
+        int version = buffer.getInt(8);
+        if (version != StoreSnapshot.VERSION) {
+            throw new IOException("Invalid snapshot: version " + version + " is not supported.");
+        }
+        this.dictionarySize = buffer.getInt(16);
+        this.stockCount = buffer.getInt(20);
+        this.reserveCount = buffer.getInt(24);
+        this.soldCount = buffer.getInt(28);
+        long dictionaryBytes = buffer.getLong(32);
+        this.allocatorKey = buffer.getLong(40);
+        this.allocatorCounter = buffer.getInt(48);
+        this.availableBeanBags = buffer.getLong(64);
+        this.journalRecords = buffer.getLong(72);
+        if (buffer.getInt(12) != StoreSnapshot.HEADER_SIZE || this.dictionarySize < 0 || this.stockCount < 0
+                || this.reserveCount < 0 || this.soldCount < 0 || dictionaryBytes < 0) {
+            throw new IOException("Invalid snapshot: the header is damaged.");
+        }
+        //checking the sections add up to the whole file before trusting any offset.
+        long size = StoreSnapshot.HEADER_SIZE + dictionaryBytes + 8L * this.dictionarySize
+                + (long) StoreSnapshot.STOCK_RECORD_SIZE * this.stockCount
+                + (long) StoreSnapshot.RESERVATION_RECORD_SIZE * this.reserveCount
+                + (long) StoreSnapshot.SOLD_RECORD_SIZE * this.soldCount;
+        if (size != buffer.capacity()) {
+            throw new IOException("Invalid snapshot: the file is not the size its header describes.");
+        }
+        this.dictionaryStart = StoreSnapshot.HEADER_SIZE;
+        this.tableStart = (int) (this.dictionaryStart + dictionaryBytes);
+        this.stockStart = this.tableStart + 8 * this.dictionarySize;
+        this.reserveStart = this.stockStart + StoreSnapshot.STOCK_RECORD_SIZE * this.stockCount;
+        this.soldStart = this.reserveStart + StoreSnapshot.RESERVATION_RECORD_SIZE * this.reserveCount;
+        this.materialised = new long[(this.stockCount + 63) >>> 6];
+        this.numberOfMappedRecords = this.stockCount;
+        this.salesReset = false;
+    }
+
+    /**
+     * Creates a copy of a view of a mapped snapshot, sharing the file but
+     * not the record of which records are materialised.
+     *
+     * @param source            view to be copied
+     */
+    private MappedSnapshot(MappedSnapshot source) {
+        this.buffer = source.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.dictionarySize = source.dictionarySize;
+        this.stockCount = source.stockCount;
+        this.reserveCount = source.reserveCount;
+        this.soldCount = source.soldCount;
+        this.dictionaryStart = source.dictionaryStart;
+        this.tableStart = source.tableStart;
+        this.stockStart = source.stockStart;
+        this.reserveStart = source.reserveStart;
+        this.soldStart = source.soldStart;
+        this.availableBeanBags = source.availableBeanBags;
+        this.allocatorKey = source.allocatorKey;
+        this.allocatorCounter = source.allocatorCounter;
+        this.journalRecords = source.journalRecords;
+        this.materialised = source.materialised.clone();
+        this.numberOfMappedRecords = source.numberOfMappedRecords;
+        this.salesReset = source.salesReset;
+    }
+
+    /**
+     * Method maps a snapshot file into memory. The mapping stays valid after
+     * the file is replaced by a newer snapshot.
+     *
+     * @param filename          location of the snapshot file
+     * @return                  view of the mapped snapshot
+     * @throws IOException      if there is a problem mapping the file, or it
+     *                          is not a valid snapshot
+     */
+    static MappedSnapshot open(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot: the file is too large to be mapped.");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedSnapshot(mapped.order(ByteOrder.LITTLE_ENDIAN));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Method finds the record of a bean bag by binary search over the stock
+     * records, which are sorted by ID.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  number of the record, or -1 if the id isn't in
+     *                          the file or its record has been materialised
+     */
+    int find(int id) {
+        int low = 0;
+        int high = this.stockCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = this.buffer.getInt(this.stockStart + middle * StoreSnapshot.STOCK_RECORD_SIZE);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return isMapped(middle) ? middle : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method checks if a record is still read from the file.
+     *
+     * @param record            number of the record
+     * @return                  boolean representing if the record hasn't been
+     *                          materialised
+     */
+    boolean isMapped(int record) {
+        return (this.materialised[record >>> 6] & (1L << record)) == 0;
+    }
+
+    /**
+     * Method returns the number of stock records in the file.
+     *
+     * @return                  number of stock records
+     */
+    int getStockCount() {
+        return this.stockCount;
+    }
+
+    /**
+     * Method returns the number of stock records not yet materialised.
+     *
+     * @return                  number of records still read from the file
+     */
+    int getNumberOfMappedRecords() {
+        return this.numberOfMappedRecords;
+    }
+
+    /**
+     * Method returns the number of bean bags in stock and not reserved across
+     * every record, as it was when the snapshot was written.
+     *
+     * @return                  number of available bean bags
+     */
+    long getAvailableBeanBags() {
+        return this.availableBeanBags;
+    }
+
+    /**
+     * Method returns the number of journal records the snapshot includes.
+     *
+     * @return                  number of journal records
+     */
+    long getJournalRecords() {
+        return this.journalRecords;
+    }
+
+    /**
+     * Method returns an allocator carrying on from the one saved in the file.
+     *
+     * @return                  reservation number allocator
+     * @throws IOException      if the saved counter is out of range
+     */
+    ReservationNumberAllocator getReservationAllocator() throws IOException {
+        return ReservationNumberAllocator.restore(this.allocatorKey, this.allocatorCounter);
+    }
+
+    /**
+     * Method returns the number of bean bags of a record in stock and not
+     * reserved.
+     *
+     * @param record            number of the record
+     * @return                  number of available bean bags
+     */
+    int quantityAt(int record) {
+        return this.buffer.getInt(offsetOf(record) + 4);
+    }
+
+    /**
+     * Method returns the price of the bean bags of a record.
+     *
+     * @param record            number of the record
+     * @return                  price in pence, or 0 if it hasn't been set
+     */
+    int priceAt(int record) {
+        return this.buffer.getInt(offsetOf(record) + 8);
+    }
+
+    /**
+     * Method returns the manufacturer of the bean bags of a record.
+     *
+     * @param record            number of the record
+     * @return                  bean bag manufacturer
+     * @throws UncheckedIOException   if the record refers to a missing string
+     */
+    String manufacturerAt(int record) {
+        return stringAt(this.buffer.getInt(offsetOf(record) + 16));
+    }
+
+    /**
+     * Method returns the number of bean bags of a record that are reserved.
+     *
+     * @param record            number of the record
+     * @return                  number of reserved bean bags
+     */
+    int reservedQuantityAt(int record) {
+        return this.buffer.getInt(offsetOf(record) + 28);
+    }
+
+    /**
+     * Method returns the number of bean bags of a record that have been sold.
+     *
+     * @param record            number of the record
+     * @return                  number of sold bean bags
+     */
+    long soldQuantityAt(int record) {
+        return this.salesReset ? 0 : this.buffer.getLong(offsetOf(record) + 32);
+    }
+
+    /**
+     * Method returns the total price of the bean bags of a record that have
+     * been sold.
+     *
+     * @param record            number of the record
+     * @return                  total price of sold bean bags in pence
+     */
+    long totalPriceOfSoldAt(int record) {
+        return this.salesReset ? 0 : this.buffer.getLong(offsetOf(record) + 40);
+    }
+
+    /**
+     * Method returns the free text of a record.
+     *
+     * @param record            number of the record
+     * @return                  free text, or <code>null</code> if there is none
+     * @throws UncheckedIOException   if the record refers to a missing string
+     */
+    String informationAt(int record) {
+        return stringAt(this.buffer.getInt(offsetOf(record) + 24));
+    }
+
+    /**
+     * Method marks the sold totals in the file as reset, after the Store has
+     * reset its sale tracking.
+     */
+    void resetSales() {
+        this.salesReset = true;
+    }
+
+    /**
+     * Method returns a copy of this view frozen as it is now, which another
+     * thread can read while the Store keeps materialising records.
+     *
+     * @return                  frozen copy of this view
+     */
+    MappedSnapshot frozenCopy() {
+        return new MappedSnapshot(this);
+    }
+
+    /**
+     * Method copies a record onto the heap without materialising it, so it
+     * is still read from the file afterwards.
+     *
+     * @param record            number of the record
+     * @return                  stock entry holding the record
+     * @throws UncheckedIOException   if the record refers to a missing string
+     */
+    BeanBag copyOf(int record) {
+        int offset = offsetOf(record);
+        BeanBag stockEntry = new BeanBag(this.buffer.getInt(offset + 4), stringAt(this.buffer.getInt(offset + 16)),
+                stringAt(this.buffer.getInt(offset + 20)), this.buffer.getInt(offset), this.buffer.getShort(offset + 12),
+                this.buffer.get(offset + 14), stringAt(this.buffer.getInt(offset + 24)));
+        stockEntry.setPrice(this.buffer.getInt(offset + 8));
+        stockEntry.setReservedQuantity(reservedQuantityAt(record));
+        stockEntry.setSoldQuantity(soldQuantityAt(record));
+        stockEntry.setTotalPriceOfSold(totalPriceOfSoldAt(record));
+        return stockEntry;
+    }
+
+    /**
+     * Method copies a record onto the heap and hands it to the Store, after
+     * which the record is no longer read from the file.
+     *
+     * @param record            number of a record that is still mapped
+     * @return                  stock entry holding the record
+     * @throws UncheckedIOException   if the record refers to a missing string
+     */
+    BeanBag materialise(int record) {
+        BeanBag stockEntry = copyOf(record);
+        this.materialised[record >>> 6] |= 1L << record;
+        this.numberOfMappedRecords--;
+        return stockEntry;
+    }
+
+    /**
+     * Method reads every reservation in the file onto the heap.
+     *
+     * @return                  reservations
+     */
+    TypedArrayList<BeanBag> readReservations() {
+        TypedArrayList<BeanBag> reserveList = new TypedArrayList<>();
+        for (int i = 0; i < this.reserveCount; i++) {
+            int offset = this.reserveStart + i * StoreSnapshot.RESERVATION_RECORD_SIZE;
+            BeanBag reservation = new BeanBag(this.buffer.getInt(offset + 8), this.buffer.getInt(offset + 4),
+                    this.buffer.getInt(offset + 12), this.buffer.getInt(offset));
+            reservation.setDeadline(this.buffer.getLong(offset + 16));
+            reserveList.add(reservation);
+        }
+        return reserveList;
+    }
+
+    /**
+     * Method reads every sale in the file onto the heap.
+     *
+     * @return                  sales
+     */
+    TypedArrayList<BeanBag> readSales() {
+        TypedArrayList<BeanBag> soldList = new TypedArrayList<>();
+        for (int i = 0; i < this.soldCount; i++) {
+            int offset = this.soldStart + i * StoreSnapshot.SOLD_RECORD_SIZE;
+            soldList.add(new BeanBag(this.buffer.getInt(offset + 4), this.buffer.getInt(offset),
+                    this.buffer.getInt(offset + 8)));
+        }
+        return soldList;
+    }
+
+    /*
+     * Method returns the position of a stock record in the file
+     */
+    private int offsetOf(int record) {
+        return this.stockStart + record * StoreSnapshot.STOCK_RECORD_SIZE;
+    }
+
+    /**
+     * Method decodes the string at a position in the dictionary.
+     *
+     * @param position          position of the string, or -1 for <code>null</code>
+     * @return                  string at the position
+     * @throws UncheckedIOException   if the position or the string lies
+     *                          outside the dictionary, which is only found
+     *                          once the record is read
+     */
+    private String stringAt(int position) {
+        if (position == -1) {
+            return null;
+        }
+        if (position < 0 || position >= this.dictionarySize) {
+            throw new UncheckedIOException(new IOException("Invalid snapshot: a record refers to a missing string."));
+        }
+        long start = this.dictionaryStart + this.buffer.getLong(this.tableStart + 8 * position);
+        if (start < this.dictionaryStart || start + 4 > this.tableStart) {
+            throw new UncheckedIOException(new IOException("Invalid snapshot: the dictionary is damaged."));
+        }
+        int length = this.buffer.getInt((int) start);
+        if (length < 0 || start + 4 + length > this.tableStart) {
+            throw new UncheckedIOException(new IOException("Invalid snapshot: the dictionary is damaged."));
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer text = this.buffer.duplicate();
+        text.position((int) start + 4);
+        text.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,268 @@
+package beanbags;
+
+/**
+ * Maps a reservation number to its reservation in the reserve list, the
+ * inventory row the reservation was taken from, the position of the reservation in
+ * the reserve list and its entry in the reservation timer. Reservation numbers are kept as primitive ints using open
+ * addressing with linear probing, so no lookup boxes an {@link Integer}.
+ * <p>
+ * Reservation numbers are always 9 digit numbers, so 0 is used to mark an
+ * empty slot and can not be stored.
+ */
+class ReservationIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private BeanBag[] reservations;
+    private int[] stockRows;
+    private int[] positions;
+    private int[] timerEntries; //-1 for reservations without a time to live
+    private int size;
+
+    /**
+     * Creates initial instance of a ReservationIndex with no contents.
+     */
+    ReservationIndex() {
+        allocate(INITIAL_CAPACITY);
+        this.size = 0;
+    }
+
+    /*
+     * Method allocates empty tables of the given capacity
+     */
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.reservations = new BeanBag[capacity];
+        this.stockRows = new int[capacity];
+        this.positions = new int[capacity];
+        this.timerEntries = new int[capacity];
+    }
+
+    /**
+     * Method spreads the reservation number, so that close numbers don't
+     * cluster in the table.
+     *
+     * @param reservationNumber     reservation number
+     * @return                      slot the number would ideally be stored in
+     */
+    private int idealSlot(int reservationNumber) {
+        int hash = reservationNumber * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (this.keys.length - 1);
+    }
+
+    /**
+     * Method finds the slot holding the reservation number, or the empty slot
+     * the number would be stored in if it isn't in the index.
+     *
+     * @param reservationNumber     reservation number
+     * @return                      slot of the number in the table
+     */
+    private int find(int reservationNumber) {
+        int mask = this.keys.length - 1;
+        int slot = idealSlot(reservationNumber);
+        while (this.keys[slot] != EMPTY && this.keys[slot] != reservationNumber) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Method returns the slot holding the reservation number. The slot is only
+     * valid until the index is next changed.
+     *
+     * @param reservationNumber     reservation number
+     * @return                      slot of the reservation, or -1 if the number
+     *                              is not in the index
+     */
+    int indexOf(int reservationNumber) {
+        if (reservationNumber == EMPTY) {
+            return -1;
+        }
+        int slot = find(reservationNumber);
+        return this.keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    /**
+     * Method checks if the reservation number is in the index.
+     *
+     * @param reservationNumber     reservation number
+     * @return                      boolean representing if the number is live
+     */
+    boolean contains(int reservationNumber) {
+        return indexOf(reservationNumber) >= 0;
+    }
+
+    /**
+     * Method returns the reservation stored in the slot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @return                      reservation in the reserve list
+     */
+    BeanBag reservationAt(int slot) {
+        return this.reservations[slot];
+    }
+
+    /**
+     * Method returns the inventory row of the reservation stored in the slot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @return                      inventory row the reservation was taken from
+     */
+    int stockRowAt(int slot) {
+        return this.stockRows[slot];
+    }
+
+    /**
+     * Method records the inventory row of the reservation stored in the slot,
+     * once its bean bags have been copied out of an opened snapshot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @param stockRow              inventory row the reservation was taken from
+     */
+    void setStockRow(int slot, int stockRow) {
+        this.stockRows[slot] = stockRow;
+    }
+
+    /**
+     * Method returns the position in the reserve list of the reservation
+     * stored in the slot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @return                      position of the reservation in the list
+     */
+    int positionAt(int slot) {
+        return this.positions[slot];
+    }
+
+    /**
+     * Method returns the entry in the reservation timer of the reservation
+     * stored in the slot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @return                      timer entry, or -1 if the reservation has
+     *                              no time to live
+     */
+    int timerEntryAt(int slot) {
+        return this.timerEntries[slot];
+    }
+
+    /**
+     * Method records the entry in the reservation timer of the reservation
+     * stored in the slot.
+     *
+     * @param slot                  slot returned by {@link #indexOf(int)}
+     * @param timerEntry            timer entry, or -1 if there is none
+     */
+    void setTimerEntry(int slot, int timerEntry) {
+        this.timerEntries[slot] = timerEntry;
+    }
+
+    /**
+     * Method adds the reservation to the index, with no timer entry, replacing any reservation that
+     * already has the same number.
+     *
+     * @param reservationNumber     reservation number, which must not be 0
+     * @param reservation           reservation in the reserve list
+     * @param stockRow              inventory row the reservation was taken from
+     * @param position              position of the reservation in the list
+     */
+    void put(int reservationNumber, BeanBag reservation, int stockRow, int position) {
+        int slot = find(reservationNumber);
+        if (this.keys[slot] == EMPTY) {
+            this.keys[slot] = reservationNumber;
+            this.size++;
+        }
+        this.reservations[slot] = reservation;
+        this.stockRows[slot] = stockRow;
+        this.positions[slot] = position;
+        this.timerEntries[slot] = -1;
+        //keeping the table at most half full so probe sequences stay short.
+        if (this.size * 2 > this.keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Method records that the reservation has moved in the reserve list.
+     *
+     * @param reservationNumber     reservation number
+     * @param position              new position of the reservation in the list
+     */
+    void setPosition(int reservationNumber, int position) {
+        int slot = indexOf(reservationNumber);
+        if (slot >= 0) {
+            this.positions[slot] = position;
+        }
+    }
+
+    /**
+     * Method removes the reservation number from the index, shifting back any
+     * entries after it so that no lookup is broken by the gap.
+     *
+     * @param reservationNumber     reservation number
+     */
+    void remove(int reservationNumber) {
+        int gap = indexOf(reservationNumber);
+        if (gap < 0) {
+            return;
+        }
+        int mask = this.keys.length - 1;
+        int next = (gap + 1) & mask;
+        while (this.keys[next] != EMPTY) {
+            int ideal = idealSlot(this.keys[next]);
+            //moving the entry into the gap if the gap lies on its probe path.
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                this.keys[gap] = this.keys[next];
+                this.reservations[gap] = this.reservations[next];
+                this.stockRows[gap] = this.stockRows[next];
+                this.positions[gap] = this.positions[next];
+                this.timerEntries[gap] = this.timerEntries[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[gap] = EMPTY;
+        this.reservations[gap] = null;
+        this.size--;
+    }
+
+    /**
+     * Method empties the index of all its entries.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * Method returns the number of reservations in the index.
+     *
+     * @return                      number of reservations in the index
+     */
+    int size() {
+        return this.size;
+    }
+
+    /*
+     * Method doubles the capacity of the table and re-inserts every entry
+     */
+    private void resize() {
+        int[] oldKeys = this.keys;
+        BeanBag[] oldReservations = this.reservations;
+        int[] oldStockRows = this.stockRows;
+        int[] oldPositions = this.positions;
+        int[] oldTimerEntries = this.timerEntries;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.reservations[slot] = oldReservations[i];
+                this.stockRows[slot] = oldStockRows[i];
+                this.positions[slot] = oldPositions[i];
+                this.timerEntries[slot] = oldTimerEntries[i];
+            }
+        }
+    }
+}
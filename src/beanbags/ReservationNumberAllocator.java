@@ -0,0 +1,193 @@
+package beanbags;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+/**
+ * Hands out 9 digit reservation numbers in constant time. Each number is a
+ * keyed permutation of a counter, so no two numbers handed out in the same
+ * cycle are the same, yet consecutive reservations don't get consecutive
+ * numbers. Once every 9 digit number has been handed out, a new key is drawn
+ * and numbers freed in the previous cycle are handed out again; the Store must
+ * skip any number that is still held by a live reservation.
+ * <p>
+ * An allocator of one shard of a {@link ShardedStore} only hands out the
+ * numbers that leave a remainder of the shard when divided by the number of
+ * shards, by permuting the counter over that many values and spacing the
+ * results the number of shards apart, so each number costs one permutation
+ * however many shards there are.
+ * <p>
+ * The permutation is a 4 round Feistel network over the fewest even number of
+ * bits that covers the values, walking the cycle until the value falls within
+ * them.
+ */
+class ReservationNumberAllocator {
+    private static final int FIRST_NUMBER = 100000000;
+    private static final int RANGE = 900000000;
+    private static final int ROUNDS = 4;
+
+    private final int first; //lowest number of the shard
+    private final int shards; //spacing between the numbers of the shard
+    private final int range; //numbers the shard hands out in a cycle
+    private final int halfBits; //bits in each half of the Feistel network
+    private long key;
+    private int counter;
+    private int[] roundKeys;
+
+    /**
+     * Creates an allocator with a freshly drawn key.
+     */
+    ReservationNumberAllocator() {
+        this(0, 1);
+    }
+
+    /**
+     * Creates an allocator of one shard with a freshly drawn key.
+     *
+     * @param shard             index of the shard
+     * @param shards            number of shards
+     */
+    ReservationNumberAllocator(int shard, int shards) {
+        this(new SecureRandom().nextLong(), 0, shard, shards);
+    }
+
+    /**
+     * Creates an allocator of one shard that carries on from a saved key and
+     * counter.
+     *
+     * @param key               key of the permutation
+     * @param counter           number of reservation numbers handed out in
+     *                          the current cycle
+     * @param shard             index of the shard
+     * @param shards            number of shards
+     */
+    private ReservationNumberAllocator(long key, int counter, int shard, int shards) {
+        this.first = FIRST_NUMBER + Math.floorMod(shard - FIRST_NUMBER, shards);
+        this.shards = shards;
+        this.range = (FIRST_NUMBER + RANGE - this.first + shards - 1) / shards;
+        int bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(this.range - 1));
+        this.halfBits = (bits + 1) / 2;
+        setKey(key);
+        //a counter past the end of the range of the shard ends the cycle on the next number.
+        this.counter = Math.min(counter, this.range);
+    }
+
+    /*
+     * Method derives the key of each Feistel round from the key
+     */
+    private void setKey(long key) {
+        this.key = key;
+        this.roundKeys = new int[ROUNDS];
+        long state = key;
+        for (int i = 0; i < ROUNDS; i++) {
+            //splitmix64 step, so every round gets unrelated bits.
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            this.roundKeys[i] = (int) (z ^ (z >>> 31));
+        }
+    }
+
+    /**
+     * Method returns the next reservation number. It is unique among the
+     * numbers handed out since the allocator last ran out of numbers.
+     *
+     * @return                  9 digit reservation number
+     */
+    int next() {
+        if (this.counter == this.range) {
+            //every number has been used, so starting a new cycle with a new key.
+            setKey(new SecureRandom().nextLong());
+            this.counter = 0;
+        }
+        int value = this.counter++;
+        do {
+            value = permute(value);
+        } while (value >= this.range);
+        return this.first + this.shards * value;
+    }
+
+    /**
+     * Method applies the keyed Feistel permutation to a value of twice
+     * halfBits bits.
+     *
+     * @param value             value in the range 0 to 2^(2 * halfBits) - 1
+     * @return                  permuted value in the same range
+     */
+    private int permute(int value) {
+        int halfMask = (1 << this.halfBits) - 1;
+        int left = value >>> this.halfBits;
+        int right = value & halfMask;
+        for (int i = 0; i < ROUNDS; i++) {
+            int mixed = right ^ this.roundKeys[i];
+            mixed = (mixed ^ (mixed >>> 16)) * 0x85EBCA6B;
+            mixed = (mixed ^ (mixed >>> 13)) * 0xC2B2AE35;
+            mixed ^= mixed >>> 16;
+            int newRight = left ^ (mixed & halfMask);
+            left = right;
+            right = newRight;
+        }
+        return (left << this.halfBits) | right;
+    }
+
+    /**
+     * Method creates an allocator that carries on from a saved key and
+     * counter.
+     *
+     * @param key               key returned by {@link #getKey()}
+     * @param counter           counter returned by {@link #getCounter()}
+     * @return                  allocator carrying on from the saved state
+     * @throws IOException      if the counter is out of range
+     */
+    static ReservationNumberAllocator restore(long key, int counter) throws IOException {
+        if (counter < 0 || counter > RANGE) {
+            throw new IOException("Invalid reservation number counter: " + counter);
+        }
+        return new ReservationNumberAllocator(key, counter, 0, 1);
+    }
+
+    /**
+     * Method creates an allocator of one shard that carries on from the key
+     * and counter of this one, as saved allocators don't record their shard.
+     *
+     * @param shard             index of the shard
+     * @param shards            number of shards
+     * @return                  allocator of the shard
+     */
+    ReservationNumberAllocator forShard(int shard, int shards) {
+        return new ReservationNumberAllocator(this.key, this.counter, shard, shards);
+    }
+
+    /**
+     * Method returns whether this allocator has handed out fewer numbers than
+     * one that reached the given key and counter. An allocator with another
+     * key is taken to be behind, as keys only change when a cycle ends.
+     *
+     * @param key               key returned by {@link #getKey()}
+     * @param counter           counter returned by {@link #getCounter()}
+     * @return                  true if this allocator is behind
+     */
+    boolean isBehind(long key, int counter) {
+        return this.key != key || this.counter < counter;
+    }
+
+    /**
+     * Method returns the key of the permutation of the current cycle.
+     *
+     * @return                  key of the permutation
+     */
+    long getKey() {
+        return this.key;
+    }
+
+    /**
+     * Method returns the number of reservation numbers handed out in the
+     * current cycle.
+     *
+     * @return                  counter of the current cycle
+     */
+    int getCounter() {
+        return this.counter;
+    }
+}
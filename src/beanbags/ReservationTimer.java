@@ -0,0 +1,268 @@
+package beanbags;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the deadlines of reservations in a hierarchical timing wheel, so
+ * scheduling a reservation costs O(1) and the reservations due by a given
+ * time are found without looking at any other reservation.
+ * <p>
+ * Time is counted in ticks. The wheel has four levels of 64 slots; a slot of
+ * the first level holds the reservations due in one tick, and a slot of each
+ * level above covers 64 slots of the level below. Reservations due further
+ * ahead than the wheel covers wait in its last slot. As time reaches a slot
+ * of an upper level, its reservations are cascaded down into the levels
+ * below, so each reservation is moved at most once per level. Ticks are
+ * skipped while every level below the next slot due is empty, so advancing
+ * over a quiet spell costs no more than the slots that hold reservations.
+ * <p>
+ * A reservation that ends early must be cancelled through the entry
+ * {@link #schedule(int, long, long)} returned for it, as its reservation
+ * number can be handed out again to a later reservation. A cancelled entry
+ * stays in its slot until it is due, and is then dropped without being
+ * handed out, so cancelling costs O(1).
+ * <p>
+ * Entries are kept in primitive arrays and linked through their indexes, so
+ * scheduling allocates nothing once the arrays are big enough.
+ */
+final class ReservationTimer {
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NONE = -1;
+    private static final int CANCELLED = 0; //reservation number of a cancelled entry
+    private static final int[] NO_RESERVATIONS = new int[0];
+
+    private final long tickMillis; //milliseconds in a tick
+    private long currentTick; //last tick whose reservations were handed out
+    private final int[] heads; //first entry of each slot, by level then slot
+    private final int[] levelSizes; //entries in the slots of each level
+    private int[] reservationNumbers; //entries by index
+    private long[] deadlines; //tick each entry is due by
+    private int[] next; //next entry of the same slot, or of the free list
+    private int free; //first unused entry, or NONE
+    private int size;
+
+    /**
+     * Creates initial instance of a ReservationTimer with no reservations.
+     *
+     * @param tickMillis        milliseconds in a tick, which reservations are
+     *                          rounded up to
+     */
+    ReservationTimer(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.heads = new int[LEVELS * SLOTS];
+        this.levelSizes = new int[LEVELS];
+        clear();
+    }
+
+    /**
+     * Method schedules a reservation to be handed out once the given time has
+     * passed.
+     *
+     * @param reservationNumber     reservation number
+     * @param now                   time in milliseconds since the epoch
+     * @param deadline              time the reservation expires in milliseconds
+     *                              since the epoch, which is after now
+     * @return                      entry of the reservation, valid until it is
+     *                              handed out or cancelled
+     */
+    int schedule(int reservationNumber, long now, long deadline) {
+        if (this.size == 0) {
+            //nothing is scheduled, so no tick needs handing out before now.
+            this.currentTick = Math.max(this.currentTick, Math.floorDiv(now, this.tickMillis));
+        }
+        if (this.free == NONE) {
+            grow();
+        }
+        int entry = this.free;
+        this.free = this.next[entry];
+        this.reservationNumbers[entry] = reservationNumber;
+        //rounding up, so a reservation never expires before its deadline.
+        this.deadlines[entry] = Math.floorDiv(deadline, this.tickMillis) + (Math.floorMod(deadline, this.tickMillis) == 0 ? 0 : 1);
+        this.size++;
+        insert(entry);
+        return entry;
+    }
+
+    /**
+     * Method cancels a reservation that ended before its deadline, so it is
+     * never handed out.
+     *
+     * @param entry                 entry returned by schedule for the
+     *                              reservation, which has not been handed out
+     */
+    void cancel(int entry) {
+        this.reservationNumbers[entry] = CANCELLED;
+    }
+
+    /**
+     * Method hands out every reservation due by the given time, advancing the
+     * wheel one tick at a time.
+     *
+     * @param now                   time in milliseconds since the epoch
+     * @return                      reservation numbers of the reservations due,
+     *                              in the order they fell due
+     */
+    int[] expire(long now) {
+        long nowTick = Math.floorDiv(now, this.tickMillis);
+        int[] expired = NO_RESERVATIONS;
+        int count = 0;
+        while (this.currentTick < nowTick) {
+            if (this.size == 0) {
+                //nothing is left, so skipping straight to the time given.
+                this.currentTick = nowTick;
+                break;
+            }
+            int lowest = 0;
+            while (this.levelSizes[lowest] == 0) {
+                lowest++;
+            }
+            if (lowest > 0) {
+                //nothing is due before the next slot of the lowest level holding entries.
+                long boundary = ((this.currentTick >> (lowest * SLOT_BITS)) + 1) << (lowest * SLOT_BITS);
+                if (boundary > nowTick) {
+                    this.currentTick = nowTick;
+                    break;
+                }
+                this.currentTick = boundary - 1;
+            }
+            this.currentTick++;
+            //cascading from the top, so entries moved down are cascaded again when due.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((this.currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0) {
+                    cascade(level, (int) (this.currentTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+                }
+            }
+            int slot = (int) this.currentTick & SLOT_MASK;
+            int entry = this.heads[slot];
+            this.heads[slot] = NONE;
+            while (entry != NONE) {
+                int following = this.next[entry];
+                this.levelSizes[0]--;
+                if (this.reservationNumbers[entry] == CANCELLED) {
+                    release(entry);
+                } else if (this.deadlines[entry] <= this.currentTick) {
+                    if (count == expired.length) {
+                        expired = Arrays.copyOf(expired, Math.max(INITIAL_CAPACITY, count * 2));
+                    }
+                    expired[count++] = this.reservationNumbers[entry];
+                    release(entry);
+                } else {
+                    insert(entry);
+                }
+                entry = following;
+            }
+        }
+        return count == expired.length ? expired : Arrays.copyOf(expired, count);
+    }
+
+    /**
+     * Method forgets every scheduled reservation.
+     */
+    void clear() {
+        Arrays.fill(this.heads, NONE);
+        Arrays.fill(this.levelSizes, 0);
+        this.reservationNumbers = new int[INITIAL_CAPACITY];
+        this.deadlines = new long[INITIAL_CAPACITY];
+        this.next = new int[INITIAL_CAPACITY];
+        linkFree(0);
+        this.currentTick = Long.MIN_VALUE;
+        this.size = 0;
+    }
+
+    /**
+     * Method returns the number of reservations in the wheel, including any
+     * which were cancelled but are not yet due.
+     *
+     * @return                      number of scheduled reservations
+     */
+    int size() {
+        return this.size;
+    }
+
+    /*
+     * Method puts an entry into the slot of the lowest level covering its
+     * deadline
+     */
+    private void insert(int entry) {
+        long delta = this.deadlines[entry] - this.currentTick;
+        int level = 0;
+        int headIndex;
+        if (delta <= 0) {
+            //already due, so handing it out on the next tick.
+            headIndex = (int) (this.currentTick + 1) & SLOT_MASK;
+        } else {
+            while (level < LEVELS - 1 && delta >= 1L << ((level + 1) * SLOT_BITS)) {
+                level++;
+            }
+            long tick = this.deadlines[entry];
+            if (delta >= 1L << (LEVELS * SLOT_BITS)) {
+                //beyond the wheel, so waiting in the furthest slot and being cascaded again.
+                tick = this.currentTick + (1L << (LEVELS * SLOT_BITS)) - 1;
+            }
+            headIndex = level * SLOTS + ((int) (tick >>> (level * SLOT_BITS)) & SLOT_MASK);
+        }
+        this.next[entry] = this.heads[headIndex];
+        this.heads[headIndex] = entry;
+        this.levelSizes[level]++;
+    }
+
+    /*
+     * Method moves every entry of a slot of an upper level into the levels
+     * below
+     */
+    private void cascade(int level, int slot) {
+        int headIndex = level * SLOTS + slot;
+        int entry = this.heads[headIndex];
+        this.heads[headIndex] = NONE;
+        while (entry != NONE) {
+            int following = this.next[entry];
+            this.levelSizes[level]--;
+            if (this.deadlines[entry] <= this.currentTick) {
+                //due on the tick being handed out, which insert would leave to the next tick.
+                this.next[entry] = this.heads[(int) this.currentTick & SLOT_MASK];
+                this.heads[(int) this.currentTick & SLOT_MASK] = entry;
+                this.levelSizes[0]++;
+            } else {
+                insert(entry);
+            }
+            entry = following;
+        }
+    }
+
+    /*
+     * Method returns an entry to the free list
+     */
+    private void release(int entry) {
+        this.next[entry] = this.free;
+        this.free = entry;
+        this.size--;
+    }
+
+    /*
+     * Method doubles the number of entries, linking the new ones into the
+     * free list
+     */
+    private void grow() {
+        int oldCapacity = this.next.length;
+        this.reservationNumbers = Arrays.copyOf(this.reservationNumbers, oldCapacity * 2);
+        this.deadlines = Arrays.copyOf(this.deadlines, oldCapacity * 2);
+        this.next = Arrays.copyOf(this.next, oldCapacity * 2);
+        linkFree(oldCapacity);
+    }
+
+    /*
+     * Method links the entries from the given index to the end of the arrays
+     * into the free list
+     */
+    private void linkFree(int from) {
+        for (int entry = from; entry < this.next.length - 1; entry++) {
+            this.next[entry] = entry + 1;
+        }
+        this.next[this.next.length - 1] = NONE;
+        this.free = from;
+    }
+}
@@ -0,0 +1,174 @@
+package beanbags;
+
+/**
+ * Maps the inventory row and price of a sale to the position of the sale in
+ * the sold list, so a new sale finds the earlier sale it adds to without
+ * scanning the list. The row and price are packed together into a primitive long, stored
+ * using open addressing with linear probing, so no lookup allocates.
+ * <p>
+ * Bean bags are only ever sold at a price of at least 1, so a packed key is
+ * never 0, which is used to mark an empty slot.
+ */
+class SaleIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private int[] positions;
+    private int size;
+
+    /**
+     * Creates initial instance of a SaleIndex with no contents.
+     */
+    SaleIndex() {
+        allocate(INITIAL_CAPACITY);
+        this.size = 0;
+    }
+
+    /*
+     * Method allocates empty tables of the given capacity
+     */
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.positions = new int[capacity];
+    }
+
+    /**
+     * Method packs the inventory row and price of a sale into the key of the index.
+     *
+     * @param row                   inventory row of the bean bags
+     * @param price                 price each bean bag was sold for in pence
+     * @return                      key of the sale
+     */
+    private static long keyOf(int row, int price) {
+        return ((long) row << 32) | (price & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Method spreads the key, so that sales of neighbouring rows or prices
+     * don't cluster in the table.
+     *
+     * @param key                   key of the sale
+     * @return                      slot the key would ideally be stored in
+     */
+    private int idealSlot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (this.keys.length - 1);
+    }
+
+    /**
+     * Method finds the slot holding the key, or the empty slot the key would
+     * be stored in if it isn't in the index.
+     *
+     * @param key                   key of the sale
+     * @return                      slot of the key in the table
+     */
+    private int find(long key) {
+        int mask = this.keys.length - 1;
+        int slot = idealSlot(key);
+        while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Method returns the position in the sold list of the sale of the given
+     * bean bags at the given price.
+     *
+     * @param row                   inventory row of the bean bags
+     * @param price                 price each bean bag was sold for in pence
+     * @return                      position of the sale, or -1 if there is no
+     *                              such sale
+     */
+    int positionOf(int row, int price) {
+        int slot = find(keyOf(row, price));
+        return this.keys[slot] == EMPTY ? -1 : this.positions[slot];
+    }
+
+    /**
+     * Method adds the sale to the index, unless a sale of the same bean bags
+     * at the same price is already indexed.
+     *
+     * @param row                   inventory row of the bean bags
+     * @param price                 price each bean bag was sold for in pence,
+     *                              which must be at least 1
+     * @param position              position of the sale in the list
+     */
+    void putIfAbsent(int row, int price, int position) {
+        long key = keyOf(row, price);
+        int slot = find(key);
+        if (this.keys[slot] != EMPTY) {
+            return;
+        }
+        this.keys[slot] = key;
+        this.positions[slot] = position;
+        this.size++;
+        //keeping the table at most half full so probe sequences stay short.
+        if (this.size * 2 > this.keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Method removes the sale of the given bean bags at the given price,
+     * shifting back any entries after it so that no lookup is broken by the
+     * gap.
+     *
+     * @param row                   inventory row of the bean bags
+     * @param price                 price each bean bag was sold for in pence
+     */
+    void remove(int row, int price) {
+        int gap = find(keyOf(row, price));
+        if (this.keys[gap] == EMPTY) {
+            return;
+        }
+        int mask = this.keys.length - 1;
+        int next = (gap + 1) & mask;
+        while (this.keys[next] != EMPTY) {
+            int ideal = idealSlot(this.keys[next]);
+            //moving the entry into the gap if the gap lies on its probe path.
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                this.keys[gap] = this.keys[next];
+                this.positions[gap] = this.positions[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[gap] = EMPTY;
+        this.size--;
+    }
+
+    /**
+     * Method empties the index of all its entries.
+     */
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * Method returns the number of sales in the index.
+     *
+     * @return                      number of sales in the index
+     */
+    int size() {
+        return this.size;
+    }
+
+    /*
+     * Method doubles the capacity of the table and re-inserts every entry
+     */
+    private void resize() {
+        long[] oldKeys = this.keys;
+        int[] oldPositions = this.positions;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.positions[slot] = oldPositions[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package beanbags;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the number and price of bean bags sold in fixed time buckets, for
+ * the whole store and for each bean bag, so the sales of a recent window can be
+ * totalled from a few buckets instead of from every sale.
+ * <p>
+ * Sales are counted in ring buffers of minutes, hours and days. A bucket
+ * stays put until its slot in the ring is needed for a later bucket, when it
+ * is added into the bucket of the next coarser ring covering the same time;
+ * buckets rolled out of the ring of days are dropped. Memory therefore stays
+ * bounded by the number of buckets and the bean bags sold within each, while
+ * every sale is counted in exactly one bucket.
+ * <p>
+ * Bean bags are counted under their inventory row, which stays the same when
+ * their ID is replaced.
+ * <p>
+ * A window is totalled from every bucket starting within it, so it is rounded
+ * down to whole buckets of whichever ring holds its oldest sales.
+ */
+final class SalesRollup {
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private final Level[] levels = {new Level(MINUTE, 60), new Level(HOUR, 24), new Level(DAY, 31)};
+
+    /**
+     * Method counts bean bags sold at the given time.
+     *
+     * @param time              time of the sale in milliseconds since the epoch
+     * @param sku               inventory row of the bean bags
+     * @param num               number of bean bags sold
+     * @param price             price each bean bag was sold for in pence
+     */
+    void record(long time, int sku, int num, int price) {
+        Bucket bucket = bucketAt(0, time);
+        if (bucket != null) {
+            bucket.add(sku, num, (long) num * price);
+        }
+    }
+
+    /**
+     * Method totals the bean bags sold from the given time onwards.
+     *
+     * @param since             start of the window in milliseconds since the
+     *                          epoch
+     * @return                  number of bean bags sold
+     */
+    long unitsSince(long since) {
+        long units = 0;
+        for (Level level : this.levels) {
+            for (Bucket bucket : level.ring) {
+                if (bucket.start >= since) {
+                    units += bucket.units;
+                }
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Method totals the price of bean bags sold from the given time onwards.
+     *
+     * @param since             start of the window in milliseconds since the
+     *                          epoch
+     * @return                  total price in pence
+     */
+    long revenueSince(long since) {
+        long revenue = 0;
+        for (Level level : this.levels) {
+            for (Bucket bucket : level.ring) {
+                if (bucket.start >= since) {
+                    revenue += bucket.revenue;
+                }
+            }
+        }
+        return revenue;
+    }
+
+    /**
+     * Method totals the bean bags of the given row sold from the given time
+     * onwards.
+     *
+     * @param sku               inventory row of the bean bags
+     * @param since             start of the window in milliseconds since the
+     *                          epoch
+     * @return                  number of bean bags sold
+     */
+    long unitsSince(int sku, long since) {
+        long units = 0;
+        for (Level level : this.levels) {
+            for (Bucket bucket : level.ring) {
+                if (bucket.start >= since) {
+                    units += bucket.unitsOf(sku);
+                }
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Method totals the price of bean bags of the given row sold from the
+     * given time onwards.
+     *
+     * @param sku               inventory row of the bean bags
+     * @param since             start of the window in milliseconds since the
+     *                          epoch
+     * @return                  total price in pence
+     */
+    long revenueSince(int sku, long since) {
+        long revenue = 0;
+        for (Level level : this.levels) {
+            for (Bucket bucket : level.ring) {
+                if (bucket.start >= since) {
+                    revenue += bucket.revenueOf(sku);
+                }
+            }
+        }
+        return revenue;
+    }
+
+    /**
+     * Method forgets every sale counted.
+     */
+    void clear() {
+        for (Level level : this.levels) {
+            for (Bucket bucket : level.ring) {
+                bucket.reset(Bucket.UNUSED);
+            }
+        }
+    }
+
+    /*
+     * Method returns the bucket of the given ring covering the given time,
+     * rolling whatever older bucket held its slot up into the next ring, or
+     * returns null if the time is older than the ring still covers
+     */
+    private Bucket bucketAt(int levelIndex, long time) {
+        Level level = this.levels[levelIndex];
+        long start = time - Math.floorMod(time, level.width);
+        Bucket bucket = level.ring[(int) Math.floorMod(start / level.width, (long) level.ring.length)];
+        if (bucket.start == start) {
+            return bucket;
+        }
+        if (bucket.start > start) {
+            //the slot already moved on, so the time only fits a coarser ring.
+            return levelIndex + 1 < this.levels.length ? bucketAt(levelIndex + 1, time) : null;
+        }
+        if (bucket.start != Bucket.UNUSED && levelIndex + 1 < this.levels.length) {
+            Bucket coarser = bucketAt(levelIndex + 1, bucket.start);
+            if (coarser != null) {
+                coarser.addAll(bucket);
+            }
+        }
+        bucket.reset(start);
+        return bucket;
+    }
+
+    /**
+     * A ring of buckets of the same width.
+     */
+    private static final class Level {
+        private final long width; //milliseconds covered by each bucket
+        private final Bucket[] ring;
+
+        /**
+         * Creates a ring of unused buckets.
+         *
+         * @param width         milliseconds covered by each bucket
+         * @param length        number of buckets in the ring
+         */
+        private Level(long width, int length) {
+            this.width = width;
+            this.ring = new Bucket[length];
+            for (int i = 0; i < length; i++) {
+                this.ring[i] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * Sales counted in one bucket of time, for the whole store and for each
+     * bean bag sold within it. Rows are kept using open addressing with linear
+     * probing, in primitive arrays.
+     */
+    private static final class Bucket {
+        private static final long UNUSED = Long.MIN_VALUE;
+        private static final int INITIAL_CAPACITY = 8;
+        private static final int EMPTY = -1; //rows are never negative
+
+        private long start = UNUSED; //time the bucket starts, or UNUSED
+        private long units;
+        private long revenue;
+        private int[] skus;
+        private long[] skuUnits;
+        private long[] skuRevenue;
+        private int size;
+
+        /**
+         * Creates an unused bucket.
+         */
+        private Bucket() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        /*
+         * Method allocates empty tables of the given capacity
+         */
+        private void allocate(int capacity) {
+            this.skus = new int[capacity];
+            Arrays.fill(this.skus, EMPTY);
+            this.skuUnits = new long[capacity];
+            this.skuRevenue = new long[capacity];
+            this.size = 0;
+        }
+
+        /**
+         * Method empties the bucket and starts it at the given time.
+         *
+         * @param start         time the bucket starts, or UNUSED
+         */
+        private void reset(long start) {
+            this.start = start;
+            this.units = 0;
+            this.revenue = 0;
+            if (this.size != 0 || this.skus.length != INITIAL_CAPACITY) {
+                allocate(INITIAL_CAPACITY);
+            }
+        }
+
+        /*
+         * Method returns the slot holding the row, or the empty slot where it
+         * would be put
+         */
+        private int slotOf(int sku) {
+            int mask = this.skus.length - 1;
+            int hash = sku * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (this.skus[slot] != EMPTY && this.skus[slot] != sku) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Method adds sales of a row to the bucket.
+         *
+         * @param sku           inventory row of the bean bags
+         * @param num           number of bean bags sold
+         * @param price         total price of the bean bags in pence
+         */
+        private void add(int sku, long num, long price) {
+            this.units += num;
+            this.revenue += price;
+            int slot = slotOf(sku);
+            if (this.skus[slot] == EMPTY) {
+                this.skus[slot] = sku;
+                this.size++;
+            }
+            this.skuUnits[slot] += num;
+            this.skuRevenue[slot] += price;
+            //keeping the table at most half full so probe sequences stay short.
+            if (this.size * 2 > this.skus.length) {
+                resize();
+            }
+        }
+
+        /**
+         * Method adds every sale of another bucket to this one.
+         *
+         * @param other         bucket rolled into this one
+         */
+        private void addAll(Bucket other) {
+            for (int slot = 0; slot < other.skus.length; slot++) {
+                if (other.skus[slot] != EMPTY) {
+                    add(other.skus[slot], other.skuUnits[slot], other.skuRevenue[slot]);
+                }
+            }
+        }
+
+        /**
+         * Method returns the bean bags of a row sold in the bucket.
+         *
+         * @param sku           inventory row of the bean bags
+         * @return              number of bean bags sold
+         */
+        private long unitsOf(int sku) {
+            int slot = slotOf(sku);
+            return this.skus[slot] == EMPTY ? 0 : this.skuUnits[slot];
+        }
+
+        /**
+         * Method returns the price of bean bags of a row sold in the bucket.
+         *
+         * @param sku           inventory row of the bean bags
+         * @return              total price in pence
+         */
+        private long revenueOf(int sku) {
+            int slot = slotOf(sku);
+            return this.skus[slot] == EMPTY ? 0 : this.skuRevenue[slot];
+        }
+
+        /*
+         * Method doubles the capacity of the table and re-inserts every entry
+         */
+        private void resize() {
+            int[] oldSkus = this.skus;
+            long[] oldUnits = this.skuUnits;
+            long[] oldRevenue = this.skuRevenue;
+            allocate(oldSkus.length * 2);
+            for (int i = 0; i < oldSkus.length; i++) {
+                if (oldSkus[i] != EMPTY) {
+                    int slot = slotOf(oldSkus[i]);
+                    this.skus[slot] = oldSkus[i];
+                    this.skuUnits[slot] = oldUnits[i];
+                    this.skuRevenue[slot] = oldRevenue[i];
+                    this.size++;
+                }
+            }
+        }
+    }
+}
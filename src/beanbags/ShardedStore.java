@@ -0,0 +1,468 @@
+package beanbags;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * ShardedStore is a thread-safe implementor of the BeanBagStore interface
+ * that splits bean bag IDs by hash across a number of independent
+ * {@link Store} shards, each guarded by its own lock, so calls for bean bags
+ * in different shards run in parallel on separate cores.
+ * <p>
+ * Each shard hands out only reservation numbers that leave a remainder of its
+ * index when divided by the number of shards, so a reservation is found in
+ * its shard without a lookup. Bean bags keep their shard when their ID is
+ * replaced; replacement IDs that hash to another shard are kept in a small
+ * routing table.
+ * <p>
+ * Store-wide access methods ask every shard in parallel and add up the
+ * answers. Each shard answers under its own lock, so the total was correct
+ * for every shard at some point during the call, but not necessarily for all
+ * of them at the same moment.
+ * <p>
+ * saveStoreContents writes each shard to its own file beside the named one,
+ * which lists the shards, so the contents can only be loaded by a
+ * ShardedStore with the same number of shards.
+ */
+public class ShardedStore implements BeanBagStore {
+    private static final int FILE_MAGIC = 0x42425353; //"BBSS"
+
+    private final Store[] shards;
+    private final ReentrantLock[] locks; //lock of each shard
+    //shard of IDs given by replace that don't hash to the shard of their bean bags.
+    private final ConcurrentHashMap<Integer, Integer> movedIds = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an instance of the object with one shard for each available
+     * processor.
+     */
+    public ShardedStore() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an instance of the object with the given number of shards.
+     *
+     * @param shards            number of shards
+     * @throws IllegalArgumentException if the number of shards is less than 1
+     */
+    public ShardedStore(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("A ShardedStore needs at least 1 shard.");
+        }
+        this.shards = new Store[shards];
+        this.locks = new ReentrantLock[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Store(i, shards);
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Access method for the number of shards.
+     *
+     * @return                  number of shards
+     */
+    public int getNumberOfShards() {
+        return this.shards.length;
+    }
+
+    /**
+     * Method returns the shard an ID hashes to, ignoring the routing table.
+     *
+     * @param id                ID packed by BeanBagID
+     * @return                  index of the shard
+     */
+    private int hashShardOf(int id) {
+        int hash = id * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), this.shards.length);
+    }
+
+    /**
+     * Method returns the shard holding the bean bags with the given ID, or
+     * the shard they would be added to. Illegal IDs are sent to the first
+     * shard, which rejects them.
+     *
+     * @param id                ID of bean bags
+     * @return                  index of the shard
+     */
+    private int shardOf(String id) {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            return 0;
+        }
+        Integer moved = this.movedIds.get(packedID);
+        return moved != null ? moved : hashShardOf(packedID);
+    }
+
+    /**
+     * Method locks the shard of the ID, retrying if the ID is moved to
+     * another shard by replace while waiting for the lock.
+     *
+     * @param id                ID of bean bags
+     * @return                  index of the locked shard
+     */
+    private int lockShardOf(String id) {
+        while (true) {
+            int shard = shardOf(id);
+            this.locks[shard].lock();
+            if (shardOf(id) == shard) {
+                return shard;
+            }
+            this.locks[shard].unlock();
+        }
+    }
+
+    /**
+     * Method returns the shard that handed out a reservation number.
+     *
+     * @param reservationNumber reservation number
+     * @return                  index of the shard
+     */
+    private int shardOfReservation(int reservationNumber) {
+        return Math.floorMod(reservationNumber, this.shards.length);
+    }
+
+    /**
+     * Method asks every shard in parallel, under its lock, and adds up the
+     * answers, capping the total rather than letting it wrap around.
+     *
+     * @param query             access method to call on each shard
+     * @return                  total of the answers
+     */
+    private int sumOfShards(ToIntFunction<Store> query) {
+        long total = IntStream.range(0, this.shards.length).parallel().mapToLong(i -> {
+            this.locks[i].lock();
+            try {
+                return query.applyAsInt(this.shards[i]);
+            } finally {
+                this.locks[i].unlock();
+            }
+        }).sum();
+        return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+    }
+
+    /*
+     * Method locks every shard, in order so two threads locking all of them
+     * can't deadlock
+     */
+    private void lockAll() {
+        for (ReentrantLock lock : this.locks) {
+            lock.lock();
+        }
+    }
+
+    /*
+     * Method unlocks every shard
+     */
+    private void unlockAll() {
+        for (ReentrantLock lock : this.locks) {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        int shard = lockShardOf(id);
+        try {
+            this.shards[shard].addBeanBags(num, manufacturer, name, id, year, month);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month, String information) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
+        int shard = lockShardOf(id);
+        try {
+            this.shards[shard].addBeanBags(num, manufacturer, name, id, year, month, information);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void setBeanBagPrice(String id, int priceInPence) throws InvalidPriceException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            this.shards[shard].setBeanBagPrice(id, priceInPence);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void sellBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsSoldException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            this.shards[shard].sellBeanBags(num, id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public int reserveBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            return this.shards[shard].reserveBeanBags(num, id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void unreserveBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        int shard = shardOfReservation(reservationNumber);
+        this.locks[shard].lock();
+        try {
+            this.shards[shard].unreserveBeanBags(reservationNumber);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void sellBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        int shard = shardOfReservation(reservationNumber);
+        this.locks[shard].lock();
+        try {
+            this.shards[shard].sellBeanBags(reservationNumber);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public int beanBagsInStock() {
+        return sumOfShards(Store::beanBagsInStock);
+    }
+
+    @Override
+    public int reservedBeanBagsInStock() {
+        return sumOfShards(Store::reservedBeanBagsInStock);
+    }
+
+    @Override
+    public int beanBagsInStock(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            return this.shards[shard].beanBagsInStock(id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    /**
+     * Method saves this BeanBagStore's contents. Each shard is saved to a file
+     * named after the given one followed by a dot and the index of the shard,
+     * and the given file lists the number of shards and the routing table.
+     *
+     * @param filename      location of the file to be saved
+     * @throws IOException  if there is a problem experienced when trying to save
+     *                      the store contents to the files
+     */
+    @Override
+    public void saveStoreContents(String filename) throws IOException {
+        lockAll();
+        try {
+            for (int i = 0; i < this.shards.length; i++) {
+                this.shards[i].saveStoreContents(filename + "." + i);
+            }
+            try (DataOutputStream write = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+                write.writeInt(FILE_MAGIC);
+                write.writeInt(this.shards.length);
+                write.writeInt(this.movedIds.size());
+                for (Map.Entry<Integer, Integer> moved : this.movedIds.entrySet()) {
+                    write.writeInt(moved.getKey());
+                    write.writeInt(moved.getValue());
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Method loads and replaces this BeanBagStore's contents with the contents
+     * saved by a ShardedStore with the same number of shards.
+     *
+     * @param filename      location of the file to be loaded
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the files, or they were
+     *                      saved with a different number of shards
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    @Override
+    public void loadStoreContents(String filename) throws IOException, ClassNotFoundException {
+        lockAll();
+        try {
+            ConcurrentHashMap<Integer, Integer> loaded = new ConcurrentHashMap<>();
+            try (DataInputStream read = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+                if (read.readInt() != FILE_MAGIC) {
+                    throw new IOException("Invalid file: " + filename + " was not saved by a ShardedStore.");
+                }
+                int savedShards = read.readInt();
+                if (savedShards != this.shards.length) {
+                    throw new IOException("Invalid file: the contents were saved with " + savedShards + " shards, not " + this.shards.length + ".");
+                }
+                int moved = read.readInt();
+                for (int i = 0; i < moved; i++) {
+                    loaded.put(read.readInt(), read.readInt());
+                }
+            }
+            try {
+                for (int i = 0; i < this.shards.length; i++) {
+                    this.shards[i].loadStoreContents(filename + "." + i);
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                //leaving the store empty rather than with a mix of old and new shards.
+                clearShards();
+                throw e;
+            }
+            this.movedIds.clear();
+            this.movedIds.putAll(loaded);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public int getNumberOfDifferentBeanBagsInStock() {
+        return sumOfShards(Store::getNumberOfDifferentBeanBagsInStock);
+    }
+
+    @Override
+    public int getNumberOfSoldBeanBags() {
+        return sumOfShards(Store::getNumberOfSoldBeanBags);
+    }
+
+    @Override
+    public int getNumberOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            return this.shards[shard].getNumberOfSoldBeanBags(id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public int getTotalPriceOfSoldBeanBags() {
+        return sumOfShards(Store::getTotalPriceOfSoldBeanBags);
+    }
+
+    @Override
+    public int getTotalPriceOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            return this.shards[shard].getTotalPriceOfSoldBeanBags(id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public int getTotalPriceOfReservedBeanBags() {
+        return sumOfShards(Store::getTotalPriceOfReservedBeanBags);
+    }
+
+    @Override
+    public String getBeanBagDetails(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int shard = lockShardOf(id);
+        try {
+            return this.shards[shard].getBeanBagDetails(id);
+        } finally {
+            this.locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void empty() {
+        lockAll();
+        try {
+            clearShards();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /*
+     * Method empties every shard and the routing table, with every shard
+     * locked
+     */
+    private void clearShards() {
+        for (Store shard : this.shards) {
+            shard.empty();
+        }
+        this.movedIds.clear();
+    }
+
+    @Override
+    public void resetSaleAndCostTracking() {
+        lockAll();
+        try {
+            for (Store shard : this.shards) {
+                shard.resetSaleAndCostTracking();
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Method replaces the ID of current stock matching the first argument with
+     * the ID held in the second argument, like {@link Store#replace}. The
+     * bean bags stay in their shard; if the replacement ID hashes to another
+     * shard, it is added to the routing table. Both shards are locked, so the
+     * replacement ID can't be added elsewhere in the meantime.
+     *
+     * @param oldId             old ID of bean bags
+     * @param replacementId     replacement ID of bean bags
+     * @throws BeanBagIDNotRecognisedException  if the oldId does not match any
+     *                          bag in (or previously in) stock
+     * @throws IllegalIDException   if either argument is not a positive eight
+     *                          character hexadecimal number, or if the
+     *                          replacementID is already in use in the store as
+     *                          an ID
+     */
+    @Override
+    public void replace(String oldId, String replacementId) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedOldID = BeanBagID.parse(oldId);
+        int packedReplacementID = BeanBagID.parse(replacementId);
+        if (packedOldID == BeanBagID.INVALID || packedReplacementID == BeanBagID.INVALID) {
+            throw StoreExceptions.ILLEGAL_ID;
+        }
+        while (true) {
+            int shard = shardOf(oldId);
+            int other = shardOf(replacementId);
+            //locking in order so two replaces can't deadlock.
+            ReentrantLock first = this.locks[Math.min(shard, other)];
+            ReentrantLock second = this.locks[Math.max(shard, other)];
+            first.lock();
+            second.lock();
+            try {
+                if (shardOf(oldId) != shard || shardOf(replacementId) != other) {
+                    continue; //to retry as either ID moved while waiting.
+                }
+                if (other != shard && this.shards[other].isStocked(packedReplacementID)) {
+                    throw StoreExceptions.ID_IN_USE;
+                }
+                this.shards[shard].replace(oldId, replacementId);
+                this.movedIds.remove(packedOldID);
+                if (hashShardOf(packedReplacementID) != shard) {
+                    this.movedIds.put(packedReplacementID, shard);
+                }
+                return;
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+        }
+    }
+}
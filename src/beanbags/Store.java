@@ -1,50 +1,80 @@
 package beanbags;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * Store is a fully compiling, with fully-functioning implementor of the
  * BeanBagStore interface.
  */
 public class Store implements BeanBagStore {
+    private static final int RESERVE_LIST_CAPACITY = 16;
+    private static final int RESERVE_LIST_SHRINK_RATIO = 4;
+    private static final long RESERVATION_TIMER_TICK = 1000; //milliseconds reservation expiry is rounded up to
+    private static final int AGGREGATION_THRESHOLD = 8192; //rows or positions a report totals on one thread
+    private static final int CHANGE_FEED_CAPACITY = 1 << 16; //events a consumer can fall behind by
+
     //declaring a list for each bean bags state.
-    private ObjectArrayList stockList; //in-store bean bags
-    private ObjectArrayList reserveList; //reserved bean bags
-    private ObjectArrayList soldList; //sold bean bags
+    private Inventory inventory; //in-store bean bags, one row per id
+    private TypedArrayList<BeanBag> reserveList; //reserved bean bags
+    private TypedArrayList<BeanBag> soldList; //sold bean bags
+    private ReservationIndex reservationIndex; //reserveList entries by reservation number
+    private ReservationTimer reservationTimer; //deadlines of reservations made with a time to live
+    private SaleIndex saleIndex; //soldList positions by inventory row and price
+    private SalesRollup salesRollup; //sales by time, kept through resets of the sale tracking
+    private ReservationNumberAllocator reservationAllocator; //hands out reservation numbers
+    private MappedSnapshot mappedStock; //stock still read from an opened snapshot, or null
+    private HashMap<Integer, TypedArrayList<BeanBag>> mappedEntries; //reservations and sales by record in mappedStock
+    private StoreJournal journal; //changes made since journalSnapshot, or null
+    private String journalSnapshot; //snapshot the journal carries on from
+    private BackgroundSnapshot backgroundSnapshot; //view being written in the background, or null
+    private Thread backgroundWriter; //thread writing the last background snapshot, or null
+    private WeakReference<StoreView> readView; //last read view handed out, or null
+    private long readVersion; //version of the last read view
+    private ChangeFeed changeFeed; //feed changes are published to, or null
+    //running totals kept up to date by every change to the lists.
+    private long availableBeanBags; //in-store bean bags that aren't reserved
+    private long reservedBeanBags; //reserved bean bags
+    private long totalPriceOfReservedBeanBags; //price of reserved bean bags in pence
+    private long soldBeanBags; //sold bean bags
+    private long totalPriceOfSoldBeanBags; //price of sold bean bags in pence
+    //reservation numbers handed out leave a remainder of shard when divided by shards.
+    private final int shard;
+    private final int shards;
 
     /**
      * Constructs an instance of the object with no message.
      */
     public Store() {
-        this.stockList = new ObjectArrayList();
-        this.reserveList = new ObjectArrayList();
-        this.soldList = new ObjectArrayList();
+        this(0, 1);
     }
 
     /**
-     * Method checks weather the id represent positive hexadecimal number.
+     * Constructs a Store holding one shard of a {@link ShardedStore}, which
+     * only hands out reservation numbers that leave a remainder of shard when
+     * divided by the number of shards, so each number leads back to its shard.
      *
-     * @param id                ID of bean bag
-     * @return                  boolean representing if the id is valid
-     */
-    private boolean isIDValid(String id) {
-        char[] hexValues = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
-        for (int i = 0; i < id.length(); i++) {
-            for (int x = 0; x < hexValues.length; x++) {
-                //checking if the id is negative id
-                if (i == 0 && x >= 8) {
-                    return false;
-                }
-                //checking if the characters match
-                if (id.charAt(i) == hexValues[x]) {
-                    break;
-                }
-                if (x == hexValues.length - 1) {
-                    return false;
-                }
-            }
-        }
-        return true;
+     * @param shard             index of the shard
+     * @param shards            number of shards
+     */
+    Store(int shard, int shards) {
+        this.shard = shard;
+        this.shards = shards;
+        this.inventory = new Inventory(0);
+        //reservations come and go, so the list gives memory back as they end.
+        this.reserveList = new TypedArrayList<>(RESERVE_LIST_CAPACITY, RESERVE_LIST_SHRINK_RATIO);
+        this.soldList = new TypedArrayList<>();
+        this.reservationIndex = new ReservationIndex();
+        this.reservationTimer = new ReservationTimer(RESERVATION_TIMER_TICK);
+        this.saleIndex = new SaleIndex();
+        this.salesRollup = new SalesRollup();
+        this.reservationAllocator = new ReservationNumberAllocator(shard, shards);
     }
 
     /**
@@ -61,267 +91,571 @@ public class Store implements BeanBagStore {
      *                           is less than 1
      * @throws IllegalIDException   if the ID is not a positive eight character
      *                           hexadecimal number
+     * @return                  ID of bean bag packed by BeanBagID
      * @throws InvalidMonthException    if the month is not in the range 1 to 12
      */
-    private void addBeanBagsException(int num, String id, byte month) throws IllegalNumberOfBeanBagsAddedException, IllegalIDException, InvalidMonthException {
+    private int addBeanBagsException(int num, String id, byte month) throws IllegalNumberOfBeanBagsAddedException, IllegalIDException, InvalidMonthException {
         if (num < 1) {
-            throw new IllegalNumberOfBeanBagsAddedException("Illegal Number Of" +
-                    " Bean Bags Added: The number of bean bags added must be " +
-                    "greater than 0.");
+            throw StoreExceptions.ILLEGAL_NUMBER_ADDED;
         }
-        beanBagsIllegalIDException(id);
+        int packedID = parseID(id);
         if (month < 1 || month > 12) {
-            throw new InvalidMonthException("Invalid Month: The month has to " +
-                    "between 1 and 12.");
+            throw StoreExceptions.INVALID_MONTH;
         }
+        return packedID;
     }
 
     /**
-     * Method handles any bean bags illegal id exception.
+     * Method packs the id into an int, handling any bean bags illegal id
+     * exception.
      * <p>
      * The state of this BeanBagStore must be be unchanged if any exceptions are
      * thrown.
      *
      * @param id                ID of bean bag
+     * @return                  ID of bean bag packed by BeanBagID
      * @throws IllegalIDException   if the ID is not a positive eight character
      *                           hexadecimal number
      */
-    private void beanBagsIllegalIDException(String id) throws IllegalIDException {
-        if (id.length() != 8 || !isIDValid(id)) {
-            throw new IllegalIDException("Illegal ID: The id must be 8 " +
-                    "characters positive number.");
+    private int parseID(String id) throws IllegalIDException {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            throw StoreExceptions.ILLEGAL_ID;
         }
+        return packedID;
     }
 
     /**
-     * Method handles any bean bags' id that is not found in the stock.
+     * Method finds the inventory row of the bean bags with matching ID, handling
+     * any bean bags' id that is not found in the stock.
      * <p>
      * The state of this BeanBagStore must be be unchanged if any exceptions are
      * thrown.
      *
-     * @param counter                element's counter of the list
-     * @param list                   list from a the Store
+     * @param id                     ID of bean bag packed by BeanBagID
+     * @return                       inventory row of the bean bag
      * @throws BeanBagIDNotRecognisedException if the ID is legal, but does not
      *                          match any bag in (or previously in) stock
      */
-    private void beanBagIDNotRecognisedException(int counter, ObjectArrayList list) throws BeanBagIDNotRecognisedException {
-        if (counter == list.size() - 1) {
-            throw new BeanBagIDNotRecognisedException("Bean Bag ID Not " +
-                    "Recognised: The id doesn't exist in the list.");
+    private int findStockRow(int id) throws BeanBagIDNotRecognisedException {
+        int row = lookUpStockRow(id);
+        if (row == -1) {
+            throw StoreExceptions.ID_NOT_RECOGNISED;
         }
+        return row;
     }
 
     /**
-     * Method handles any bean bags' reservation number that is not found in the stock.
-     * <p>
-     * The state of this BeanBagStore must be be unchanged if any exceptions are
-     * thrown.
+     * Method returns the inventory row with the matching id. A bean bag still
+     * read from an opened snapshot is copied into the inventory first, as it
+     * is about to change.
      *
-     * @param counter                element's counter of the reserveList
-     * @throws ReservationNumberNotRecognisedException if the reservation number
-     *                          does not match a current reservation in the system
+     * @param id                     ID of bean bag packed by BeanBagID
+     * @return                       inventory row of the bean bag, or -1 if
+     *                               the id isn't stocked
      */
-    private void beanBagReservationNumberNotRecognisedException(int counter) throws ReservationNumberNotRecognisedException {
-        if (counter == this.reserveList.size() - 1) {
-            throw new ReservationNumberNotRecognisedException("Reservation " +
-                    "Number Not Recognised: The reservation number doesn't exist in the list.");
+    private int lookUpStockRow(int id) {
+        int row = this.inventory.find(id);
+        if (row == -1 && this.mappedStock != null) {
+            int record = this.mappedStock.find(id);
+            if (record != -1) {
+                row = this.inventory.add(this.mappedStock.materialise(record));
+                adoptEntries(record, row);
+            }
         }
+        return row;
     }
 
     /**
-     * Method generate random 9 digit reservation number for customers,
-     * when they reserve bean bags.
+     * Method returns the key a reservation or sale uses in place of an
+     * inventory row while its bean bags are still read from an opened
+     * snapshot. Keys are below -1, as -1 means there is no row.
      *
-     * @return           unique reservation number used to find
-     *                      beanbag(s) to be sold
+     * @param record                 record in the snapshot
+     * @return                       key of the record
      */
-    private int generateReservationNumber() {
-        //generating a 9 digit random number
-        int reservationNumber = 100000000 + (int) (Math.random() * 899999999);
-        if (this.reserveList.size() != 0) {
-            while (true) {
-                for (int i = 0; i < this.reserveList.size(); i++) {
-                    //checking if the generated number doesn't already exist in the reserveList
-                    if (((BeanBag) this.reserveList.get(i)).getReservationNumber() == reservationNumber) {
-                        //generating a 9 digit random number
-                        reservationNumber = 100000000 + (int) (Math.random() * 899999999);
-                        break;
-                    }
-                    if (i == this.reserveList.size() - 1) {
-                        return reservationNumber;
-                    }
+    private static int mappedKey(int record) {
+        return -2 - record;
+    }
+
+    /**
+     * Method moves the reservations and sales of a record that has just been
+     * materialised over to its new inventory row.
+     *
+     * @param record                 record in the snapshot
+     * @param row                    inventory row now holding the bean bags
+     */
+    private void adoptEntries(int record, int row) {
+        TypedArrayList<BeanBag> entries = this.mappedEntries.remove(record);
+        if (entries == null) {
+            return; //to leave the method as nothing refers to the record.
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            BeanBag entry = entries.get(i);
+            //sales have no reservation number.
+            if (entry.getReservationNumber() != 0) {
+                //reservations are resolved before they end, so every one is still live.
+                this.reservationIndex.setStockRow(this.reservationIndex.indexOf(entry.getReservationNumber()), row);
+                writable(entry).setSku(row);
+            } else {
+                int position = this.saleIndex.positionOf(mappedKey(record), entry.getPrice());
+                //skipping sales dropped when the sale tracking was reset.
+                if (position != -1 && this.soldList.get(position) == entry) {
+                    this.saleIndex.putIfAbsent(row, entry.getPrice(), position);
+                    writable(entry).setSku(row);
                 }
             }
         }
-        return reservationNumber;
     }
 
     /**
-     * Access method for the number of BeanBags stocked by this BeanBagStore
-     * (total of reserved and unreserved stock).
+     * Method returns the inventory row a reservation was taken from, copying
+     * the bean bags into the inventory first if they are still read from an
+     * opened snapshot, as they are about to change.
      *
-     * @param list1         a smaller list that is used to compare
-     * @param list2         a bigger list that is used to compare
-     * @return                  number of bean bags in this store
+     * @param slot                   slot of a live reservation in the reservationIndex
+     * @return                       inventory row of the reserved bean bags
      */
-    private int getTotalBeanBagsInStock(ObjectArrayList list1, ObjectArrayList list2) {
-        int totalBeanBagsInStock = 0;
-        for (int i = 0; i < list2.size(); i++) {
-            if (i <= list1.size() - 1 && list1.size() != 0) {
-                //summing all the bean bags' quantity.
-                totalBeanBagsInStock += ((BeanBag) list1.get(i)).getQuantity();
-            }
-            //summing all the bean bags' quantity.
-            totalBeanBagsInStock += ((BeanBag) list2.get(i)).getQuantity();
+    private int reservedStockRow(int slot) {
+        int row = this.reservationIndex.stockRowAt(slot);
+        if (row < -1) {
+            row = lookUpStockRow(this.reservationIndex.reservationAt(slot).getPackedId());
         }
-        return totalBeanBagsInStock;
+        return row;
     }
 
     /**
+     * Method finds the record of a bean bag that is still read from an opened
+     * snapshot, so access methods can read it without copying it.
      *
-     * Method returns number of bean bags with matching ID in stock (total
-     * researved and unreserved).
+     * @param id                     ID of bean bag packed by BeanBagID
+     * @return                       record in the snapshot, or -1 if the bean
+     *                               bag isn't read from a snapshot
+     */
+    private int findMappedRecord(int id) {
+        return this.mappedStock == null ? -1 : this.mappedStock.find(id);
+    }
+
+    /**
+     * Method checks if two strings hold the same text, where either may be
+     * <code>null</code>.
+     *
+     * @param a                 first string to compare
+     * @param b                 second string to compare
+     * @return                  boolean representing if the strings are equal
+     */
+    private boolean isEqual(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Method finds the inventory row of bean bags to be sold or reserved,
+     * handling the exceptions that don't depend on the quantity asked for.
      * <p>
      * The state of this BeanBagStore must be be unchanged if any exceptions are
      * thrown.
      *
-     * @param id            ID of bean bags
-     * @param list1         a smaller list that is used to compare
-     * @param list2         a bigger list that is used to compare
-     * @return              number of bean bags matching ID in stock
+     * @param id                ID of bean bags
+     * @return                  inventory row of the bean bags
+     * @throws PriceNotSetException if the price has yet to be set
      * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
      *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
      */
-    private int getTotalBeanBagsInStock(String id, ObjectArrayList list1, ObjectArrayList list2) throws BeanBagIDNotRecognisedException {
-        int totalBeanBagsInStock = 0;
-        boolean isIDFound = false;
-        for (int i = 0; i < list2.size(); i++) {
-            if (i <= list1.size() - 1 && list1.size() != 0) {
-                //checking if the id is equal.
-                if(((BeanBag) list1.get(i)).getId() == id) {
-                    //summing all the bean bags' quantity.
-                    totalBeanBagsInStock += ((BeanBag) list1.get(i)).getQuantity();
-                    isIDFound = true;
-                }
-            }
-            //checking if the id is equal.
-            if(((BeanBag) list2.get(i)).getId() == id) {
-                //summing all the bean bags' quantity.
-                totalBeanBagsInStock += ((BeanBag) list2.get(i)).getQuantity();
-                isIDFound = true;
-            }
-            if (i == list2.size() - 1 && !isIDFound) {
-                throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The id doesn't exist in the stockList.");
-            }
+    private int findPricedStockRow(String id) throws PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int row = lookUpPricedStockRow(id);
+        throwLookUpFailure(row);
+        return row;
+    }
+
+    /**
+     * Method returns the inventory row of bean bags to be sold or reserved,
+     * or the code of the failure that doesn't depend on the quantity asked
+     * for, without throwing or allocating.
+     *
+     * @param id                ID of bean bags
+     * @return                  inventory row of the bean bags, or
+     *                          {@link StoreResult#ILLEGAL_ID},
+     *                          {@link StoreResult#ID_NOT_RECOGNISED} or
+     *                          {@link StoreResult#PRICE_NOT_SET}
+     */
+    private int lookUpPricedStockRow(String id) {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            return StoreResult.ILLEGAL_ID;
+        }
+        int row = lookUpStockRow(packedID);
+        if (row == -1) {
+            return StoreResult.ID_NOT_RECOGNISED;
+        }
+        if (this.inventory.priceAt(row) == 0) {
+            return StoreResult.PRICE_NOT_SET;
         }
-        return totalBeanBagsInStock;
+        return row;
     }
 
     /**
-     * Method saves this BeanBagStore's contents into a serialised file,
-     * with the filename given in the argument.
+     * Method handles the exceptions of taking bean bags out of an inventory row.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
      *
-     * @param write
-     * @param list               writing to objects in this list to a file
-     * @throws IOException  if there is a problem experienced when trying to load
-     *                      the store contents from the file
+     * @param row               inventory row of the bean bags
+     * @param num               number of bean bags to be taken
+     * @throws BeanBagNotInStockException   if the bean bag has previously been in
+     *                      stock, but is now out of stock
+     * @throws InsufficientStockException   if the bean bag is in stock, but not
+     *                      enough are available to meet the demand
      */
-    private void saveStoreList(ObjectOutputStream write, ObjectArrayList list) throws IOException {
-        try {
-            //writing the size of the list to file
-            write.writeInt(list.size());
-            if (list.size() != 0) {
-                for (int i = 0; i < list.size(); i++) {
-                    //writing objects to the file
-                    write.writeObject(list.get(i));
-                }
-            }
+    private void checkStock(int row, int num) throws BeanBagNotInStockException, InsufficientStockException {
+        int result = availabilityOf(row, num);
+        if (result == StoreResult.NOT_IN_STOCK) {
+            throw StoreExceptions.NOT_IN_STOCK;
         }
-        catch (IOException e){
-            e.printStackTrace();
-            System.exit(1);
+        if (result == StoreResult.INSUFFICIENT_STOCK) {
+            throw StoreExceptions.INSUFFICIENT_STOCK;
         }
     }
 
     /**
-     * Method reads BeanBagStore's contents from a serialised file,
-     * from the filename given in the argument.
+     * Method checks whether bean bags can be taken out of an inventory row,
+     * without throwing or allocating.
      *
-     * @param read               to read the serialised file
-     * @param list               list where the read object is stored to
-     * @throws IOException  if there is a problem experienced when trying to load
-     *                      the store contents from the file
-     * @throws ClassNotFoundException   if required class files cannot be found when
-     *                      loading
+     * @param row               inventory row of the bean bags
+     * @param num               number of bean bags to be taken
+     * @return                  {@link StoreResult#OK},
+     *                          {@link StoreResult#NOT_IN_STOCK} or
+     *                          {@link StoreResult#INSUFFICIENT_STOCK}
      */
-    private void readStoreList(ObjectInputStream read, ObjectArrayList list) throws IOException, ClassNotFoundException {
-        try {
-            //reading the size of the object in the file
-            int size = read.readInt();
-            if (size != 0) {
-                for (int i = 0; i < size; i++) {
-                    try {
-                        list.add((BeanBag) read.readObject());
-                    } catch (ClassNotFoundException e) {
-                        e.printStackTrace();
-                        System.exit(-1);
-                    }
-                }
+    private int availabilityOf(int row, int num) {
+        if (this.inventory.quantityAt(row) == 0) {
+            return StoreResult.NOT_IN_STOCK;
+        }
+        //checking if there is a sufficient amount of bean bags.
+        if (this.inventory.quantityAt(row) < num) {
+            return StoreResult.INSUFFICIENT_STOCK;
+        }
+        return StoreResult.OK;
+    }
+
+    /**
+     * Method throws the exception matching a failure to find priced bean bags.
+     * Other results are ignored.
+     *
+     * @param result            result code or inventory row
+     * @throws PriceNotSetException if the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private void throwLookUpFailure(int result) throws PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        if (result == StoreResult.ILLEGAL_ID) {
+            throw StoreExceptions.ILLEGAL_ID;
+        }
+        if (result == StoreResult.ID_NOT_RECOGNISED) {
+            throw StoreExceptions.ID_NOT_RECOGNISED;
+        }
+        if (result == StoreResult.PRICE_NOT_SET) {
+            throw StoreExceptions.PRICE_NOT_SET;
+        }
+    }
+
+    /**
+     * Method throws the exception matching a failure of selling or reserving
+     * bean bags, other than asking for fewer than 1. Successful results are
+     * ignored.
+     *
+     * @param result            result code, inventory row or reservation number
+     * @throws BeanBagNotInStockException   if the bean bag is out of stock
+     * @throws InsufficientStockException   if not enough are available
+     * @throws PriceNotSetException if the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private void throwStockFailure(int result) throws BeanBagNotInStockException, InsufficientStockException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        throwLookUpFailure(result);
+        if (result == StoreResult.NOT_IN_STOCK) {
+            throw StoreExceptions.NOT_IN_STOCK;
+        }
+        if (result == StoreResult.INSUFFICIENT_STOCK) {
+            throw StoreExceptions.INSUFFICIENT_STOCK;
+        }
+    }
+
+    /**
+     * Method checks the ids and numbers of a batch are the same length.
+     *
+     * @param ids               ID of bean bags on each line
+     * @param nums              number of bean bags on each line
+     * @throws IllegalArgumentException if the arrays are different lengths
+     */
+    private void checkBatch(String[] ids, int[] nums) {
+        if (ids.length != nums.length) {
+            throw new IllegalArgumentException("Batch Mismatch: There must be " +
+                    "one number of bean bags for each id.");
+        }
+    }
+
+    /**
+     * Method orders the lines of a batch by the inventory row they refer to,
+     * so the lines of each bean bag can be handled together. Lines of the same
+     * bean bag stay in their original order.
+     *
+     * @param rows              inventory row of each line, or -1 for lines
+     *                          that already failed
+     * @return                  indexes of the lines that haven't failed, grouped
+     *                          by inventory row
+     */
+    private int[] groupBatchLines(int[] rows) {
+        //sorting row and line packed together, so no objects are needed.
+        long[] keys = new long[rows.length];
+        int size = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != -1) {
+                keys[size++] = ((long) rows[i] << 32) | i;
             }
         }
-        catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
+        Arrays.sort(keys, 0, size);
+        int[] lines = new int[size];
+        for (int i = 0; i < size; i++) {
+            lines[i] = (int) keys[i];
         }
+        return lines;
     }
 
     /**
-     * Method empties any given list.
+     * Method finds where the group of lines starting at the given position
+     * ends.
      *
-     * @param list               list that needed to be emptied
+     * @param lines             line indexes grouped by inventory row
+     * @param start             position of the first line of the group
+     * @param rows              inventory row of each line
+     * @return                  position after the last line of the group
      */
-    private void emptyList(ObjectArrayList list) {
-        while (list.size() != 0) {
-            list.remove(list.size() - 1);
+    private int endOfGroup(int[] lines, int start, int[] rows) {
+        int end = start + 1;
+        while (end < lines.length && rows[lines[end]] == rows[lines[start]]) {
+            end++;
         }
+        return end;
     }
 
     /**
-     * Method replaces the ID of current stock matching the first argument with the
-     * ID held in the second argument. To be used if there was e.g. a data entry
-     * error on the ID initially entered. After the method has completed all stock
-     * which had the old ID should now have the replacement ID (including
-     * reservations), and all trace of the old ID should be purged from the system
-     * (e.g. tracking of previous sales that had the old ID should reflect the
-     * replacement ID).
+     * Method totals the number of bean bags asked for by a group of lines.
      *
-     * @param oldId             old ID of bean bags
-     * @param replacementId     replacement ID of bean bags
-     * @param list1         a smaller list that is used to compare
-     * @param list2         a bigger list that is used to compare
-     * @throws BeanBagIDNotRecognisedException  if the oldId does not match any
-     *                          bag in (or previously in) stock
+     * @param lines             line indexes grouped by inventory row
+     * @param start             position of the first line of the group
+     * @param end               position after the last line of the group
+     * @param nums              number of bean bags on each line
+     * @return                  total number of bean bags of the group
      */
-    private void replaceBeanBagID(String oldId, String replacementId, ObjectArrayList list1, ObjectArrayList list2) throws BeanBagIDNotRecognisedException {
-        boolean isOldIDFound = false;
-        for (int i = 0; i < list2.size(); i++) {
-            if (i <= list1.size() - 1 && list1.size() != 0) {
-                //checking if the id is equal.
-                if(((BeanBag) list1.get(i)).getId() == oldId) {
-                    //replacing the id.
-                    ((BeanBag) list1.get(i)).setId(replacementId);
-                    isOldIDFound = true;
-                }
+    private long demandOfGroup(int[] lines, int start, int end, int[] nums) {
+        long demand = 0;
+        for (int i = start; i < end; i++) {
+            demand += nums[lines[i]];
+        }
+        return demand;
+    }
+
+    /**
+     * Method checks whether adding bean bags to an inventory row would take
+     * its stock, reserved bean bags included, past Integer.MAX_VALUE.
+     *
+     * @param row               inventory row of the bean bags
+     * @param num               number of bean bags to be added
+     * @return                  true if the stock can't hold that many more
+     */
+    private boolean isTooManyAdded(int row, long num) {
+        return (long) this.inventory.quantityAt(row) + this.inventory.reservedAt(row) + num > Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method finds the reservation index slot of the reservation number, handling
+     * any bean bags' reservation number that is not found in the stock.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param reservationNumber      unique reservation number
+     * @return                       slot of the reservation in the reservationIndex
+     * @throws ReservationNumberNotRecognisedException if the reservation number
+     *                          does not match a current reservation in the system
+     */
+    private int findReservation(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        int slot = this.reservationIndex.indexOf(reservationNumber);
+        if (slot < 0) {
+            throw StoreExceptions.RESERVATION_NOT_RECOGNISED;
+        }
+        return slot;
+    }
+
+    /**
+     * Method adds a new reservation to the reserveList and indexes it by its
+     * reservation number.
+     *
+     * @param reservation        reservation to be added
+     * @param row                inventory row the reservation was taken from
+     */
+    private void addReservation(BeanBag reservation, int row) {
+        reservation.setSku(row);
+        this.reservationIndex.put(reservation.getReservationNumber(), reservation, row, this.reserveList.size());
+        this.reserveList.add(reservation);
+        this.inventory.addReserved(row, reservation.getQuantity());
+        this.reservedBeanBags += reservation.getQuantity();
+        this.totalPriceOfReservedBeanBags += (long) reservation.getQuantity() * reservation.getPrice();
+        publish(ChangeFeed.RESERVED, this.inventory.idAt(row), reservation.getQuantity(), reservation.getPrice(), reservation.getReservationNumber());
+    }
+
+    /**
+     * Method removes a reservation from the reserveList and its index. The last
+     * reservation in the list is moved into the freed position, so nothing has
+     * to be shifted down.
+     *
+     * @param slot               slot of a live reservation in the reservationIndex
+     */
+    private void removeReservation(int slot) {
+        BeanBag reservation = this.reservationIndex.reservationAt(slot);
+        int row = reservedStockRow(slot);
+        int position = this.reservationIndex.positionAt(slot);
+        int timerEntry = this.reservationIndex.timerEntryAt(slot);
+        if (timerEntry >= 0) {
+            //the reservation number may be handed out again, so its deadline must not end a later reservation.
+            this.reservationTimer.cancel(timerEntry);
+        }
+        this.inventory.addReserved(row, -reservation.getQuantity());
+        this.reservedBeanBags -= reservation.getQuantity();
+        this.totalPriceOfReservedBeanBags -= (long) reservation.getQuantity() * reservation.getPrice();
+        this.reservationIndex.remove(reservation.getReservationNumber());
+        this.reserveList.swapRemove(position);
+        if (position != this.reserveList.size()) {
+            this.reservationIndex.setPosition(this.reserveList.get(position).getReservationNumber(), position);
+        }
+    }
+
+    /**
+     * Method lets a background snapshot keep a copy of a reservation or sale
+     * before it changes, so the snapshot still sees it as it was. Every change
+     * to a bean bag in the reserveList or soldList must go through this method;
+     * the inventory copies its own pages instead.
+     *
+     * @param beanBag            bean bag about to change
+     * @return                   the same bean bag
+     */
+    private BeanBag writable(BeanBag beanBag) {
+        if (this.backgroundSnapshot != null) {
+            if (this.backgroundSnapshot.isDone()) {
+                this.backgroundSnapshot = null;
+            } else {
+                this.backgroundSnapshot.preserve(beanBag);
             }
-            //checking if the id is equal.
-            if (((BeanBag) list2.get(i)).getId() == oldId) {
-                //replacing the id.
-                ((BeanBag) list2.get(i)).setId(replacementId);
-                isOldIDFound = true;
+        }
+        return beanBag;
+    }
+
+    /**
+     * Method generate unpredictable 9 digit reservation number for customers,
+     * when they reserve bean bags.
+     *
+     * @return           unique reservation number used to find
+     *                      beanbag(s) to be sold
+     */
+    private int generateReservationNumber() {
+        int reservationNumber = this.reservationAllocator.next();
+        //skipping numbers from an earlier cycle that are still reserved.
+        while (this.reservationIndex.contains(reservationNumber)) {
+            reservationNumber = this.reservationAllocator.next();
+        }
+        return reservationNumber;
+    }
+
+    /**
+     * Method records bean bags sold at the given price in the soldList, adding
+     * them to any earlier sale of the same bean bags at the same price.
+     *
+     * @param num               number of bean bags sold
+     * @param row               inventory row of the bean bags sold
+     * @param price             price each bean bag was sold for in pence
+     */
+    private void recordSale(int num, int row, int price) {
+        this.inventory.addSold(row, num, price);
+        this.soldBeanBags += num;
+        this.totalPriceOfSoldBeanBags += (long) num * price;
+        this.salesRollup.record(System.currentTimeMillis(), row, num, price);
+        int position = this.saleIndex.positionOf(row, price);
+        if (position != -1) {
+            BeanBag sale = this.soldList.get(position);
+            writable(sale).setQuantity(sale.getQuantity() + num);
+            return; //to leave the method as the ID and price are found.
+        }
+        //adding the sold bean bags to the soldList.
+        BeanBag sale = new BeanBag(num, this.inventory.idAt(row), price);
+        sale.setSku(row);
+        this.saleIndex.putIfAbsent(row, price, this.soldList.size());
+        this.soldList.add(sale);
+    }
+
+    /**
+     * Method converts a running total to the int the BeanBagStore interface
+     * returns, capping it rather than letting it wrap around.
+     *
+     * @param total             running total
+     * @return                  total, or Integer.MAX_VALUE if it doesn't fit
+     */
+    private int toInt(long total) {
+        return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+    }
+
+    /**
+     * Method recalculates every running total from the lists, used when the
+     * lists have been replaced wholesale.
+     */
+    private void recalculateTotals() {
+        this.availableBeanBags = this.inventory.sumOfQuantities();
+        this.inventory.resetTotals();
+        this.reservedBeanBags = 0;
+        this.totalPriceOfReservedBeanBags = 0;
+        for (int i = 0; i < this.reserveList.size(); i++) {
+            BeanBag reservation = this.reserveList.get(i);
+            this.inventory.addReserved(reservation.getSku(), reservation.getQuantity());
+            this.reservedBeanBags += reservation.getQuantity();
+            this.totalPriceOfReservedBeanBags += (long) reservation.getQuantity() * reservation.getPrice();
+        }
+        this.soldBeanBags = 0;
+        this.totalPriceOfSoldBeanBags = 0;
+        for (int i = 0; i < this.soldList.size(); i++) {
+            BeanBag sale = this.soldList.get(i);
+            if (sale.getSku() != -1) {
+                this.inventory.addSold(sale.getSku(), sale.getQuantity(), sale.getPrice());
             }
-            if (i == list2.size() - 1 && !isOldIDFound) {
-                throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The old id doesn't exist.");
+            this.soldBeanBags += sale.getQuantity();
+            this.totalPriceOfSoldBeanBags += (long) sale.getQuantity() * sale.getPrice();
+        }
+    }
+
+    /**
+     * Method reads BeanBagStore's contents from a serialised file,
+     * from the filename given in the argument.
+     *
+     * @param read               to read the serialised file
+     * @param list               list where the read object is stored to
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the file
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    private void readStoreList(ObjectInputStream read, TypedArrayList<BeanBag> list) throws IOException, ClassNotFoundException {
+        //reading the size of the object in the file
+        int size = read.readInt();
+        for (int i = 0; i < size; i++) {
+            Object beanBag = read.readObject();
+            if (!(beanBag instanceof BeanBag)) {
+                throw new InvalidObjectException("Invalid store file: a list holds something other than a bean bag.");
             }
+            list.add((BeanBag) beanBag);
         }
     }
 
@@ -338,7 +672,8 @@ public class Store implements BeanBagStore {
      * @param year              year of manufacture
      * @param month             month of manufacture
      * @throws IllegalNumberOfBeanBagsAddedException   if the number to be added
-     *                           is less than 1
+     *                           is less than 1, or would take the stock of the
+     *                           bean bags past Integer.MAX_VALUE
      * @throws BeanBagMismatchException if the id already exists (as a current in
      *                           stock bean bag, or one that has been previously
      *                           stocked in the store, but the other stored
@@ -350,36 +685,29 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
-        addBeanBagsException(num, id, month);
-        //checking if the stockList is empty.
-        if (stockList.size() != 0) {
-            for (int i = 0; i < this.stockList.size(); i++) {
-                //checking if there is an existing matching bean bags in the stockList.
-                if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                    //checking if all the object's attributes matches.
-                    if (((BeanBag) this.stockList.get(i)).getManufacturer() == manufacturer && ((BeanBag) this.stockList.get(i)).getName() == name) {
-                        //initialising the matching bean bags with the new variables.
-                        ((BeanBag) this.stockList.get(i)).setQuantity(((BeanBag) this.stockList.get(i)).getQuantity() + num);
-                        ((BeanBag) this.stockList.get(i)).setYear(year);
-                        ((BeanBag) this.stockList.get(i)).setMonth(month);
-                        break; //to leave the for loop as the ID is found and ID is unique.
-                    }
-                    else {
-                        throw new BeanBagMismatchException("Bean Bag Mismatch: There is a mismatch between id, manufacturer and name.");
-                    }
-                }
-                //when there isn't an existing matching bean bags in the stockList.
-                if (i == this.stockList.size() - 1) {
-                    //initialising a BeanBag object and adding it to the stockList.
-                    this.stockList.add(new BeanBag(num, manufacturer, name, id, year, month));
-                    break; //to prevent the extra unnecessary loop.
-                }
+        int packedID = addBeanBagsException(num, id, month);
+        int row = lookUpStockRow(packedID);
+        //checking if there is an existing matching bean bags in the inventory.
+        if (row != -1) {
+            //checking if all the object's attributes matches.
+            if (!isEqual(this.inventory.manufacturerAt(row), manufacturer) || !isEqual(this.inventory.nameAt(row), name)) {
+                throw StoreExceptions.MISMATCH;
             }
+            if (isTooManyAdded(row, num)) {
+                throw StoreExceptions.TOO_MANY_ADDED;
+            }
+            //initialising the matching bean bags with the new variables.
+            this.inventory.setQuantity(row, this.inventory.quantityAt(row) + num);
+            this.availableBeanBags += num;
+            this.inventory.setManufactureDate(row, year, month);
         }
         else {
-            //initialising a BeanBag object and adding it to the stockList.
-            this.stockList.add(new BeanBag(num, manufacturer, name, id, year, month));
+            //adding a row for the bean bags to the inventory.
+            this.inventory.add(packedID, manufacturer, name, null, year, month, num);
+            this.availableBeanBags += num;
         }
+        publish(ChangeFeed.STOCK_ADDED, packedID, num, 0, 0);
+        logChange(JournalRecord.add(num, manufacturer, name, packedID, year, month));
     }
 
     /**
@@ -396,7 +724,8 @@ public class Store implements BeanBagStore {
      * @param month             month of manufacture
      * @param information       free text detailing bean bag information
      * @throws IllegalNumberOfBeanBagsAddedException   if the number to be added
-     *                           is less than 1
+     *                           is less than 1, or would take the stock of the
+     *                           bean bags past Integer.MAX_VALUE
      * @throws BeanBagMismatchException if the id already exists (as a current in
      *                           stock bean bag, or one that has been previously
      *                           stocked in the store, but the other stored
@@ -408,35 +737,29 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void addBeanBags(int num, String manufacturer, String name, String id, short year, byte month, String information) throws IllegalNumberOfBeanBagsAddedException, BeanBagMismatchException, IllegalIDException, InvalidMonthException {
-        addBeanBagsException(num, id, month);
-        if (stockList.size() != 0) {
-            for (int i = 0; i < this.stockList.size(); i++) {
-                //checking if there is an existing matching bean bags in the stockList.
-                if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                    //checking if all the object's attributes matches.
-                    if (((BeanBag) this.stockList.get(i)).getManufacturer() == manufacturer && ((BeanBag) this.stockList.get(i)).getName() == name && ((BeanBag) this.stockList.get(i)).getInformation() == information) {
-                        //initialising the matching bean bags with the new variables.
-                        ((BeanBag) this.stockList.get(i)).setQuantity(((BeanBag) this.stockList.get(i)).getQuantity() + num);
-                        ((BeanBag) this.stockList.get(i)).setYear(year);
-                        ((BeanBag) this.stockList.get(i)).setMonth(month);
-                        break; //to leave the for loop as the ID is found and ID is unique.
-                    }
-                    else {
-                        throw new BeanBagMismatchException("Bean Bag Mismatch: There is a mismatch between id, manufacturer, name and free text");
-                    }
-                }
-                //when there isn't an existing matching bean bags in the stockList.
-                if (i == this.stockList.size() - 1) {
-                    //initialising a BeanBag object and adding it to the stockList.
-                    this.stockList.add(new BeanBag(num, manufacturer, name, id, year, month));
-                    break; //to prevent the extra unnecessary loop.
-                }
+        int packedID = addBeanBagsException(num, id, month);
+        int row = lookUpStockRow(packedID);
+        //checking if there is an existing matching bean bags in the inventory.
+        if (row != -1) {
+            //checking if all the object's attributes matches.
+            if (!isEqual(this.inventory.manufacturerAt(row), manufacturer) || !isEqual(this.inventory.nameAt(row), name) || !isEqual(this.inventory.informationAt(row), information)) {
+                throw StoreExceptions.MISMATCH_WITH_INFORMATION;
             }
+            if (isTooManyAdded(row, num)) {
+                throw StoreExceptions.TOO_MANY_ADDED;
+            }
+            //initialising the matching bean bags with the new variables.
+            this.inventory.setQuantity(row, this.inventory.quantityAt(row) + num);
+            this.availableBeanBags += num;
+            this.inventory.setManufactureDate(row, year, month);
         }
         else {
-            //initialising a BeanBag object and adding it to the stockList.
-            this.stockList.add(new BeanBag(num, manufacturer, name, id, year, month, information));
+            //adding a row for the bean bags to the inventory.
+            this.inventory.add(packedID, manufacturer, name, information, year, month, num);
+            this.availableBeanBags += num;
         }
+        publish(ChangeFeed.STOCK_ADDED, packedID, num, 0, 0);
+        logChange(JournalRecord.add(num, manufacturer, name, packedID, year, month, information));
     }
 
     /**
@@ -454,19 +777,15 @@ public class Store implements BeanBagStore {
      *                           hexadecimal number
      */
     @Override
-    public void setBeanBagPrice(String id, int priceInPence) throws InvalidPriceException, BeanBagIDNotRecognisedException, IllegalIDException { beanBagsIllegalIDException(id);
+    public void setBeanBagPrice(String id, int priceInPence) throws InvalidPriceException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
         if (priceInPence < 1) {
-            throw new InvalidPriceException("Invalid Price: The price in pence has to be greater than 0.");
-        }
-        for (int i = 0; i < this.stockList.size(); i++) {
-            //checking if the id is equal.
-            if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                //assigning price to the BeanBag object according to the ID.
-                ((BeanBag) this.stockList.get(i)).setPrice(priceInPence);
-                break; //to leave the for loop as the ID is found and ID is unique.
-            }
-            beanBagIDNotRecognisedException(i, this.stockList);
+            throw StoreExceptions.INVALID_PRICE;
         }
+        //assigning price to the inventory row according to the ID.
+        this.inventory.setPrice(findStockRow(packedID), priceInPence);
+        publish(ChangeFeed.PRICE_SET, packedID, 0, priceInPence, 0);
+        logChange(JournalRecord.setPrice(packedID, priceInPence));
     }
 
     /**
@@ -494,50 +813,48 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void sellBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsSoldException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int result = trySell(num, id);
+        if (result == StoreResult.ILLEGAL_NUMBER) {
+            throw StoreExceptions.ILLEGAL_NUMBER_SOLD;
+        }
+        throwStockFailure(result);
+    }
+
+    /**
+     * Method sells bean bags with the corresponding ID from the store like
+     * {@link #sellBeanBags(int, String)}, but returns a result code instead of
+     * throwing, and allocates nothing when the sale fails. The state of this
+     * BeanBagStore is unchanged unless the result is {@link StoreResult#OK}.
+     *
+     * @param num           number of bean bags to be sold
+     * @param id            ID of bean bags to be sold
+     * @return              {@link StoreResult#OK}, or the code of the failure:
+     *                      {@link StoreResult#ILLEGAL_NUMBER},
+     *                      {@link StoreResult#ILLEGAL_ID},
+     *                      {@link StoreResult#ID_NOT_RECOGNISED},
+     *                      {@link StoreResult#PRICE_NOT_SET},
+     *                      {@link StoreResult#NOT_IN_STOCK} or
+     *                      {@link StoreResult#INSUFFICIENT_STOCK}
+     */
+    public int trySell(int num, String id) {
         if (num < 1) {
-            throw new IllegalNumberOfBeanBagsSoldException("Illegal Number Of Bean Bags Sold: The number of bean bags sold must be greater than 0.");
-        }
-        beanBagsIllegalIDException(id);
-        for (int i = 0; i < this.stockList.size(); i++) {
-            //checking if the id is equal.
-            if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                if (((BeanBag) this.stockList.get(i)).getPrice() == 0) {
-                    throw new PriceNotSetException("Price Not Set: The price for the bean bags has not been set.");
-                }
-                if (((BeanBag) this.stockList.get(i)).getQuantity() == 0) {
-                    throw new BeanBagNotInStockException("Bean Bag Not In Stock: The quantity of bean bags in stock is 0.");
-                }
-                //checking if there is a sufficient amount of bean bags to sell.
-                if (((BeanBag) this.stockList.get(i)).getQuantity() >= num) {
-                    //editing the quantity of bean bags in the stockList.
-                    ((BeanBag) this.stockList.get(i)).setQuantity(((BeanBag) this.stockList.get(i)).getQuantity() - num);
-                    if (this.soldList.size() != 0) {
-                        for (int x = 0; x < this.soldList.size(); x++) {
-                            //checking if the id is equal.
-                            if (((BeanBag) this.soldList.get(x)).getId() == id) {
-                                ((BeanBag) this.soldList.get(x)).setQuantity(((BeanBag) this.soldList.get(x)).getQuantity() + num);
-                                break;
-                            }
-                            if (x == this.soldList.size() - 1) {
-                                //adding the sold bean bags to the soldList.
-                                this.soldList.add(new BeanBag(num, id, ((BeanBag) this.stockList.get(i)).getPrice()));
-                                break; //to leave the for loop as the ID is found and ID is unique.
-                            }
-                        }
-                        break;
-                    }
-                    else {
-                        //adding the sold bean bags to the soldList.
-                        this.soldList.add(new BeanBag(num, id, ((BeanBag) this.stockList.get(i)).getPrice()));
-                        break; //to leave the for loop as the ID is found and ID is unique.
-                    }
-                }
-                else {
-                    throw new InsufficientStockException("Insufficient Stock: Not enough stock to sell.");
-                }
-            }
-            beanBagIDNotRecognisedException(i, this.stockList);
+            return StoreResult.ILLEGAL_NUMBER;
         }
+        int row = lookUpPricedStockRow(id);
+        if (row < 0) {
+            return row;
+        }
+        int result = availabilityOf(row, num);
+        if (result != StoreResult.OK) {
+            return result;
+        }
+        //editing the quantity of bean bags in the inventory.
+        this.inventory.setQuantity(row, this.inventory.quantityAt(row) - num);
+        this.availableBeanBags -= num;
+        recordSale(num, row, this.inventory.priceAt(row));
+        publish(ChangeFeed.SOLD, this.inventory.idAt(row), num, this.inventory.priceAt(row), 0);
+        logChange(JournalRecord.sell(this.inventory.idAt(row), num));
+        return StoreResult.OK;
     }
 
     /**
@@ -566,65 +883,476 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int reserveBeanBags(int num, String id) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
-        if (num < 1) {
-            throw new IllegalNumberOfBeanBagsReservedException("Illegal Number Of Bean Bags Reserved: The number of bean bags reserved must be greater than 0.");
-        }
-        beanBagsIllegalIDException(id);
-        for (int i = 0; i < this.stockList.size(); i++) {
-            //checking if the id is equal.
-            if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                if (((BeanBag) this.stockList.get(i)).getPrice() == 0) {
-                    throw new PriceNotSetException("Price Not Set: The price for the bean bags has not been set.");
-                }
-                if (((BeanBag) this.stockList.get(i)).getQuantity() == 0) {
-                    throw new BeanBagNotInStockException("Bean Bag Not In Stock: The quantity of bean bags in stock is 0.");
-                }
-                //checking if there is a sufficient amount of bean bags to reserve.
-                if (((BeanBag) this.stockList.get(i)).getQuantity() >= num) {
-                    //editing the quantity of bean bags in the stockList.
-                    ((BeanBag) this.stockList.get(i)).setQuantity(((BeanBag) this.stockList.get(i)).getQuantity() - num);
-                    int reservationNumber = generateReservationNumber();
-                    //adding the reserved bean bags to the reserveList.
-                    this.reserveList.add(new BeanBag(num, id, ((BeanBag) this.stockList.get(i)).getPrice(), reservationNumber));
-                    return reservationNumber;
-                } else {
-                    throw new InsufficientStockException("Insufficient Stock: Not enough stock to sell.");
-                }
-            }
-        }
-        throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The id doesn't exist in the stockList.");
+        int result = tryReserve(num, id);
+        throwReserveFailure(result);
+        return result;
     }
 
     /**
-     * Method removes an existing reservation from the system due to a reservation
-     * cancellation (rather than sale). The stock should therefore remain unchanged.
-     * <p>
-     * The state of this BeanBagStore must be be unchanged if any exceptions are
-     * thrown.
+     * Method reserves bean bags with the corresponding ID in the store like
+     * {@link #reserveBeanBags(int, String)}, but returns a result code instead
+     * of throwing, and allocates nothing when the reservation fails. The state
+     * of this BeanBagStore is unchanged unless a reservation number is
+     * returned.
      *
-     * @param reservationNumber           unique reservation number used to find
-     *                                    beanbag(s) to be sold
-     * @throws ReservationNumberNotRecognisedException  if the reservation number
-     *                          does not match a current reservation in the system
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @return              reservation number of the reservation, which is
+     *                      positive, or the code of the failure:
+     *                      {@link StoreResult#ILLEGAL_NUMBER},
+     *                      {@link StoreResult#ILLEGAL_ID},
+     *                      {@link StoreResult#ID_NOT_RECOGNISED},
+     *                      {@link StoreResult#PRICE_NOT_SET},
+     *                      {@link StoreResult#NOT_IN_STOCK} or
+     *                      {@link StoreResult#INSUFFICIENT_STOCK}
      */
-    @Override
-    public void unreserveBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
-        for (int i = 0; i < this.reserveList.size(); i++) {
-            //find the BeanBag object's reservationNumber in the reserveList.
-            if (((BeanBag) this.reserveList.get(i)).getReservationNumber() == reservationNumber) {
-                for (int x = 0; x < this.stockList.size(); x++) {
-                    //checking if the id is equal.
-                    if (((BeanBag) this.stockList.get(x)).getId() == ((BeanBag) this.reserveList.get(i)).getId()) {
-                        //editing the quantity of bean bags in the stockList.
-                        ((BeanBag) this.stockList.get(x)).setQuantity(((BeanBag) this.stockList.get(x)).getQuantity() + ((BeanBag) this.reserveList.get(i)).getQuantity());
+    public int tryReserve(int num, String id) {
+        return reserveUntil(num, id, 0);
+    }
+
+    /**
+     * Method reserves bean bags like {@link #reserveBeanBags(int, String)},
+     * but the reservation expires once the given time has passed unless it
+     * has been sold or unreserved by then. Expired reservations return their
+     * bean bags to stock when {@link #expireReservations()} is next called.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @param timeToLive    milliseconds until the reservation expires, which
+     *                      is rounded up to whole seconds
+     * @return              unique reservation number, i.e. one not currently live
+     *                      in the system
+     * @throws BeanBagNotInStockException   if the bean bag has previously been in
+     *                      stock, but is now out of stock
+     * @throws InsufficientStockException   if the bean bag is in stock, but not
+     *                      enough are available to meet the reservation demand
+     * @throws IllegalNumberOfBeanBagsReservedException if the number of bean bags
+     *                      requested to reserve is fewer than 1
+     * @throws PriceNotSetException if the bag is in stock, and there is sufficient
+     *                      stock to meet demand, but the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     * @throws IllegalArgumentException if the time to live is less than 1
+     */
+    public int reserveBeanBags(int num, String id, long timeToLive) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        int result = tryReserve(num, id, timeToLive);
+        throwReserveFailure(result);
+        return result;
+    }
+
+    /**
+     * Method reserves bean bags for the given time like
+     * {@link #reserveBeanBags(int, String, long)}, but returns a result code
+     * instead of throwing, like {@link #tryReserve(int, String)}.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @param timeToLive    milliseconds until the reservation expires, which
+     *                      is rounded up to whole seconds
+     * @return              reservation number of the reservation, which is
+     *                      positive, or the code of the failure
+     * @throws IllegalArgumentException if the time to live is less than 1
+     */
+    public int tryReserve(int num, String id, long timeToLive) {
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("The time to live of a reservation must be at least 1 millisecond.");
+        }
+        return reserveUntil(num, id, System.currentTimeMillis() + timeToLive);
+    }
+
+    /**
+     * Method reserves bean bags, returning a result code, and journals the
+     * reservation together with the time it expires.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @param deadline      time the reservation expires in milliseconds since
+     *                      the epoch, or 0 if it never does
+     * @return              reservation number of the reservation, which is
+     *                      positive, or the code of the failure
+     */
+    private int reserveUntil(int num, String id, long deadline) {
+        int result = reserve(num, id, 0);
+        if (StoreResult.isSuccess(result)) {
+            if (deadline != 0) {
+                scheduleExpiry(this.reservationIndex.indexOf(result), deadline);
+            }
+            logChange(reserveRecord(BeanBagID.parse(id), num, result, deadline));
+        }
+        return result;
+    }
+
+    /**
+     * Method sets the time a reservation expires, and schedules it on the
+     * timer so expireReservations finds it once that time has passed.
+     *
+     * @param slot          slot of a live reservation in the reservationIndex
+     * @param deadline      time the reservation expires in milliseconds since
+     *                      the epoch, which may already have passed
+     */
+    private void scheduleExpiry(int slot, long deadline) {
+        BeanBag reservation = this.reservationIndex.reservationAt(slot);
+        reservation.setDeadline(deadline);
+        int timerEntry = this.reservationTimer.schedule(reservation.getReservationNumber(), System.currentTimeMillis(), deadline);
+        this.reservationIndex.setTimerEntry(slot, timerEntry);
+    }
+
+    /**
+     * Method returns the bean bags of every reservation whose time to live
+     * has passed to stock, as if each had been unreserved, and journals them
+     * together. Only reservations that are due are looked at, so a call costs
+     * no more than the reservations it ends and the seconds since the last
+     * call. Reservations made without a time to live never expire.
+     * <p>
+     * The deadline of a reservation is saved and journalled with it, so a
+     * reservation loaded from a file or replayed from a journal still
+     * expires, straight away if its deadline passed in the meantime.
+     *
+     * @return              number of reservations expired
+     */
+    public int expireReservations() {
+        int[] due = this.reservationTimer.expire(System.currentTimeMillis());
+        int expired = 0;
+        long records = 0;
+        for (int reservationNumber : due) {
+            int slot = this.reservationIndex.indexOf(reservationNumber);
+            //reservations sold or unreserved in time were cancelled, so every number due is live.
+            if (slot >= 0) {
+                //the timer has already dropped the entry.
+                this.reservationIndex.setTimerEntry(slot, -1);
+                release(slot);
+                records = appendChange(JournalRecord.unreserve(reservationNumber));
+                expired++;
+            }
+        }
+        awaitLogged(records);
+        return expired;
+    }
+
+    /**
+     * Method throws the exception matching a failure of reserving bean bags.
+     * Reservation numbers are ignored.
+     *
+     * @param result            result code or reservation number
+     * @throws BeanBagNotInStockException   if the bean bag is out of stock
+     * @throws InsufficientStockException   if not enough are available
+     * @throws IllegalNumberOfBeanBagsReservedException if the number of bean bags
+     *                      requested to reserve is fewer than 1
+     * @throws PriceNotSetException if the price has yet to be set
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private void throwReserveFailure(int result) throws BeanBagNotInStockException, InsufficientStockException, IllegalNumberOfBeanBagsReservedException, PriceNotSetException, BeanBagIDNotRecognisedException, IllegalIDException {
+        if (result == StoreResult.ILLEGAL_NUMBER) {
+            throw StoreExceptions.ILLEGAL_NUMBER_RESERVED;
+        }
+        throwStockFailure(result);
+    }
+
+    /**
+     * Method reserves bean bags with the corresponding ID in the store, under
+     * the given reservation number or a newly handed out one.
+     *
+     * @param num           number of bean bags to be reserved
+     * @param id            ID of bean bags to be reserved
+     * @param reservationNumber reservation number to use, or 0 to hand out a
+     *                      new one
+     * @return              reservation number of the reservation, or the
+     *                      code of the failure as for
+     *                      {@link #tryReserve(int, String)}
+     * @throws IllegalStateException if the reservation number given is
+     *                      already in use
+     */
+    private int reserve(int num, String id, int reservationNumber) {
+        if (reservationNumber != 0 && this.reservationIndex.contains(reservationNumber)) {
+            throw new IllegalStateException("Reservation number " + reservationNumber + " is already in use.");
+        }
+        if (num < 1) {
+            return StoreResult.ILLEGAL_NUMBER;
+        }
+        int row = lookUpPricedStockRow(id);
+        if (row < 0) {
+            return row;
+        }
+        int result = availabilityOf(row, num);
+        if (result != StoreResult.OK) {
+            return result;
+        }
+        //editing the quantity of bean bags in the inventory.
+        this.inventory.setQuantity(row, this.inventory.quantityAt(row) - num);
+        this.availableBeanBags -= num;
+        if (reservationNumber == 0) {
+            reservationNumber = generateReservationNumber();
+        }
+        //adding the reserved bean bags to the reserveList.
+        addReservation(new BeanBag(num, this.inventory.idAt(row), this.inventory.priceAt(row), reservationNumber), row);
+        return reservationNumber;
+    }
+
+    /**
+     * Method adds bean bags to the stock of bean bags already in (or previously
+     * in) stock, for a batch of ids at once. The year and month of manufacture
+     * of the bean bags are unchanged. Each line is checked once, and the lines
+     * for the same bean bag are added to its stock in one go.
+     * <p>
+     * Each line succeeds or fails on its own, leaving the store unchanged if it
+     * fails, exactly as if the lines were added one at a time.
+     *
+     * @param ids               ID of bean bags on each line
+     * @param nums              number of bean bags added on each line
+     * @return                  outcome of each line, failing with an
+     *                          {@link IllegalNumberOfBeanBagsAddedException}
+     *                          if the number is less than 1 or would take the
+     *                          stock past Integer.MAX_VALUE,
+     *                          {@link IllegalIDException} or
+     *                          {@link BeanBagIDNotRecognisedException}
+     * @throws IllegalArgumentException if the arrays are different lengths
+     */
+    public BatchResult restockBeanBags(String[] ids, int[] nums) {
+        checkBatch(ids, nums);
+        BatchResult result = new BatchResult(ids.length);
+        int[] rows = new int[ids.length];
+        //checking every line in one pass before anything is changed.
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                if (nums[i] < 1) {
+                    throw StoreExceptions.ILLEGAL_NUMBER_ADDED;
+                }
+                rows[i] = findStockRow(parseID(ids[i]));
+            } catch (IllegalNumberOfBeanBagsAddedException | IllegalIDException | BeanBagIDNotRecognisedException e) {
+                result.fail(i, e);
+                rows[i] = -1;
+            }
+        }
+        int[] lines = groupBatchLines(rows);
+        long records = 0;
+        for (int start = 0; start < lines.length; ) {
+            int end = endOfGroup(lines, start, rows);
+            int row = rows[lines[start]];
+            long demand = demandOfGroup(lines, start, end, nums);
+            int added = 0;
+            if (!isTooManyAdded(row, demand)) {
+                //every line of this bean bag fits, so adding them in one go.
+                added = (int) demand;
+                this.inventory.setQuantity(row, this.inventory.quantityAt(row) + added);
+            }
+            else {
+                for (int i = start; i < end; i++) {
+                    int num = nums[lines[i]];
+                    if (isTooManyAdded(row, num)) {
+                        result.fail(lines[i], StoreExceptions.TOO_MANY_ADDED);
+                        continue;
+                    }
+                    this.inventory.setQuantity(row, this.inventory.quantityAt(row) + num);
+                    added += num;
+                }
+            }
+            if (added != 0) {
+                this.availableBeanBags += added;
+                publish(ChangeFeed.STOCK_ADDED, this.inventory.idAt(row), added, 0, 0);
+                records = appendChange(JournalRecord.restock(this.inventory.idAt(row), added));
+            }
+            start = end;
+        }
+        awaitLogged(records);
+        return result;
+    }
+
+    /**
+     * Method sells bean bags for a batch of ids at once. Each line is checked
+     * once, and when there is enough stock for every line of the same bean bag
+     * they are sold in one go.
+     * <p>
+     * Each line succeeds or fails on its own, leaving the store unchanged if it
+     * fails, exactly as if the lines were sold one at a time in order.
+     *
+     * @param ids               ID of bean bags on each line
+     * @param nums              number of bean bags sold on each line
+     * @return                  outcome of each line, failing with the exception
+     *                          {@link #sellBeanBags(int, String)} would throw
+     * @throws IllegalArgumentException if the arrays are different lengths
+     */
+    public BatchResult sellBeanBags(String[] ids, int[] nums) {
+        checkBatch(ids, nums);
+        BatchResult result = new BatchResult(ids.length);
+        int[] rows = new int[ids.length];
+        //checking every line in one pass before anything is changed.
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                if (nums[i] < 1) {
+                    throw StoreExceptions.ILLEGAL_NUMBER_SOLD;
+                }
+                rows[i] = findPricedStockRow(ids[i]);
+            } catch (IllegalNumberOfBeanBagsSoldException | PriceNotSetException | BeanBagIDNotRecognisedException | IllegalIDException e) {
+                result.fail(i, e);
+                rows[i] = -1;
+            }
+        }
+        int[] lines = groupBatchLines(rows);
+        long records = 0;
+        for (int start = 0; start < lines.length; ) {
+            int end = endOfGroup(lines, start, rows);
+            int row = rows[lines[start]];
+            long demand = demandOfGroup(lines, start, end, nums);
+            int sold = 0;
+            if (demand <= this.inventory.quantityAt(row)) {
+                //every line of this bean bag can be met, so selling them in one go.
+                sold = (int) demand;
+                this.inventory.setQuantity(row, this.inventory.quantityAt(row) - sold);
+            }
+            else {
+                for (int i = start; i < end; i++) {
+                    try {
+                        checkStock(row, nums[lines[i]]);
+                        this.inventory.setQuantity(row, this.inventory.quantityAt(row) - nums[lines[i]]);
+                        sold += nums[lines[i]];
+                    } catch (BeanBagNotInStockException | InsufficientStockException e) {
+                        result.fail(lines[i], e);
+                    }
+                }
+            }
+            if (sold != 0) {
+                this.availableBeanBags -= sold;
+                recordSale(sold, row, this.inventory.priceAt(row));
+                publish(ChangeFeed.SOLD, this.inventory.idAt(row), sold, this.inventory.priceAt(row), 0);
+                records = appendChange(JournalRecord.sell(this.inventory.idAt(row), sold));
+            }
+            start = end;
+        }
+        awaitLogged(records);
+        return result;
+    }
+
+    /**
+     * Method reserves bean bags for a batch of ids at once, handing out a
+     * reservation number for each line. Each line is checked once, and when
+     * there is enough stock for every line of the same bean bag their stock
+     * is taken in one go.
+     * <p>
+     * Each line succeeds or fails on its own, leaving the store unchanged if it
+     * fails, exactly as if the lines were reserved one at a time in order.
+     *
+     * @param ids               ID of bean bags on each line
+     * @param nums              number of bean bags reserved on each line
+     * @return                  outcome and reservation number of each line,
+     *                          failing with the exception
+     *                          {@link #reserveBeanBags(int, String)} would throw
+     * @throws IllegalArgumentException if the arrays are different lengths
+     */
+    public BatchResult reserveBeanBags(String[] ids, int[] nums) {
+        checkBatch(ids, nums);
+        BatchResult result = new BatchResult(ids.length);
+        int[] rows = new int[ids.length];
+        //checking every line in one pass before anything is changed.
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                if (nums[i] < 1) {
+                    throw StoreExceptions.ILLEGAL_NUMBER_RESERVED;
+                }
+                rows[i] = findPricedStockRow(ids[i]);
+            } catch (IllegalNumberOfBeanBagsReservedException | PriceNotSetException | BeanBagIDNotRecognisedException | IllegalIDException e) {
+                result.fail(i, e);
+                rows[i] = -1;
+            }
+        }
+        int[] lines = groupBatchLines(rows);
+        long records = 0;
+        for (int start = 0; start < lines.length; ) {
+            int end = endOfGroup(lines, start, rows);
+            int row = rows[lines[start]];
+            long demand = demandOfGroup(lines, start, end, nums);
+            boolean isGroupMet = demand <= this.inventory.quantityAt(row);
+            if (isGroupMet) {
+                //every line of this bean bag can be met, so taking the stock in one go.
+                this.inventory.setQuantity(row, this.inventory.quantityAt(row) - (int) demand);
+                this.availableBeanBags -= demand;
+            }
+            for (int i = start; i < end; i++) {
+                int num = nums[lines[i]];
+                if (!isGroupMet) {
+                    try {
+                        checkStock(row, num);
+                    } catch (BeanBagNotInStockException | InsufficientStockException e) {
+                        result.fail(lines[i], e);
+                        continue;
                     }
+                    this.inventory.setQuantity(row, this.inventory.quantityAt(row) - num);
+                    this.availableBeanBags -= num;
                 }
-                //removing the BeanBag object in the reserveList.
-                this.reserveList.remove(i);
-                break; //to leave the for loop as the ID is found and ID is unique.
+                int reservationNumber = generateReservationNumber();
+                addReservation(new BeanBag(num, this.inventory.idAt(row), this.inventory.priceAt(row), reservationNumber), row);
+                result.setReservationNumber(lines[i], reservationNumber);
+                records = appendChange(reserveRecord(this.inventory.idAt(row), num, reservationNumber, 0));
             }
-            beanBagReservationNumberNotRecognisedException(i);
+            start = end;
         }
+        awaitLogged(records);
+        return result;
+    }
+
+    /**
+     * Method removes an existing reservation from the system due to a reservation
+     * cancellation (rather than sale). The stock should therefore remain unchanged.
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param reservationNumber           unique reservation number used to find
+     *                                    beanbag(s) to be sold
+     * @throws ReservationNumberNotRecognisedException  if the reservation number
+     *                          does not match a current reservation in the system
+     */
+    @Override
+    public void unreserveBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
+        if (tryUnreserve(reservationNumber) != StoreResult.OK) {
+            throw StoreExceptions.RESERVATION_NOT_RECOGNISED;
+        }
+    }
+
+    /**
+     * Method removes an existing reservation like
+     * {@link #unreserveBeanBags(int)}, but returns a result code instead of
+     * throwing, and allocates nothing when the reservation isn't found.
+     *
+     * @param reservationNumber           unique reservation number used to find
+     *                                    beanbag(s) to be sold
+     * @return                  {@link StoreResult#OK}, or
+     *                          {@link StoreResult#RESERVATION_NOT_RECOGNISED}
+     *                          if the reservation number does not match a
+     *                          current reservation in the system
+     */
+    public int tryUnreserve(int reservationNumber) {
+        int slot = this.reservationIndex.indexOf(reservationNumber);
+        if (slot < 0) {
+            return StoreResult.RESERVATION_NOT_RECOGNISED;
+        }
+        release(slot);
+        logChange(JournalRecord.unreserve(reservationNumber));
+        return StoreResult.OK;
+    }
+
+    /**
+     * Method returns the bean bags of a reservation to stock and removes the
+     * reservation, without journalling the change.
+     *
+     * @param slot              slot of the reservation in the reservationIndex
+     */
+    private void release(int slot) {
+        BeanBag reservation = this.reservationIndex.reservationAt(slot);
+        int row = reservedStockRow(slot);
+        //editing the quantity of bean bags in the inventory.
+        this.inventory.setQuantity(row, this.inventory.quantityAt(row) + reservation.getQuantity());
+        this.availableBeanBags += reservation.getQuantity();
+        //removing the BeanBag object in the reserveList.
+        removeReservation(slot);
+        publish(ChangeFeed.UNRESERVED, this.inventory.idAt(row), reservation.getQuantity(), reservation.getPrice(), reservation.getReservationNumber());
     }
 
     /**
@@ -641,47 +1369,16 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void sellBeanBags(int reservationNumber) throws ReservationNumberNotRecognisedException {
-        for (int i = 0; i < this.reserveList.size(); i++) {
-            //find the BeanBag object's reservationNumber in the reserveList.
-            if (((BeanBag) this.reserveList.get(i)).getReservationNumber() == reservationNumber) {
-                for (int y = 0; y < this.stockList.size(); y++) {
-                    //checking if the id is equal.
-                    if (((BeanBag) this.stockList.get(y)).getId() == ((BeanBag) this.reserveList.get(i)).getId()) {
-                        if (((BeanBag) this.stockList.get(y)).getPrice() < ((BeanBag) this.reserveList.get(i)).getPrice()) {
-                            ((BeanBag) this.reserveList.get(i)).setPrice(((BeanBag) this.stockList.get(y)).getPrice());
-                            break;
-                        }
-                    }
-                }
-                if(this.soldList.size() != 0) {
-                    for (int x = 0; x < this.soldList.size(); x++) {
-                        //checking if the id is equal.
-                        if (((BeanBag) this.soldList.get(x)).getId() == ((BeanBag) this.reserveList.get(i)).getId() && ((BeanBag) this.soldList.get(x)).getPrice() == ((BeanBag) this.reserveList.get(i)).getPrice()) {
-                            ((BeanBag) this.soldList.get(x)).setQuantity(((BeanBag) this.soldList.get(x)).getQuantity() + ((BeanBag) this.reserveList.get(i)).getQuantity());
-                            //removing the BeanBag object from the reserveList.
-                            this.reserveList.remove(i);
-                            break;
-                        }
-                        if (x == this.soldList.size() - 1) {
-                            //adding the BeanBag object to the soldList.
-                            this.soldList.add(new BeanBag(((BeanBag) this.reserveList.get(i)).getQuantity(), ((BeanBag) this.reserveList.get(i)).getId(), ((BeanBag) this.reserveList.get(i)).getPrice()));
-                            //removing the BeanBag object from the reserveList.
-                            this.reserveList.remove(i);
-                            break; //to leave the for loop as the ID is found and ID is unique.
-                        }
-                    }
-                    break;
-                }
-                else {
-                    //adding the BeanBag object to the soldList.
-                    this.soldList.add(new BeanBag(((BeanBag) this.reserveList.get(i)).getQuantity(), ((BeanBag) this.reserveList.get(i)).getId(), ((BeanBag) this.reserveList.get(i)).getPrice()));
-                    //removing the BeanBag object from the reserveList.
-                    this.reserveList.remove(i);
-                    break; //to leave the for loop as the ID is found and ID is unique.
-                }
-            }
-            beanBagReservationNumberNotRecognisedException(i);
-        }
+        int slot = findReservation(reservationNumber);
+        BeanBag reservation = this.reservationIndex.reservationAt(slot);
+        int row = reservedStockRow(slot);
+        //customers pay the lower of the reserved and current price.
+        int price = Math.min(reservation.getPrice(), this.inventory.priceAt(row));
+        //removing the BeanBag object from the reserveList.
+        removeReservation(slot);
+        recordSale(reservation.getQuantity(), row, price);
+        publish(ChangeFeed.RESERVATION_SOLD, this.inventory.idAt(row), reservation.getQuantity(), price, reservationNumber);
+        logChange(JournalRecord.sellReservation(reservationNumber));
     }
 
     /**
@@ -692,12 +1389,7 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int beanBagsInStock() {
-        if (this.stockList.size() >= this.reserveList.size()) {
-            return getTotalBeanBagsInStock(this.reserveList, this.stockList);
-        }
-        else {
-            return getTotalBeanBagsInStock(this.stockList, this.reserveList);
-        }
+        return toInt(this.availableBeanBags + this.reservedBeanBags);
     }
 
     /**
@@ -708,12 +1400,7 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int reservedBeanBagsInStock() {
-        int reservedBeanBagsInStock = 0;
-        for (int i = 0; i < this.reserveList.size(); i++) {
-            //summing all the reserved bean bags' quantity.
-            reservedBeanBagsInStock += ((BeanBag) this.reserveList.get(i)).getQuantity();
-        }
-        return reservedBeanBagsInStock;
+        return toInt(this.reservedBeanBags);
     }
 
     /**
@@ -732,13 +1419,13 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int beanBagsInStock(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
-        beanBagsIllegalIDException(id);
-        if (this.stockList.size() >= this.reserveList.size()) {
-            return getTotalBeanBagsInStock(id, this.reserveList, this.stockList);
-        }
-        else {
-            return getTotalBeanBagsInStock(id, this.stockList, this.reserveList);
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return this.mappedStock.quantityAt(record) + this.mappedStock.reservedQuantityAt(record);
         }
+        int row = findStockRow(packedID);
+        return this.inventory.quantityAt(row) + this.inventory.reservedAt(row);
     }
 
     /**
@@ -751,12 +1438,54 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void saveStoreContents(String filename) throws IOException {
-        ObjectOutputStream write = new ObjectOutputStream(new FileOutputStream(filename));
-        //saving data from the lists to a file.
-        saveStoreList(write, this.stockList);
-        saveStoreList(write, this.reserveList);
-        saveStoreList(write, this.soldList);
-        write.close();
+        writeSnapshot(filename, this.journal == null ? 0 : this.journal.getNumberOfRecords());
+    }
+
+    /**
+     * Method writes this BeanBagStore's contents to a snapshot file, recording
+     * how many journal records the contents include.
+     *
+     * @param filename      location of the file to be saved to
+     * @param journalRecords    number of journal records included
+     * @throws IOException  if there is a problem experienced when trying to save
+     *                      the store contents to the file
+     */
+    private void writeSnapshot(String filename, long journalRecords) throws IOException {
+        awaitBackgroundSnapshot();
+        TypedArrayList<BeanBag> stock = new TypedArrayList<>(Math.max(1, this.inventory.size()));
+        for (int row = 0; row < this.inventory.size(); row++) {
+            stock.add(this.inventory.copyOf(row));
+        }
+        if (this.mappedStock != null) {
+            //adding copies of the bean bags still read from the opened snapshot.
+            for (int record = 0; record < this.mappedStock.getStockCount(); record++) {
+                if (this.mappedStock.isMapped(record)) {
+                    stock.add(this.mappedStock.copyOf(record));
+                }
+            }
+        }
+        //bringing the IDs of reservations and sales up to date with any replaced since.
+        updateIDs(this.reserveList);
+        updateIDs(this.soldList);
+        //saving the lists and the allocator, so reservation numbers aren't handed out twice.
+        StoreSnapshot.write(filename, stock, this.reserveList, this.soldList, this.reservationAllocator, journalRecords);
+    }
+
+    /**
+     * Method sets the ID of every reservation or sale in the given list to the
+     * current ID of the inventory row it refers to.
+     *
+     * @param list              reserveList or soldList
+     */
+    private void updateIDs(TypedArrayList<BeanBag> list) {
+        TypedArrayList.Cursor<BeanBag> cursor = list.cursor();
+        while (cursor.hasNext()) {
+            BeanBag beanBag = cursor.next();
+            int id = this.inventory.idOf(beanBag);
+            if (beanBag.getPackedId() != id) {
+                writable(beanBag).setPackedId(id);
+            }
+        }
     }
 
     /**
@@ -774,13 +1503,533 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void loadStoreContents(String filename) throws IOException, ClassNotFoundException {
-        empty(); //so the content is replaced
-        ObjectInputStream read = new ObjectInputStream(new FileInputStream(filename));
-        //loading data to the lists.
-        readStoreList(read, this.stockList);
-        readStoreList(read, this.reserveList);
-        readStoreList(read, this.soldList);
-        read.close();
+        load(filename);
+        publish(ChangeFeed.CONTENTS_REPLACED, 0, 0, 0, 0);
+        if (this.journal != null) {
+            //the journal no longer follows on from the loaded contents.
+            checkpoint();
+        }
+    }
+
+    /**
+     * Method replaces this BeanBagStore's contents with the contents stored in
+     * the file given in the argument, without touching the journal.
+     *
+     * @param filename      location of the file to be loaded
+     * @return              number of journal records included in the file
+     * @throws IOException  if there is a problem experienced when trying to load
+     *                      the store contents from the file
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    private long load(String filename) throws IOException, ClassNotFoundException {
+        TypedArrayList<BeanBag> stock = new TypedArrayList<>();
+        TypedArrayList<BeanBag> reservations = new TypedArrayList<>();
+        TypedArrayList<BeanBag> sales = new TypedArrayList<>();
+        ReservationNumberAllocator allocator;
+        long journalRecords = 0;
+        //reading the whole file before anything is replaced.
+        if (StoreSnapshot.isSnapshot(filename)) {
+            StoreSnapshot snapshot = StoreSnapshot.read(filename);
+            stock = snapshot.getStockList();
+            reservations = snapshot.getReserveList();
+            sales = snapshot.getSoldList();
+            allocator = snapshot.getReservationAllocator();
+            journalRecords = snapshot.getJournalRecords();
+        }
+        else {
+            //files saved before snapshots were introduced hold serialised bean bags.
+            ObjectInputStream read = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)));
+            try {
+                readStoreList(read, stock);
+                readStoreList(read, reservations);
+                readStoreList(read, sales);
+                //the fresh allocator skips the numbers of the loaded reservations.
+                allocator = new ReservationNumberAllocator();
+            } finally {
+                read.close();
+            }
+        }
+        StoreSnapshot.checkReferences(stock, reservations);
+        clear(); //so the content is replaced
+        addStock(stock);
+        addReservations(reservations);
+        this.soldList = sales;
+        this.reservationAllocator = allocator.forShard(this.shard, this.shards);
+        rebuildIndexes();
+        return journalRecords;
+    }
+
+    /**
+     * Method replaces this BeanBagStore's contents with a snapshot file saved
+     * by saveStoreContents, mapping the file into memory instead of reading
+     * it. Bean bags are read from the file when they are looked up, and only
+     * copied into the store when they change, so opening a snapshot takes
+     * about the same time however many bean bags it holds. Reservations and
+     * sales are read straight away, but refer to the records of the bean bags
+     * in the file until those are copied.
+     * <p>
+     * Unlike loadStoreContents, the checksum of the file is not checked; a
+     * damaged record is only found when it is read, and causes an
+     * {@link UncheckedIOException}. The state of this BeanBagStore is unchanged
+     * if an exception is thrown by this method.
+     *
+     * @param filename      location of the snapshot file
+     * @throws IOException  if there is a problem mapping the file, or it is
+     *                      not a valid snapshot
+     */
+    public void openSnapshot(String filename) throws IOException {
+        MappedSnapshot snapshot = MappedSnapshot.open(filename);
+        ReservationNumberAllocator allocator = snapshot.getReservationAllocator();
+        TypedArrayList<BeanBag> reservations = snapshot.readReservations();
+        TypedArrayList<BeanBag> sales = snapshot.readSales();
+        HashMap<Integer, TypedArrayList<BeanBag>> entries = new HashMap<>();
+        //finding the record of every reservation and sale before anything is replaced.
+        for (int i = 0; i < reservations.size(); i++) {
+            BeanBag reservation = reservations.get(i);
+            int record = snapshot.find(reservation.getPackedId());
+            if (record == -1) {
+                throw new IOException("Invalid snapshot: a reservation refers to a missing bean bag.");
+            }
+            reservation.setSku(mappedKey(record));
+            entries.computeIfAbsent(record, key -> new TypedArrayList<>()).add(reservation);
+        }
+        for (int i = 0; i < sales.size(); i++) {
+            BeanBag sale = sales.get(i);
+            int record = snapshot.find(sale.getPackedId());
+            if (record == -1) {
+                throw new IOException("Invalid snapshot: a sale refers to a missing bean bag.");
+            }
+            sale.setSku(mappedKey(record));
+            entries.computeIfAbsent(record, key -> new TypedArrayList<>()).add(sale);
+        }
+        clear();
+        this.mappedStock = snapshot;
+        this.mappedEntries = entries;
+        addReservations(reservations);
+        this.soldList = sales;
+        this.reservationAllocator = allocator.forShard(this.shard, this.shards);
+        this.availableBeanBags = snapshot.getAvailableBeanBags();
+        //the bean bags reserved and sold are only copied into the inventory when they change.
+        for (int i = 0; i < this.reserveList.size(); i++) {
+            BeanBag reservation = this.reserveList.get(i);
+            this.reservationIndex.put(reservation.getReservationNumber(), reservation, reservation.getSku(), i);
+            if (reservation.getDeadline() != 0) {
+                scheduleExpiry(this.reservationIndex.indexOf(reservation.getReservationNumber()), reservation.getDeadline());
+            }
+            this.reservedBeanBags += reservation.getQuantity();
+            this.totalPriceOfReservedBeanBags += (long) reservation.getQuantity() * reservation.getPrice();
+        }
+        for (int i = 0; i < this.soldList.size(); i++) {
+            BeanBag sale = this.soldList.get(i);
+            this.saleIndex.putIfAbsent(sale.getSku(), sale.getPrice(), i);
+            this.soldBeanBags += sale.getQuantity();
+            this.totalPriceOfSoldBeanBags += (long) sale.getQuantity() * sale.getPrice();
+        }
+        publish(ChangeFeed.CONTENTS_REPLACED, 0, 0, 0, 0);
+        if (this.journal != null) {
+            //the journal no longer follows on from the opened contents.
+            checkpoint();
+        }
+    }
+
+    /**
+     * Method replaces this BeanBagStore's contents with the snapshot file
+     * given, followed by the changes recorded in the journal file given, and
+     * then records every later change in the journal. Each change is written
+     * to the journal before the method making it returns, so the contents can
+     * be recovered the same way after a crash; if the journal can't be written
+     * the method throws an {@link UncheckedIOException}.
+     * <p>
+     * Either file is created when it does not exist yet. A change only half
+     * written to the end of the journal is dropped. The state of this
+     * BeanBagStore is emptied if an exception is thrown by this method.
+     *
+     * @param snapshotFilename  location of the snapshot file
+     * @param journalFilename   location of the journal file
+     * @throws IOException  if there is a problem reading either file, or the
+     *                      journal does not follow on from the snapshot
+     * @throws ClassNotFoundException   if required class files cannot be found when
+     *                      loading
+     */
+    public void openJournal(String snapshotFilename, String journalFilename) throws IOException, ClassNotFoundException {
+        closeJournal();
+        //replayed changes aren't published one by one, as the contents are replaced as a whole.
+        ChangeFeed feed = this.changeFeed;
+        this.changeFeed = null;
+        try {
+            long snapshotRecords = 0;
+            if (new File(snapshotFilename).exists()) {
+                snapshotRecords = load(snapshotFilename);
+            } else {
+                clear();
+            }
+            TypedArrayList<JournalRecord> records = new TypedArrayList<>();
+            StoreJournal opened = StoreJournal.open(journalFilename, snapshotRecords, records);
+            try {
+                for (int i = 0; i < records.size(); i++) {
+                    replay(records.get(i));
+                }
+                //the journal doesn't keep when sales were made, so replayed sales aren't windowed.
+                this.salesRollup.clear();
+            } catch (IOException | RuntimeException e) {
+                opened.close();
+                throw e;
+            }
+            this.journal = opened;
+            this.journalSnapshot = snapshotFilename;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            clear();
+            throw e;
+        } finally {
+            this.changeFeed = feed;
+            publish(ChangeFeed.CONTENTS_REPLACED, 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Method writes this BeanBagStore's contents to the snapshot file the
+     * journal carries on from, and then drops the journal records the
+     * snapshot includes.
+     *
+     * @throws IOException  if there is a problem writing the snapshot or the
+     *                      journal
+     * @throws IllegalStateException    if no journal is open
+     */
+    public void checkpoint() throws IOException {
+        if (this.journal == null) {
+            throw new IllegalStateException("No journal is open.");
+        }
+        awaitBackgroundSnapshot();
+        long journalRecords = this.journal.mark();
+        writeSnapshot(this.journalSnapshot, journalRecords);
+        this.journal.truncate(journalRecords);
+    }
+
+    /**
+     * Method closes the journal opened by openJournal, if there is one. Later
+     * changes are no longer recorded.
+     *
+     * @throws IOException  if there is a problem closing the journal
+     */
+    public void closeJournal() throws IOException {
+        awaitBackgroundSnapshot();
+        StoreJournal closing = this.journal;
+        this.journal = null;
+        this.journalSnapshot = null;
+        if (closing != null) {
+            closing.close();
+        }
+    }
+
+    /**
+     * Method saves this BeanBagStore's contents into a snapshot file on a
+     * background thread, as they are when this method is called. The store
+     * keeps taking changes while the file is written: the lists are frozen by
+     * copy-on-write, and bean bags changed meanwhile are copied before they
+     * change, so freezing the contents takes about the same time however many
+     * bean bags there are.
+     * <p>
+     * Only one background snapshot is written at a time; if one is still
+     * being written, this method first waits for it to finish.
+     *
+     * @param filename      location of the file to be saved
+     * @return              future completed once the file is durable on disk,
+     *                      or completed exceptionally with the
+     *                      {@link IOException} that stopped it being written
+     * @throws IOException  if waiting for an earlier background snapshot is
+     *                      interrupted
+     */
+    public CompletableFuture<Void> saveStoreContentsInBackground(String filename) throws IOException {
+        return startBackgroundSnapshot(filename, this.journal == null ? 0 : this.journal.getNumberOfRecords(), null);
+    }
+
+    /**
+     * Method checkpoints the journal like checkpoint, but writes the snapshot
+     * on a background thread as saveStoreContentsInBackground does. The
+     * journal records the snapshot includes are dropped once it is durable.
+     *
+     * @return              future completed once the snapshot is durable and
+     *                      the journal has been cut, or completed
+     *                      exceptionally if either failed
+     * @throws IOException  if waiting for an earlier background snapshot is
+     *                      interrupted
+     * @throws IllegalStateException    if no journal is open
+     */
+    public CompletableFuture<Void> checkpointInBackground() throws IOException {
+        if (this.journal == null) {
+            throw new IllegalStateException("No journal is open.");
+        }
+        awaitBackgroundSnapshot();
+        return startBackgroundSnapshot(this.journalSnapshot, this.journal.mark(), this.journal);
+    }
+
+    /**
+     * Method freezes this BeanBagStore's contents and starts a thread writing
+     * them to a snapshot file.
+     *
+     * @param filename      location of the file to be saved
+     * @param journalRecords    number of journal records included
+     * @param journal       journal to cut once the file is durable, or null
+     * @return              future completed once the file is durable
+     * @throws IOException  if waiting for an earlier background snapshot is
+     *                      interrupted
+     */
+    private CompletableFuture<Void> startBackgroundSnapshot(String filename, long journalRecords, StoreJournal journal) throws IOException {
+        awaitBackgroundSnapshot();
+        ReservationNumberAllocator allocator = ReservationNumberAllocator.restore(this.reservationAllocator.getKey(), this.reservationAllocator.getCounter());
+        BackgroundSnapshot snapshot = new BackgroundSnapshot(this.inventory.frozenCopy(), this.reserveList.frozenCopy(), this.soldList.frozenCopy(),
+                this.mappedStock == null ? null : this.mappedStock.frozenCopy(), allocator, journalRecords);
+        Thread writer = new Thread(() -> {
+            try {
+                snapshot.write(filename);
+                if (journal != null) {
+                    journal.truncate(journalRecords);
+                }
+                snapshot.getDurable().complete(null);
+            } catch (IOException | RuntimeException e) {
+                snapshot.getDurable().completeExceptionally(e);
+            }
+        }, "Store background snapshot");
+        this.backgroundSnapshot = snapshot;
+        this.backgroundWriter = writer;
+        writer.start();
+        return snapshot.getDurable();
+    }
+
+    /**
+     * Method waits for the background snapshot being written, if there is
+     * one, so two snapshots never write the same file at once.
+     *
+     * @throws IOException  if the wait is interrupted
+     */
+    private void awaitBackgroundSnapshot() throws IOException {
+        if (this.backgroundWriter == null) {
+            return;
+        }
+        try {
+            this.backgroundWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a background snapshot.");
+        }
+        this.backgroundWriter = null;
+        this.backgroundSnapshot = null;
+    }
+
+    /**
+     * Method checks whether bean bags with the given ID are in (or previously
+     * in) stock.
+     *
+     * @param id            ID of bean bags packed by BeanBagID
+     * @return              true if the ID is stocked
+     */
+    boolean isStocked(int id) {
+        return this.inventory.find(id) != -1 || findMappedRecord(id) != -1;
+    }
+
+    /**
+     * Method starts publishing every change made to this BeanBagStore to a
+     * change feed, which consumers subscribe to and drain on their own
+     * threads, and returns the feed. Opening the feed again returns the same
+     * feed. Publishing allocates nothing and never waits for a consumer.
+     *
+     * @return              change feed of this BeanBagStore
+     */
+    public ChangeFeed openChangeFeed() {
+        if (this.changeFeed == null) {
+            this.changeFeed = new ChangeFeed(CHANGE_FEED_CAPACITY);
+        }
+        return this.changeFeed;
+    }
+
+    /**
+     * Method publishes a change to the change feed, if one is open.
+     *
+     * @param type          type of the change
+     * @param id            ID of the bean bags packed by BeanBagID, or 0
+     * @param quantity      number of bean bags, or 0
+     * @param price         price in pence, or 0
+     * @param reference     reservation number or old ID, or 0
+     */
+    private void publish(byte type, int id, int quantity, int price, int reference) {
+        if (this.changeFeed != null) {
+            this.changeFeed.publish(type, id, quantity, price, reference);
+        }
+    }
+
+    /**
+     * Method appends a change to the journal, if one is open.
+     *
+     * @param record        change made to this BeanBagStore
+     * @return              number of journal records once the change is
+     *                      included, or 0 if there is no journal
+     */
+    private long appendChange(JournalRecord record) {
+        return this.journal == null ? 0 : this.journal.append(record);
+    }
+
+    /**
+     * Method waits until the journal holds the given number of records.
+     *
+     * @param records       number of journal records to wait for, or 0
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    private void awaitLogged(long records) {
+        if (records == 0 || this.journal == null) {
+            return;
+        }
+        try {
+            this.journal.commit(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method appends a change to the journal, if one is open, and waits until
+     * it has been written.
+     *
+     * @param record        change made to this BeanBagStore
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    private void logChange(JournalRecord record) {
+        awaitLogged(appendChange(record));
+    }
+
+    /**
+     * Method creates the journal record of a reservation just made, with the
+     * state the allocator was left in by handing out its number.
+     *
+     * @param id            ID of bean bags reserved packed by BeanBagID
+     * @param num           number of bean bags reserved
+     * @param reservationNumber reservation number handed out
+     * @param deadline      time the reservation expires in milliseconds since
+     *                      the epoch, or 0 if it never does
+     * @return              record of the change
+     */
+    private JournalRecord reserveRecord(int id, int num, int reservationNumber, long deadline) {
+        return JournalRecord.reserve(id, num, reservationNumber, this.reservationAllocator.getKey(), this.reservationAllocator.getCounter(), deadline);
+    }
+
+    /**
+     * Method puts the allocator back in the state recorded with a replayed
+     * reservation, as handing out its number may have used up several.
+     *
+     * @param record        replayed reservation
+     * @throws IOException  if the recorded counter is out of range
+     */
+    private void replayAllocator(JournalRecord record) throws IOException {
+        if (this.reservationAllocator.isBehind(record.getAllocatorKey(), record.getAllocatorCounter())) {
+            this.reservationAllocator = ReservationNumberAllocator.restore(record.getAllocatorKey(), record.getAllocatorCounter()).forShard(this.shard, this.shards);
+        }
+    }
+
+    /**
+     * Method makes a change read back from the journal again.
+     *
+     * @param record        change to make
+     * @throws IOException  if the change can't be made
+     */
+    private void replay(JournalRecord record) throws IOException {
+        try {
+            String id = BeanBagID.format(record.getId());
+            switch (record.getType()) {
+                case JournalRecord.ADD:
+                    addBeanBags(record.getQuantity(), record.getManufacturer(), record.getName(), id, record.getYear(), record.getMonth());
+                    break;
+                case JournalRecord.ADD_WITH_INFORMATION:
+                    addBeanBags(record.getQuantity(), record.getManufacturer(), record.getName(), id, record.getYear(), record.getMonth(), record.getInformation());
+                    break;
+                case JournalRecord.RESTOCK:
+                    BatchResult restocked = restockBeanBags(new String[] {id}, new int[] {record.getQuantity()});
+                    if (restocked.getNumberOfFailures() != 0) {
+                        throw restocked.getFailure(0);
+                    }
+                    break;
+                case JournalRecord.SET_PRICE:
+                    setBeanBagPrice(id, record.getPrice());
+                    break;
+                case JournalRecord.SELL:
+                    sellBeanBags(record.getQuantity(), id);
+                    break;
+                case JournalRecord.RESERVE:
+                    throwReserveFailure(reserve(record.getQuantity(), id, record.getReservationNumber()));
+                    replayAllocator(record);
+                    if (record.getDeadline() != 0) {
+                        scheduleExpiry(this.reservationIndex.indexOf(record.getReservationNumber()), record.getDeadline());
+                    }
+                    break;
+                case JournalRecord.UNRESERVE:
+                    unreserveBeanBags(record.getReservationNumber());
+                    break;
+                case JournalRecord.SELL_RESERVATION:
+                    sellBeanBags(record.getReservationNumber());
+                    break;
+                case JournalRecord.REPLACE:
+                    replace(id, BeanBagID.format(record.getReplacementId()));
+                    break;
+                case JournalRecord.RESET_SALES:
+                    resetSaleAndCostTracking();
+                    break;
+                case JournalRecord.EMPTY:
+                    clear();
+                    break;
+                default:
+                    throw new IOException("Invalid journal: unknown record type " + record.getType() + ".");
+            }
+        } catch (Exception e) {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Invalid journal: a change could not be made again. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Method adds loaded reservations to the emptied reserveList, which keeps
+     * its shrink policy rather than being replaced.
+     *
+     * @param reservations       loaded reservations
+     */
+    private void addReservations(TypedArrayList<BeanBag> reservations) {
+        TypedArrayList.Cursor<BeanBag> cursor = reservations.cursor();
+        while (cursor.hasNext()) {
+            this.reserveList.add(cursor.next());
+        }
+    }
+
+    /**
+     * Method adds loaded stock entries to the emptied inventory, one row each.
+     *
+     * @param stock              loaded stock entries
+     */
+    private void addStock(TypedArrayList<BeanBag> stock) {
+        this.inventory = new Inventory(stock.size());
+        TypedArrayList.Cursor<BeanBag> cursor = stock.cursor();
+        while (cursor.hasNext()) {
+            this.inventory.add(cursor.next());
+        }
+    }
+
+    /**
+     * Method rebuilds the indexes and totals of freshly loaded lists.
+     */
+    private void rebuildIndexes() {
+        for (int i = 0; i < this.reserveList.size(); i++) {
+            BeanBag reservation = this.reserveList.get(i);
+            reservation.setSku(this.inventory.find(reservation.getPackedId()));
+            this.reservationIndex.put(reservation.getReservationNumber(), reservation, reservation.getSku(), i);
+            if (reservation.getDeadline() != 0) {
+                scheduleExpiry(this.reservationIndex.indexOf(reservation.getReservationNumber()), reservation.getDeadline());
+            }
+        }
+        for (int i = 0; i < this.soldList.size(); i++) {
+            BeanBag sale = this.soldList.get(i);
+            sale.setSku(this.inventory.find(sale.getPackedId()));
+            this.saleIndex.putIfAbsent(sale.getSku(), sale.getPrice(), i);
+        }
+        recalculateTotals();
     }
 
     /**
@@ -793,7 +2042,10 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getNumberOfDifferentBeanBagsInStock() {
-        return this.stockList.size();
+        if (this.mappedStock != null) {
+            return this.inventory.size() + this.mappedStock.getNumberOfMappedRecords();
+        }
+        return this.inventory.size();
     }
 
     /**
@@ -803,12 +2055,7 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getNumberOfSoldBeanBags() {
-        int numberOfSoldBeanBags = 0;
-        for (int i = 0; i < this.soldList.size(); i++) {
-            //summing all the sold bean bags' quantity.
-            numberOfSoldBeanBags += ((BeanBag) this.soldList.get(i)).getQuantity();
-        }
-        return numberOfSoldBeanBags;
+        return toInt(this.soldBeanBags);
     }
 
     /**
@@ -827,19 +2074,12 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getNumberOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
-        beanBagsIllegalIDException(id);
-        int numberOfSoldBeanBags = 0;
-        for (int i = 0; i < this.soldList.size(); i++) {
-            //i didn't return here, because thanks to customer reservation advantage i need to iterate throughout the whole list.
-            if (((BeanBag) this.soldList.get(i)).getId() == id) {
-                //summing all the sold bean bags' quantity.
-                numberOfSoldBeanBags += ((BeanBag) this.soldList.get(i)).getQuantity();
-            }
-            if (i == this.soldList.size() - 1 && numberOfSoldBeanBags == 0) {
-                throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The given id isn't recognised in the sold list.");
-            }
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return toInt(this.mappedStock.soldQuantityAt(record));
         }
-        return numberOfSoldBeanBags;
+        return toInt(this.inventory.soldAt(findStockRow(packedID)));
     }
 
     /**
@@ -850,12 +2090,7 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getTotalPriceOfSoldBeanBags() {
-        int totalPrice = 0;
-        for (int i = 0; i < this.soldList.size(); i++) {
-            //summing all the sold bean bags' quantity.
-            totalPrice += ((BeanBag) this.soldList.get(i)).getQuantity() * ((BeanBag) this.soldList.get(i)).getPrice();
-        }
-        return totalPrice;
+        return toInt(this.totalPriceOfSoldBeanBags);
     }
 
     /**
@@ -876,20 +2111,258 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getTotalPriceOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
-        beanBagsIllegalIDException(id);
-        int totalPrice = 0;
-        for (int i = 0; i < this.soldList.size(); i++) {
-            //checking if the id is equal.
-            if (((BeanBag) this.soldList.get(i)).getId() == id) {
-                //i didn't return here, because thanks to customer reservation advantage i need to iterate throughout the whole list.
-                //summing all the sold bean bags' quantity.
-                totalPrice += ((BeanBag) this.soldList.get(i)).getQuantity() * ((BeanBag) this.soldList.get(i)).getPrice();
-            }
-            if (i == this.soldList.size() - 1) {
-                return totalPrice;
-            }
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return toInt(this.mappedStock.totalPriceOfSoldAt(record));
+        }
+        return toInt(this.inventory.totalPriceOfSoldAt(findStockRow(packedID)));
+    }
+
+    /**
+     * Method to return the number of bean bags sold by this BeanBagStore within
+     * the given window of time, up to now. The window is rounded down to whole
+     * minutes for the last hour, whole hours for the last day and whole days
+     * for the last month; older sales are no longer counted. Unlike the other
+     * sales figures, it is unaffected by resetSaleAndCostTracking.
+     *
+     * @param window            length of the window in milliseconds
+     * @return                  number of bean bags sold within the window
+     */
+    public long getNumberOfSoldBeanBagsInLast(long window) {
+        return this.salesRollup.unitsSince(System.currentTimeMillis() - window);
+    }
+
+    /**
+     * Method to return the number of bean bags sold by this BeanBagStore with
+     * matching ID within the given window of time, up to now, rounded as for
+     * getNumberOfSoldBeanBagsInLast(long).
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                ID of bean bags
+     * @param window            length of the window in milliseconds
+     * @return                  number of bean bags sold with matching ID within
+     *                          the window
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public long getNumberOfSoldBeanBagsInLast(String id, long window) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int row = findSoldRow(id);
+        return row == -1 ? 0 : this.salesRollup.unitsSince(row, System.currentTimeMillis() - window);
+    }
+
+    /**
+     * Method to return the total price of bean bags sold by this BeanBagStore
+     * (in pence) within the given window of time, up to now, rounded as for
+     * getNumberOfSoldBeanBagsInLast(long).
+     *
+     * @param window            length of the window in milliseconds
+     * @return                  total price of bean bags sold within the window
+     *                          (in pence)
+     */
+    public long getTotalPriceOfSoldBeanBagsInLast(long window) {
+        return this.salesRollup.revenueSince(System.currentTimeMillis() - window);
+    }
+
+    /**
+     * Method to return the total price of bean bags sold by this BeanBagStore
+     * (in pence) with matching ID within the given window of time, up to now,
+     * rounded as for getNumberOfSoldBeanBagsInLast(long).
+     * <p>
+     * The state of this BeanBagStore must be be unchanged if any exceptions are
+     * thrown.
+     *
+     * @param id                ID of bean bags
+     * @param window            length of the window in milliseconds
+     * @return                  total price of bean bags sold with matching ID
+     *                          within the window (in pence)
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public long getTotalPriceOfSoldBeanBagsInLast(String id, long window) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int row = findSoldRow(id);
+        return row == -1 ? 0 : this.salesRollup.revenueSince(row, System.currentTimeMillis() - window);
+    }
+
+    /**
+     * Method finds the inventory row the sales of bean bags are counted under,
+     * without copying bean bags still read from an opened snapshot into the
+     * inventory, as those have no sales counted by time.
+     *
+     * @param id                ID of bean bags
+     * @return                  inventory row, or -1 if the bean bags are
+     *                          still read from an opened snapshot
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private int findSoldRow(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        int row = this.inventory.find(packedID);
+        if (row == -1 && findMappedRecord(packedID) == -1) {
+            throw StoreExceptions.ID_NOT_RECOGNISED;
+        }
+        return row;
+    }
+
+    /**
+     * Method returns a read only view of this BeanBagStore's contents as they
+     * are now, which keeps answering the same for as long as it is held,
+     * however this BeanBagStore changes afterwards. The view can be read by
+     * other threads without any locking, so a long report neither waits for
+     * nor holds up changes to this BeanBagStore.
+     * <p>
+     * Taking a view costs one reference per page of the inventory: it shares
+     * the pages of the inventory and the array of the reserveList, and a
+     * change made afterwards copies only the inventory pages it touches, or
+     * the reserveList when that changes. Views taken with no change in between
+     * are the same version and share one copy. The view
+     * is only referenced weakly here, so an old version is reclaimed by the
+     * garbage collector once no reader holds it.
+     *
+     * @return                  view of this BeanBagStore's contents
+     */
+    public StoreView readView() {
+        StoreView view = this.readView == null ? null : this.readView.get();
+        if (view == null || !view.isCurrent(this.inventory)) {
+            view = new StoreView(++this.readVersion, this.inventory.frozenCopy(), this.reserveList.frozenCopy(),
+                    this.mappedStock == null ? null : this.mappedStock.frozenCopy(), this.availableBeanBags,
+                    this.reservedBeanBags, this.totalPriceOfReservedBeanBags, this.soldBeanBags, this.totalPriceOfSoldBeanBags);
+            this.readView = new WeakReference<>(view);
+        }
+        return view;
+    }
+
+    /**
+     * Method returns a stream over the indexes from 0 up to the given size,
+     * which is run in parallel on the fork-join pool once the size is above
+     * AGGREGATION_THRESHOLD and sequentially otherwise.
+     *
+     * @param size              number of indexes
+     * @return                  stream of the indexes
+     */
+    private static IntStream indexes(int size) {
+        return StreamSupport.intStream(new IndexSpliterator(0, size, AGGREGATION_THRESHOLD), size > AGGREGATION_THRESHOLD);
+    }
+
+    /**
+     * Method adds the totals of one map into another, used to merge the
+     * totals of parts of a report worked out in parallel.
+     *
+     * @param totals            map the totals are added to
+     * @param part              totals of another part
+     * @param <K>               key the totals are kept by
+     */
+    private static <K> void addTotals(Map<K, Long> totals, Map<K, Long> part) {
+        for (Map.Entry<K, Long> total : part.entrySet()) {
+            totals.merge(total.getKey(), total.getValue(), Long::sum);
+        }
+    }
+
+    /**
+     * Method to return the total value of the bean bags in stock in this
+     * BeanBagStore (in pence), including reserved ones, at their current
+     * price. Bean bags whose price hasn't been set are worth nothing. Large
+     * inventories are totalled in parallel.
+     *
+     * @return                  total value of bean bags in stock (in pence)
+     */
+    public long getTotalValueOfBeanBagsInStock() {
+        return totalValueOf(this.inventory, this.mappedStock);
+    }
+
+    /**
+     * Method totals the value of the bean bags in stock, for both this Store
+     * and the views it hands out.
+     *
+     * @param inventory         inventory of the bean bags
+     * @param mapped            stock still read from an opened snapshot, or
+     *                          null
+     * @return                  total value of bean bags in stock (in pence)
+     */
+    static long totalValueOf(Inventory inventory, MappedSnapshot mapped) {
+        long total = indexes(inventory.size()).mapToLong(row ->
+                (long) (inventory.quantityAt(row) + inventory.reservedAt(row)) * inventory.priceAt(row)).sum();
+        if (mapped != null) {
+            //adding the bean bags still read from the opened snapshot.
+            total += indexes(mapped.getStockCount()).filter(mapped::isMapped).mapToLong(record ->
+                    (long) (mapped.quantityAt(record) + mapped.reservedQuantityAt(record)) * mapped.priceAt(record)).sum();
         }
-        throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The given id isn't recognised in the sold list.");
+        return total;
+    }
+
+    /**
+     * Method to return the number of bean bags in stock in this BeanBagStore
+     * (including reserved ones) made by each manufacturer. Large inventories
+     * are totalled in parallel.
+     *
+     * @return                  number of bean bags in stock by manufacturer,
+     *                          for every manufacturer of bean bags in (or
+     *                          previously in) stock
+     */
+    public Map<String, Long> getBeanBagsInStockByManufacturer() {
+        return stockByManufacturerOf(this.inventory, this.mappedStock);
+    }
+
+    /**
+     * Method totals the bean bags in stock by manufacturer, for both this
+     * Store and the views it hands out.
+     *
+     * @param inventory         inventory of the bean bags
+     * @param mapped            stock still read from an opened snapshot, or
+     *                          null
+     * @return                  number of bean bags in stock by manufacturer
+     */
+    static Map<String, Long> stockByManufacturerOf(Inventory inventory, MappedSnapshot mapped) {
+        HashMap<String, Long> totals = indexes(inventory.size()).collect(HashMap::new, (part, row) ->
+                part.merge(inventory.manufacturerAt(row), (long) inventory.quantityAt(row) + inventory.reservedAt(row), Long::sum),
+                Store::addTotals);
+        if (mapped != null) {
+            addTotals(totals, indexes(mapped.getStockCount()).filter(mapped::isMapped).collect(HashMap::new, (part, record) ->
+                    part.merge(mapped.manufacturerAt(record), (long) mapped.quantityAt(record) + mapped.reservedQuantityAt(record), Long::sum),
+                    Store::addTotals));
+        }
+        return totals;
+    }
+
+    /**
+     * Method to return the total price of the reserved bean bags in this
+     * BeanBagStore (in pence) for each ID, i.e. the income that would be
+     * generated by selling every reservation of the ID. Large reserveLists
+     * are totalled in parallel.
+     *
+     * @return                  total price of reserved bean bags by ID, for
+     *                          every ID with a reservation
+     */
+    public Map<String, Long> getTotalPriceOfReservedBeanBagsByID() {
+        return reservedPriceByIDOf(this.inventory, this.reserveList);
+    }
+
+    /**
+     * Method totals the price of the reserved bean bags by ID, for both this
+     * Store and the views it hands out.
+     *
+     * @param inventory         inventory the reservations refer to
+     * @param reservations      reserved bean bags
+     * @return                  total price of reserved bean bags by ID
+     */
+    static Map<String, Long> reservedPriceByIDOf(Inventory inventory, TypedArrayList<BeanBag> reservations) {
+        HashMap<Integer, Long> byID = indexes(reservations.size()).collect(HashMap::new, (part, position) -> {
+            BeanBag reservation = reservations.get(position);
+            part.merge(inventory.idOf(reservation), (long) reservation.getQuantity() * reservation.getPrice(), Long::sum);
+        }, Store::addTotals);
+        HashMap<String, Long> totals = new HashMap<>();
+        for (Map.Entry<Integer, Long> total : byID.entrySet()) {
+            totals.put(BeanBagID.format(total.getKey()), total.getValue());
+        }
+        return totals;
     }
 
     /**
@@ -901,12 +2374,7 @@ public class Store implements BeanBagStore {
      */
     @Override
     public int getTotalPriceOfReservedBeanBags() {
-        int totalPrice = 0;
-        for (int i = 0; i < this.reserveList.size(); i++) {
-            //summing all the total price.
-            totalPrice += ((BeanBag) this.reserveList.get(i)).getQuantity() * ((BeanBag) this.reserveList.get(i)).getPrice();
-        }
-        return totalPrice;
+        return toInt(this.totalPriceOfReservedBeanBags);
     }
 
     /**
@@ -926,14 +2394,12 @@ public class Store implements BeanBagStore {
      */
     @Override
     public String getBeanBagDetails(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
-        beanBagsIllegalIDException(id);
-        for (int i = 0; i < this.stockList.size(); i++) {
-            //checking if the id is equal.
-            if (((BeanBag) this.stockList.get(i)).getId() == id) {
-                return ((BeanBag) this.stockList.get(i)).getInformation();
-            }
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return this.mappedStock.informationAt(record);
         }
-        throw new BeanBagIDNotRecognisedException("Bean Bag ID Not Recognised: The given id isn't recognised in the stock list.");
+        return this.inventory.informationAt(findStockRow(packedID));
     }
 
     /**
@@ -942,10 +2408,28 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void empty() {
-        //emptying all the lists.
-        emptyList(this.stockList);
-        emptyList(this.reserveList);
-        emptyList(this.soldList);
+        clear();
+        publish(ChangeFeed.CONTENTS_REPLACED, 0, 0, 0, 0);
+        logChange(JournalRecord.empty());
+    }
+
+    /**
+     * Method empties this BeanBagStore of its contents and resets all
+     * internal counters, without journalling the change.
+     */
+    private void clear() {
+        //emptying the inventory and all the lists.
+        this.inventory.clear();
+        this.reserveList.clear();
+        this.soldList.clear();
+        this.reservationIndex.clear();
+        this.saleIndex.clear();
+        this.salesRollup.clear();
+        this.reservationTimer.clear();
+        this.reservationAllocator = new ReservationNumberAllocator(this.shard, this.shards);
+        this.mappedStock = null;
+        this.mappedEntries = null;
+        recalculateTotals();
     }
 
     /**
@@ -956,7 +2440,16 @@ public class Store implements BeanBagStore {
     @Override
     public void resetSaleAndCostTracking() {
         //emptying the soldList.
-        emptyList(this.soldList);
+        this.soldList.clear();
+        this.saleIndex.clear();
+        this.soldBeanBags = 0;
+        this.totalPriceOfSoldBeanBags = 0;
+        this.inventory.resetSales();
+        if (this.mappedStock != null) {
+            this.mappedStock.resetSales();
+        }
+        publish(ChangeFeed.SALES_RESET, 0, 0, 0, 0);
+        logChange(JournalRecord.resetSales());
     }
 
     /**
@@ -982,12 +2475,15 @@ public class Store implements BeanBagStore {
      */
     @Override
     public void replace(String oldId, String replacementId) throws BeanBagIDNotRecognisedException, IllegalIDException {
-        beanBagsIllegalIDException(oldId);
-        beanBagsIllegalIDException(replacementId);
-        if (this.stockList.size() >= this.reserveList.size()) {
-            replaceBeanBagID(oldId, replacementId, this.reserveList, this.stockList);
-        } else {
-            replaceBeanBagID(oldId, replacementId, this.stockList, this.reserveList);
+        int packedOldID = parseID(oldId);
+        int packedReplacementID = parseID(replacementId);
+        int row = findStockRow(packedOldID);
+        if (this.inventory.find(packedReplacementID) != -1 || findMappedRecord(packedReplacementID) != -1) {
+            throw StoreExceptions.ID_IN_USE;
         }
+        //moving the inventory row to its new id, which reservations and sales refer to.
+        this.inventory.replaceId(row, packedReplacementID);
+        publish(ChangeFeed.ID_REPLACED, packedReplacementID, 0, 0, packedOldID);
+        logChange(JournalRecord.replace(packedOldID, packedReplacementID));
     }
 }
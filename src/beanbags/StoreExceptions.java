@@ -0,0 +1,47 @@
+package beanbags;
+
+/**
+ * The exceptions thrown by {@link Store}, {@link StoreView} and
+ * {@link ConcurrentStore} for routine failures, created once and thrown again
+ * for every failure of the same kind. None of them record a stack trace or
+ * suppressed exceptions, so throwing one costs no more than a return, and
+ * sharing them between threads is safe as they never change.
+ */
+final class StoreExceptions {
+    static final IllegalIDException ILLEGAL_ID = new IllegalIDException(
+            "Illegal ID: The id must be 8 characters positive number.", false);
+    static final IllegalIDException ID_IN_USE = new IllegalIDException(
+            "Illegal ID: The replacement id is already in use.", false);
+    static final BeanBagIDNotRecognisedException ID_NOT_RECOGNISED = new BeanBagIDNotRecognisedException(
+            "Bean Bag ID Not Recognised: The id doesn't exist in the stock.", false);
+    static final IllegalNumberOfBeanBagsAddedException ILLEGAL_NUMBER_ADDED = new IllegalNumberOfBeanBagsAddedException(
+            "Illegal Number Of Bean Bags Added: The number of bean bags added must be greater than 0.", false);
+    static final IllegalNumberOfBeanBagsAddedException TOO_MANY_ADDED = new IllegalNumberOfBeanBagsAddedException(
+            "Illegal Number Of Bean Bags Added: The stock of the bean bags can't hold that many more.", false);
+    static final IllegalNumberOfBeanBagsSoldException ILLEGAL_NUMBER_SOLD = new IllegalNumberOfBeanBagsSoldException(
+            "Illegal Number Of Bean Bags Sold: The number of bean bags sold must be greater than 0.", false);
+    static final IllegalNumberOfBeanBagsReservedException ILLEGAL_NUMBER_RESERVED = new IllegalNumberOfBeanBagsReservedException(
+            "Illegal Number Of Bean Bags Reserved: The number of bean bags reserved must be greater than 0.", false);
+    static final InvalidMonthException INVALID_MONTH = new InvalidMonthException(
+            "Invalid Month: The month has to between 1 and 12.", false);
+    static final InvalidPriceException INVALID_PRICE = new InvalidPriceException(
+            "Invalid Price: The price in pence has to be greater than 0.", false);
+    static final BeanBagMismatchException MISMATCH = new BeanBagMismatchException(
+            "Bean Bag Mismatch: There is a mismatch between id, manufacturer and name.", false);
+    static final BeanBagMismatchException MISMATCH_WITH_INFORMATION = new BeanBagMismatchException(
+            "Bean Bag Mismatch: There is a mismatch between id, manufacturer, name and free text", false);
+    static final PriceNotSetException PRICE_NOT_SET = new PriceNotSetException(
+            "Price Not Set: The price for the bean bags has not been set.", false);
+    static final BeanBagNotInStockException NOT_IN_STOCK = new BeanBagNotInStockException(
+            "Bean Bag Not In Stock: The quantity of bean bags in stock is 0.", false);
+    static final InsufficientStockException INSUFFICIENT_STOCK = new InsufficientStockException(
+            "Insufficient Stock: Not enough stock to sell.", false);
+    static final ReservationNumberNotRecognisedException RESERVATION_NOT_RECOGNISED = new ReservationNumberNotRecognisedException(
+            "Reservation Number Not Recognised: The reservation number doesn't exist in the list.", false);
+
+    /**
+     * There are no instances of StoreExceptions.
+     */
+    private StoreExceptions() {
+    }
+}
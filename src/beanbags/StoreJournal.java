@@ -0,0 +1,387 @@
+package beanbags;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes made to a store since its last
+ * snapshot, so a store can be recovered without saving the whole of it after
+ * every change. It is safe to use from many threads at once.
+ * <p>
+ * Every record is numbered in the order it was appended, counting on from the
+ * records of earlier journals; a snapshot remembers how many records it
+ * includes, and recovery replays only the records after those. Appending only
+ * copies a record into memory. {@link #commit(long)} waits until a record is
+ * on disk, and threads committing at the same time share one write and one
+ * fsync: the first to arrive writes every record appended so far, and the
+ * rest wait for it.
+ * <p>
+ * All values are little-endian. The file is a 24 byte header, holding the
+ * magic "BEANJRNL", the version, the header size and the number of the first
+ * record, followed by records each framed as an int length, an int CRC32 of
+ * the record and the record written by {@link JournalRecord}. A record cut
+ * short by a crash fails its checksum and is dropped, along with anything
+ * after it.
+ */
+final class StoreJournal {
+    static final long MAGIC = 0x4C4E524A4E414542L; //"BEANJRNL" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    private static final int FRAME_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Object lock = new Object();
+    private final CRC32 checksum = new CRC32();
+    private FileChannel channel;
+    private ByteBuffer pending; //records appended but not yet written
+    private ByteBuffer spare; //takes the place of pending while it is written
+    private long nextRecord; //number the next record appended will get
+    private long durableRecords; //records before this number are on disk
+    private long size; //size of the file once pending is written
+    private boolean isWriting; //set while a thread writes outside the lock
+    private IOException failure; //first write that failed, after which nothing is written
+    private long markedRecord; //record a checkpoint will cut the journal at, or -1
+    private long markedPosition; //position of the marked record in the file
+
+    /**
+     * Creates a journal appending to the end of an open file.
+     *
+     * @param path              location of the journal file
+     * @param channel           channel positioned at the end of the file
+     * @param nextRecord        number the next record appended will get
+     * @param size              size of the file
+     */
+    private StoreJournal(Path path, FileChannel channel, long nextRecord, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.nextRecord = nextRecord;
+        this.durableRecords = nextRecord;
+        this.size = size;
+        this.isWriting = false;
+        this.markedRecord = -1;
+    }
+
+    /**
+     * Method opens a journal for appending, creating it if the file doesn't
+     * exist, and reads the records a snapshot doesn't include. A torn record
+     * at the end of the file is cut off.
+     *
+     * @param filename          location of the journal file
+     * @param snapshotRecords   number of records the snapshot includes
+     * @param records           list the records after the snapshot are added
+     *                          to, in order
+     * @return                  journal appending after its last record
+     * @throws IOException      if there is a problem reading the file, it is
+     *                          not a journal, or it is missing records the
+     *                          snapshot doesn't include
+     */
+    static StoreJournal open(String filename, long snapshotRecords, TypedArrayList<JournalRecord> records) throws IOException {
+        Path path = Paths.get(filename);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                writeHeader(channel, snapshotRecords);
+                channel.force(true);
+                return new StoreJournal(path, channel, snapshotRecords, HEADER_SIZE);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(channel, header, 0) || header.getLong(0) != MAGIC) {
+                throw new IOException("Invalid journal: the file is not a bean bag store journal.");
+            }
+            if (header.getInt(8) != VERSION || header.getInt(12) != HEADER_SIZE) {
+                throw new IOException("Invalid journal: version " + header.getInt(8) + " is not supported.");
+            }
+            long firstRecord = header.getLong(16);
+            if (firstRecord > snapshotRecords) {
+                throw new IOException("Invalid journal: it is missing changes made after the snapshot.");
+            }
+            //reading records until the end of the file or the first torn record.
+            long record = firstRecord;
+            long position = HEADER_SIZE;
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 checksum = new CRC32();
+            while (readFully(channel, frame, position)) {
+                int length = frame.getInt(0);
+                if (length < 1 || length > channel.size() - position - FRAME_SIZE) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+                if (!readFully(channel, payload, position + FRAME_SIZE)) {
+                    break;
+                }
+                checksum.reset();
+                checksum.update(payload.array(), 0, length);
+                if ((int) checksum.getValue() != frame.getInt(4)) {
+                    break;
+                }
+                if (record >= snapshotRecords) {
+                    records.add(JournalRecord.decode(payload));
+                }
+                record++;
+                position += FRAME_SIZE + length;
+            }
+            if (record <= snapshotRecords) {
+                //the snapshot includes every record, so starting an empty journal after it.
+                channel.truncate(HEADER_SIZE);
+                writeHeader(channel, snapshotRecords);
+                channel.force(true);
+                return new StoreJournal(path, channel, snapshotRecords, HEADER_SIZE);
+            }
+            channel.truncate(position);
+            channel.force(true);
+            channel.position(position);
+            return new StoreJournal(path, channel, record, position);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Method writes a header at the start of the channel, leaving the channel
+     * positioned after it
+     */
+    private static void writeHeader(FileChannel channel, long firstRecord) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(HEADER_SIZE);
+        header.putLong(firstRecord);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /*
+     * Method fills the buffer from the given position in the channel,
+     * returning false if the channel ends first
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Method appends a record to the journal in memory. It is not on disk
+     * until {@link #commit(long)} returns.
+     *
+     * @param record            change made to the store
+     * @return                  number of records appended so far, to be
+     *                          passed to commit
+     */
+    long append(JournalRecord record) {
+        synchronized (this.lock) {
+            int length = record.encodedSize();
+            if (this.pending.remaining() < FRAME_SIZE + length) {
+                //growing the buffer, as no one is writing it while the lock is held.
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + FRAME_SIZE + length)).order(ByteOrder.LITTLE_ENDIAN);
+                this.pending.flip();
+                larger.put(this.pending);
+                this.pending = larger;
+            }
+            int start = this.pending.position();
+            this.pending.putInt(length);
+            this.pending.putInt(0);
+            record.encode(this.pending);
+            this.checksum.reset();
+            this.checksum.update(this.pending.array(), start + FRAME_SIZE, length);
+            this.pending.putInt(start + 4, (int) this.checksum.getValue());
+            this.size += FRAME_SIZE + length;
+            return ++this.nextRecord;
+        }
+    }
+
+    /**
+     * Method waits until the given number of records are on disk. If no other
+     * thread is writing, this thread writes and syncs every record appended
+     * so far; otherwise it waits for that thread, which may write its records
+     * too.
+     *
+     * @param records           number returned by {@link #append(JournalRecord)}
+     * @throws IOException      if the records could not be written, now or by
+     *                          an earlier commit
+     */
+    void commit(long records) throws IOException {
+        ByteBuffer batch;
+        FileChannel target;
+        long end;
+        synchronized (this.lock) {
+            while (true) {
+                if (this.failure != null) {
+                    throw new IOException("The journal could not be written.", this.failure);
+                }
+                if (this.durableRecords >= records) {
+                    return;
+                }
+                if (!this.isWriting) {
+                    break;
+                }
+                awaitLock();
+            }
+            //taking every pending record, so later appends go to the spare buffer.
+            this.isWriting = true;
+            batch = this.pending;
+            this.pending = this.spare;
+            target = this.channel;
+            end = this.nextRecord;
+        }
+        IOException failed = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                target.write(batch);
+            }
+            target.force(false);
+        } catch (IOException e) {
+            failed = e;
+        }
+        synchronized (this.lock) {
+            batch.clear();
+            this.spare = batch;
+            this.isWriting = false;
+            if (failed == null) {
+                this.durableRecords = end;
+            } else {
+                this.failure = failed;
+            }
+            this.lock.notifyAll();
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    /*
+     * Method waits on the lock, which the caller must hold, until another
+     * thread notifies it
+     */
+    private void awaitLock() throws IOException {
+        try {
+            this.lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal.");
+        }
+    }
+
+    /**
+     * Method returns the number of records appended so far, which a snapshot
+     * taken now includes.
+     *
+     * @return                  number of records appended
+     */
+    long getNumberOfRecords() {
+        synchronized (this.lock) {
+            return this.nextRecord;
+        }
+    }
+
+    /**
+     * Method marks where a checkpoint's snapshot is taken, so the journal can
+     * later be cut there by {@link #truncate(long)}. The caller must stop the
+     * store changing until the snapshot's contents are copied.
+     *
+     * @return                  number of records appended, which the snapshot
+     *                          includes
+     */
+    long mark() {
+        synchronized (this.lock) {
+            this.markedRecord = this.nextRecord;
+            this.markedPosition = this.size;
+            return this.nextRecord;
+        }
+    }
+
+    /**
+     * Method drops the records a snapshot includes, once the snapshot is on
+     * disk. The records appended since are copied to a new file, which then
+     * replaces the journal in one step. Nothing is dropped if another
+     * checkpoint has been marked since.
+     *
+     * @param records           number returned by {@link #mark()}
+     * @throws IOException      if there is a problem writing the new file
+     */
+    void truncate(long records) throws IOException {
+        synchronized (this.lock) {
+            while (this.isWriting) {
+                awaitLock();
+            }
+            if (records != this.markedRecord) {
+                return;
+            }
+            if (this.failure != null) {
+                throw new IOException("The journal could not be written.", this.failure);
+            }
+            //writing the pending records, so the whole tail is in the file.
+            this.pending.flip();
+            while (this.pending.hasRemaining()) {
+                this.channel.write(this.pending);
+            }
+            this.pending.clear();
+            Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            FileChannel copy = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                writeHeader(copy, records);
+                long position = this.markedPosition;
+                while (position < this.size) {
+                    position += this.channel.transferTo(position, this.size - position, copy);
+                }
+                copy.force(true);
+                try {
+                    Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                copy.close();
+                throw e;
+            }
+            this.channel.close();
+            this.channel = copy;
+            this.size = HEADER_SIZE + this.size - this.markedPosition;
+            this.durableRecords = this.nextRecord;
+            this.markedRecord = -1;
+        }
+    }
+
+    /**
+     * Method writes any pending records and closes the journal file.
+     *
+     * @throws IOException      if the records could not be written
+     */
+    void close() throws IOException {
+        try {
+            commit(getNumberOfRecords());
+        } finally {
+            synchronized (this.lock) {
+                while (this.isWriting) {
+                    awaitLock();
+                }
+                this.channel.close();
+            }
+        }
+    }
+}
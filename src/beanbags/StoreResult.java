@@ -0,0 +1,44 @@
+package beanbags;
+
+/**
+ * Result codes returned by the exception-free methods of {@link Store}, such
+ * as {@link Store#trySell(int, String)}. A method that succeeds returns
+ * {@link #OK}, or a reservation number when it hands one out; every failure
+ * is a negative code naming the exception the throwing method would have
+ * thrown instead.
+ */
+public final class StoreResult {
+    /** The call succeeded. */
+    public static final int OK = 0;
+    /** Fewer than 1 bean bag was asked for. */
+    public static final int ILLEGAL_NUMBER = -1;
+    /** The ID is not a positive eight character hexadecimal number. */
+    public static final int ILLEGAL_ID = -2;
+    /** The ID is legal, but does not match any bag in (or previously in) stock. */
+    public static final int ID_NOT_RECOGNISED = -3;
+    /** The price of the bean bags has yet to be set. */
+    public static final int PRICE_NOT_SET = -4;
+    /** The bean bags have been in stock, but are now out of stock. */
+    public static final int NOT_IN_STOCK = -5;
+    /** The bean bags are in stock, but not enough are available. */
+    public static final int INSUFFICIENT_STOCK = -6;
+    /** The reservation number does not match a current reservation. */
+    public static final int RESERVATION_NOT_RECOGNISED = -7;
+
+    /**
+     * There are no instances of StoreResult.
+     */
+    private StoreResult() {
+    }
+
+    /**
+     * Method checks whether a result code is a success, i.e. {@link #OK} or a
+     * reservation number.
+     *
+     * @param result            code returned by the Store
+     * @return                  true if the call succeeded
+     */
+    public static boolean isSuccess(int result) {
+        return result >= 0;
+    }
+}
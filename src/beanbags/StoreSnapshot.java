@@ -0,0 +1,587 @@
+package beanbags;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the contents of a store in a compact binary snapshot file,
+ * through a {@link FileChannel} and a large direct buffer.
+ * <p>
+ * A snapshot is a fixed size header followed by a dictionary of every
+ * distinct manufacturer, name and free text, then fixed width records for the
+ * stock, the reservations and the sales. Records refer to strings by their
+ * position in the dictionary. The header holds a CRC32 checksum of the body
+ * and of the header itself, so a damaged file is rejected rather than loaded.
+ * <p>
+ * Stock records are sorted by ID and the dictionary has a table of where each
+ * string starts, so a {@link MappedSnapshot} can look bean bags up in place.
+ * A file is written next to the old one and then moved over it, so the old
+ * snapshot is never left half overwritten. The directory is forced to disk
+ * after the move, so the new file survives a crash.
+ * <p>
+ * A snapshot also records how many {@link StoreJournal} records it includes,
+ * so recovery replays only the changes made after it.
+ * <p>
+ * All values are little-endian. The layout of version 3 is:
+ * <pre>
+ * header (80 bytes)
+ *   0  long   magic "BEANBAGS"
+ *   8  int    version
+ *  12  int    header size
+ *  16  int    number of dictionary strings
+ *  20  int    number of stock records
+ *  24  int    number of reservation records
+ *  28  int    number of sold records
+ *  32  long   size of the dictionary in bytes
+ *  40  long   reservation number allocator key
+ *  48  int    reservation number allocator counter
+ *  52  int    unused
+ *  56  long   CRC32 of the body followed by the header with this field zeroed
+ *  64  long   number of bean bags in stock and not reserved
+ *  72  long   number of journal records included
+ * dictionary string: int byte length, UTF-8 bytes
+ * dictionary table: long offset of each string from the end of the header
+ * stock record (48 bytes): id, quantity, price, short year, byte month,
+ *   byte unused, manufacturer, name, information, reserved quantity,
+ *   long sold quantity, long total price of sold
+ * reservation record (24 bytes): reservation number, id, quantity, price,
+ *   long time it expires in milliseconds since the epoch, 0 if it never does
+ * sold record (12 bytes): id, quantity, price
+ * </pre>
+ */
+final class StoreSnapshot {
+    static final long MAGIC = 0x5347414247414542L; //"BEANBAGS" read little-endian
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 80;
+    static final int STOCK_RECORD_SIZE = 48;
+    static final int RESERVATION_RECORD_SIZE = 24;
+    static final int SOLD_RECORD_SIZE = 12;
+    private static final int CHECKSUM_OFFSET = 56;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32 checksum;
+
+    //contents read from a snapshot.
+    private TypedArrayList<BeanBag> stockList;
+    private TypedArrayList<BeanBag> reserveList;
+    private TypedArrayList<BeanBag> soldList;
+    private ReservationNumberAllocator reservationAllocator;
+    private long journalRecords;
+
+    /**
+     * Creates a reader or writer of the channel.
+     *
+     * @param channel           channel of the snapshot file
+     */
+    private StoreSnapshot(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.checksum = new CRC32();
+    }
+
+    /**
+     * Method checks if a file starts like a snapshot, rather than like a file
+     * written by an ObjectOutputStream.
+     *
+     * @param filename          location of the file
+     * @return                  boolean representing if the file is a snapshot
+     * @throws IOException      if there is a problem reading the file
+     */
+    static boolean isSnapshot(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            ByteBuffer magic = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                //reading until the magic is complete or the file ends.
+            }
+            return !magic.hasRemaining() && magic.getLong(0) == MAGIC;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Method checks that lists read from a store file fit together: no ID is
+     * stocked twice, and every reservation refers to a stocked bean bag.
+     * Stores call it before replacing any of their contents, so a damaged or
+     * hand-edited file leaves them unchanged.
+     * <p>
+     * Sales aren't checked, as files saved by the first version of the Store
+     * hold sales under IDs that were since replaced.
+     *
+     * @param stockList         stock entries
+     * @param reserveList       reservations
+     * @throws IOException      if the lists don't fit together
+     */
+    static void checkReferences(TypedArrayList<BeanBag> stockList, TypedArrayList<BeanBag> reserveList) throws IOException {
+        int[] ids = new int[stockList.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stockList.get(i).getPackedId();
+        }
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) {
+                throw new IOException("Invalid store file: a bean bag is stocked twice.");
+            }
+        }
+        for (int i = 0; i < reserveList.size(); i++) {
+            if (Arrays.binarySearch(ids, reserveList.get(i).getPackedId()) < 0) {
+                throw new IOException("Invalid store file: a reservation refers to a missing bean bag.");
+            }
+        }
+    }
+
+    /**
+     * Method writes the contents of a store to a snapshot file, replacing any
+     * file already there.
+     *
+     * @param filename          location of the file to be saved
+     * @param stockList         stock entries
+     * @param reserveList       reservations
+     * @param soldList          sales
+     * @param allocator         reservation number allocator
+     * @param journalRecords    number of journal records the contents include
+     * @throws IOException      if there is a problem writing the file
+     */
+    static void write(String filename, TypedArrayList<BeanBag> stockList, TypedArrayList<BeanBag> reserveList, TypedArrayList<BeanBag> soldList, ReservationNumberAllocator allocator, long journalRecords) throws IOException {
+        Path path = Paths.get(filename);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            new StoreSnapshot(channel).writeContents(stockList, reserveList, soldList, allocator, journalRecords);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        //replacing the old file in one step, which also leaves any mapping of it intact.
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Method forces the entries of a directory to disk, so a file just moved
+     * into it is still there after a crash.
+     *
+     * @param directory         directory to be forced
+     * @throws IOException      if there is a problem forcing the directory
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            //Windows can't open a directory, and its file system journals the move itself.
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Method reads the contents of a snapshot file. Nothing is returned unless
+     * the whole file is read and its checksum matches.
+     *
+     * @param filename          location of the file to be loaded
+     * @return                  snapshot holding the contents of the file
+     * @throws IOException      if there is a problem reading the file, or the
+     *                          file is not a valid snapshot
+     */
+    static StoreSnapshot read(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            StoreSnapshot snapshot = new StoreSnapshot(channel);
+            snapshot.readContents();
+            return snapshot;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Method returns the stock entries read from the snapshot.
+     *
+     * @return                  stock entries
+     */
+    TypedArrayList<BeanBag> getStockList() {
+        return this.stockList;
+    }
+
+    /**
+     * Method returns the reservations read from the snapshot.
+     *
+     * @return                  reservations
+     */
+    TypedArrayList<BeanBag> getReserveList() {
+        return this.reserveList;
+    }
+
+    /**
+     * Method returns the sales read from the snapshot.
+     *
+     * @return                  sales
+     */
+    TypedArrayList<BeanBag> getSoldList() {
+        return this.soldList;
+    }
+
+    /**
+     * Method returns the reservation number allocator read from the snapshot.
+     *
+     * @return                  reservation number allocator
+     */
+    ReservationNumberAllocator getReservationAllocator() {
+        return this.reservationAllocator;
+    }
+
+    /*
+     * Method writes the body after a gap for the header, then goes back and
+     * writes the header once the checksum is known
+     */
+    private void writeContents(TypedArrayList<BeanBag> stockList, TypedArrayList<BeanBag> reserveList, TypedArrayList<BeanBag> soldList, ReservationNumberAllocator allocator, long journalRecords) throws IOException {
+        //giving every distinct string a position in the dictionary.
+        HashMap<String, Integer> positions = new HashMap<String, Integer>();
+        TypedArrayList<String> dictionary = new TypedArrayList<>();
+        for (int i = 0; i < stockList.size(); i++) {
+            BeanBag stockEntry = stockList.get(i);
+            addToDictionary(stockEntry.getManufacturer(), positions, dictionary);
+            addToDictionary(stockEntry.getName(), positions, dictionary);
+            addToDictionary(stockEntry.getInformation(), positions, dictionary);
+        }
+
+        this.channel.position(HEADER_SIZE);
+        long[] offsets = new long[dictionary.size()];
+        long dictionaryBytes = 0;
+        for (int i = 0; i < dictionary.size(); i++) {
+            byte[] text = dictionary.get(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i] = dictionaryBytes;
+            ensureSpace(4);
+            this.buffer.putInt(text.length);
+            putBytes(text);
+            dictionaryBytes += 4 + text.length;
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            ensureSpace(8);
+            this.buffer.putLong(offsets[i]);
+        }
+        //sorting the stock by id, keeping the position of each entry in the low bits.
+        long[] order = new long[stockList.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) stockList.get(i).getPackedId() << 32) | i;
+        }
+        Arrays.sort(order);
+        long availableBeanBags = 0;
+        for (int i = 0; i < order.length; i++) {
+            BeanBag stockEntry = stockList.get((int) order[i]);
+            availableBeanBags += stockEntry.getQuantity();
+            ensureSpace(STOCK_RECORD_SIZE);
+            this.buffer.putInt(stockEntry.getPackedId());
+            this.buffer.putInt(stockEntry.getQuantity());
+            this.buffer.putInt(stockEntry.getPrice());
+            this.buffer.putShort(stockEntry.getYear());
+            this.buffer.put(stockEntry.getMonth());
+            this.buffer.put((byte) 0);
+            this.buffer.putInt(positionOf(stockEntry.getManufacturer(), positions));
+            this.buffer.putInt(positionOf(stockEntry.getName(), positions));
+            this.buffer.putInt(positionOf(stockEntry.getInformation(), positions));
+            this.buffer.putInt(stockEntry.getReservedQuantity());
+            this.buffer.putLong(stockEntry.getSoldQuantity());
+            this.buffer.putLong(stockEntry.getTotalPriceOfSold());
+        }
+        for (int i = 0; i < reserveList.size(); i++) {
+            BeanBag reservation = reserveList.get(i);
+            ensureSpace(RESERVATION_RECORD_SIZE);
+            this.buffer.putInt(reservation.getReservationNumber());
+            this.buffer.putInt(reservation.getPackedId());
+            this.buffer.putInt(reservation.getQuantity());
+            this.buffer.putInt(reservation.getPrice());
+            this.buffer.putLong(reservation.getDeadline());
+        }
+        for (int i = 0; i < soldList.size(); i++) {
+            BeanBag sale = soldList.get(i);
+            ensureSpace(SOLD_RECORD_SIZE);
+            this.buffer.putInt(sale.getPackedId());
+            this.buffer.putInt(sale.getQuantity());
+            this.buffer.putInt(sale.getPrice());
+        }
+        flush();
+
+        this.buffer.clear();
+        this.buffer.putLong(MAGIC);
+        this.buffer.putInt(VERSION);
+        this.buffer.putInt(HEADER_SIZE);
+        this.buffer.putInt(dictionary.size());
+        this.buffer.putInt(stockList.size());
+        this.buffer.putInt(reserveList.size());
+        this.buffer.putInt(soldList.size());
+        this.buffer.putLong(dictionaryBytes);
+        this.buffer.putLong(allocator.getKey());
+        this.buffer.putInt(allocator.getCounter());
+        this.buffer.putInt(0);
+        this.buffer.putLong(0);
+        this.buffer.putLong(availableBeanBags);
+        this.buffer.putLong(journalRecords);
+        this.buffer.flip();
+        //summing the header after the body, while its checksum is still zero.
+        this.checksum.update(this.buffer.duplicate());
+        this.buffer.putLong(CHECKSUM_OFFSET, this.checksum.getValue());
+        long position = 0;
+        while (this.buffer.hasRemaining()) {
+            position += this.channel.write(this.buffer, position);
+        }
+    }
+
+    /**
+     * Method gives a string a position in the dictionary if it doesn't have
+     * one yet.
+     *
+     * @param text              string to be added, may be <code>null</code>
+     * @param positions         position of each string already added
+     * @param dictionary        strings in the order they were added
+     */
+    private static void addToDictionary(String text, HashMap<String, Integer> positions, TypedArrayList<String> dictionary) {
+        if (text != null && !positions.containsKey(text)) {
+            positions.put(text, dictionary.size());
+            dictionary.add(text);
+        }
+    }
+
+    /**
+     * Method returns the position of a string in the dictionary.
+     *
+     * @param text              string in the dictionary, may be <code>null</code>
+     * @param positions         position of each string in the dictionary
+     * @return                  position of the string, or -1 for <code>null</code>
+     */
+    private static int positionOf(String text, HashMap<String, Integer> positions) {
+        return text == null ? -1 : positions.get(text);
+    }
+
+    /*
+     * Method writes out the buffer if it can't fit the given number of bytes
+     */
+    private void ensureSpace(int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /*
+     * Method copies bytes into the buffer, writing it out as often as needed
+     */
+    private void putBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensureSpace(1);
+            int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+            this.buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /*
+     * Method adds the buffered bytes to the checksum and writes them out
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        ByteBuffer summed = this.buffer.duplicate();
+        this.checksum.update(summed);
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Method returns the number of journal records the snapshot includes.
+     *
+     * @return                  number of journal records
+     */
+    long getJournalRecords() {
+        return this.journalRecords;
+    }
+
+    /*
+     * Method reads the header, then the body, checking the checksum last
+     */
+    private void readContents() throws IOException {
+        this.buffer.clear().limit(HEADER_SIZE);
+        while (this.buffer.hasRemaining()) {
+            if (this.channel.read(this.buffer) < 0) {
+                throw new IOException("Invalid snapshot: the file is shorter than its header.");
+            }
+        }
+        this.buffer.flip();
+        //keeping the header to sum after the body, with its checksum zeroed.
+        byte[] header = new byte[HEADER_SIZE];
+        this.buffer.get(header).rewind();
+        Arrays.fill(header, CHECKSUM_OFFSET, CHECKSUM_OFFSET + 8, (byte) 0);
+        if (this.buffer.getLong() != MAGIC) {
+            throw new IOException("Invalid snapshot: the file is not a bean bag store snapshot.");
+        }
+        int version = this.buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Invalid snapshot: version " + version + " is not supported.");
+        }
+        int headerSize = this.buffer.getInt();
+        int dictionarySize = this.buffer.getInt();
+        int stockCount = this.buffer.getInt();
+        int reserveCount = this.buffer.getInt();
+        int soldCount = this.buffer.getInt();
+        long dictionaryBytes = this.buffer.getLong();
+        long allocatorKey = this.buffer.getLong();
+        int allocatorCounter = this.buffer.getInt();
+        this.buffer.getInt();
+        long expectedChecksum = this.buffer.getLong();
+        if (headerSize != HEADER_SIZE || dictionarySize < 0 || stockCount < 0 || reserveCount < 0 || soldCount < 0 || dictionaryBytes < 0) {
+            throw new IOException("Invalid snapshot: the header is damaged.");
+        }
+        //checking the counts against the size of the file before allocating anything for them.
+        long size = HEADER_SIZE + dictionaryBytes + 8L * dictionarySize + (long) STOCK_RECORD_SIZE * stockCount
+                + (long) RESERVATION_RECORD_SIZE * reserveCount + (long) SOLD_RECORD_SIZE * soldCount;
+        if (size != this.channel.size()) {
+            throw new IOException("Invalid snapshot: the file is not the size its header describes.");
+        }
+        this.buffer.getLong(); //number of bean bags available, which the store recalculates
+        this.journalRecords = this.buffer.getLong();
+        this.channel.position(headerSize);
+        this.buffer.clear().flip();
+
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            require(4);
+            int length = this.buffer.getInt();
+            if (length < 0) {
+                throw new IOException("Invalid snapshot: the dictionary is damaged.");
+            }
+            dictionary[i] = new String(getBytes(length), StandardCharsets.UTF_8);
+        }
+        //skipping the dictionary table, which is only needed by mapped readers.
+        for (int i = 0; i < dictionarySize; i++) {
+            require(8);
+            this.buffer.getLong();
+        }
+        this.stockList = new TypedArrayList<>();
+        for (int i = 0; i < stockCount; i++) {
+            require(STOCK_RECORD_SIZE);
+            int id = this.buffer.getInt();
+            int quantity = this.buffer.getInt();
+            int price = this.buffer.getInt();
+            short year = this.buffer.getShort();
+            byte month = this.buffer.get();
+            this.buffer.get();
+            String manufacturer = lookUp(dictionary, this.buffer.getInt());
+            String name = lookUp(dictionary, this.buffer.getInt());
+            String information = lookUp(dictionary, this.buffer.getInt());
+            //skipping the totals, which the store recalculates.
+            this.buffer.getInt();
+            this.buffer.getLong();
+            this.buffer.getLong();
+            BeanBag stockEntry = new BeanBag(quantity, manufacturer, name, id, year, month, information);
+            stockEntry.setPrice(price);
+            this.stockList.add(stockEntry);
+        }
+        this.reserveList = new TypedArrayList<>();
+        for (int i = 0; i < reserveCount; i++) {
+            require(RESERVATION_RECORD_SIZE);
+            int reservationNumber = this.buffer.getInt();
+            int id = this.buffer.getInt();
+            int quantity = this.buffer.getInt();
+            BeanBag reservation = new BeanBag(quantity, id, this.buffer.getInt(), reservationNumber);
+            reservation.setDeadline(this.buffer.getLong());
+            this.reserveList.add(reservation);
+        }
+        this.soldList = new TypedArrayList<>();
+        for (int i = 0; i < soldCount; i++) {
+            require(SOLD_RECORD_SIZE);
+            int id = this.buffer.getInt();
+            int quantity = this.buffer.getInt();
+            this.soldList.add(new BeanBag(quantity, id, this.buffer.getInt()));
+        }
+        if (this.buffer.hasRemaining() || this.channel.position() != this.channel.size()) {
+            throw new IOException("Invalid snapshot: there is data after the last record.");
+        }
+        this.checksum.update(header);
+        if (this.checksum.getValue() != expectedChecksum) {
+            throw new IOException("Invalid snapshot: the checksum does not match.");
+        }
+        this.reservationAllocator = ReservationNumberAllocator.restore(allocatorKey, allocatorCounter);
+    }
+
+    /**
+     * Method returns the string at a position in the dictionary.
+     *
+     * @param dictionary        strings of the dictionary
+     * @param position          position of the string, or -1 for <code>null</code>
+     * @return                  string at the position
+     * @throws IOException      if the position is outside the dictionary
+     */
+    private static String lookUp(String[] dictionary, int position) throws IOException {
+        if (position == -1) {
+            return null;
+        }
+        if (position < 0 || position >= dictionary.length) {
+            throw new IOException("Invalid snapshot: a record refers to a missing string.");
+        }
+        return dictionary[position];
+    }
+
+    /*
+     * Method reads more of the file until the buffer holds the given number
+     * of unread bytes, adding every byte read to the checksum
+     */
+    private void require(int bytes) throws IOException {
+        if (this.buffer.remaining() >= bytes) {
+            return;
+        }
+        this.buffer.compact();
+        while (this.buffer.position() < bytes) {
+            int start = this.buffer.position();
+            int read = this.channel.read(this.buffer);
+            if (read < 0) {
+                throw new IOException("Invalid snapshot: the file ends part way through a record.");
+            }
+            ByteBuffer summed = this.buffer.duplicate();
+            summed.position(start).limit(start + read);
+            this.checksum.update(summed);
+        }
+        this.buffer.flip();
+    }
+
+    /*
+     * Method reads the given number of bytes, which may be more than the
+     * buffer holds
+     */
+    private byte[] getBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            require(1);
+            int chunk = Math.min(this.buffer.remaining(), length - offset);
+            this.buffer.get(bytes, offset, chunk);
+            offset += chunk;
+        }
+        return bytes;
+    }
+}
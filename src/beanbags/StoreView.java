@@ -0,0 +1,302 @@
+package beanbags;
+
+import java.util.Map;
+
+/**
+ * A read only view of the contents of a {@link Store}, frozen at the moment
+ * it was taken by {@link Store#readView()}. Every method answers from that
+ * one moment, so a report calling several of them sees stock, reservations
+ * and sales that agree with each other while the Store keeps changing.
+ * <p>
+ * The view holds frozen copies of the inventory, reserveList and mapped
+ * stock, which share their pages and arrays with the Store until the Store
+ * next changes them, together with the running totals as they were. Nothing in the view
+ * changes once it is taken, so any number of threads can read it at once
+ * without locking. Each view carries the version it was taken at; views
+ * taken while the Store didn't change are the same version.
+ */
+public final class StoreView {
+    private final long version;
+    private final Inventory inventory; //frozen copy of the inventory
+    private final TypedArrayList<BeanBag> reserveList; //frozen copy of the reservations
+    private final MappedSnapshot mappedStock; //frozen copy of the mapped stock, or null
+    private final long availableBeanBags;
+    private final long reservedBeanBags;
+    private final long totalPriceOfReservedBeanBags;
+    private final long soldBeanBags;
+    private final long totalPriceOfSoldBeanBags;
+
+    /**
+     * Creates a view of the contents of a Store. The inventory, list and
+     * mapped stock given must be frozen copies.
+     *
+     * @param version                       version of the view
+     * @param inventory                     frozen inventory
+     * @param reserveList                   frozen reservations
+     * @param mappedStock                   frozen mapped stock, or null
+     * @param availableBeanBags             in-store bean bags that aren't reserved
+     * @param reservedBeanBags              reserved bean bags
+     * @param totalPriceOfReservedBeanBags  price of reserved bean bags in pence
+     * @param soldBeanBags                  sold bean bags
+     * @param totalPriceOfSoldBeanBags      price of sold bean bags in pence
+     */
+    StoreView(long version, Inventory inventory, TypedArrayList<BeanBag> reserveList, MappedSnapshot mappedStock,
+              long availableBeanBags, long reservedBeanBags, long totalPriceOfReservedBeanBags, long soldBeanBags,
+              long totalPriceOfSoldBeanBags) {
+        this.version = version;
+        this.inventory = inventory;
+        this.reserveList = reserveList;
+        this.mappedStock = mappedStock;
+        this.availableBeanBags = availableBeanBags;
+        this.reservedBeanBags = reservedBeanBags;
+        this.totalPriceOfReservedBeanBags = totalPriceOfReservedBeanBags;
+        this.soldBeanBags = soldBeanBags;
+        this.totalPriceOfSoldBeanBags = totalPriceOfSoldBeanBags;
+    }
+
+    /**
+     * Method checks whether the Store is still as it was when the view was
+     * taken, so the view can be handed out again.
+     *
+     * @param inventory         current inventory of the Store
+     * @return                  true if the Store hasn't changed since
+     */
+    boolean isCurrent(Inventory inventory) {
+        return inventory.isUnchangedSince(this.inventory);
+    }
+
+    /**
+     * Access method for the version of the view. Versions of the same Store
+     * increase with every view taken after the Store changed.
+     *
+     * @return                  version of the view
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Method parses the ID passed as an argument.
+     *
+     * @param id                ID of bean bag
+     * @return                  ID of bean bag packed by BeanBagID
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    private int parseID(String id) throws IllegalIDException {
+        int packedID = BeanBagID.parse(id);
+        if (packedID == BeanBagID.INVALID) {
+            throw StoreExceptions.ILLEGAL_ID;
+        }
+        return packedID;
+    }
+
+    /**
+     * Method finds the record of a bean bag that was still read from an
+     * opened snapshot when the view was taken.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  record in the snapshot, or -1 if the bean bag
+     *                          isn't read from a snapshot
+     */
+    private int findMappedRecord(int id) {
+        return this.mappedStock == null ? -1 : this.mappedStock.find(id);
+    }
+
+    /**
+     * Method finds the inventory row of the bean bags with matching ID.
+     *
+     * @param id                ID of bean bag packed by BeanBagID
+     * @return                  inventory row of the bean bag
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     */
+    private int findStockRow(int id) throws BeanBagIDNotRecognisedException {
+        int row = this.inventory.find(id);
+        if (row == -1) {
+            throw StoreExceptions.ID_NOT_RECOGNISED;
+        }
+        return row;
+    }
+
+    /**
+     * Method converts a running total to an int, capping it rather than
+     * letting it wrap around.
+     *
+     * @param total             running total
+     * @return                  total, or Integer.MAX_VALUE if it doesn't fit
+     */
+    private int toInt(long total) {
+        return total > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) total;
+    }
+
+    /**
+     * Access method for the number of bean bags stocked (total of reserved
+     * and unreserved stock).
+     *
+     * @return                  number of bean bags in the store
+     */
+    public int beanBagsInStock() {
+        return toInt(this.availableBeanBags + this.reservedBeanBags);
+    }
+
+    /**
+     * Access method for the number of reserved bean bags stocked.
+     *
+     * @return                  number of reserved bean bags in the store
+     */
+    public int reservedBeanBagsInStock() {
+        return toInt(this.reservedBeanBags);
+    }
+
+    /**
+     * Method returns number of bean bags with matching ID in stock (total
+     * reserved and unreserved).
+     *
+     * @param id                ID of bean bags
+     * @return                  number of bean bags matching ID in stock
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public int beanBagsInStock(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return this.mappedStock.quantityAt(record) + this.mappedStock.reservedQuantityAt(record);
+        }
+        int row = findStockRow(packedID);
+        return this.inventory.quantityAt(row) + this.inventory.reservedAt(row);
+    }
+
+    /**
+     * Access method for the number of different bean bags stocked.
+     *
+     * @return                  number of different IDs in (or previously in)
+     *                          stock
+     */
+    public int getNumberOfDifferentBeanBagsInStock() {
+        if (this.mappedStock != null) {
+            return this.inventory.size() + this.mappedStock.getNumberOfMappedRecords();
+        }
+        return this.inventory.size();
+    }
+
+    /**
+     * Method to return number of bean bags sold.
+     *
+     * @return                  number of bean bags sold by the store
+     */
+    public int getNumberOfSoldBeanBags() {
+        return toInt(this.soldBeanBags);
+    }
+
+    /**
+     * Method to return number of bean bags sold with matching ID.
+     *
+     * @param id                ID of bean bags
+     * @return                  number bean bags sold by the store with matching ID
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public int getNumberOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return toInt(this.mappedStock.soldQuantityAt(record));
+        }
+        return toInt(this.inventory.soldAt(findStockRow(packedID)));
+    }
+
+    /**
+     * Method to return total price of bean bags sold (in pence).
+     *
+     * @return                  total cost of bean bags sold (in pence)
+     */
+    public int getTotalPriceOfSoldBeanBags() {
+        return toInt(this.totalPriceOfSoldBeanBags);
+    }
+
+    /**
+     * Method to return total price of bean bags sold (in pence) with matching
+     * ID.
+     *
+     * @param id                ID of bean bags
+     * @return                  total cost of bean bags sold (in pence) with
+     *                          matching ID
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public int getTotalPriceOfSoldBeanBags(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return toInt(this.mappedStock.totalPriceOfSoldAt(record));
+        }
+        return toInt(this.inventory.totalPriceOfSoldAt(findStockRow(packedID)));
+    }
+
+    /**
+     * Method to return the total price of reserved bean bags (in pence).
+     *
+     * @return                  total price of reserved bean bags
+     */
+    public int getTotalPriceOfReservedBeanBags() {
+        return toInt(this.totalPriceOfReservedBeanBags);
+    }
+
+    /**
+     * Method to return the free text details of a bean bag in stock, or an
+     * empty String if there are none.
+     *
+     * @param id                ID of bean bag
+     * @return                  any free text details relating to the bean bag
+     * @throws BeanBagIDNotRecognisedException  if the ID is legal, but does not
+     *                          match any bag in (or previously in) stock
+     * @throws IllegalIDException   if the ID is not a positive eight character
+     *                           hexadecimal number
+     */
+    public String getBeanBagDetails(String id) throws BeanBagIDNotRecognisedException, IllegalIDException {
+        int packedID = parseID(id);
+        int record = findMappedRecord(packedID);
+        if (record != -1) {
+            return this.mappedStock.informationAt(record);
+        }
+        return this.inventory.informationAt(findStockRow(packedID));
+    }
+
+    /**
+     * Method to return the total value of the bean bags in stock (in pence),
+     * including reserved ones, at their price when the view was taken.
+     *
+     * @return                  total value of bean bags in stock (in pence)
+     */
+    public long getTotalValueOfBeanBagsInStock() {
+        return Store.totalValueOf(this.inventory, this.mappedStock);
+    }
+
+    /**
+     * Method to return the number of bean bags in stock (including reserved
+     * ones) made by each manufacturer.
+     *
+     * @return                  number of bean bags in stock by manufacturer
+     */
+    public Map<String, Long> getBeanBagsInStockByManufacturer() {
+        return Store.stockByManufacturerOf(this.inventory, this.mappedStock);
+    }
+
+    /**
+     * Method to return the total price of the reserved bean bags (in pence)
+     * for each ID.
+     *
+     * @return                  total price of reserved bean bags by ID
+     */
+    public Map<String, Long> getTotalPriceOfReservedBeanBagsByID() {
+        return Store.reservedPriceByIDOf(this.inventory, this.reserveList);
+    }
+}
@@ -0,0 +1,362 @@
+package beanbags;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores items of type E in an array list which is more efficent in adding
+ * at the cost of more storage. It should not be used to store null
+ * references.
+ * <p>
+ * The capacity doubles when the array is full. By default it never
+ * decreases; a list created with a shrink ratio halves its capacity
+ * whenever removals leave no more than 1/ratio of it in use, but never
+ * below the initial capacity. A ratio of at least 3 keeps a list that
+ * hovers around a boundary from resizing on every add and remove.
+ */
+public class TypedArrayList<E> implements Serializable, Cloneable
+{
+    /** Shrink ratio of a list whose capacity never decreases. */
+    public static final int NEVER_SHRINK = 0;
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private Object[] array;
+    private int elementsUsed;
+    private final int initialCapacity;
+    private final int shrinkRatio;
+    private transient boolean isShared; //set while a frozen copy reads the same array
+    private transient Cursor<E> cursor; //reused by every call to cursor()
+
+    /**
+     * Creates initial instance of a TypedArrayList with no contents, whose
+     * capacity never decreases
+     */
+    public TypedArrayList() {
+        this(DEFAULT_CAPACITY, NEVER_SHRINK);
+    }
+
+    /**
+     * Creates an instance with no contents that can hold the given number of
+     * elements before growing, whose capacity never decreases
+     *
+     * @param initialCapacity number of elements held before growing
+     * @throws IllegalArgumentException if the capacity is less than 1
+     */
+    public TypedArrayList(int initialCapacity) {
+        this(initialCapacity, NEVER_SHRINK);
+    }
+
+    /**
+     * Creates an instance with no contents that can hold the given number of
+     * elements before growing, and shrinks by the given ratio
+     *
+     * @param initialCapacity number of elements held before growing, and the
+     *        smallest capacity the list shrinks to
+     * @param shrinkRatio capacity is halved once no more than 1/shrinkRatio of
+     *        it is in use, or NEVER_SHRINK
+     * @throws IllegalArgumentException if the capacity is less than 1, or the
+     *         ratio is neither NEVER_SHRINK nor at least 3
+     */
+    public TypedArrayList(int initialCapacity, int shrinkRatio) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("The initial capacity must be at least 1.");
+        }
+        if (shrinkRatio != NEVER_SHRINK && shrinkRatio < 3) {
+            throw new IllegalArgumentException("The shrink ratio must be at least 3.");
+        }
+        this.array = new Object[initialCapacity];
+        this.elementsUsed = 0;
+        this.initialCapacity = initialCapacity;
+        this.shrinkRatio = shrinkRatio;
+    }
+
+    /**
+     * Method adds the argument to the end of the list. <code>null</code> reference
+     * elements are not supported, so ensure that you do not add them.
+     *
+     * @param o instance to be added
+     */
+    public void add(E o) {
+        this.unshare();
+        if (this.elementsUsed == this.array.length)
+            this.resizeArray(this.array.length * 2);
+        this.array[elementsUsed] = o;
+        this.elementsUsed++;
+    }
+
+    /*
+     * Method changes the capacity of the array, keeping every element
+     */
+    private void resizeArray(int capacity) {
+        Object[] tempArray = new Object[capacity];
+        // Efficiently copy all the elements of array into tempArray
+        System.arraycopy(this.array,0,tempArray,0,this.elementsUsed);
+        this.array = tempArray;
+    }
+
+    /*
+     * Method halves the capacity of the array if removals left enough of it
+     * unused under the shrink ratio
+     */
+    private void shrinkIfSparse() {
+        if (this.shrinkRatio != NEVER_SHRINK && this.array.length > this.initialCapacity
+                && (long) this.elementsUsed * this.shrinkRatio <= this.array.length)
+            this.resizeArray(Math.max(this.initialCapacity, this.array.length / 2));
+    }
+
+    /**
+     * Method returns the element of the list at the index provided, will
+     * return <code>null</code> if the index is invalid
+     *
+     * @param index index of element in list to be returned
+     * @return element at corresponding index
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (this.isInvalid(index))
+            return null;
+        return (E) this.array[index];
+    }
+
+    /*
+     * Checks validity of index given current range, returns true if not valid
+     */
+    private boolean isInvalid(int index) {
+        return ((index < 0) || (index >= this.elementsUsed));
+    }
+
+    /**
+     * Method removes the argument if it is contained in the list and returns <code>true</code>
+     * if it is successful. It will return <code>false</code> if <code>o</code> is not contained
+     * in the list and therefore not removed. Later elements keep their order.
+     *
+     * @param o element to be removed
+     * @return true if removed, otherwise false
+     */
+    public boolean remove(Object o) {
+        for (int i = 0; i < this.elementsUsed; i++) {
+            if (this.array[i].equals(o)) {
+                this.unshare();
+                this.contract(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Method contracts effectively removing the index item, which must be in
+     * range
+     */
+    private void contract(int index) {
+        // Efficiently copy all the elements of array beyond index down one
+        // space, effectively removing the index element
+        System.arraycopy(this.array,index+1,this.array,index,this.elementsUsed-(index+1));
+        this.elementsUsed--;
+        this.array[this.elementsUsed] = null;
+        this.shrinkIfSparse();
+    }
+
+    /**
+     * Method removes the element of the list at the index provided, will
+     * return <code>null</code> if the index is invalid. Otherwise will
+     * return the instance removed. Later elements move down one place, so
+     * keep their order; this takes time proportional to how many there are.
+     *
+     * @param index index of element in list to be removed
+     * @return element at corresponding index
+     */
+    public E remove(int index) {
+        if (this.isInvalid(index))
+            return null;
+        this.unshare();
+        E value = this.get(index);
+        this.contract(index);
+        return value;
+    }
+
+    /**
+     * Method removes the element of the list at the index provided in constant
+     * time, by moving the last element into its place, will return
+     * <code>null</code> if the index is invalid. Otherwise will return the
+     * instance removed.
+     *
+     * @param index index of element in list to be removed
+     * @return element at corresponding index
+     */
+    public E swapRemove(int index) {
+        if (this.isInvalid(index))
+            return null;
+        this.unshare();
+        E value = this.get(index);
+        this.elementsUsed--;
+        this.array[index] = this.array[this.elementsUsed];
+        this.array[this.elementsUsed] = null;
+        this.shrinkIfSparse();
+        return value;
+    }
+
+    /**
+     * Method replaces the element of the list at the index provided, will
+     * return <code>false</code> if the index is invalid, otherwise will return true.
+     *
+     * @param o object to be placed in the list
+     * @param index index of element in list to be replaced
+     * @return true if sucessfully replaced, otherwise false if index is
+     *         out of the range of stored data
+     */
+    public boolean replace(E o, int index) {
+        if (this.isInvalid(index))
+            return false;
+        this.unshare();
+        this.array[index] = o;
+        return true;
+    }
+
+    /**
+     * Method removes every element. A list that never shrinks keeps its
+     * capacity and only clears the elements in use, so this takes time
+     * proportional to the size of the list; a list that shrinks drops its
+     * array for a new one of the initial capacity. While a frozen copy reads
+     * the array, a new array of the same capacity is made instead.
+     */
+    public void clear() {
+        if (this.shrinkRatio != NEVER_SHRINK && this.array.length != this.initialCapacity) {
+            this.array = new Object[this.initialCapacity];
+        } else if (this.isShared) {
+            //the frozen copy keeps the elements of the old array.
+            this.array = new Object[this.array.length];
+        } else {
+            Arrays.fill(this.array, 0, this.elementsUsed, null);
+        }
+        this.elementsUsed = 0;
+        this.isShared = false;
+    }
+
+    /**
+     * Method returns a copy of the list that is frozen as it is now. The copy
+     * shares the array of this list until this list is next changed, when
+     * this list copies the array first, so taking the copy is O(1) and the
+     * copy can be read by another thread while this list keeps changing.
+     * The copy itself must not be changed.
+     *
+     * @return frozen copy of the list
+     */
+    @SuppressWarnings("unchecked")
+    public TypedArrayList<E> frozenCopy() {
+        TypedArrayList<E> copy;
+        try {
+            copy = (TypedArrayList<E>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.cursor = null;
+        copy.isShared = true;
+        this.isShared = true;
+        return copy;
+    }
+
+    /*
+     * Method copies the array before it is changed, if a frozen copy still
+     * reads it
+     */
+    private void unshare() {
+        if (this.isShared) {
+            this.resizeArray(this.array.length);
+            this.isShared = false;
+        }
+    }
+
+    /**
+     * Method returns a cursor over the list from its first element. The list
+     * keeps a single cursor and resets it on every call, so iterating does
+     * not allocate, but two iterations over the same list can't be nested.
+     *
+     * @return cursor at the start of the list
+     */
+    public Cursor<E> cursor() {
+        if (this.cursor == null)
+            this.cursor = new Cursor<>(this);
+        this.cursor.next = 0;
+        this.cursor.canRemove = false;
+        return this.cursor;
+    }
+
+    /**
+     * Method returns the total number of elements in the list
+     *
+     * @return number of elements in the list
+     */
+    public int size(){
+        return this.elementsUsed;
+    }
+
+    /**
+     * Method returns how many elements the list can hold before it grows
+     *
+     * @return capacity of the list
+     */
+    public int capacity(){
+        return this.array.length;
+    }
+
+    /**
+     * Walks a TypedArrayList from its first element to its last. Elements
+     * added while walking are visited too.
+     */
+    public static final class Cursor<E> {
+        private final TypedArrayList<E> list;
+        private int next; //index of the next element
+        private boolean canRemove; //set while the element last returned can be removed
+
+        /**
+         * Creates a cursor over a list
+         *
+         * @param list list walked by the cursor
+         */
+        private Cursor(TypedArrayList<E> list) {
+            this.list = list;
+        }
+
+        /**
+         * Method checks whether there are elements left to visit
+         *
+         * @return true if next will return an element
+         */
+        public boolean hasNext() {
+            return this.next < this.list.elementsUsed;
+        }
+
+        /**
+         * Method returns the next element and moves past it
+         *
+         * @return next element
+         * @throws NoSuchElementException if every element has been visited
+         */
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (this.next >= this.list.elementsUsed)
+                throw new NoSuchElementException();
+            this.canRemove = true;
+            return (E) this.list.array[this.next++];
+        }
+
+        /**
+         * Method removes the element last returned by next in constant time,
+         * moving the last element of the list into its place to be visited
+         * next
+         *
+         * @throws IllegalStateException if next has not returned an element
+         *         since the cursor was reset or last removed one
+         */
+        public void remove() {
+            if (!this.canRemove)
+                throw new IllegalStateException();
+            this.canRemove = false;
+            this.next--;
+            this.list.swapRemove(this.next);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package beanbags;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChangeFeedTest checks that a {@link ChangeFeed} hands a consumer the events
+ * published in order, that a consumer which falls a whole ring behind is told
+ * how many events it missed instead of being handed overwritten ones, and
+ * that a consumer draining while the feed is published to never sees an
+ * event torn by one published after it. Run it from the root of the
+ * repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.ChangeFeedTest
+ * </pre>
+ */
+public class ChangeFeedTest {
+    private static final int EVENTS = 5_000_000; //events published by the concurrent check
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method publishes the event numbered by the given sequence, with every
+     * field derived from it, so a consumer can tell a torn event.
+     *
+     * @param feed              feed published to
+     * @param sequence          number of the event
+     */
+    private static void publish(ChangeFeed feed, int sequence) {
+        feed.publish((byte) (1 + sequence % 9), sequence, ~sequence, sequence * 31, sequence ^ 0x55555555);
+    }
+
+    /**
+     * Method checks that every field of an event was published together, and
+     * returns its sequence.
+     *
+     * @param type              type of the event
+     * @param id                ID of the event, which is its sequence
+     * @param quantity          quantity of the event
+     * @param price             price of the event
+     * @param reference         reference of the event
+     * @return                  sequence of the event
+     */
+    private static int sequenceOf(byte type, int id, int quantity, int price, int reference) {
+        check(type == 1 + id % 9 && quantity == ~id && price == id * 31 && reference == (id ^ 0x55555555), "event " + id + " torn");
+        return id;
+    }
+
+    /**
+     * Method checks that a consumer keeping up is handed every event in
+     * order, and that one falling behind misses only the oldest events.
+     */
+    private static void checkOverwrite() {
+        ChangeFeed feed = new ChangeFeed(6);
+        check(feed.getCapacity() == 8, "capacity rounded up to a power of two");
+        publish(feed, 0);
+        ChangeFeed.Subscription subscription = feed.subscribe(3);
+        List<Integer> handed = new ArrayList<>();
+        ChangeFeed.Handler handler = (type, id, quantity, price, reference) -> handed.add(sequenceOf(type, id, quantity, price, reference));
+        check(subscription.drain(handler) == 0, "events before subscribing not handed over");
+        for (int sequence = 1; sequence <= 5; sequence++) {
+            publish(feed, sequence);
+        }
+        check(subscription.drain(handler) == 3 && subscription.drain(handler) == 2, "events handed over in batches");
+        check(subscription.getMissed() == 0 && subscription.getWaiting() == 0, "nothing missed keeping up");
+        for (int sequence = 6; sequence <= 25; sequence++) {
+            publish(feed, sequence);
+        }
+        check(subscription.getWaiting() == 20, "events waiting counted");
+        while (subscription.drain(handler) > 0) {
+            //draining every event left.
+        }
+        //the oldest event of a full ring is the next the Store overwrites, so it counts as missed too.
+        check(subscription.getMissed() == 13, "oldest events missed, " + subscription.getMissed());
+        List<Integer> expected = new ArrayList<>();
+        for (int sequence = 1; sequence <= 5; sequence++) {
+            expected.add(sequence);
+        }
+        for (int sequence = 19; sequence <= 25; sequence++) {
+            expected.add(sequence);
+        }
+        check(handed.equals(expected), "events handed over in order, " + handed);
+    }
+
+    /**
+     * Method checks that a consumer draining while another thread publishes
+     * is handed only whole events, in order, and that the events handed over
+     * and missed add up to those published.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkConcurrentDrain() throws Exception {
+        ChangeFeed feed = new ChangeFeed(64);
+        ChangeFeed.Subscription subscription = feed.subscribe(16);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] counts = new long[2]; //events handed over, and the last sequence handed over
+        counts[1] = -1;
+        Thread consumer = new Thread(() -> {
+            try {
+                ChangeFeed.Handler handler = (type, id, quantity, price, reference) -> {
+                    int sequence = sequenceOf(type, id, quantity, price, reference);
+                    check(sequence > counts[1], "event " + sequence + " handed over after " + counts[1]);
+                    counts[0]++;
+                    counts[1] = sequence;
+                };
+                while (feed.getPublished() < EVENTS || subscription.getWaiting() > 0) {
+                    subscription.drain(handler);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        consumer.start();
+        for (int sequence = 0; sequence < EVENTS; sequence++) {
+            publish(feed, sequence);
+        }
+        consumer.join();
+        if (failure.get() != null) {
+            throw new AssertionError("consumer failed", failure.get());
+        }
+        check(counts[0] + subscription.getMissed() == EVENTS, "events handed over and missed add up, " + counts[0] + " + " + subscription.getMissed());
+        check(counts[1] == EVENTS - 1, "last event handed over");
+    }
+
+    /**
+     * Method checks that a Store publishes an event of the right type for
+     * each change it makes.
+     *
+     * @throws Exception        if the store rejects a change
+     */
+    private static void checkStoreEvents() throws Exception {
+        Store store = new Store();
+        ChangeFeed.Subscription subscription = store.openChangeFeed().subscribe(100);
+        store.addBeanBags(5, "Kone", "Corner", "0000000a", (short) 2020, (byte) 6);
+        store.setBeanBagPrice("0000000a", 700);
+        store.sellBeanBags(1, "0000000a");
+        int unreserved = store.reserveBeanBags(1, "0000000a");
+        store.unreserveBeanBags(unreserved);
+        int sold = store.reserveBeanBags(2, "0000000a");
+        store.sellBeanBags(sold);
+        store.replace("0000000a", "0000000b");
+        store.resetSaleAndCostTracking();
+        store.empty();
+        List<String> events = new ArrayList<>();
+        subscription.drain((type, id, quantity, price, reference) -> events.add(type + ":" + (id == 0 ? "" : ChangeFeed.formatID(id)) + ":" + quantity + ":" + price));
+        List<String> expected = List.of("1:0000000a:5:0", "2:0000000a:0:700", "3:0000000a:1:700", "4:0000000a:1:700", "5:0000000a:1:700",
+                "4:0000000a:2:700", "6:0000000a:2:700", "7:0000000b:0:0", "8::0:0", "9::0:0");
+        check(events.equals(expected), "Store events, " + events);
+    }
+
+    /**
+     * Runs every check, printing the name of each that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkOverwrite();
+        System.out.println("ChangeFeed counts the events a consumer missed");
+        checkConcurrentDrain();
+        System.out.println("ChangeFeed hands a concurrent consumer only whole events");
+        checkStoreEvents();
+        System.out.println("Store publishes its changes");
+    }
+}
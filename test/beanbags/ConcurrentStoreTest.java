@@ -0,0 +1,277 @@
+package beanbags;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConcurrentStoreTest checks that a {@link ConcurrentStore} changed by many
+ * threads at once stays consistent: the totals of every ID add up to the
+ * totals of the store, and nothing sold is lost. It also checks that threads
+ * replacing IDs in opposite orders across stripes don't deadlock, and that a
+ * journal written by many threads replays to the same contents. Run it from
+ * the root of the repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.ConcurrentStoreTest
+ * </pre>
+ */
+public class ConcurrentStoreTest {
+    private static final int THREADS = 8;
+    private static final int IDS = 200;
+    private static final int QUANTITY = 1000; //bean bags of each id
+    private static final int PRICE = 10;
+    private static final int OPERATIONS = 20000; //operations of each thread
+    private static final long TIMEOUT_SECONDS = 60; //time a run may take before it counts as deadlocked
+
+    /**
+     * An operation run by each thread of a run.
+     */
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method returns the ID of the given bean bag of a test store.
+     *
+     * @param i                 index of the bean bag
+     * @return                  ID of the bean bag
+     */
+    private static String idOf(int i) {
+        return String.format("%08x", i + 1);
+    }
+
+    /**
+     * Method fills a store with priced bean bags.
+     *
+     * @param store             store filled
+     * @throws Exception        if the store rejects a bean bag
+     */
+    private static void fill(BeanBagStore store) throws Exception {
+        for (int i = 0; i < IDS; i++) {
+            store.addBeanBags(QUANTITY, "Kone", "Bag " + i, idOf(i), (short) 2020, (byte) 1);
+            store.setBeanBagPrice(idOf(i), PRICE);
+        }
+    }
+
+    /**
+     * Method runs the worker on every thread at once, failing if any thread
+     * throws or the run doesn't finish in time.
+     *
+     * @param worker            operation run by each thread
+     * @throws Exception        if a thread fails
+     */
+    private static void runThreads(Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    throw new AssertionError("threads deadlocked");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method makes random sales and reservations of one thread, ending every
+     * reservation it makes, and counts the bean bags it sells.
+     *
+     * @param store             store changed
+     * @param seed              seed of the thread's choices
+     * @param sold              count of the bean bags sold
+     * @throws Exception        if the store fails in a way other than running
+     *                          out of stock
+     */
+    private static void trade(BeanBagStore store, long seed, AtomicLong sold) throws Exception {
+        Random random = new Random(seed);
+        for (int k = 0; k < OPERATIONS; k++) {
+            String id = idOf(random.nextInt(IDS));
+            int num = 1 + random.nextInt(2);
+            try {
+                int operation = random.nextInt(3);
+                if (operation == 0) {
+                    store.sellBeanBags(num, id);
+                    sold.addAndGet(num);
+                } else {
+                    int reservationNumber = store.reserveBeanBags(num, id);
+                    if (operation == 1) {
+                        store.unreserveBeanBags(reservationNumber);
+                    } else {
+                        store.sellBeanBags(reservationNumber);
+                        sold.addAndGet(num);
+                    }
+                }
+            } catch (InsufficientStockException | BeanBagNotInStockException | BeanBagIDNotRecognisedException e) {
+                //the bean bags ran out, or another thread moved them to a new id, which leaves the store unchanged.
+            }
+        }
+    }
+
+    /**
+     * Method checks that the totals of every ID add up to the totals of the
+     * store, and that the store sold the given number of bean bags.
+     *
+     * @param store             store checked
+     * @param sold              number of bean bags the threads sold
+     * @param name              description of the store
+     * @throws Exception        if an ID is missing
+     */
+    private static void checkTotals(BeanBagStore store, long sold, String name) throws Exception {
+        long stock = 0;
+        long soldOfIds = 0;
+        long priceOfIds = 0;
+        for (int i = 0; i < IDS; i++) {
+            stock += store.beanBagsInStock(idOf(i));
+            soldOfIds += store.getNumberOfSoldBeanBags(idOf(i));
+            priceOfIds += store.getTotalPriceOfSoldBeanBags(idOf(i));
+        }
+        check(store.getNumberOfSoldBeanBags() == sold, name + ": sold " + store.getNumberOfSoldBeanBags() + ", expected " + sold);
+        check(soldOfIds == sold, name + ": sold of every id add up to " + soldOfIds);
+        check(store.getTotalPriceOfSoldBeanBags() == sold * PRICE && priceOfIds == sold * PRICE, name + ": price of sold bean bags");
+        check(store.beanBagsInStock() == stock, name + ": stock of every id adds up");
+        check(stock + sold == (long) IDS * QUANTITY, name + ": no bean bags lost");
+        check(store.reservedBeanBagsInStock() == 0 && store.getTotalPriceOfReservedBeanBags() == 0, name + ": every reservation ended");
+        check(store.getNumberOfDifferentBeanBagsInStock() == IDS, name + ": different bean bags");
+    }
+
+    /**
+     * Method checks the totals of a store traded in by many threads.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkConcurrentTrading() throws Exception {
+        ConcurrentStore store = new ConcurrentStore();
+        fill(store);
+        AtomicLong sold = new AtomicLong();
+        runThreads(thread -> trade(store, thread, sold));
+        checkTotals(store, sold.get(), "ConcurrentStore");
+    }
+
+    /**
+     * Method checks that threads replacing IDs back and forth, half of them in
+     * the opposite order, while others sell, finish and leave every bean bag
+     * under one of its IDs.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkConcurrentReplace() throws Exception {
+        ConcurrentStore store = new ConcurrentStore();
+        fill(store);
+        AtomicLong sold = new AtomicLong();
+        runThreads(thread -> {
+            if (thread % 2 == 1) {
+                trade(store, thread, sold);
+                return;
+            }
+            //pairs of threads move the same ids between the same two stripes, in opposite directions.
+            Random random = new Random(thread);
+            for (int k = 0; k < OPERATIONS / 10; k++) {
+                int i = random.nextInt(IDS);
+                String from = thread % 4 == 0 ? idOf(i) : String.format("%08x", 0x40000000 + i);
+                String to = thread % 4 == 0 ? String.format("%08x", 0x40000000 + i) : idOf(i);
+                try {
+                    store.replace(from, to);
+                } catch (BeanBagIDNotRecognisedException | IllegalIDException e) {
+                    //the other thread of the pair already moved the id.
+                }
+            }
+        });
+        //moving every id back, so the totals can be read by the original ids.
+        for (int i = 0; i < IDS; i++) {
+            try {
+                store.replace(String.format("%08x", 0x40000000 + i), idOf(i));
+            } catch (BeanBagIDNotRecognisedException e) {
+                //the id was already back.
+            }
+        }
+        checkTotals(store, sold.get(), "ConcurrentStore after replaces");
+    }
+
+    /**
+     * Method checks that a journal written by many threads at once replays to
+     * the same contents, in a ConcurrentStore and in a Store.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkConcurrentJournal() throws Exception {
+        File snapshot = File.createTempFile("concurrent", ".snapshot");
+        File journal = File.createTempFile("concurrent", ".journal");
+        snapshot.delete();
+        journal.delete();
+        try {
+            ConcurrentStore store = new ConcurrentStore();
+            store.openJournal(snapshot.getPath(), journal.getPath());
+            fill(store);
+            AtomicLong sold = new AtomicLong();
+            runThreads(thread -> {
+                trade(store, thread, sold);
+                //replacing ids in every stripe, so their order matters to the sales around them.
+                if (thread == 0) {
+                    for (int i = 0; i < IDS; i += 7) {
+                        store.replace(idOf(i), String.format("%08x", 0x40000000 + i));
+                        store.replace(String.format("%08x", 0x40000000 + i), idOf(i));
+                    }
+                }
+            });
+            store.closeJournal();
+            checkTotals(store, sold.get(), "ConcurrentStore journalled");
+            ConcurrentStore replayed = new ConcurrentStore();
+            replayed.openJournal(snapshot.getPath(), journal.getPath());
+            replayed.closeJournal();
+            checkTotals(replayed, sold.get(), "ConcurrentStore replayed");
+            Store replayedStore = new Store();
+            replayedStore.openJournal(snapshot.getPath(), journal.getPath());
+            replayedStore.closeJournal();
+            checkTotals(replayedStore, sold.get(), "Store replaying a ConcurrentStore journal");
+        } finally {
+            snapshot.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Runs every check, printing the name of each that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkConcurrentTrading();
+        System.out.println("ConcurrentStore keeps its totals under concurrent trading");
+        checkConcurrentReplace();
+        System.out.println("ConcurrentStore replaces IDs across stripes without deadlock");
+        checkConcurrentJournal();
+        System.out.println("ConcurrentStore journal replays to the same contents");
+    }
+}
@@ -0,0 +1,149 @@
+package beanbags;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * LegacyStoreFileTest checks that a file saved by the first version of
+ * {@link Store}, which wrote its lists through an ObjectOutputStream with the
+ * ID of each bean bag as a String, still loads into every BeanBagStore, saves
+ * again without losing anything, and that a damaged copy of it is rejected.
+ * <p>
+ * baseline-store.ser was saved by that version after adding three bean bags,
+ * pricing them, selling some and making two reservations. Run it from the
+ * root of the repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.LegacyStoreFileTest
+ * </pre>
+ */
+public class LegacyStoreFileTest {
+    private static final String BASELINE_FILE = "test/beanbags/baseline-store.ser";
+    //reservations made before the file was saved.
+    private static final int GIANT_RESERVATION = 948867174; //2 of 000000ff at 9900
+    private static final int COBANA_RESERVATION = 679302465; //1 of 12345678 at 4000
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method checks that a store holds the contents of the baseline file.
+     *
+     * @param store             store the file was loaded into
+     * @throws Exception        if a bean bag of the file can't be found
+     */
+    private static void checkBaselineContents(BeanBagStore store) throws Exception {
+        String name = store.getClass().getSimpleName();
+        check(store.getNumberOfDifferentBeanBagsInStock() == 3, name + ": different bean bags");
+        check(store.beanBagsInStock() == 18, name + ": bean bags in stock");
+        check(store.reservedBeanBagsInStock() == 3, name + ": reserved bean bags");
+        check(store.getNumberOfSoldBeanBags() == 4, name + ": sold bean bags");
+        check(store.getTotalPriceOfSoldBeanBags() == 11500, name + ": price of sold bean bags");
+        check(store.getTotalPriceOfReservedBeanBags() == 23800, name + ": price of reserved bean bags");
+        check(store.beanBagsInStock("0000000a") == 7, name + ": stock of 0000000a");
+        check(store.getNumberOfSoldBeanBags("0000000a") == 3, name + ": sales of 0000000a");
+        check(store.getTotalPriceOfSoldBeanBags("0000000a") == 7500, name + ": price of sales of 0000000a");
+        check(store.beanBagsInStock("000000ff") == 5, name + ": stock of 000000ff");
+        check(store.getNumberOfSoldBeanBags("12345678") == 1, name + ": sales of 12345678");
+        check(store.getBeanBagDetails("0000000a").equals("Red corduroy"), name + ": details of 0000000a");
+    }
+
+    /**
+     * Method loads the baseline file into a new store of the given class and
+     * checks it, including that its reservations can still be sold.
+     *
+     * @param implementation    class of the BeanBagStore checked
+     * @throws Exception        if the file can't be loaded
+     */
+    private static void checkLoad(Class<? extends BeanBagStore> implementation) throws Exception {
+        BeanBagStore store = implementation.getDeclaredConstructor().newInstance();
+        store.loadStoreContents(BASELINE_FILE);
+        checkBaselineContents(store);
+        store.sellBeanBags(GIANT_RESERVATION);
+        store.unreserveBeanBags(COBANA_RESERVATION);
+        check(store.reservedBeanBagsInStock() == 0, implementation.getSimpleName() + ": reservations ended");
+        check(store.getNumberOfSoldBeanBags("000000ff") == 2, implementation.getSimpleName() + ": reservation sold");
+        check(store.getTotalPriceOfSoldBeanBags() == 11500 + 2 * 9900, implementation.getSimpleName() + ": price of reservation sold");
+    }
+
+    /**
+     * Method loads the baseline file into a new store of the given class,
+     * saves it again and checks that the saved file loads into another new
+     * store with the same contents.
+     *
+     * @param implementation    class of the BeanBagStore checked
+     * @throws Exception        if either file can't be loaded or saved
+     */
+    private static void checkRoundTrip(Class<? extends BeanBagStore> implementation) throws Exception {
+        BeanBagStore store = implementation.getDeclaredConstructor().newInstance();
+        store.loadStoreContents(BASELINE_FILE);
+        File saved = File.createTempFile("round-trip", ".ser");
+        try {
+            store.saveStoreContents(saved.getPath());
+            BeanBagStore reloaded = implementation.getDeclaredConstructor().newInstance();
+            reloaded.loadStoreContents(saved.getPath());
+            checkBaselineContents(reloaded);
+            reloaded.sellBeanBags(GIANT_RESERVATION);
+            check(reloaded.getNumberOfSoldBeanBags("000000ff") == 2, implementation.getSimpleName() + ": reservation sold after saving");
+        } finally {
+            saved.delete();
+        }
+    }
+
+    /**
+     * Method checks that loading a cut short copy of the baseline file throws
+     * an IOException and leaves the store as it was.
+     *
+     * @param implementation    class of the BeanBagStore checked
+     * @throws Exception        if the store can't be set up
+     */
+    private static void checkDamagedFile(Class<? extends BeanBagStore> implementation) throws Exception {
+        byte[] contents = Files.readAllBytes(new File(BASELINE_FILE).toPath());
+        File damaged = File.createTempFile("damaged", ".ser");
+        try {
+            Files.write(damaged.toPath(), Arrays.copyOf(contents, contents.length / 2));
+            BeanBagStore store = implementation.getDeclaredConstructor().newInstance();
+            store.addBeanBags(4, "Kone", "Corner", "00000001", (short) 2020, (byte) 6);
+            boolean isRejected = false;
+            try {
+                store.loadStoreContents(damaged.getPath());
+            } catch (IOException e) {
+                isRejected = true;
+            }
+            String name = implementation.getSimpleName();
+            check(isRejected, name + ": damaged file rejected");
+            check(store.getNumberOfDifferentBeanBagsInStock() == 1, name + ": different bean bags after damaged file");
+            check(store.beanBagsInStock("00000001") == 4, name + ": stock after damaged file");
+        } finally {
+            damaged.delete();
+        }
+    }
+
+    /**
+     * Runs every check, printing the name of each store that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkLoad(Store.class);
+        checkRoundTrip(Store.class);
+        checkDamagedFile(Store.class);
+        System.out.println("Store loads the baseline file");
+        checkLoad(ConcurrentStore.class);
+        checkRoundTrip(ConcurrentStore.class);
+        checkDamagedFile(ConcurrentStore.class);
+        System.out.println("ConcurrentStore loads the baseline file");
+    }
+}
@@ -0,0 +1,181 @@
+package beanbags;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * ReservationTimerTest checks that a {@link ReservationTimer} hands out every
+ * reservation once, no earlier than its deadline and within a tick of it,
+ * whichever level of the wheel it waits in, that cancelled reservations are
+ * never handed out, and that a {@link Store} expires reservations made with a
+ * time to live, including after saving and loading them. Run it from the
+ * root of the repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.ReservationTimerTest
+ * </pre>
+ */
+public class ReservationTimerTest {
+    private static final long NOW = 1_700_000_000_000L; //start of the synthetic clock
+    private static final long TICK = 1000; //milliseconds in a tick, as used by Store
+    private static final long STORE_TICK_WAIT = 2100; //longest a Store reservation can wait after its deadline
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method schedules reservations due within each level of the wheel and
+     * beyond it, cancels every third, and advances the clock in uneven steps,
+     * checking each reservation left is handed out once and on time.
+     */
+    private static void checkExpiryAndCancellation() {
+        ReservationTimer timer = new ReservationTimer(TICK);
+        Random random = new Random(1);
+        int reservations = 20000;
+        long[] deadlines = new long[reservations + 1];
+        int[] entries = new int[reservations + 1];
+        //spans of one tick, each level of 64 slots, and further than the wheel covers.
+        long[] spans = {TICK, 64 * TICK, 64 * 64 * TICK, 64 * 64 * 64 * TICK, 64L * 64 * 64 * 64 * TICK * 2};
+        long latest = NOW;
+        for (int r = 1; r <= reservations; r++) {
+            deadlines[r] = NOW + 1 + (long) (random.nextDouble() * spans[r % spans.length]);
+            entries[r] = timer.schedule(r, NOW, deadlines[r]);
+            latest = Math.max(latest, deadlines[r]);
+        }
+        for (int r = 3; r <= reservations; r += 3) {
+            timer.cancel(entries[r]);
+        }
+        boolean[] handedOut = new boolean[reservations + 1];
+        int count = 0;
+        long time = NOW;
+        while (time < latest + TICK) {
+            //stepping less than a tick near the start, and across many slots later on.
+            time += time - NOW < 200 * TICK ? 1 + random.nextInt((int) TICK) : 1 + (long) (random.nextDouble() * 500 * TICK);
+            for (int r : timer.expire(time)) {
+                check(r % 3 != 0, "cancelled reservation " + r + " handed out");
+                check(!handedOut[r], "reservation " + r + " handed out twice");
+                check(deadlines[r] <= time, "reservation " + r + " handed out early");
+                handedOut[r] = true;
+                count++;
+            }
+        }
+        check(count == reservations - reservations / 3, "every reservation left handed out, " + count);
+        check(timer.size() == 0, "wheel empty once every reservation is due");
+    }
+
+    /**
+     * Method checks that a reservation is handed out within a tick of its
+     * deadline when the clock is read every tick, whichever level it waits in.
+     */
+    private static void checkPunctuality() {
+        long[] delays = {1, TICK - 1, 63 * TICK + 1, 64 * TICK, 4095 * TICK + 7, 4096 * TICK, 300_000 * TICK, 17_000_000 * TICK};
+        for (long delay : delays) {
+            ReservationTimer timer = new ReservationTimer(TICK);
+            timer.schedule(7, NOW, NOW + delay);
+            long due = -1;
+            for (long time = NOW; due == -1; time += TICK) {
+                if (timer.expire(time).length == 1) {
+                    due = time;
+                }
+            }
+            check(due >= NOW + delay && due < NOW + delay + TICK, "reservation due after " + delay + " ms handed out at " + (due - NOW));
+        }
+    }
+
+    /**
+     * Method checks that a reservation number handed out again after its
+     * reservation was cancelled only expires at the later deadline, and that
+     * a jump of the clock hands out everything due in the order it fell due.
+     */
+    private static void checkReuseAndSkip() {
+        ReservationTimer timer = new ReservationTimer(TICK);
+        int entry = timer.schedule(5, NOW, NOW + 2 * TICK);
+        timer.cancel(entry);
+        timer.schedule(5, NOW, NOW + 10 * TICK);
+        check(timer.expire(NOW + 5 * TICK).length == 0, "cancelled deadline of a reused number ignored");
+        int[] due = timer.expire(NOW + 10 * TICK);
+        check(due.length == 1 && due[0] == 5, "reused number handed out at its own deadline");
+        timer.schedule(1, NOW + 10 * TICK, NOW + 200_000 * TICK);
+        timer.schedule(2, NOW + 10 * TICK, NOW + 20 * TICK);
+        timer.schedule(3, NOW + 10 * TICK, NOW + 5000 * TICK);
+        due = timer.expire(NOW + 1_000_000 * TICK);
+        check(due.length == 3 && due[0] == 2 && due[1] == 3 && due[2] == 1, "jump hands out everything due in order");
+        //a deadline that already passed is handed out on the next tick.
+        timer.schedule(4, NOW + 1_000_000 * TICK, NOW);
+        due = timer.expire(NOW + 1_000_001 * TICK);
+        check(due.length == 1 && due[0] == 4, "past deadline handed out straight away");
+    }
+
+    /**
+     * Method checks that a Store expires reservations made with a time to
+     * live, but not those ended or made without one, and that a saved
+     * deadline still expires the loaded reservation.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkStoreExpiry() throws Exception {
+        Store store = new Store();
+        store.addBeanBags(10, "Kone", "Corner", "00000001", (short) 2020, (byte) 6);
+        store.setBeanBagPrice("00000001", 500);
+        int expiring = store.reserveBeanBags(3, "00000001", 1);
+        int unreserved = store.reserveBeanBags(2, "00000001", 1);
+        int sold = store.reserveBeanBags(1, "00000001", 1);
+        int lasting = store.reserveBeanBags(1, "00000001", 3_600_000);
+        int permanent = store.reserveBeanBags(1, "00000001");
+        store.unreserveBeanBags(unreserved);
+        store.sellBeanBags(sold);
+        File saved = File.createTempFile("expiry", ".snapshot");
+        try {
+            store.saveStoreContents(saved.getPath());
+            Store loaded = new Store();
+            loaded.loadStoreContents(saved.getPath());
+            Thread.sleep(STORE_TICK_WAIT);
+            for (Store checked : new Store[] {store, loaded}) {
+                check(checked.expireReservations() == 1, "only the reservation due expires");
+                check(checked.reservedBeanBagsInStock() == 2, "reservations not due kept");
+                check(checked.beanBagsInStock("00000001") == 9, "expired bean bags back in stock");
+                try {
+                    checked.unreserveBeanBags(expiring);
+                    check(false, "expired reservation ended");
+                } catch (ReservationNumberNotRecognisedException e) {
+                    //the reservation has expired.
+                }
+                checked.sellBeanBags(lasting);
+                checked.unreserveBeanBags(permanent);
+                check(checked.expireReservations() == 0, "nothing else expires");
+            }
+        } finally {
+            saved.delete();
+        }
+        try {
+            store.reserveBeanBags(1, "00000001", 0);
+            check(false, "time to live of 0 accepted");
+        } catch (IllegalArgumentException e) {
+            //a reservation must live for at least a millisecond.
+        }
+    }
+
+    /**
+     * Runs every check, printing the name of each that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkExpiryAndCancellation();
+        checkPunctuality();
+        checkReuseAndSkip();
+        System.out.println("ReservationTimer hands out reservations once and on time");
+        checkStoreExpiry();
+        System.out.println("Store expires reservations made with a time to live");
+    }
+}
@@ -0,0 +1,279 @@
+package beanbags;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ShardedStoreTest checks that a {@link ShardedStore} finds bean bags and
+ * reservations in the right shard after their IDs are replaced by IDs that
+ * hash to other shards, that its contents and routing survive saving and
+ * loading, and that its totals add up when many threads change it at once.
+ * Run it from the root of the repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.ShardedStoreTest
+ * </pre>
+ */
+public class ShardedStoreTest {
+    private static final int SHARDS = 4;
+    private static final int IDS = 100;
+    private static final int QUANTITY = 50; //bean bags of each id
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000; //operations of each thread
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method returns the ID of the given bean bag of a test store.
+     *
+     * @param i                 index of the bean bag
+     * @return                  ID of the bean bag
+     */
+    private static String idOf(int i) {
+        return String.format("%08x", i + 1);
+    }
+
+    /**
+     * Method returns the ID the given bean bag is moved to by replace.
+     *
+     * @param i                 index of the bean bag
+     * @return                  replacement ID of the bean bag
+     */
+    private static String replacementOf(int i) {
+        return String.format("%08x", 0x40000000 + i * 7919);
+    }
+
+    /**
+     * Method returns a store holding priced bean bags of every test ID, with
+     * one reservation of each.
+     *
+     * @param reservations      reservation numbers, filled by bean bag index
+     * @return                  new store
+     * @throws Exception        if the store rejects a change
+     */
+    private static ShardedStore fill(int[] reservations) throws Exception {
+        ShardedStore store = new ShardedStore(SHARDS);
+        for (int i = 0; i < IDS; i++) {
+            store.addBeanBags(QUANTITY, "Kone", "Bag " + i, idOf(i), (short) 2020, (byte) 1);
+            store.setBeanBagPrice(idOf(i), 100 + i);
+            reservations[i] = store.reserveBeanBags(1 + i % 3, idOf(i));
+        }
+        return store;
+    }
+
+    /**
+     * Method checks that reservation numbers are unique across shards, and
+     * that bean bags and their reservations are found after every ID is
+     * replaced by one hashing elsewhere, and again after being replaced back.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkReplace() throws Exception {
+        int[] reservations = new int[IDS];
+        ShardedStore store = fill(reservations);
+        Set<Integer> numbers = new HashSet<>();
+        for (int reservationNumber : reservations) {
+            check(numbers.add(reservationNumber), "reservation number " + reservationNumber + " handed out twice");
+        }
+        try {
+            store.replace(idOf(0), idOf(1));
+            check(false, "replacement ID in use accepted");
+        } catch (IllegalIDException e) {
+            //the replacement ID belongs to other bean bags, in whichever shard.
+        }
+        for (int i = 0; i < IDS; i++) {
+            store.replace(idOf(i), replacementOf(i));
+        }
+        for (int i = 0; i < IDS; i++) {
+            check(store.beanBagsInStock(replacementOf(i)) == QUANTITY, "stock found by replacement ID " + i);
+            try {
+                store.beanBagsInStock(idOf(i));
+                check(false, "old ID " + i + " still recognised");
+            } catch (BeanBagIDNotRecognisedException e) {
+                //the old ID was replaced.
+            }
+            //adding by the replacement ID goes to the same bean bags, in their shard.
+            store.addBeanBags(1, "Kone", "Bag " + i, replacementOf(i), (short) 2020, (byte) 1);
+            if (i % 2 == 0) {
+                store.sellBeanBags(reservations[i]);
+            } else {
+                store.unreserveBeanBags(reservations[i]);
+            }
+        }
+        check(store.getNumberOfDifferentBeanBagsInStock() == IDS, "no bean bags added by replacement IDs");
+        check(store.reservedBeanBagsInStock() == 0, "every reservation found after replacing");
+        long sold = 0;
+        long price = 0;
+        for (int i = 0; i < IDS; i += 2) {
+            check(store.getNumberOfSoldBeanBags(replacementOf(i)) == 1 + i % 3, "sale counted by replacement ID " + i);
+            sold += 1 + i % 3;
+            price += (1 + i % 3) * (100 + i);
+        }
+        check(store.getNumberOfSoldBeanBags() == sold && store.getTotalPriceOfSoldBeanBags() == price, "sales add up");
+        for (int i = 0; i < IDS; i++) {
+            store.replace(replacementOf(i), idOf(i));
+            check(store.beanBagsInStock(idOf(i)) == QUANTITY + 1 - (i % 2 == 0 ? 1 + i % 3 : 0), "stock found after replacing back " + i);
+        }
+    }
+
+    /**
+     * Method checks that a saved store loads with its stock, sales, open
+     * reservations and replaced IDs, that reservation numbers handed out
+     * after loading don't clash with the loaded ones, and that the contents
+     * can't be loaded with a different number of shards.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkSaveAndLoad() throws Exception {
+        int[] reservations = new int[IDS];
+        ShardedStore store = fill(reservations);
+        for (int i = 0; i < IDS; i += 3) {
+            store.replace(idOf(i), replacementOf(i));
+        }
+        store.sellBeanBags(reservations[1]);
+        store.sellBeanBags(2, idOf(2));
+        File saved = File.createTempFile("sharded", ".store");
+        try {
+            store.saveStoreContents(saved.getPath());
+            ShardedStore loaded = new ShardedStore(SHARDS);
+            loaded.loadStoreContents(saved.getPath());
+            check(loaded.beanBagsInStock() == store.beanBagsInStock() && loaded.reservedBeanBagsInStock() == store.reservedBeanBagsInStock()
+                    && loaded.getNumberOfSoldBeanBags() == store.getNumberOfSoldBeanBags()
+                    && loaded.getTotalPriceOfSoldBeanBags() == store.getTotalPriceOfSoldBeanBags()
+                    && loaded.getTotalPriceOfReservedBeanBags() == store.getTotalPriceOfReservedBeanBags(), "totals loaded");
+            Set<Integer> open = new HashSet<>();
+            for (int i = 0; i < IDS; i++) {
+                String id = i % 3 == 0 ? replacementOf(i) : idOf(i);
+                check(loaded.beanBagsInStock(id) == store.beanBagsInStock(id), "stock of " + id + " loaded");
+                check(loaded.getNumberOfSoldBeanBags(id) == store.getNumberOfSoldBeanBags(id), "sales of " + id + " loaded");
+                if (i != 1) {
+                    open.add(reservations[i]);
+                }
+            }
+            //reservations after loading go to new numbers, whichever shard hands them out.
+            List<Integer> later = new ArrayList<>();
+            for (int i = 0; i < IDS; i++) {
+                int reservationNumber = loaded.reserveBeanBags(1, i % 3 == 0 ? replacementOf(i) : idOf(i));
+                check(!open.contains(reservationNumber) && !later.contains(reservationNumber), "reservation number " + reservationNumber + " handed out twice");
+                later.add(reservationNumber);
+            }
+            for (int reservationNumber : open) {
+                loaded.sellBeanBags(reservationNumber);
+            }
+            for (int reservationNumber : later) {
+                loaded.unreserveBeanBags(reservationNumber);
+            }
+            check(loaded.reservedBeanBagsInStock() == 0, "loaded reservations found in their shards");
+            ShardedStore other = new ShardedStore(SHARDS - 1);
+            try {
+                other.loadStoreContents(saved.getPath());
+                check(false, "contents loaded with a different number of shards");
+            } catch (IOException e) {
+                //the bean bags would be in the wrong shards.
+            }
+        } finally {
+            saved.delete();
+            for (int i = 0; i < SHARDS; i++) {
+                new File(saved.getPath() + "." + i).delete();
+            }
+        }
+    }
+
+    /**
+     * Method checks that the totals of a store add up after many threads
+     * sell, reserve and replace IDs across shards at once.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkConcurrentTrading() throws Exception {
+        ShardedStore store = new ShardedStore(SHARDS);
+        for (int i = 0; i < IDS; i++) {
+            store.addBeanBags(QUANTITY * 100, "Kone", "Bag " + i, idOf(i), (short) 2020, (byte) 1);
+            store.setBeanBagPrice(idOf(i), 10);
+        }
+        AtomicLong sold = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            boolean replacing = t == 0;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int k = 0; k < OPERATIONS; k++) {
+                        int i = random.nextInt(IDS);
+                        try {
+                            if (replacing) {
+                                //moving an id away and back, so the other threads may not find it for a while.
+                                store.replace(idOf(i), replacementOf(i));
+                                store.replace(replacementOf(i), idOf(i));
+                            } else if (random.nextBoolean()) {
+                                store.sellBeanBags(1, idOf(i));
+                                sold.incrementAndGet();
+                            } else {
+                                int reservationNumber = store.reserveBeanBags(2, idOf(i));
+                                store.sellBeanBags(reservationNumber);
+                                sold.addAndGet(2);
+                            }
+                        } catch (BeanBagIDNotRecognisedException e) {
+                            //the id was moved by the replacing thread, which leaves the store unchanged.
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("thread failed", failures.get(0));
+        }
+        long stock = 0;
+        long soldOfIds = 0;
+        for (int i = 0; i < IDS; i++) {
+            stock += store.beanBagsInStock(idOf(i));
+            soldOfIds += store.getNumberOfSoldBeanBags(idOf(i));
+        }
+        check(store.getNumberOfSoldBeanBags() == sold.get() && soldOfIds == sold.get(), "sold " + soldOfIds + ", expected " + sold.get());
+        check(store.getTotalPriceOfSoldBeanBags() == sold.get() * 10, "price of sold bean bags");
+        check(store.beanBagsInStock() == stock && stock + sold.get() == (long) IDS * QUANTITY * 100, "no bean bags lost");
+        check(store.reservedBeanBagsInStock() == 0, "every reservation ended");
+    }
+
+    /**
+     * Runs every check, printing the name of each that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkReplace();
+        System.out.println("ShardedStore finds bean bags and reservations after replacing IDs across shards");
+        checkSaveAndLoad();
+        System.out.println("ShardedStore saves and loads its shards and routing");
+        checkConcurrentTrading();
+        System.out.println("ShardedStore keeps its totals under concurrent trading");
+    }
+}
@@ -0,0 +1,334 @@
+package beanbags;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * StoreJournalTest checks that the changes a {@link Store} or a
+ * {@link ConcurrentStore} journals are replayed when the journal is opened
+ * again, that a change cut short at the end of the journal is dropped
+ * without losing the changes before it, and that a checkpoint cuts the
+ * journal down to the changes made since its snapshot. Run it from the root
+ * of the repository, e.g.
+ * <pre>
+ * javac -d out src/beanbags/*.java test/beanbags/*.java
+ * java -cp out beanbags.StoreJournalTest
+ * </pre>
+ */
+public class StoreJournalTest {
+    private static final String[] IDS = {"0000000a", "000000ff", "12345678", "00abcdef"};
+    private static final int JOURNAL_HEADER_SIZE = 24;
+
+    /**
+     * A store that can journal its changes, as Store and ConcurrentStore
+     * don't share an interface for it.
+     */
+    private interface JournalledStore {
+        BeanBagStore store();
+
+        void openJournal(String snapshotFilename, String journalFilename) throws Exception;
+
+        void checkpoint() throws Exception;
+
+        void closeJournal() throws Exception;
+    }
+
+    /**
+     * Method throws an AssertionError if the condition doesn't hold.
+     *
+     * @param condition         condition checked
+     * @param message           description of the check
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Method returns a journalled store of the given class.
+     *
+     * @param implementation    Store or ConcurrentStore
+     * @return                  new empty store
+     */
+    private static JournalledStore create(Class<? extends BeanBagStore> implementation) {
+        if (implementation == Store.class) {
+            Store store = new Store();
+            return new JournalledStore() {
+                @Override
+                public BeanBagStore store() {
+                    return store;
+                }
+
+                @Override
+                public void openJournal(String snapshotFilename, String journalFilename) throws Exception {
+                    store.openJournal(snapshotFilename, journalFilename);
+                }
+
+                @Override
+                public void checkpoint() throws Exception {
+                    store.checkpoint();
+                }
+
+                @Override
+                public void closeJournal() throws Exception {
+                    store.closeJournal();
+                }
+            };
+        }
+        ConcurrentStore store = new ConcurrentStore();
+        return new JournalledStore() {
+            @Override
+            public BeanBagStore store() {
+                return store;
+            }
+
+            @Override
+            public void openJournal(String snapshotFilename, String journalFilename) throws Exception {
+                store.openJournal(snapshotFilename, journalFilename);
+            }
+
+            @Override
+            public void checkpoint() throws Exception {
+                store.checkpoint();
+            }
+
+            @Override
+            public void closeJournal() throws Exception {
+                store.closeJournal();
+            }
+        };
+    }
+
+    /**
+     * Method describes the contents of a store, so two stores can be compared.
+     *
+     * @param store             store described
+     * @return                  totals of the store and of every test ID
+     */
+    private static String describe(BeanBagStore store) {
+        StringBuilder description = new StringBuilder();
+        description.append(store.getNumberOfDifferentBeanBagsInStock()).append(' ').append(store.beanBagsInStock())
+                .append(' ').append(store.reservedBeanBagsInStock()).append(' ').append(store.getNumberOfSoldBeanBags())
+                .append(' ').append(store.getTotalPriceOfSoldBeanBags()).append(' ').append(store.getTotalPriceOfReservedBeanBags());
+        for (String id : new String[] {IDS[0], IDS[1], IDS[2], IDS[3], "0fedcba9"}) {
+            try {
+                description.append(' ').append(id).append('=').append(store.beanBagsInStock(id))
+                        .append('/').append(store.getNumberOfSoldBeanBags(id))
+                        .append('/').append(store.getTotalPriceOfSoldBeanBags(id));
+            } catch (BeanBagIDNotRecognisedException | IllegalIDException e) {
+                description.append(' ').append(id).append("=-");
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Method makes one of every kind of change to a store.
+     *
+     * @param store             store changed
+     * @return                  reservation number of a reservation left open
+     * @throws Exception        if the store rejects a change
+     */
+    private static int makeChanges(BeanBagStore store) throws Exception {
+        for (int i = 0; i < IDS.length; i++) {
+            store.addBeanBags(10 + i, "Kone", "Bag " + i, IDS[i], (short) 2020, (byte) (i + 1), "Details " + i);
+            store.setBeanBagPrice(IDS[i], 1000 + 100 * i);
+        }
+        store.sellBeanBags(3, IDS[0]);
+        int unreserved = store.reserveBeanBags(2, IDS[1]);
+        int sold = store.reserveBeanBags(1, IDS[1]);
+        int open = store.reserveBeanBags(4, IDS[2]);
+        store.unreserveBeanBags(unreserved);
+        store.setBeanBagPrice(IDS[1], 900);
+        store.sellBeanBags(sold);
+        store.resetSaleAndCostTracking();
+        store.sellBeanBags(2, IDS[3]);
+        store.replace(IDS[3], "0fedcba9");
+        store.addBeanBags(5, "Kone", "Bag 0", IDS[0], (short) 2020, (byte) 1);
+        return open;
+    }
+
+    /**
+     * Method checks that a journal replays to the same contents after the
+     * store is closed and opened again, including its open reservation.
+     *
+     * @param implementation    class of the store checked
+     * @throws Exception        if a check fails
+     */
+    private static void checkReplay(Class<? extends BeanBagStore> implementation) throws Exception {
+        String name = implementation.getSimpleName();
+        File snapshot = temporaryFile("replay", ".snapshot");
+        File journal = temporaryFile("replay", ".journal");
+        try {
+            JournalledStore store = create(implementation);
+            store.openJournal(snapshot.getPath(), journal.getPath());
+            int open = makeChanges(store.store());
+            String expected = describe(store.store());
+            store.closeJournal();
+            JournalledStore reopened = create(implementation);
+            reopened.openJournal(snapshot.getPath(), journal.getPath());
+            check(describe(reopened.store()).equals(expected), name + ": contents replayed");
+            int next = reopened.store().reserveBeanBags(1, IDS[0]);
+            check(next != open, name + ": reservation number not handed out twice");
+            reopened.store().sellBeanBags(open);
+            check(reopened.store().getNumberOfSoldBeanBags(IDS[2]) == 4, name + ": replayed reservation sold");
+            String changed = describe(reopened.store());
+            reopened.closeJournal();
+            //a Store opens the journal of either store.
+            Store other = new Store();
+            other.openJournal(snapshot.getPath(), journal.getPath());
+            other.closeJournal();
+            check(describe(other).equals(changed), name + ": changes after reopening replayed");
+        } finally {
+            snapshot.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Method checks that cutting bytes off the end of a journal drops only the
+     * last change, and that changes made after recovering are kept.
+     *
+     * @param implementation    class of the store checked
+     * @throws Exception        if a check fails
+     */
+    private static void checkTornTail(Class<? extends BeanBagStore> implementation) throws Exception {
+        String name = implementation.getSimpleName();
+        File snapshot = temporaryFile("torn", ".snapshot");
+        File journal = temporaryFile("torn", ".journal");
+        try {
+            JournalledStore store = create(implementation);
+            store.openJournal(snapshot.getPath(), journal.getPath());
+            makeChanges(store.store());
+            String beforeLast = describe(store.store());
+            long sizeBeforeLast = journal.length();
+            store.store().sellBeanBags(1, IDS[1]);
+            check(!describe(store.store()).equals(beforeLast), name + ": last change made");
+            store.closeJournal();
+            long sizeAfterLast = journal.length();
+            for (long cut = 1; cut < sizeAfterLast - sizeBeforeLast; cut++) {
+                try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+                    file.setLength(sizeAfterLast - cut);
+                }
+                JournalledStore recovered = create(implementation);
+                recovered.openJournal(snapshot.getPath(), journal.getPath());
+                check(describe(recovered.store()).equals(beforeLast), name + ": torn change dropped after cutting " + cut + " bytes");
+                recovered.closeJournal();
+                check(journal.length() == sizeBeforeLast, name + ": torn change cut off the file");
+                //putting the last change back, so the next cut starts from the same file.
+                recovered.openJournal(snapshot.getPath(), journal.getPath());
+                recovered.store().sellBeanBags(1, IDS[1]);
+                String afterRecovery = describe(recovered.store());
+                recovered.closeJournal();
+                JournalledStore reopened = create(implementation);
+                reopened.openJournal(snapshot.getPath(), journal.getPath());
+                check(describe(reopened.store()).equals(afterRecovery), name + ": change after recovering kept");
+                reopened.closeJournal();
+                sizeAfterLast = journal.length();
+            }
+        } finally {
+            snapshot.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Method checks that a checkpoint cuts the journal down to its header, and
+     * that changes made after it are replayed on top of its snapshot.
+     *
+     * @param implementation    class of the store checked
+     * @throws Exception        if a check fails
+     */
+    private static void checkCheckpoint(Class<? extends BeanBagStore> implementation) throws Exception {
+        String name = implementation.getSimpleName();
+        File snapshot = temporaryFile("checkpoint", ".snapshot");
+        File journal = temporaryFile("checkpoint", ".journal");
+        try {
+            JournalledStore store = create(implementation);
+            store.openJournal(snapshot.getPath(), journal.getPath());
+            makeChanges(store.store());
+            store.checkpoint();
+            check(journal.length() == JOURNAL_HEADER_SIZE, name + ": journal cut at the checkpoint");
+            store.store().sellBeanBags(2, IDS[1]);
+            store.store().replace("0fedcba9", IDS[3]);
+            String expected = describe(store.store());
+            store.closeJournal();
+            check(journal.length() > JOURNAL_HEADER_SIZE, name + ": changes after the checkpoint journalled");
+            JournalledStore reopened = create(implementation);
+            reopened.openJournal(snapshot.getPath(), journal.getPath());
+            check(describe(reopened.store()).equals(expected), name + ": snapshot and journal replayed");
+            reopened.closeJournal();
+        } finally {
+            snapshot.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Method checks that changes a Store makes while a checkpoint is written
+     * in the background are kept in the journal it cuts by copying.
+     *
+     * @throws Exception        if a check fails
+     */
+    private static void checkBackgroundCheckpoint() throws Exception {
+        File snapshot = temporaryFile("background", ".snapshot");
+        File journal = temporaryFile("background", ".journal");
+        try {
+            Store store = new Store();
+            store.openJournal(snapshot.getPath(), journal.getPath());
+            makeChanges(store);
+            String atCheckpoint = describe(store);
+            CompletableFuture<Void> durable = store.checkpointInBackground();
+            store.sellBeanBags(1, IDS[0]);
+            store.sellBeanBags(1, IDS[1]);
+            durable.get();
+            store.sellBeanBags(1, IDS[2]);
+            String expected = describe(store);
+            store.closeJournal();
+            Store fromSnapshot = new Store();
+            fromSnapshot.loadStoreContents(snapshot.getPath());
+            check(describe(fromSnapshot).equals(atCheckpoint), "Store: background snapshot holds the contents at the checkpoint");
+            Store reopened = new Store();
+            reopened.openJournal(snapshot.getPath(), journal.getPath());
+            check(describe(reopened).equals(expected), "Store: changes during the background checkpoint replayed");
+            reopened.closeJournal();
+        } finally {
+            snapshot.delete();
+            journal.delete();
+        }
+    }
+
+    /**
+     * Method returns the location of a temporary file that doesn't exist yet.
+     *
+     * @param prefix            start of the file name
+     * @param suffix            end of the file name
+     * @return                  location of the file
+     * @throws Exception        if the temporary directory can't be written
+     */
+    private static File temporaryFile(String prefix, String suffix) throws Exception {
+        File file = File.createTempFile(prefix, suffix);
+        file.delete();
+        return file;
+    }
+
+    /**
+     * Runs every check, printing the name of each store that passes.
+     *
+     * @param args              unused
+     * @throws Exception        if a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        checkReplay(Store.class);
+        checkTornTail(Store.class);
+        checkCheckpoint(Store.class);
+        checkBackgroundCheckpoint();
+        System.out.println("Store recovers from its journal");
+        checkReplay(ConcurrentStore.class);
+        checkTornTail(ConcurrentStore.class);
+        checkCheckpoint(ConcurrentStore.class);
+        System.out.println("ConcurrentStore recovers from its journal");
+    }
+}